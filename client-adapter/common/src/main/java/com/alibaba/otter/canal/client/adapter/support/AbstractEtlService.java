@@ -9,18 +9,37 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
+import java.math.BigInteger;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * 全量导入
+ *
+ * <pre>
+ * 1. 按配置的主键(etlPk)做keyset分页: pk > 上一页最后的主键 order by pk limit queryBatchSize
+ * 2. 数值主键按最小/最大值划分区间并行导入，线程空闲时拆分其它线程剩余的区间(见EtlRangeScheduler)
+ * 3. 未完成的区间定期写入断点文件，导入失败后再次执行相同的导入会从断点继续
+ * </pre>
+ */
 public abstract class AbstractEtlService {
 
     protected Logger      logger = LoggerFactory.getLogger(this.getClass());
     protected static final Logger errorLogger = LoggerFactory.getLogger("error");
 
+    private static final int             THREAD_COUNT        = Runtime.getRuntime().availableProcessors() * 2;
+    private static final long            CHECKPOINT_INTERVAL = 1000L;                                    // 断点保存间隔(ms)
+    private static final ExecutorService executor            = Util.newFixedThreadPool(THREAD_COUNT,
+        5000L,
+        new NamedThreadFactory("Full-thread-"));
+
     private String        type;
     private AdapterConfig config;
 
@@ -32,7 +51,7 @@ public abstract class AbstractEtlService {
     protected EtlResult importData(String sql, List<String> params) {
         EtlResult etlResult = new EtlResult();
         LongAdder impCount = new LongAdder();
-        List<String> errMsg = new ArrayList<>();
+        List<String> errMsg = Collections.synchronizedList(new ArrayList<>());
         if (config == null) {
             logger.warn("{} mapping config is null, etl go end ", type);
             etlResult.setErrorMessage(type + "mapping config is null, etl go end ");
@@ -42,123 +61,27 @@ public abstract class AbstractEtlService {
         long startTime = System.currentTimeMillis();
         try {
             DruidDataSource dataSource = DatasourceConfig.DATA_SOURCES.get(config.getDataSourceKey());
-            NamedThreadFactory namedThreadFactory = new NamedThreadFactory("Full-thread-");
-            int threadCount = Runtime.getRuntime().availableProcessors() * 2;
-            ExecutorService executor = Util.newFixedThreadPool(threadCount, 5000L, namedThreadFactory);
             List<String> tableNameList = config.getTableNameList();
+            if (tableNameList == null || tableNameList.isEmpty()) {
+                tableNameList = Collections.singletonList(null);
+            }
 
             logger.info("tableNames:{}", JSON.toJSONString(tableNameList));
-            for(String tableName : tableNameList) {
+            for (String tableName : tableNameList) {
                 String tempSql = sql;
-                logger.info("全量同步中 tableName：{}", tableName);
-                tempSql = tempSql.replace("placeholder", tableName);
+                if (tableName != null) {
+                    logger.info("全量同步中 tableName：{}", tableName);
+                    tempSql = tempSql.replace("placeholder", tableName);
+                }
                 List<Object> values = new ArrayList<>();
                 // 拼接条件
-                if(config.getMapping().getEtlCondition() != null && params != null) {
-                    String etlCondition = config.getMapping().getEtlCondition();
-                    for(String param : params) {
-                        etlCondition = etlCondition.replace("{}", "?");
-                        values.add(param);
-                    }
-
-                    tempSql += " " + etlCondition;
-                }
-                String startIdSql = tempSql + " order by id asc limit 1";
-                Long startId = (Long) Util.sqlRS(dataSource, startIdSql, values, rs -> {
-                    Long id = null;
-                    try {
-                        if(rs.next()) {
-                            id = rs.getLong("id");
-                        }
-                    } catch(Exception e) {
-                        errorLogger.error(e.getMessage(), e);
-                    }
-                    return id == null ? 0L : id - 1;
-                });
-                String endIdSql = tempSql + " order by id desc limit 1";
-                Long endId = (Long) Util.sqlRS(dataSource, endIdSql, values, rs -> {
-                    Long id = null;
-                    try {
-                        if(rs.next()) {
-                            id = rs.getLong("id");
-                        }
-                    } catch(Exception e) {
-                        errorLogger.error(e.getMessage(), e);
-                    }
-                    return id == null ? 0L : id;
-                });
-
-                long shard = (endId - startId) / threadCount;
-                long size = config.getQueryBatchSize();
-
-                String sqlFinal = tempSql + " order by id asc";
-                if(logger.isDebugEnabled()) {
-                    logger.debug("etl sql : {}", sqlFinal);
-                }
-                if(logger.isDebugEnabled()) {
-                    logger.debug("shard {} startId {} endId {} threadCount {}", shard, startId, endId, threadCount);
-                }
-
-                List<Future<Map>> futures = new ArrayList<>();
-
-
-                for(int i = 1; i <= threadCount; i++) {
-                    final Long from = startId + shard * (i - 1);
-                    final Long to;
-                    if(i == threadCount) {
-                        to = endId;
-                    } else {
-                        to = from + shard;
-                    }
-                    logger.info("全量数据批量导入开始 currentThread:{} fromId:{}, toId:{}", Thread.currentThread().getName(), from, to);
-                    final Long count = (to - from) > size ? size : (to - from);
-                    Future future = executor.submit(() -> {
-                        long fromId = from;
-                        long toId = fromId + count;
-
-                        List<Object> innerValues = new ArrayList();
-                        for(String value : params) {
-                            innerValues.add(value);
-                        }
-                        innerValues.remove(0);
-                        innerValues.remove(0);
-                        innerValues.add(0, toId);
-                        innerValues.add(0, fromId);
-                        while(to > fromId) {
-                            try {
-                                executeSqlImport(dataSource, sqlFinal, innerValues, config, impCount, errMsg);
-                            } catch(Exception e) {
-                                errorLogger.error(String.format("全量数据批量导入 异常 currentThread:%s fromId:%s, toId:%s, msg:%s", Thread.currentThread().getName(), fromId, toId, e.getMessage()), e);
-                                DateTime dateTime = new DateTime(System.currentTimeMillis());
-                                if("online".equals(config.getEnv())) {
-                                    Util.sendWarnMsg(String.format("time:%s 同步失败 fromId:%d toId:%d", dateTime.toString("yyyy-MM-dd HH:mm:dd"), fromId, toId));
-                                }
-                                try {
-                                    Thread.sleep(500L);
-                                } catch(InterruptedException ex) {
-
-                                }
-                            }
-                            fromId = toId;
-                            toId = fromId + count;
-                            if(toId > to) {
-                                toId = to;
-                            }
-                            innerValues.remove(0);
-                            innerValues.remove(0);
-                            innerValues.add(0, toId);
-                            innerValues.add(0, fromId);
-                        }
-                        logger.info("currentThread:{} 全量数据批量导入完成", Thread.currentThread().getName());
-                    });
-                    futures.add(future);
-                }
-
-                for(Future future : futures) {
-                    future.get();
+                if (config.getMapping().getEtlCondition() != null && params != null) {
+                    String etlCondition = config.getMapping().getEtlCondition().replace("{}", "?");
+                    values.addAll(params);
+                    tempSql = appendCondition(tempSql, etlCondition);
                 }
+                importTable(dataSource, tempSql, values, impCount, errMsg);
             }
-            executor.shutdown();
 
             logger.info("数据全量导入完成, 一共导入 {} 条数据, 耗时: {}", impCount.longValue(), System.currentTimeMillis() - startTime);
             etlResult.setResultMessage("导入" + type + " 数据：" + impCount.longValue() + " 条");
@@ -174,6 +97,221 @@ public abstract class AbstractEtlService {
         return etlResult;
     }
 
+    /**
+     * 导入单个表，存在匹配的断点时从断点继续
+     */
+    private void importTable(DataSource dataSource, String sql, List<Object> values, LongAdder impCount,
+                             List<String> errMsg) throws Exception {
+        String pk = config.getMapping().getEtlPk();
+        EtlCheckpoint checkpoint = new EtlCheckpoint(type,
+            config.getDataSourceKey() + "|" + sql + "|" + values + "|" + pk);
+        List<EtlRangeScheduler.Range> ranges = checkpoint.load();
+        if (ranges != null) {
+            logger.info("全量数据从断点继续导入 checkpoint:{}, ranges:{}", checkpoint.getFile(), ranges);
+        } else {
+            ranges = initRanges(dataSource, sql, values, pk);
+        }
+
+        EtlRangeScheduler scheduler = new EtlRangeScheduler(ranges, config.getQueryBatchSize());
+        AtomicLong lastSave = new AtomicLong(System.currentTimeMillis());
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            futures.add(executor.submit(() -> importRanges(scheduler,
+                dataSource,
+                sql,
+                values,
+                pk,
+                impCount,
+                errMsg,
+                () -> {
+                    long now = System.currentTimeMillis();
+                    long last = lastSave.get();
+                    if (now - last >= CHECKPOINT_INTERVAL && lastSave.compareAndSet(last, now)) {
+                        checkpoint.save(scheduler.snapshot());
+                    }
+                })));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        if (scheduler.hasFailed()) {
+            checkpoint.save(scheduler.snapshot());
+            logger.warn("全量数据导入未完成, 已保存断点 checkpoint:{}", checkpoint.getFile());
+        } else {
+            checkpoint.delete();
+        }
+    }
+
+    /**
+     * 数值主键按最小/最大值平均划分区间，其它类型的主键只能单线程顺序分页
+     */
+    private List<EtlRangeScheduler.Range> initRanges(DataSource dataSource, String sql, List<Object> values,
+                                                     String pk) {
+        Object startId = queryPk(dataSource, sql + " ORDER BY " + pk + " ASC LIMIT 1", values);
+        if (startId == null) {
+            return Collections.emptyList();
+        }
+        if (!isIntegral(startId)) {
+            return Collections.singletonList(new EtlRangeScheduler.Range(null, null));
+        }
+        Object endId = queryPk(dataSource, sql + " ORDER BY " + pk + " DESC LIMIT 1", values);
+        List<EtlRangeScheduler.Range> ranges = EtlRangeScheduler.split(((Number) startId).longValue(),
+            ((Number) endId).longValue(),
+            THREAD_COUNT);
+        if (logger.isDebugEnabled()) {
+            logger.debug("startId {} endId {} threadCount {} ranges {}", startId, endId, THREAD_COUNT, ranges);
+        }
+        return ranges;
+    }
+
+    private Object queryPk(DataSource dataSource, String sql, List<Object> values) {
+        return Util.sqlRS(dataSource, sql, values, rs -> {
+            try {
+                return rs.next() ? getPkValue(rs) : null;
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * 工作线程: 依次领取区间并按页导入，失败的区间保留在断点中
+     */
+    private void importRanges(EtlRangeScheduler scheduler, DataSource dataSource, String sql, List<Object> values,
+                              String pk, LongAdder impCount, List<String> errMsg, Runnable onPage) {
+        String pageCondition = (hasWhere(sql) ? " AND " : " WHERE ");
+        while (true) {
+            EtlRangeScheduler.Range range;
+            try {
+                range = scheduler.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (range == null) {
+                return;
+            }
+
+            logger.info("全量数据批量导入开始 currentThread:{} range:{}", Thread.currentThread().getName(), range);
+            try {
+                while (true) {
+                    List<Object> pageValues = new ArrayList<>(values);
+                    StringBuilder pageSql = new StringBuilder(sql);
+                    String separator = pageCondition;
+                    if (range.getCursor() != null) {
+                        pageSql.append(separator).append(pk).append(" > ?");
+                        pageValues.add(range.getCursor());
+                        separator = " AND ";
+                    }
+                    if (range.getEnd() != null) {
+                        pageSql.append(separator).append(pk).append(" <= ?");
+                        pageValues.add(range.getEnd());
+                    }
+                    pageSql.append(" ORDER BY ").append(pk).append(" ASC LIMIT ").append(config.getQueryBatchSize());
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("etl sql : {}, values : {}", pageSql, pageValues);
+                    }
+
+                    Object lastId = executeSqlImport(dataSource,
+                        pageSql.toString(),
+                        pageValues,
+                        config,
+                        impCount,
+                        errMsg);
+                    if (lastId == null) {
+                        break;
+                    }
+                    scheduler.advance(range, lastId);
+                    onPage.run();
+                }
+                scheduler.complete(range);
+                logger.info("currentThread:{} 全量数据批量导入完成", Thread.currentThread().getName());
+            } catch (Exception e) {
+                scheduler.fail(range);
+                errorLogger.error(String.format("全量数据批量导入 异常 currentThread:%s range:%s, msg:%s",
+                    Thread.currentThread().getName(),
+                    range,
+                    e.getMessage()), e);
+                errMsg.add(type + " 数据导入异常 range:" + range + " =>" + e.getMessage());
+                if ("online".equals(config.getEnv())) {
+                    DateTime dateTime = new DateTime(System.currentTimeMillis());
+                    Util.sendWarnMsg(String.format("time:%s 同步失败 range:%s",
+                        dateTime.toString("yyyy-MM-dd HH:mm:dd"),
+                        range));
+                }
+            }
+        }
+    }
+
+    /**
+     * sql最外层是否已有where条件
+     */
+    private static boolean hasWhere(String sql) {
+        String lower = sql.toLowerCase();
+        int depth = 0;
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (depth == 0 && lower.startsWith("where", i)
+                       && (i == 0 || !Character.isJavaIdentifierPart(lower.charAt(i - 1)))
+                       && (i + 5 == lower.length() || !Character.isJavaIdentifierPart(lower.charAt(i + 5)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 拼接etlCondition，条件整体加括号，避免其中的or与之后追加的主键分页条件混淆优先级
+     */
+    static String appendCondition(String sql, String etlCondition) {
+        String condition = etlCondition.trim();
+        String keyword = hasWhere(sql) ? " AND " : " WHERE ";
+        if (startsWithKeyword(condition, "where")) {
+            condition = condition.substring(5).trim();
+            keyword = " WHERE ";
+        } else if (startsWithKeyword(condition, "and")) {
+            condition = condition.substring(3).trim();
+            keyword = " AND ";
+        }
+        return sql + keyword + "(" + condition + ")";
+    }
+
+    private static boolean startsWithKeyword(String condition, String keyword) {
+        return condition.regionMatches(true, 0, keyword, 0, keyword.length())
+               && (condition.length() == keyword.length()
+                   || !Character.isJavaIdentifierPart(condition.charAt(keyword.length())));
+    }
+
+    private static boolean isIntegral(Object value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte
+               || value instanceof BigInteger;
+    }
+
+    /**
+     * 主键在结果集中的列名，默认为etlPk去掉表别名
+     */
+    protected String getPkLabel() {
+        String pk = config.getMapping().getEtlPk();
+        return Util.cleanColumn(pk.substring(pk.lastIndexOf('.') + 1));
+    }
+
+    /**
+     * 读取结果集当前行的主键值
+     */
+    protected Object getPkValue(ResultSet rs) throws SQLException {
+        return rs.getObject(getPkLabel());
+    }
+
+    /**
+     * 导入一页数据
+     *
+     * @return 本页最后一行的主键值(getPkValue)，没有数据时返回null；导入失败时抛出异常
+     */
     protected abstract Object executeSqlImport(DataSource ds, String sql, List<Object> values,
                                                 AdapterConfig config, LongAdder impCount,
                                                 List<String> errMsg);
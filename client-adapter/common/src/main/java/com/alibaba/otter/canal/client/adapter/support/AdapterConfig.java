@@ -12,6 +12,8 @@ public interface AdapterConfig {
 
     interface AdapterMapping {
         String getEtlCondition();
+
+        String getEtlPk();
     }
 
 }
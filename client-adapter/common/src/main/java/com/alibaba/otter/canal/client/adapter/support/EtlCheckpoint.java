@@ -0,0 +1,85 @@
+package com.alibaba.otter.canal.client.adapter.support;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+
+/**
+ * 全量导入的断点文件，记录未完成的主键区间
+ *
+ * <pre>
+ * 文件位于 conf/etl 目录，以导入的sql及参数作为key，key不一致的断点不会被使用
+ * </pre>
+ *
+ * @version 1.1.4
+ */
+public class EtlCheckpoint {
+
+    private static final Logger logger = LoggerFactory.getLogger(EtlCheckpoint.class);
+
+    private String              key;
+    private File                file;
+
+    public EtlCheckpoint(String type, String key){
+        this.key = key;
+        File dir = new File(Util.getConfDirPath(), "etl");
+        this.file = new File(dir, type.toLowerCase() + "-" + Integer.toHexString(key.hashCode()) + ".checkpoint");
+    }
+
+    /**
+     * 读取断点，不存在或与当前导入不匹配时返回null
+     */
+    public List<EtlRangeScheduler.Range> load() {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            JSONObject checkpoint = JSON.parseObject(new String(Files.readAllBytes(file.toPath()),
+                StandardCharsets.UTF_8));
+            if (!key.equals(checkpoint.getString("key"))) {
+                return null;
+            }
+            return checkpoint.getJSONArray("ranges").toJavaList(EtlRangeScheduler.Range.class);
+        } catch (Exception e) {
+            logger.warn("ignore broken etl checkpoint {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    public void save(List<EtlRangeScheduler.Range> ranges) {
+        JSONObject checkpoint = new JSONObject();
+        checkpoint.put("key", key);
+        checkpoint.put("ranges", ranges);
+        try {
+            File dir = file.getParentFile();
+            if (!dir.exists() && !dir.mkdirs()) {
+                throw new IOException("can not create dir " + dir);
+            }
+            // 先写临时文件再替换，避免中断时留下不完整的断点
+            File tmp = new File(dir, file.getName() + ".tmp");
+            Files.write(tmp.toPath(), JSON.toJSONString(checkpoint).getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.error("save etl checkpoint error: " + e.getMessage(), e);
+        }
+    }
+
+    public void delete() {
+        if (file.exists() && !file.delete()) {
+            logger.warn("can not delete etl checkpoint {}", file);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+}
@@ -0,0 +1,171 @@
+package com.alibaba.otter.canal.client.adapter.support;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 全量导入的主键区间调度
+ *
+ * <pre>
+ * 1. 每个区间为 (cursor, end]，按主键keyset分页推进cursor，end为空表示没有上界
+ * 2. 线程空闲且没有待处理区间时，请求剩余最大的运行中区间在下一页边界处拆出后半段，避免稀疏或倾斜的主键使线程闲置
+ * 3. 拆分只发生在页边界，已读取的页与拆出的区间不会重叠
+ * 4. 未完成(含失败)的区间可以通过snapshot保存，用于中断后续传
+ * </pre>
+ *
+ * @version 1.1.4
+ */
+public class EtlRangeScheduler {
+
+    private final long        minSplitSize;                    // 数值主键区间小于该宽度时不再拆分
+    private LinkedList<Range> pending = new LinkedList<>();
+    private Set<Range>        running = new LinkedHashSet<>();
+    private List<Range>       failed  = new ArrayList<>();
+
+    public EtlRangeScheduler(List<Range> ranges, long minSplitSize){
+        this.pending.addAll(ranges);
+        this.minSplitSize = minSplitSize;
+    }
+
+    /**
+     * 将 [start, end] 的数值主键平均划分为count个区间
+     */
+    public static List<Range> split(long start, long end, int count) {
+        List<Range> ranges = new ArrayList<>();
+        long cursor = start - 1;
+        long shard = Math.max((end - cursor) / count, 1);
+        while (cursor < end) {
+            long to = ranges.size() == count - 1 ? end : Math.min(cursor + shard, end);
+            ranges.add(new Range(cursor, to));
+            cursor = to;
+        }
+        return ranges;
+    }
+
+    /**
+     * 获取一个待处理的区间，没有时请求拆分运行中的区间并等待，全部处理完返回null
+     */
+    public synchronized Range take() throws InterruptedException {
+        while (true) {
+            Range range = pending.poll();
+            if (range != null) {
+                running.add(range);
+                return range;
+            }
+
+            boolean requested = false;
+            Range victim = null;
+            for (Range r : running) {
+                if (r.splitRequested) {
+                    requested = true;
+                } else if (r.splittable(minSplitSize)
+                           && (victim == null || r.remaining() > victim.remaining())) {
+                    victim = r;
+                }
+            }
+            if (victim != null) {
+                victim.splitRequested = true;
+            } else if (!requested) {
+                return null;
+            }
+            wait();
+        }
+    }
+
+    /**
+     * 一页处理完成后推进区间的cursor，并在页边界处理拆分请求
+     */
+    public synchronized void advance(Range range, Object cursor) {
+        range.cursor = cursor;
+        if (range.splitRequested) {
+            range.splitRequested = false;
+            if (range.splittable(minSplitSize)) {
+                long from = ((Number) range.cursor).longValue();
+                long mid = from + (range.end - from) / 2;
+                pending.add(new Range(mid, range.end));
+                range.end = mid;
+            }
+            notifyAll();
+        }
+    }
+
+    public synchronized void complete(Range range) {
+        running.remove(range);
+        notifyAll();
+    }
+
+    public synchronized void fail(Range range) {
+        running.remove(range);
+        range.splitRequested = false;
+        failed.add(range);
+        notifyAll();
+    }
+
+    /**
+     * 当前所有未完成的区间
+     */
+    public synchronized List<Range> snapshot() {
+        List<Range> ranges = new ArrayList<>(failed.size() + running.size() + pending.size());
+        for (Range range : failed) {
+            ranges.add(new Range(range.cursor, range.end));
+        }
+        for (Range range : running) {
+            ranges.add(new Range(range.cursor, range.end));
+        }
+        for (Range range : pending) {
+            ranges.add(new Range(range.cursor, range.end));
+        }
+        return ranges;
+    }
+
+    public synchronized boolean hasFailed() {
+        return !failed.isEmpty();
+    }
+
+    public static class Range {
+
+        private Object  cursor;         // 已处理的最大主键，为空表示从头开始
+        private Long    end;            // 区间上界(含)，为空表示没有上界
+        private boolean splitRequested;
+
+        public Range(){
+        }
+
+        public Range(Object cursor, Long end){
+            this.cursor = cursor;
+            this.end = end;
+        }
+
+        public Object getCursor() {
+            return cursor;
+        }
+
+        public void setCursor(Object cursor) {
+            this.cursor = cursor;
+        }
+
+        public Long getEnd() {
+            return end;
+        }
+
+        public void setEnd(Long end) {
+            this.end = end;
+        }
+
+        private long remaining() {
+            return end - ((Number) cursor).longValue();
+        }
+
+        private boolean splittable(long minSplitSize) {
+            return end != null && cursor instanceof Number && remaining() >= minSplitSize * 2;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + cursor + ", " + (end == null ? "MAX" : end) + "]";
+        }
+    }
+}
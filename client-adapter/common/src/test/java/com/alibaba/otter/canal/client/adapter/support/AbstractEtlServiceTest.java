@@ -0,0 +1,20 @@
+package com.alibaba.otter.canal.client.adapter.support;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AbstractEtlServiceTest {
+
+    @Test
+    public void testAppendCondition() {
+        // etlCondition整体加括号，其中的or不会与之后追加的主键分页条件混淆
+        Assert.assertEquals("select * from user WHERE (c_time>=? or type=?)",
+            AbstractEtlService.appendCondition("select * from user", "where c_time>=? or type=?"));
+        Assert.assertEquals("select * from user a where a.id>0 AND (a.c_time>=?)",
+            AbstractEtlService.appendCondition("select * from user a where a.id>0", " and a.c_time>=?"));
+        Assert.assertEquals("select * from user a where a.id>0 AND (a.c_time>=?)",
+            AbstractEtlService.appendCondition("select * from user a where a.id>0", "a.c_time>=?"));
+        Assert.assertEquals("select * from user WHERE (where_flag=?)",
+            AbstractEtlService.appendCondition("select * from user", "where_flag=?"));
+    }
+}
@@ -0,0 +1,37 @@
+package com.alibaba.otter.canal.client.adapter.support;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EtlCheckpointTest {
+
+    @Test
+    public void testSaveAndLoad() {
+        String key = "defaultDS|select * from user|[]|id|" + System.nanoTime();
+        EtlCheckpoint checkpoint = new EtlCheckpoint("RDB", key);
+        try {
+            Assert.assertNull(checkpoint.load());
+
+            checkpoint.save(Arrays.asList(new EtlRangeScheduler.Range(100L, 550L),
+                new EtlRangeScheduler.Range(null, 1000L),
+                new EtlRangeScheduler.Range("abc", null)));
+            Assert.assertTrue(checkpoint.getFile().exists());
+
+            List<EtlRangeScheduler.Range> ranges = new EtlCheckpoint("RDB", key).load();
+            Assert.assertEquals(3, ranges.size());
+            Assert.assertEquals(100L, ((Number) ranges.get(0).getCursor()).longValue());
+            Assert.assertEquals(Long.valueOf(550L), ranges.get(0).getEnd());
+            Assert.assertNull(ranges.get(1).getCursor());
+            Assert.assertEquals(Long.valueOf(1000L), ranges.get(1).getEnd());
+            Assert.assertEquals("abc", ranges.get(2).getCursor());
+            Assert.assertNull(ranges.get(2).getEnd());
+        } finally {
+            checkpoint.delete();
+        }
+        Assert.assertFalse(checkpoint.getFile().exists());
+        Assert.assertNull(checkpoint.load());
+    }
+}
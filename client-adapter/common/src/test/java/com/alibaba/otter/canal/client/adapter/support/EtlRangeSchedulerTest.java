@@ -0,0 +1,117 @@
+package com.alibaba.otter.canal.client.adapter.support;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EtlRangeSchedulerTest {
+
+    @Test
+    public void testSplit() {
+        List<EtlRangeScheduler.Range> ranges = EtlRangeScheduler.split(1L, 100L, 4);
+        Assert.assertEquals("[(0, 25], (25, 50], (50, 75], (75, 100]]", ranges.toString());
+
+        // 区间数量多于主键数量时每个区间只包含一个主键
+        ranges = EtlRangeScheduler.split(1L, 3L, 8);
+        Assert.assertEquals("[(0, 1], (1, 2], (2, 3]]", ranges.toString());
+    }
+
+    @Test
+    public void testSplitAtPageBoundary() throws Exception {
+        EtlRangeScheduler scheduler = new EtlRangeScheduler(Collections.singletonList(new EtlRangeScheduler.Range(0L,
+            1000L)), 100L);
+        EtlRangeScheduler.Range range = scheduler.take();
+
+        // 空闲线程请求拆分，运行中的区间在下一页边界处拆出后半段
+        TakeThread idle = startTake(scheduler);
+        awaitWaiting(idle);
+        scheduler.advance(range, 100L);
+        idle.join(1000L);
+
+        Assert.assertEquals("(100, 550]", range.toString());
+        Assert.assertEquals("(550, 1000]", idle.result.get().toString());
+        Assert.assertEquals("[(100, 550], (550, 1000]]", scheduler.snapshot().toString());
+
+        scheduler.complete(range);
+        scheduler.complete(idle.result.get());
+        Assert.assertNull(scheduler.take());
+        Assert.assertTrue(scheduler.snapshot().isEmpty());
+    }
+
+    @Test
+    public void testUnsplittable() throws Exception {
+        // 剩余宽度小于2倍minSplitSize的区间不拆分，没有可拆分的区间时直接结束
+        EtlRangeScheduler scheduler = new EtlRangeScheduler(Collections.singletonList(new EtlRangeScheduler.Range(0L,
+            150L)), 100L);
+        EtlRangeScheduler.Range range = scheduler.take();
+        Assert.assertNull(scheduler.take());
+
+        // 没有上界的区间不拆分
+        scheduler = new EtlRangeScheduler(Collections.singletonList(new EtlRangeScheduler.Range(null, null)), 100L);
+        scheduler.take();
+        Assert.assertNull(scheduler.take());
+
+        // 请求拆分后区间推进到不足以拆分，等待的线程结束
+        scheduler = new EtlRangeScheduler(Collections.singletonList(new EtlRangeScheduler.Range(0L, 1000L)), 100L);
+        range = scheduler.take();
+        TakeThread idle = startTake(scheduler);
+        awaitWaiting(idle);
+        scheduler.advance(range, 850L);
+        idle.join(1000L);
+
+        Assert.assertFalse(idle.isAlive());
+        Assert.assertNull(idle.result.get());
+        Assert.assertEquals("[(850, 1000]]", scheduler.snapshot().toString());
+    }
+
+    @Test
+    public void testFail() throws Exception {
+        EtlRangeScheduler scheduler = new EtlRangeScheduler(EtlRangeScheduler.split(1L, 100L, 2), 100L);
+        EtlRangeScheduler.Range first = scheduler.take();
+        EtlRangeScheduler.Range second = scheduler.take();
+        scheduler.advance(first, 20L);
+        scheduler.fail(first);
+        scheduler.complete(second);
+
+        // 失败的区间保留在snapshot中，用于断点续传
+        Assert.assertNull(scheduler.take());
+        Assert.assertTrue(scheduler.hasFailed());
+        Assert.assertEquals("[(20, 50]]", scheduler.snapshot().toString());
+    }
+
+    private TakeThread startTake(EtlRangeScheduler scheduler) {
+        TakeThread thread = new TakeThread(scheduler);
+        thread.start();
+        return thread;
+    }
+
+    private void awaitWaiting(Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 1000L;
+        while (thread.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        Assert.assertEquals(Thread.State.WAITING, thread.getState());
+    }
+
+    private static class TakeThread extends Thread {
+
+        private final EtlRangeScheduler                        scheduler;
+        private final AtomicReference<EtlRangeScheduler.Range> result = new AtomicReference<>();
+
+        TakeThread(EtlRangeScheduler scheduler){
+            this.scheduler = scheduler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                result.set(scheduler.take());
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        }
+    }
+}
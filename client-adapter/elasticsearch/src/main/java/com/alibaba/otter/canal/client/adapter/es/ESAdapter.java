@@ -158,7 +158,7 @@ public class ESAdapter implements OuterAdapter {
                 esConnection = new ESConnection(hostArray, properties, ESConnection.ESClientMode.TRANSPORT);
             }
 
-            ESTemplate esTemplate = new ESTemplate(esConnection);
+            ESTemplate esTemplate = new ESTemplate(esConnection, properties);
             esSyncService = new ESSyncService(esTemplate);
 
 //            esConfigMonitor = new ESConfigMonitor();
@@ -145,6 +145,7 @@ public class ESSyncConfig implements AdapterConfig {
         private List<String>                 skips           = new ArrayList<>();
         private int                          commitBatch     = 1000;
         private String                       etlCondition;
+        private String                       etlPk           = "id";                 // etl分页的主键字段, 多表时带上表别名
         private boolean                      syncByTimestamp = false;                // 是否按时间戳定时同步
         private Long                         syncInterval;                           // 同步时间间隔
 
@@ -262,6 +263,14 @@ public class ESSyncConfig implements AdapterConfig {
             this.etlCondition = etlCondition;
         }
 
+        public String getEtlPk() {
+            return etlPk;
+        }
+
+        public void setEtlPk(String etlPk) {
+            this.etlPk = etlPk;
+        }
+
         public Long getSyncInterval() {
             return syncInterval;
         }
@@ -79,14 +79,16 @@ public class ESEtlService extends AbstractEtlService {
         ESSyncConfig esSyncConfig = (ESSyncConfig) config;
         ESMapping mapping = esSyncConfig.getEsMapping();
         return Util.sqlRS(ds, sql, values, rs -> {
-            Long lastId = null;
-            int count = 0;
+            Object firstId = null;
+            Object lastId = null;
             try {
                 ESBulkRequest esBulkRequest = this.esConnection.new ESBulkRequest();
                 long batchBegin = System.currentTimeMillis();
                 while (rs.next()) {
-                    lastId = rs.getLong("id");
-                    count += 1;
+                    lastId = getPkValue(rs);
+                    if (firstId == null) {
+                        firstId = lastId;
+                    }
                     Map<String, Object> esFieldData = new LinkedHashMap<>();
                     Object idVal = null;
                     Object routingVal = null;
@@ -211,7 +213,7 @@ public class ESEtlService extends AbstractEtlService {
                             (System.currentTimeMillis() - esBatchBegin),
                             esBulkRequest.numberOfActions(),
                             mapping.get_index(),
-                            values.get(0),
+                            firstId,
                             lastId);
                         batchBegin = System.currentTimeMillis();
                         esBulkRequest.resetBulk();
@@ -230,17 +232,28 @@ public class ESEtlService extends AbstractEtlService {
                         (System.currentTimeMillis() - esBatchBegin),
                         esBulkRequest.numberOfActions(),
                         mapping.get_index(),
-                        values.get(0),
+                        firstId,
                         lastId);
                 }
             } catch (Exception e) {
                 errorLogger.error(e.getMessage(), e);
-                errMsg.add(mapping.get_index() + " etl failed! ==>" + e.getMessage());
-                throw new RuntimeException(e);
+                throw new RuntimeException(mapping.get_index() + " etl failed! ==>" + e.getMessage(), e);
             }
-            Map result = new HashMap();
-            result.put("count", count);
-            return result;
+            return lastId;
         });
     }
+
+    /**
+     * etlPk对应select字段的别名
+     */
+    @Override
+    protected String getPkLabel() {
+        String etlPk = config.getEsMapping().getEtlPk();
+        for (FieldItem fieldItem : config.getEsMapping().getSchemaItem().getSelectFields().values()) {
+            if (etlPk.equalsIgnoreCase(fieldItem.getExpr())) {
+                return fieldItem.getFieldName();
+            }
+        }
+        return super.getPkLabel();
+    }
 }
@@ -37,6 +37,8 @@ public class ESSyncService {
     private static Logger logger = LoggerFactory.getLogger(ESSyncService.class);
     private static final Logger errorLogger = LoggerFactory.getLogger("error");
 
+    private static final int BACK_QUERY_SIZE = 500; // 批量反查时单条sql的最大行数
+
     private ESTemplate    esTemplate;
 
     @Value("${canal.conf.delayTime}")
@@ -151,6 +153,9 @@ public class ESSyncService {
             return;
         }
         SchemaItem schemaItem = config.getEsMapping().getSchemaItem();
+        List<Map<String, Object>> mainTableDataList = new ArrayList<>();
+        Map<List<Object>, RelationBatch> relationBatches = new LinkedHashMap<>();
+        JoinUpdates joinUpdates = new JoinUpdates();
         for (Map<String, Object> data : dataList) {
             if (data == null || data.isEmpty()) {
                 continue;
@@ -160,9 +165,9 @@ public class ESSyncService {
                 // ------单表 & 所有字段都为简单字段------
                 singleTableSimpleFiledInsert(config, dml, data);
             } else {
-                // ------是主表 查询sql来插入------
+                // ------是主表 查询sql来插入, 收集后批量反查------
                 if (schemaItem.getMainTable().getTableName().equalsIgnoreCase(dml.getTable())) {
-                    mainTableInsert(config, dml, data);
+                    mainTableDataList.add(data);
                 }
 
                 // 从表的操作
@@ -195,18 +200,24 @@ public class ESSyncService {
                                 esFieldData.put(Util.cleanColumn(fieldItem.getFieldName()), value);
                             }
 
-                            joinTableSimpleFieldOperation(config, dml, data, tableItem, esFieldData);
+                            joinTableSimpleFieldOperation(config, dml, data, tableItem, esFieldData, joinUpdates);
                         } else {
                             // ------关联子表简单字段插入------
-                            subTableSimpleFieldOperation(config, dml, data, null, tableItem);
+                            addRelationBatch(relationBatches, config, data, null, tableItem, false);
                         }
                     } else {
                         // ------关联子表复杂字段插入 执行全sql更新es------
-                        wholeSqlOperation(config, dml, data, null, tableItem);
+                        addRelationBatch(relationBatches, config, data, null, tableItem, true);
                     }
                 }
             }
         }
+
+        if (!mainTableDataList.isEmpty()) {
+            mainTableInsert(config, dml, mainTableDataList);
+        }
+        joinUpdates.execute(esTemplate, config);
+        relationBatchOperation(config, dml, relationBatches);
     }
 
     /**
@@ -222,9 +233,15 @@ public class ESSyncService {
             return;
         }
         SchemaItem schemaItem = config.getEsMapping().getSchemaItem();
+        // 需要反查主表的行按old中的字段分组, 同组的行可以合并为一次查询
+        Map<Set<String>, List<Map<String, Object>>> mainTableDataList = new LinkedHashMap<>();
+        Map<Set<String>, Map<String, Object>> mainTableOlds = new LinkedHashMap<>();
+        Map<List<Object>, RelationBatch> relationBatches = new LinkedHashMap<>();
+        JoinUpdates joinUpdates = new JoinUpdates();
         int i = 0;
         for (Map<String, Object> data : dataList) {
-            Map<String, Object> old = oldList.get(i);
+            // dml在适配器组间共享，外键变更时需要修改old，复制一份
+            Map<String, Object> old = oldList.get(i) == null ? null : new LinkedHashMap<>(oldList.get(i));
             if (data == null || data.isEmpty() || old == null || old.isEmpty()) {
                 continue;
             }
@@ -300,7 +317,9 @@ public class ESSyncService {
                     if (idFieldSimple && allUpdateFieldSimple && !fkChanged) {
                         singleTableSimpleFiledUpdate(config, dml, data, old);
                     } else {
-                        mainTableUpdate(config, dml, data, old);
+                        Set<String> oldColumns = new HashSet<>(old.keySet());
+                        mainTableDataList.computeIfAbsent(oldColumns, k -> new ArrayList<>()).add(data);
+                        mainTableOlds.putIfAbsent(oldColumns, old);
                     }
                 }
 
@@ -337,20 +356,25 @@ public class ESSyncService {
                                     esFieldData.put(Util.cleanColumn(fieldItem.getFieldName()), value);
                                 }
                             }
-                            joinTableSimpleFieldOperation(config, dml, data, tableItem, esFieldData);
+                            joinTableSimpleFieldOperation(config, dml, data, tableItem, esFieldData, joinUpdates);
                         } else {
                             // ------关联子表简单字段更新------
-                            subTableSimpleFieldOperation(config, dml, data, old, tableItem);
+                            addRelationBatch(relationBatches, config, data, old, tableItem, false);
                         }
                     } else {
                         // ------关联子表复杂字段更新 执行全sql更新es------
-                        wholeSqlOperation(config, dml, data, old, tableItem);
+                        addRelationBatch(relationBatches, config, data, old, tableItem, true);
                     }
                 }
             }
 
             i++;
         }
+
+        mainTableDataList.forEach(
+            (oldColumns, mainTableData) -> mainTableUpdate(config, dml, mainTableData, mainTableOlds.get(oldColumns)));
+        joinUpdates.execute(esTemplate, config);
+        relationBatchOperation(config, dml, relationBatches);
     }
 
     /**
@@ -365,7 +389,9 @@ public class ESSyncService {
             return;
         }
         SchemaItem schemaItem = config.getEsMapping().getSchemaItem();
-
+        List<Map<String, Object>> mainTableDataList = new ArrayList<>();
+        Map<List<Object>, RelationBatch> relationBatches = new LinkedHashMap<>();
+        JoinUpdates joinUpdates = new JoinUpdates();
         for (Map<String, Object> data : dataList) {
             if (data == null || data.isEmpty()) {
                 continue;
@@ -397,7 +423,7 @@ public class ESSyncService {
                     } else {
                         // ------主键带函数, 查询sql获取主键删除------
                         // FIXME 删除时反查sql为空记录, 无法获获取 id field 值
-                        mainTableDelete(config, dml, data);
+                        mainTableDataList.add(data);
                     }
                 } else {
                     FieldItem pkFieldItem = schemaItem.getIdFieldItem(mapping);
@@ -417,7 +443,7 @@ public class ESSyncService {
                         esTemplate.delete(mapping, pkVal, esFieldData);
                     } else {
                         // ------主键带函数, 查询sql获取主键删除------
-                        mainTableDelete(config, dml, data);
+                        mainTableDataList.add(data);
                     }
                 }
 
@@ -450,17 +476,23 @@ public class ESSyncService {
                         for (FieldItem fieldItem : tableItem.getRelationSelectFieldItems()) {
                             esFieldData.put(Util.cleanColumn(fieldItem.getFieldName()), null);
                         }
-                        joinTableSimpleFieldOperation(config, dml, data, tableItem, esFieldData);
+                        joinTableSimpleFieldOperation(config, dml, data, tableItem, esFieldData, joinUpdates);
                     } else {
                         // ------关联子表简单字段更新------
-                        subTableSimpleFieldOperation(config, dml, data, null, tableItem);
+                        addRelationBatch(relationBatches, config, data, null, tableItem, false);
                     }
                 } else {
                     // ------关联子表复杂字段更新 执行全sql更新es------
-                    wholeSqlOperation(config, dml, data, null, tableItem);
+                    addRelationBatch(relationBatches, config, data, null, tableItem, true);
                 }
             }
         }
+
+        if (!mainTableDataList.isEmpty()) {
+            mainTableDelete(config, dml, mainTableDataList);
+        }
+        joinUpdates.execute(esTemplate, config);
+        relationBatchOperation(config, dml, relationBatches);
     }
 
     /**
@@ -486,18 +518,22 @@ public class ESSyncService {
     }
 
     /**
-     * 主表(单表)复杂字段insert
+     * 主表(单表)复杂字段insert, 按主键批量反查
      *
      * @param config es配置
      * @param dml dml信息
-     * @param data 单行dml数据
+     * @param dataList 多行dml数据
      */
-    private void mainTableInsert(ESSyncConfig config, Dml dml, Map<String, Object> data) {
+    private void mainTableInsert(ESSyncConfig config, Dml dml, List<Map<String, Object>> dataList) {
         ESMapping mapping = config.getEsMapping();
-        String sql = mapping.getSql();
-        String condition = ESSyncUtil.pkConditionSql(mapping, data);
-        sql = ESSyncUtil.appendCondition(sql, condition);
         DataSource ds = DatasourceConfig.DATA_SOURCES.get(config.getDataSourceKey());
+        for (String condition : ESSyncUtil.pkConditionSqls(mapping, dataList, BACK_QUERY_SIZE)) {
+            mainTableInsert(config, dml, ds, ESSyncUtil.appendCondition(mapping.getSql(), condition));
+        }
+    }
+
+    private void mainTableInsert(ESSyncConfig config, Dml dml, DataSource ds, String sql) {
+        ESMapping mapping = config.getEsMapping();
         if (logger.isTraceEnabled()) {
             logger.trace("Main table insert to es index by query sql, destination:{}, table: {}, index: {}, sql: {}",
                 config.getDestination(),
@@ -528,12 +564,48 @@ public class ESSyncService {
         });
     }
 
-    private void mainTableDelete(ESSyncConfig config, Dml dml, Map<String, Object> data) {
+    /**
+     * 主表(主键带函数)delete, 按主键批量反查获取主键删除
+     *
+     * @param config es配置
+     * @param dml dml信息
+     * @param dataList 多行dml数据
+     */
+    private void mainTableDelete(ESSyncConfig config, Dml dml, List<Map<String, Object>> dataList) {
         ESMapping mapping = config.getEsMapping();
-        String sql = mapping.getSql();
-        String condition = ESSyncUtil.pkConditionSql(mapping, data);
-        sql = ESSyncUtil.appendCondition(sql, condition);
         DataSource ds = DatasourceConfig.DATA_SOURCES.get(config.getDataSourceKey());
+        // 各行需要置空的字段可能不同(如$routing), 按字段分组
+        Map<Set<String>, List<Map<String, Object>>> groups = new LinkedHashMap<>();
+        Map<Set<String>, Map<String, Object>> groupFieldData = new LinkedHashMap<>();
+        for (Map<String, Object> data : dataList) {
+            Map<String, Object> esFieldData = null;
+            if (mapping.getPk() != null) {
+                esFieldData = new LinkedHashMap<>();
+                esTemplate.getESDataFromDmlData(mapping, data, esFieldData);
+                esFieldData.remove(mapping.getPk());
+                for (String key : esFieldData.keySet()) {
+                    esFieldData.put(Util.cleanColumn(key), null);
+                }
+            }
+            Set<String> fields = esFieldData == null ? Collections.emptySet() : new HashSet<>(esFieldData.keySet());
+            groups.computeIfAbsent(fields, k -> new ArrayList<>()).add(data);
+            groupFieldData.putIfAbsent(fields, esFieldData);
+        }
+
+        groups.forEach((fields, groupDataList) -> {
+            for (String condition : ESSyncUtil.pkConditionSqls(mapping, groupDataList, BACK_QUERY_SIZE)) {
+                mainTableDelete(config,
+                    dml,
+                    ds,
+                    ESSyncUtil.appendCondition(mapping.getSql(), condition),
+                    groupFieldData.get(fields));
+            }
+        });
+    }
+
+    private void mainTableDelete(ESSyncConfig config, Dml dml, DataSource ds, String sql,
+                                 Map<String, Object> esFieldData) {
+        ESMapping mapping = config.getEsMapping();
         if (logger.isTraceEnabled()) {
             logger.trace("Main table delete es index by query sql, destination:{}, table: {}, index: {}, sql: {}",
                 config.getDestination(),
@@ -543,15 +615,6 @@ public class ESSyncService {
         }
         Util.sqlRS(ds, sql, rs -> {
             try {
-                Map<String, Object> esFieldData = null;
-                if (mapping.getPk() != null) {
-                    esFieldData = new LinkedHashMap<>();
-                    esTemplate.getESDataFromDmlData(mapping, data, esFieldData);
-                    esFieldData.remove(mapping.getPk());
-                    for (String key : esFieldData.keySet()) {
-                        esFieldData.put(Util.cleanColumn(key), null);
-                    }
-                }
                 while (rs.next()) {
                     Object idVal = esTemplate.getIdValFromRS(mapping, rs);
 
@@ -573,15 +636,17 @@ public class ESSyncService {
     }
 
     /**
-     * 关联表主表简单字段operation
+     * 关联表主表简单字段operation, 收集到joinUpdates后批量回查
      *
      * @param config es配置
      * @param dml dml信息
      * @param data 单行dml数据
      * @param tableItem 当前表配置
+     * @param joinUpdates 收集的update by query
      */
     private void joinTableSimpleFieldOperation(ESSyncConfig config, Dml dml, Map<String, Object> data,
-                                               TableItem tableItem, Map<String, Object> esFieldData) {
+                                               TableItem tableItem, Map<String, Object> esFieldData,
+                                               JoinUpdates joinUpdates) {
         ESMapping mapping = config.getEsMapping();
 
         Map<String, Object> paramsTmp = new LinkedHashMap<>();
@@ -609,7 +674,7 @@ public class ESSyncService {
                 dml.getTable(),
                 mapping.get_index());
         }
-        esTemplate.updateByQuery(config, paramsTmp, esFieldData);
+        joinUpdates.add(paramsTmp, esFieldData);
     }
 
     /**
@@ -617,23 +682,16 @@ public class ESSyncService {
      *
      * @param config es配置
      * @param dml dml信息
-     * @param data 单行dml数据
-     * @param old 单行old数据
+     * @param condition 多行dml数据的关联条件
+     * @param routingVal 各行共同的routing
+     * @param old 各行共同的old字段
      * @param tableItem 当前表配置
      */
-    private void subTableSimpleFieldOperation(ESSyncConfig config, Dml dml, Map<String, Object> data,
+    private void subTableSimpleFieldOperation(ESSyncConfig config, Dml dml, String condition, Object routingVal,
                                               Map<String, Object> old, TableItem tableItem) {
         ESMapping mapping = config.getEsMapping();
         StringBuilder sql = new StringBuilder(
-            "SELECT * FROM (" + tableItem.getSubQuerySql() + ") " + tableItem.getAlias() + " WHERE ");
-
-        for (FieldItem fkFieldItem : tableItem.getRelationTableFields().keySet()) {
-            String columnName = fkFieldItem.getColumn().getColumnName();
-            Object value = esTemplate.getValFromData(mapping, data, fkFieldItem.getFieldName(), columnName);
-            ESSyncUtil.appendCondition(sql, value, tableItem.getAlias(), columnName);
-        }
-        int len = sql.length();
-        sql.delete(len - 5, len);
+            "SELECT * FROM (" + tableItem.getSubQuerySql() + ") " + tableItem.getAlias() + " WHERE " + condition);
         DataSource ds = DatasourceConfig.DATA_SOURCES.get(config.getDataSourceKey());
         if (logger.isTraceEnabled()) {
             logger.trace("Join table update es index by query sql, destination:{}, table: {}, index: {}, sql: {}",
@@ -642,20 +700,13 @@ public class ESSyncService {
                 mapping.get_index(),
                 sql.toString().replace("\n", " "));
         }
+        JoinUpdates joinUpdates = new JoinUpdates();
         Util.sqlRS(ds, sql.toString(), rs -> {
             try {
                 while (rs.next()) {
                     Map<String, Object> esFieldData = new LinkedHashMap<>();
-                    if (StringUtils.isNotEmpty(config.getEsMapping().getRouting())) {
-                        FieldItem routingFieldItem = tableItem.getSchemaItem().getSelectFields().get(config.getEsMapping().getRouting());
-                        Object routingVal;
-                        routingVal = esTemplate.getValFromData(config.getEsMapping(),
-                                data,
-                                routingFieldItem.getFieldName(),
-                                routingFieldItem.getFieldName());
-                        if (routingVal != null) {
-                            esFieldData.put("$routing", routingVal.toString());
-                        }
+                    if (routingVal != null) {
+                        esFieldData.put("$routing", routingVal.toString());
                     }
                     for (FieldItem fieldItem : tableItem.getRelationSelectFieldItems()) {
                         if (old != null) {
@@ -707,13 +758,14 @@ public class ESSyncService {
                             dml.getTable(),
                             mapping.get_index());
                     }
-                    esTemplate.updateByQuery(config, paramsTmp, esFieldData);
+                    joinUpdates.add(paramsTmp, esFieldData);
                 }
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
             return 0;
         });
+        joinUpdates.execute(esTemplate, config);
     }
 
     /**
@@ -721,10 +773,11 @@ public class ESSyncService {
      *
      * @param config es配置
      * @param dml dml信息
-     * @param data 单行dml数据
+     * @param condition 多行dml数据的关联条件
+     * @param old 各行共同的old字段
      * @param tableItem 当前表配置
      */
-    private void wholeSqlOperation(ESSyncConfig config, Dml dml, Map<String, Object> data, Map<String, Object> old,
+    private void wholeSqlOperation(ESSyncConfig config, Dml dml, String condition, Map<String, Object> old,
                                    TableItem tableItem) {
         ESMapping mapping = config.getEsMapping();
         //防止最后出现groupby 导致sql解析异常
@@ -737,15 +790,7 @@ public class ESSyncService {
             sqlGroupBy =  "GROUP BY "+ sqlSplit[1];
         }
 
-        StringBuilder sql = new StringBuilder(sqlNoWhere + " WHERE ");
-
-        for (FieldItem fkFieldItem : tableItem.getRelationTableFields().keySet()) {
-            String columnName = fkFieldItem.getColumn().getColumnName();
-            Object value = esTemplate.getValFromData(mapping, data, fkFieldItem.getFieldName(), columnName);
-            ESSyncUtil.appendCondition(sql, value, tableItem.getAlias(), columnName);
-        }
-        int len = sql.length();
-        sql.delete(len - 5, len);
+        StringBuilder sql = new StringBuilder(sqlNoWhere + " WHERE " + condition);
         sql.append(sqlGroupBy);
 
         DataSource ds = DatasourceConfig.DATA_SOURCES.get(config.getDataSourceKey());
@@ -756,6 +801,7 @@ public class ESSyncService {
                 mapping.get_index(),
                 sql.toString().replace("\n", " "));
         }
+        JoinUpdates joinUpdates = new JoinUpdates();
         Util.sqlRS(ds, sql.toString(), rs -> {
             try {
                 while (rs.next()) {
@@ -821,13 +867,70 @@ public class ESSyncService {
                             dml.getTable(),
                             mapping.get_index());
                     }
-                    esTemplate.updateByQuery(config, paramsTmp, esFieldData);
+                    joinUpdates.add(paramsTmp, esFieldData);
                 }
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
             return 0;
         });
+        joinUpdates.execute(esTemplate, config);
+    }
+
+    /**
+     * 收集从表的反查, 关联表、old中的字段及routing都相同的行合并为一次查询
+     */
+    private void addRelationBatch(Map<List<Object>, RelationBatch> relationBatches, ESSyncConfig config,
+                                  Map<String, Object> data, Map<String, Object> old, TableItem tableItem,
+                                  boolean wholeSql) {
+        Object routingVal = null;
+        ESMapping mapping = config.getEsMapping();
+        if (!wholeSql && StringUtils.isNotEmpty(mapping.getRouting())) {
+            FieldItem routingFieldItem = tableItem.getSchemaItem().getSelectFields().get(mapping.getRouting());
+            if (routingFieldItem != null) {
+                routingVal = esTemplate.getValFromData(mapping,
+                    data,
+                    routingFieldItem.getFieldName(),
+                    routingFieldItem.getFieldName());
+            }
+        }
+
+        List<Object> key = Arrays.asList(tableItem,
+            wholeSql,
+            old == null ? null : new HashSet<>(old.keySet()),
+            routingVal);
+        relationBatches.computeIfAbsent(key, k -> new RelationBatch(tableItem, wholeSql, old, k.get(3)))
+            .dataList.add(data);
+    }
+
+    /**
+     * 按BACK_QUERY_SIZE分批执行收集的从表反查
+     */
+    private void relationBatchOperation(ESSyncConfig config, Dml dml, Map<List<Object>, RelationBatch> relationBatches) {
+        ESMapping mapping = config.getEsMapping();
+        for (RelationBatch batch : relationBatches.values()) {
+            TableItem tableItem = batch.tableItem;
+            for (int i = 0; i < batch.dataList.size(); i += BACK_QUERY_SIZE) {
+                List<Map<String, Object>> rows = new ArrayList<>();
+                for (Map<String, Object> data : batch.dataList.subList(i,
+                    Math.min(i + BACK_QUERY_SIZE, batch.dataList.size()))) {
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    for (FieldItem fkFieldItem : tableItem.getRelationTableFields().keySet()) {
+                        String columnName = fkFieldItem.getColumn().getColumnName();
+                        row.put(columnName,
+                            esTemplate.getValFromData(mapping, data, fkFieldItem.getFieldName(), columnName));
+                    }
+                    rows.add(row);
+                }
+
+                String condition = ESSyncUtil.relationConditionSql(tableItem.getAlias(), rows);
+                if (batch.wholeSql) {
+                    wholeSqlOperation(config, dml, condition, batch.old, tableItem);
+                } else {
+                    subTableSimpleFieldOperation(config, dml, condition, batch.routingVal, batch.old, tableItem);
+                }
+            }
+        }
     }
 
     /**
@@ -857,18 +960,24 @@ public class ESSyncService {
     }
 
     /**
-     * 主表(单表)复杂字段update
+     * 主表(单表)复杂字段update, 按主键批量反查
      *
      * @param config es配置
      * @param dml dml信息
-     * @param data 单行dml数据
+     * @param dataList 多行dml数据
+     * @param old 各行共同的old字段
      */
-    private void mainTableUpdate(ESSyncConfig config, Dml dml, Map<String, Object> data, Map<String, Object> old) {
+    private void mainTableUpdate(ESSyncConfig config, Dml dml, List<Map<String, Object>> dataList,
+                                 Map<String, Object> old) {
         ESMapping mapping = config.getEsMapping();
-        String sql = mapping.getSql();
-        String condition = ESSyncUtil.pkConditionSql(mapping, data);
-        sql = ESSyncUtil.appendCondition(sql, condition);
         DataSource ds = DatasourceConfig.DATA_SOURCES.get(config.getDataSourceKey());
+        for (String condition : ESSyncUtil.pkConditionSqls(mapping, dataList, BACK_QUERY_SIZE)) {
+            mainTableUpdate(config, dml, ds, ESSyncUtil.appendCondition(mapping.getSql(), condition), old);
+        }
+    }
+
+    private void mainTableUpdate(ESSyncConfig config, Dml dml, DataSource ds, String sql, Map<String, Object> old) {
+        ESMapping mapping = config.getEsMapping();
         if (logger.isTraceEnabled()) {
             logger.trace("Main table update to es index by query sql, destination:{}, table: {}, index: {}, sql: {}",
                 config.getDestination(),
@@ -905,4 +1014,43 @@ public class ESSyncService {
     public void commit() {
         esTemplate.commit();
     }
+
+    /**
+     * 可以合并为一次反查的从表dml数据
+     */
+    private static class RelationBatch {
+
+        private final TableItem                 tableItem;
+        private final boolean                   wholeSql;
+        private final Map<String, Object>       old;
+        private final Object                    routingVal;
+        private final List<Map<String, Object>> dataList = new ArrayList<>();
+
+        RelationBatch(TableItem tableItem, boolean wholeSql, Map<String, Object> old, Object routingVal){
+            this.tableItem = tableItem;
+            this.wholeSql = wholeSql;
+            this.old = old;
+            this.routingVal = routingVal;
+        }
+    }
+
+    /**
+     * 收集的按关联字段update by query, 合并后批量回查
+     */
+    private static class JoinUpdates {
+
+        private final List<Map<String, Object>> paramsList      = new ArrayList<>();
+        private final List<Map<String, Object>> esFieldDataList = new ArrayList<>();
+
+        void add(Map<String, Object> params, Map<String, Object> esFieldData) {
+            paramsList.add(params);
+            esFieldDataList.add(esFieldData);
+        }
+
+        void execute(ESTemplate esTemplate, ESSyncConfig config) {
+            if (!paramsList.isEmpty()) {
+                esTemplate.updateByQuery(config, paramsList, esFieldDataList);
+            }
+        }
+    }
 }
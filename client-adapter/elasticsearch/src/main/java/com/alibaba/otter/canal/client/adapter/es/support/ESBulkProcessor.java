@@ -0,0 +1,234 @@
+package com.alibaba.otter.canal.client.adapter.es.support;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.rest.RestStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ES bulk异步提交
+ *
+ * <pre>
+ * 1. 最多同时发出concurrentRequests个bulk，超出时提交线程等待，形成背压
+ * 2. 与未完成的bulk包含相同文档的bulk需等待前者完成后再发出，保证同一文档的写入顺序
+ * 3. 被ES拒绝(429)的请求按指数退避重试，重试由提交线程在等待时发出，不额外创建线程
+ * 4. flush等待所有bulk完成并抛出期间的失败，作为批次提交的屏障
+ * </pre>
+ *
+ * @version 1.1.4
+ */
+public class ESBulkProcessor {
+
+    private static final Logger  logger      = LoggerFactory.getLogger(ESBulkProcessor.class);
+    private static final Logger  errorLogger = LoggerFactory.getLogger("error");
+
+    private ESConnection         esConnection;
+    private int                  concurrentRequests;                                   // 同时发出的最大bulk数
+    private int                  maxRetries;                                           // 429最大重试次数
+    private long                 backoffMillis;                                        // 首次重试的等待时间, 之后每次翻倍
+
+    private final Object         lock        = new Object();
+    private int                  inflight;                                             // 已发出未完成的bulk数(含等待重试)
+    private Map<String, Integer> inflightIds = new HashMap<>();                        // 未完成bulk中的文档
+    private LinkedList<Bulk>     retries     = new LinkedList<>();                     // 等待重试的bulk
+    private RuntimeException     failure;
+
+    public ESBulkProcessor(ESConnection esConnection, int concurrentRequests, int maxRetries, long backoffMillis){
+        this.esConnection = esConnection;
+        this.concurrentRequests = concurrentRequests;
+        this.maxRetries = maxRetries;
+        this.backoffMillis = backoffMillis;
+    }
+
+    /**
+     * 异步发出bulk，并发数已满或与未完成的bulk存在相同文档时等待
+     */
+    public void submit(BulkRequest request) {
+        if (request.numberOfActions() == 0) {
+            return;
+        }
+        Bulk bulk = new Bulk(request);
+        synchronized (lock) {
+            while (true) {
+                if (failure != null) {
+                    // 等待其余bulk完成后抛出失败
+                    flush();
+                }
+                sendRetries();
+                if (inflight < concurrentRequests && !conflict(bulk.ids)) {
+                    break;
+                }
+                await();
+            }
+
+            inflight++;
+            for (String id : bulk.ids) {
+                inflightIds.merge(id, 1, Integer::sum);
+            }
+        }
+        send(bulk);
+    }
+
+    /**
+     * 等待所有bulk完成，如有失败则抛出
+     */
+    public void flush() {
+        synchronized (lock) {
+            while (inflight > 0) {
+                sendRetries();
+                await();
+            }
+            if (failure != null) {
+                RuntimeException e = failure;
+                failure = null;
+                throw e;
+            }
+        }
+    }
+
+    private void send(Bulk bulk) {
+        esConnection.bulkAsync(bulk.request, new ActionListener<BulkResponse>() {
+
+            @Override
+            public void onResponse(BulkResponse response) {
+                complete(bulk, response, null);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                complete(bulk, null, e);
+            }
+        });
+    }
+
+    private void complete(Bulk bulk, BulkResponse response, Exception exception) {
+        BulkRequest retryRequest = null;
+        RuntimeException error = null;
+        if (exception != null) {
+            if (ExceptionsHelper.status(exception) == RestStatus.TOO_MANY_REQUESTS) {
+                retryRequest = bulk.request;
+            } else {
+                error = new RuntimeException("ES sync commit error", exception);
+            }
+        } else if (response.hasFailures()) {
+            List<DocWriteRequest<?>> requests = bulk.request.requests();
+            for (BulkItemResponse itemResponse : response.getItems()) {
+                if (!itemResponse.isFailed()) {
+                    continue;
+                }
+
+                RestStatus status = itemResponse.getFailure().getStatus();
+                if (status == RestStatus.TOO_MANY_REQUESTS) {
+                    if (retryRequest == null) {
+                        retryRequest = new BulkRequest();
+                    }
+                    retryRequest.add(requests.get(itemResponse.getItemId()));
+                } else if (status == RestStatus.NOT_FOUND) {
+                    errorLogger.error(itemResponse.getFailureMessage());
+                } else if (error == null) {
+                    error = new RuntimeException("ES sync commit error" + itemResponse.getFailureMessage());
+                }
+            }
+        }
+
+        synchronized (lock) {
+            if (retryRequest != null && error == null && bulk.retries < maxRetries) {
+                bulk.retries++;
+                bulk.request = retryRequest;
+                bulk.retryTime = System.currentTimeMillis() + (backoffMillis << (bulk.retries - 1));
+                if (logger.isDebugEnabled()) {
+                    logger.debug("ES bulk rejected, retry {} actions after {} ms",
+                        retryRequest.numberOfActions(),
+                        bulk.retryTime - System.currentTimeMillis());
+                }
+                retries.add(bulk);
+            } else {
+                if (error == null && retryRequest != null) {
+                    error = new RuntimeException("ES sync commit error, bulk rejected after " + maxRetries
+                                                 + " retries");
+                }
+                if (error != null && failure == null) {
+                    failure = error;
+                }
+                inflight--;
+                for (String id : bulk.ids) {
+                    inflightIds.computeIfPresent(id, (k, count) -> count > 1 ? count - 1 : null);
+                }
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * 发出到期的重试，调用时需持有lock
+     */
+    private void sendRetries() {
+        long now = System.currentTimeMillis();
+        List<Bulk> ready = new ArrayList<>();
+        for (Iterator<Bulk> it = retries.iterator(); it.hasNext();) {
+            Bulk bulk = it.next();
+            if (bulk.retryTime <= now) {
+                it.remove();
+                ready.add(bulk);
+            }
+        }
+        ready.forEach(this::send);
+    }
+
+    /**
+     * 等待bulk完成或下一个重试到期，调用时需持有lock
+     */
+    private void await() {
+        long timeout = 0;
+        for (Bulk bulk : retries) {
+            long delay = Math.max(bulk.retryTime - System.currentTimeMillis(), 1);
+            timeout = timeout == 0 ? delay : Math.min(timeout, delay);
+        }
+        try {
+            lock.wait(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private boolean conflict(List<String> ids) {
+        if (inflightIds.isEmpty()) {
+            return false;
+        }
+        for (String id : ids) {
+            if (inflightIds.containsKey(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Bulk {
+
+        private BulkRequest  request;
+        private List<String> ids;
+        private int          retries;
+        private long         retryTime;
+
+        private Bulk(BulkRequest request){
+            this.request = request;
+            this.ids = new ArrayList<>(request.numberOfActions());
+            for (DocWriteRequest<?> docWriteRequest : request.requests()) {
+                ids.add(docWriteRequest.index() + "/" + docWriteRequest.type() + "/" + docWriteRequest.id());
+            }
+        }
+    }
+}
@@ -11,6 +11,7 @@ import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.admin.indices.mapping.get.GetMappingsRequest;
 import org.elasticsearch.action.admin.indices.mapping.get.GetMappingsResponse;
 import org.elasticsearch.action.bulk.BulkRequest;
@@ -61,7 +62,12 @@ public class ESConnection {
         this.mode = mode;
         if (mode == ESClientMode.TRANSPORT) {
             Settings.Builder settingBuilder = Settings.builder();
-            properties.forEach(settingBuilder::put);
+            properties.forEach((key, value) -> {
+                // bulk.*为适配器自身的bulk提交参数, 不是client的配置
+                if (!key.startsWith("bulk.")) {
+                    settingBuilder.put(key, value);
+                }
+            });
             Settings settings = settingBuilder.build();
             transportClient = new PreBuiltTransportClient(settings);
             for (String host : hosts) {
@@ -104,6 +110,17 @@ public class ESConnection {
         }
     }
 
+    /**
+     * 异步执行bulk, 结果通过listener回调
+     */
+    public void bulkAsync(BulkRequest bulkRequest, ActionListener<BulkResponse> listener) {
+        if (mode == ESClientMode.TRANSPORT) {
+            transportClient.bulk(bulkRequest, listener);
+        } else {
+            restHighLevelClient.bulkAsync(bulkRequest, RequestOptions.DEFAULT, listener);
+        }
+    }
+
     public MappingMetaData getMapping(String index, String type) {
         MappingMetaData mappingMetaData = null;
         if (mode == ESClientMode.TRANSPORT) {
@@ -421,6 +438,18 @@ public class ESConnection {
             }
         }
 
+        public long estimatedSizeInBytes() {
+            return request().estimatedSizeInBytes();
+        }
+
+        public BulkRequest request() {
+            if (mode == ESClientMode.TRANSPORT) {
+                return bulkRequestBuilder.request();
+            } else {
+                return bulkRequest;
+            }
+        }
+
         public BulkResponse bulk() {
             if (mode == ESClientMode.TRANSPORT) {
                 return bulkRequestBuilder.execute().actionGet();
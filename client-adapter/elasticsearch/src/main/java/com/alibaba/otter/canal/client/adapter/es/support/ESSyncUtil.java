@@ -2,14 +2,18 @@ package com.alibaba.otter.canal.client.adapter.es.support;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
 import java.sql.Blob;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -256,21 +260,8 @@ public class ESSyncUtil {
      * @return
      */
     public static String pkConditionSql(ESMapping mapping, Map<String, Object> data) {
-        Set<ColumnItem> idColumns = new LinkedHashSet<>();
-        SchemaItem schemaItem = mapping.getSchemaItem();
-
-        TableItem mainTable = schemaItem.getMainTable();
-
-        for (ColumnItem idColumnItem : schemaItem.getIdFieldItem(mapping).getColumnItems()) {
-            if ((mainTable.getAlias() == null && idColumnItem.getOwner() == null)
-                || (mainTable.getAlias() != null && mainTable.getAlias().equals(idColumnItem.getOwner()))) {
-                idColumns.add(idColumnItem);
-            }
-        }
-
-        if (idColumns.isEmpty()) {
-            throw new RuntimeException("Not found primary key field in main table");
-        }
+        TableItem mainTable = mapping.getSchemaItem().getMainTable();
+        Set<ColumnItem> idColumns = mainTableIdColumns(mapping);
 
         // 拼接condition
         StringBuilder condition = new StringBuilder(" ");
@@ -292,6 +283,168 @@ public class ESSyncUtil {
         return condition.toString();
     }
 
+    /**
+     * 拼接多行的主键条件, 单主键使用IN, 联合主键使用OR连接各行条件
+     *
+     * @param mapping
+     * @param dataList
+     * @return
+     */
+    public static String pkConditionSql(ESMapping mapping, List<Map<String, Object>> dataList) {
+        TableItem mainTable = mapping.getSchemaItem().getMainTable();
+        Set<ColumnItem> idColumns = mainTableIdColumns(mapping);
+
+        StringBuilder condition = new StringBuilder(" ");
+        if (idColumns.size() == 1) {
+            ColumnItem idColumn = idColumns.iterator().next();
+            if (mainTable.getAlias() != null) condition.append(mainTable.getAlias()).append(".");
+            condition.append(idColumn.getColumnName()).append(" IN (");
+            for (Map<String, Object> data : dataList) {
+                Object idVal = data.get(idColumn.getColumnName());
+                if (idVal instanceof String) {
+                    condition.append("'").append(idVal).append("',");
+                } else {
+                    condition.append(idVal).append(",");
+                }
+            }
+            condition.setCharAt(condition.length() - 1, ')');
+        } else {
+            condition.append("(");
+            for (Map<String, Object> data : dataList) {
+                condition.append("(").append(pkConditionSql(mapping, data)).append(") OR ");
+            }
+            condition.delete(condition.length() - 4, condition.length()).append(")");
+        }
+        return condition.append(" ").toString();
+    }
+
+    /**
+     * 按batchSize行拆分后分别拼接主键条件, 每个条件对应一次反查
+     *
+     * @param mapping
+     * @param dataList
+     * @param batchSize 单个条件的最大行数
+     * @return
+     */
+    public static List<String> pkConditionSqls(ESMapping mapping, List<Map<String, Object>> dataList, int batchSize) {
+        List<String> conditions = new ArrayList<>();
+        for (int i = 0; i < dataList.size(); i += batchSize) {
+            conditions.add(pkConditionSql(mapping, dataList.subList(i, Math.min(i + batchSize, dataList.size()))));
+        }
+        return conditions;
+    }
+
+    /**
+     * 拼接多行的关联条件, 每行为关联字段名到值的映射, 相同的行只保留一个, 各行条件使用OR连接
+     *
+     * @param owner 关联表别名
+     * @param rows 各行关联字段的值
+     * @return
+     */
+    public static String relationConditionSql(String owner, List<Map<String, Object>> rows) {
+        Set<String> conditions = new LinkedHashSet<>();
+        for (Map<String, Object> row : rows) {
+            StringBuilder condition = new StringBuilder();
+            for (Map.Entry<String, Object> entry : row.entrySet()) {
+                appendCondition(condition, entry.getValue(), owner, entry.getKey());
+            }
+            int len = condition.length();
+            condition.delete(len - 5, len);
+            conditions.add(condition.toString().trim());
+        }
+
+        StringBuilder condition = new StringBuilder(" ");
+        if (conditions.size() == 1) {
+            condition.append(conditions.iterator().next());
+        } else {
+            condition.append("(");
+            for (String rowCondition : conditions) {
+                condition.append("(").append(rowCondition).append(") OR ");
+            }
+            condition.delete(condition.length() - 4, condition.length()).append(")");
+        }
+        return condition.append(" ").toString();
+    }
+
+    /**
+     * 拼接按关联字段批量回查的条件, 单字段使用IN, 多字段使用OR连接各组条件, 值以参数形式追加到values
+     *
+     * @param fieldNames 关联字段名
+     * @param keys 各组关联字段的值, 与fieldNames顺序一致
+     * @param values sql参数
+     * @return
+     */
+    public static String queryConditionSql(List<String> fieldNames, List<List<Object>> keys, List<Object> values) {
+        StringBuilder condition = new StringBuilder(" ");
+        if (fieldNames.size() == 1) {
+            condition.append("_v.").append(fieldNames.get(0)).append(" IN (");
+            for (List<Object> key : keys) {
+                condition.append("?,");
+                values.add(key.get(0));
+            }
+            condition.setCharAt(condition.length() - 1, ')');
+        } else {
+            condition.append("(");
+            for (List<Object> key : keys) {
+                condition.append("(");
+                for (int i = 0; i < fieldNames.size(); i++) {
+                    condition.append("_v.").append(fieldNames.get(i)).append("=? AND ");
+                    values.add(key.get(i));
+                }
+                condition.delete(condition.length() - 5, condition.length()).append(") OR ");
+            }
+            condition.delete(condition.length() - 4, condition.length()).append(")");
+        }
+        return condition.append(" ").toString();
+    }
+
+    /**
+     * 统一dml数据与回查结果中关联字段值的类型, 用于将回查结果匹配回对应的数据
+     *
+     * @param values 关联字段的值
+     * @return 存在null值时返回null
+     */
+    public static List<Object> queryKey(Collection<Object> values) {
+        List<Object> key = new ArrayList<>(values.size());
+        for (Object value : values) {
+            if (value == null) {
+                return null;
+            }
+            if (value instanceof Byte || value instanceof Short || value instanceof Integer || value instanceof Long
+                || value instanceof BigInteger) {
+                key.add(value.toString());
+            } else if (value instanceof BigDecimal) {
+                key.add(((BigDecimal) value).stripTrailingZeros().toPlainString());
+            } else if ((value instanceof Float || value instanceof Double)
+                       && !Double.isNaN(((Number) value).doubleValue())
+                       && !Double.isInfinite(((Number) value).doubleValue())) {
+                key.add(new BigDecimal(value.toString()).stripTrailingZeros().toPlainString());
+            } else {
+                key.add(value.toString());
+            }
+        }
+        return key;
+    }
+
+    private static Set<ColumnItem> mainTableIdColumns(ESMapping mapping) {
+        Set<ColumnItem> idColumns = new LinkedHashSet<>();
+        SchemaItem schemaItem = mapping.getSchemaItem();
+
+        TableItem mainTable = schemaItem.getMainTable();
+
+        for (ColumnItem idColumnItem : schemaItem.getIdFieldItem(mapping).getColumnItems()) {
+            if ((mainTable.getAlias() == null && idColumnItem.getOwner() == null)
+                || (mainTable.getAlias() != null && mainTable.getAlias().equals(idColumnItem.getOwner()))) {
+                idColumns.add(idColumnItem);
+            }
+        }
+
+        if (idColumns.isEmpty()) {
+            throw new RuntimeException("Not found primary key field in main table");
+        }
+        return idColumns;
+    }
+
     public static String appendCondition(String sql, String condition) {
         return sql + " WHERE " + condition + " ";
     }
@@ -10,13 +10,10 @@ import javax.sql.DataSource;
 
 import com.alibaba.fastjson.JSON;
 import org.apache.commons.lang.StringUtils;
-import org.elasticsearch.action.bulk.BulkItemResponse;
-import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.cluster.metadata.MappingMetaData;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
-import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.SearchHit;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
@@ -42,15 +39,43 @@ public class ESTemplate {
     private static final Logger logger = LoggerFactory.getLogger(ESTemplate.class);
     private static final Logger errorLogger = LoggerFactory.getLogger("error");
 
-    private static final int MAX_BATCH_SIZE = 1000;
+    private static final int BACK_QUERY_SIZE = 500; // 批量update by query时单条sql的最大条件数
 
     private ESConnection esConnection;
 
     private ESBulkRequest esBulkRequest;
 
+    private ESBulkProcessor bulkProcessor;
+
+    private int bulkActions = 1000;               // 单个bulk的最大请求数
+
+    private long bulkSize = 5 * 1024 * 1024;      // 单个bulk的最大字节数
+
     public ESTemplate(ESConnection esConnection) {
+        this(esConnection, Collections.emptyMap());
+    }
+
+    /**
+     * @param properties 适配器配置, 可选bulk.actions, bulk.size.mb, bulk.concurrent, bulk.retries
+     */
+    public ESTemplate(ESConnection esConnection, Map<String, String> properties) {
         this.esConnection = esConnection;
         this.esBulkRequest = this.esConnection.new ESBulkRequest();
+        if (StringUtils.isNotEmpty(properties.get("bulk.actions"))) {
+            bulkActions = Integer.parseInt(properties.get("bulk.actions"));
+        }
+        if (StringUtils.isNotEmpty(properties.get("bulk.size.mb"))) {
+            bulkSize = Long.parseLong(properties.get("bulk.size.mb")) * 1024 * 1024;
+        }
+        int concurrent = 2;
+        if (StringUtils.isNotEmpty(properties.get("bulk.concurrent"))) {
+            concurrent = Integer.parseInt(properties.get("bulk.concurrent"));
+        }
+        int retries = 3;
+        if (StringUtils.isNotEmpty(properties.get("bulk.retries"))) {
+            retries = Integer.parseInt(properties.get("bulk.retries"));
+        }
+        this.bulkProcessor = new ESBulkProcessor(esConnection, concurrent, retries, 100L);
     }
 
     public ESBulkRequest getBulk() {
@@ -225,6 +250,94 @@ public class ESTemplate {
         }
     }
 
+    /**
+     * 批量update by query, 关联字段相同的数据合并为IN/OR条件回查, 每条sql最多BACK_QUERY_SIZE组条件
+     * <p>
+     * 回查结果按关联字段的值匹配回对应的数据, 按数据的顺序写入bulk; 匹配不到结果(无数据、值为null或类型无法对齐)的数据再走单条的
+     * update by query, 保留原有的重试及告警
+     * <p>
+     * 回查结果不做缓存: 回查的目的是找出当前引用该关联值的文档, 关联字段或被引用的行可能刚被同一批dml修改, 缓存会漏掉或错更新文档
+     *
+     * @param config 配置对象
+     * @param paramsList 各条数据的sql查询条件
+     * @param esFieldDataList 各条数据的数据Map, 与paramsList一一对应
+     */
+    public void updateByQuery(ESSyncConfig config, List<Map<String, Object>> paramsList,
+                              List<Map<String, Object>> esFieldDataList) {
+        ESMapping mapping = config.getEsMapping();
+        DataSource ds = DatasourceConfig.DATA_SOURCES.get(config.getDataSourceKey());
+
+        // 按关联字段分组, 去掉重复的值
+        List<List<Object>> keys = new ArrayList<>(paramsList.size());
+        Map<List<String>, Map<List<Object>, List<Object>>> groups = new LinkedHashMap<>();
+        for (Map<String, Object> params : paramsList) {
+            List<Object> key = params.isEmpty() ? null : ESSyncUtil.queryKey(params.values());
+            keys.add(key);
+            if (key != null) {
+                groups.computeIfAbsent(new ArrayList<>(params.keySet()), k -> new LinkedHashMap<>())
+                    .putIfAbsent(key, new ArrayList<>(params.values()));
+            }
+        }
+
+        // 分批回查, 记录每组关联字段值对应的id及routing
+        Map<List<String>, Map<List<Object>, List<Object[]>>> groupRows = new HashMap<>();
+        groups.forEach((fieldNames, groupValues) -> {
+            Map<List<Object>, List<Object[]>> rows = new HashMap<>();
+            groupRows.put(fieldNames, rows);
+            List<List<Object>> valuesList = new ArrayList<>(groupValues.values());
+            for (int i = 0; i < valuesList.size(); i += BACK_QUERY_SIZE) {
+                List<Object> values = new ArrayList<>();
+                List<List<Object>> chunk = valuesList.subList(i, Math.min(i + BACK_QUERY_SIZE, valuesList.size()));
+                String sql = "SELECT * FROM (" + mapping.getSql() + ") _v WHERE "
+                             + ESSyncUtil.queryConditionSql(fieldNames, chunk, values);
+                Util.sqlRS(ds, sql, values, rs -> {
+                    try {
+                        while (rs.next()) {
+                            List<Object> rowValues = new ArrayList<>(fieldNames.size());
+                            for (String fieldName : fieldNames) {
+                                rowValues.add(rs.getObject(fieldName));
+                            }
+                            List<Object> key = ESSyncUtil.queryKey(rowValues);
+                            if (key == null) {
+                                continue;
+                            }
+                            Object routingVal = null;
+                            if (StringUtils.isNotEmpty(mapping.getRouting())) {
+                                routingVal = getValFromRS(mapping, rs, mapping.getRouting(), mapping.getRouting());
+                            }
+                            rows.computeIfAbsent(key, k -> new ArrayList<>())
+                                .add(new Object[] { getIdValFromRS(mapping, rs), routingVal });
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    return 0;
+                });
+            }
+        });
+
+        for (int i = 0; i < paramsList.size(); i++) {
+            Map<String, Object> params = paramsList.get(i);
+            if (params.isEmpty()) {
+                continue;
+            }
+            List<Object> key = keys.get(i);
+            List<Object[]> rows = key == null ? null : groupRows.get(new ArrayList<>(params.keySet())).get(key);
+            if (rows == null) {
+                updateByQuery(config, params, esFieldDataList.get(i));
+                continue;
+            }
+            for (Object[] row : rows) {
+                Map<String, Object> esFieldData = new LinkedHashMap<>(esFieldDataList.get(i));
+                if (row[1] != null) {
+                    esFieldData.put("$routing", row[1].toString());
+                }
+                append4Update(mapping, row[0], esFieldData);
+                commitBulk();
+            }
+        }
+    }
+
     /**
      * 通过主键删除数据
      *
@@ -270,38 +383,30 @@ public class ESTemplate {
     }
 
     /**
-     * 提交批次
+     * 提交批次, 发出剩余的请求并等待所有bulk完成
      */
     public void commit() {
-        if (getBulk().numberOfActions() > 0) {
-            try {
-                BulkResponse response = getBulk().bulk();
-                if (response.hasFailures()) {
-                    for (BulkItemResponse itemResponse : response.getItems()) {
-                        if (!itemResponse.isFailed()) {
-                            continue;
-                        }
-
-                        if (itemResponse.getFailure().getStatus() == RestStatus.NOT_FOUND) {
-                            errorLogger.error(itemResponse.getFailureMessage());
-                        } else {
-                            throw new RuntimeException("ES sync commit error" + itemResponse.getFailureMessage());
-                        }
-                    }
-                }
-            } finally {
-                resetBulkRequestBuilder();
-            }
-
+        try {
+            submitBulk();
+        } finally {
+            bulkProcessor.flush();
         }
     }
 
     /**
-     * 如果大于批量数则提交批次
+     * 如果大于批量数或字节数则异步提交当前bulk
      */
     private void commitBulk() {
-        if (getBulk().numberOfActions() >= MAX_BATCH_SIZE) {
-            commit();
+        if (getBulk().numberOfActions() >= bulkActions || getBulk().estimatedSizeInBytes() >= bulkSize) {
+            submitBulk();
+        }
+    }
+
+    private void submitBulk() {
+        if (getBulk().numberOfActions() > 0) {
+            ESBulkRequest bulk = esBulkRequest;
+            esBulkRequest = esConnection.new ESBulkRequest();
+            bulkProcessor.submit(bulk.request());
         }
     }
 
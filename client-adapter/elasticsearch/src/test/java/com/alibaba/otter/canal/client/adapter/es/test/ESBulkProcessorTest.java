@@ -0,0 +1,253 @@
+package com.alibaba.otter.canal.client.adapter.es.test;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.otter.canal.client.adapter.es.support.ESBulkProcessor;
+import com.alibaba.otter.canal.client.adapter.es.support.ESConnection;
+import com.alibaba.otter.canal.client.adapter.es.support.ESTemplate;
+
+public class ESBulkProcessorTest {
+
+    private static final long  WAIT = 2000L;
+
+    private FakeESConnection   esConnection;
+
+    @Before
+    public void setUp() throws UnknownHostException {
+        esConnection = new FakeESConnection();
+    }
+
+    @After
+    public void tearDown() {
+        esConnection.close();
+    }
+
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        ESBulkProcessor processor = new ESBulkProcessor(esConnection, 2, 0, 10L);
+        processor.submit(bulk("1"));
+        processor.submit(bulk("2"));
+
+        // 并发数已满，提交线程等待最早的bulk完成
+        CallThread submit = call(() -> processor.submit(bulk("3")));
+        awaitWaiting(submit);
+        Assert.assertEquals(2, esConnection.pendings.size());
+
+        esConnection.take().success();
+        submit.join(WAIT);
+        Assert.assertFalse(submit.isAlive());
+        Assert.assertNull(submit.error.get());
+
+        // 与未完成的bulk包含相同文档时同样等待
+        esConnection.take().success();
+        submit = call(() -> processor.submit(bulk("3")));
+        awaitWaiting(submit);
+        Pending third = esConnection.take();
+        Assert.assertEquals("3", third.request.requests().get(0).id());
+        third.success();
+        submit.join(WAIT);
+        Assert.assertFalse(submit.isAlive());
+
+        esConnection.take().success();
+        processor.flush();
+        Assert.assertTrue(esConnection.pendings.isEmpty());
+    }
+
+    @Test
+    public void testRetry() throws Exception {
+        ESBulkProcessor processor = new ESBulkProcessor(esConnection, 2, 2, 10L);
+        processor.submit(bulk("1", "2"));
+        CallThread flush = call(processor::flush);
+
+        // 整个bulk被拒绝时原样重试
+        Pending pending = esConnection.take();
+        pending.fail(new EsRejectedExecutionException("rejected"));
+        Pending retry = esConnection.take();
+        Assert.assertSame(pending.request, retry.request);
+
+        // 部分文档被拒绝时只重试被拒绝的文档
+        retry.respond(new BulkItemResponse(0, DocWriteRequest.OpType.DELETE, (BulkItemResponse.Failure) null),
+            new BulkItemResponse(1,
+                DocWriteRequest.OpType.DELETE,
+                new BulkItemResponse.Failure("test", "_doc", "2", new EsRejectedExecutionException("rejected"))));
+        retry = esConnection.take();
+        Assert.assertEquals(1, retry.request.numberOfActions());
+        Assert.assertEquals("2", retry.request.requests().get(0).id());
+        retry.success();
+
+        flush.join(WAIT);
+        Assert.assertFalse(flush.isAlive());
+        Assert.assertNull(flush.error.get());
+    }
+
+    @Test
+    public void testRetryExhausted() throws Exception {
+        ESBulkProcessor processor = new ESBulkProcessor(esConnection, 2, 2, 10L);
+        processor.submit(bulk("1"));
+        CallThread flush = call(processor::flush);
+
+        // 超过重试次数后放弃，flush抛出失败
+        for (int i = 0; i <= 2; i++) {
+            esConnection.take().fail(new EsRejectedExecutionException("rejected"));
+        }
+        flush.join(WAIT);
+        Assert.assertFalse(flush.isAlive());
+        Assert.assertTrue(flush.error.get().getMessage().contains("rejected after 2 retries"));
+        Assert.assertNull(esConnection.pendings.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testFlush() throws Exception {
+        ESBulkProcessor processor = new ESBulkProcessor(esConnection, 3, 0, 10L);
+        processor.submit(bulk("1"));
+        processor.submit(bulk("2"));
+        processor.submit(bulk("3"));
+        Pending first = esConnection.take();
+        Pending second = esConnection.take();
+        Pending third = esConnection.take();
+
+        // flush等待所有在途的bulk完成后再抛出期间的失败
+        CallThread flush = call(processor::flush);
+        second.fail(new IOException("io error"));
+        first.success();
+        awaitWaiting(flush);
+        third.success();
+        flush.join(WAIT);
+        Assert.assertFalse(flush.isAlive());
+        Assert.assertEquals("ES sync commit error", flush.error.get().getMessage());
+
+        // 失败只抛出一次
+        processor.flush();
+    }
+
+    @Test
+    public void testCommit() throws Exception {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("bulk.concurrent", "2");
+        ESTemplate esTemplate = new ESTemplate(esConnection, properties);
+        esTemplate.getBulk().add(esConnection.new ESDeleteRequest("test", "_doc", "1"));
+
+        // commit发出剩余的请求，等待完成并抛出失败
+        CallThread commit = call(esTemplate::commit);
+        Pending pending = esConnection.take();
+        Assert.assertEquals(1, pending.request.numberOfActions());
+        Assert.assertEquals(0, esTemplate.getBulk().numberOfActions());
+        pending.respond(new BulkItemResponse(0,
+            DocWriteRequest.OpType.DELETE,
+            new BulkItemResponse.Failure("test", "_doc", "1", new IllegalArgumentException("mapping error"))));
+        commit.join(WAIT);
+        Assert.assertFalse(commit.isAlive());
+        Assert.assertTrue(commit.error.get().getMessage().startsWith("ES sync commit error"));
+
+        // 没有剩余请求时直接返回
+        esTemplate.commit();
+        Assert.assertTrue(esConnection.pendings.isEmpty());
+    }
+
+    private static BulkRequest bulk(String... ids) {
+        BulkRequest request = new BulkRequest();
+        for (String id : ids) {
+            request.add(new DeleteRequest("test", "_doc", id));
+        }
+        return request;
+    }
+
+    private static CallThread call(Runnable runnable) {
+        CallThread thread = new CallThread(runnable);
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT;
+        while (thread.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        Assert.assertEquals(Thread.State.WAITING, thread.getState());
+    }
+
+    private static class CallThread extends Thread {
+
+        private final Runnable                          runnable;
+        private final AtomicReference<RuntimeException> error = new AtomicReference<>();
+
+        CallThread(Runnable runnable){
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            try {
+                runnable.run();
+            } catch (RuntimeException e) {
+                error.set(e);
+            }
+        }
+    }
+
+    /**
+     * 记录发出的bulk，由测试线程决定返回结果
+     */
+    private static class FakeESConnection extends ESConnection {
+
+        private final BlockingQueue<Pending> pendings = new LinkedBlockingQueue<>();
+
+        FakeESConnection() throws UnknownHostException{
+            super(new String[] { "127.0.0.1:9200" }, Collections.emptyMap(), ESClientMode.REST);
+        }
+
+        @Override
+        public void bulkAsync(BulkRequest bulkRequest, ActionListener<BulkResponse> listener) {
+            pendings.add(new Pending(bulkRequest, listener));
+        }
+
+        Pending take() throws InterruptedException {
+            Pending pending = pendings.poll(WAIT, TimeUnit.MILLISECONDS);
+            Assert.assertNotNull(pending);
+            return pending;
+        }
+    }
+
+    private static class Pending {
+
+        private final BulkRequest                  request;
+        private final ActionListener<BulkResponse> listener;
+
+        Pending(BulkRequest request, ActionListener<BulkResponse> listener){
+            this.request = request;
+            this.listener = listener;
+        }
+
+        void success() {
+            respond();
+        }
+
+        void respond(BulkItemResponse... items) {
+            listener.onResponse(new BulkResponse(items, 1L));
+        }
+
+        void fail(Exception e) {
+            listener.onFailure(e);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.alibaba.otter.canal.client.adapter.es.test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.alibaba.otter.canal.client.adapter.es.config.ESSyncConfig.ESMapping;
+import com.alibaba.otter.canal.client.adapter.es.config.SqlParser;
+import com.alibaba.otter.canal.client.adapter.es.support.ESSyncUtil;
+
+public class ESSyncUtilTest {
+
+    @Test
+    public void testPkConditionSql() {
+        ESMapping mapping = mapping("select a.id as _id, a.name, b.name as role_name from user a "
+                                    + "left join role b on b.id=a.role_id");
+        List<Map<String, Object>> dataList = Arrays.asList(row(1L, null), row(2L, null));
+        Assert.assertEquals(" a.id IN (1,2) ", ESSyncUtil.pkConditionSql(mapping, dataList));
+
+        mapping = mapping("select a.code as _id, a.name from user a");
+        dataList = new ArrayList<>();
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("code", "u1");
+        dataList.add(data);
+        Assert.assertEquals(" a.code IN ('u1') ", ESSyncUtil.pkConditionSql(mapping, dataList));
+    }
+
+    @Test
+    public void testCompositePkConditionSql() {
+        ESMapping mapping = mapping("select concat(a.id,a.type) as _id, a.name from user a");
+        List<Map<String, Object>> dataList = Arrays.asList(row(1L, "t1"), row(2L, "t2"));
+        Assert.assertEquals(" (( a.id=1 AND a.type='t1' ) OR ( a.id=2 AND a.type='t2' )) ",
+            ESSyncUtil.pkConditionSql(mapping, dataList));
+    }
+
+    @Test
+    public void testPkConditionSqls() {
+        ESMapping mapping = mapping("select a.id as _id, a.name from user a");
+        List<Map<String, Object>> dataList = new ArrayList<>();
+        for (long i = 1; i <= 5; i++) {
+            dataList.add(row(i, null));
+        }
+
+        Assert.assertEquals(Arrays.asList(" a.id IN (1,2) ", " a.id IN (3,4) ", " a.id IN (5) "),
+            ESSyncUtil.pkConditionSqls(mapping, dataList, 2));
+        Assert.assertEquals(Arrays.asList(" a.id IN (1,2,3,4,5) "), ESSyncUtil.pkConditionSqls(mapping, dataList, 5));
+        Assert.assertTrue(ESSyncUtil.pkConditionSqls(mapping, new ArrayList<>(), 2).isEmpty());
+    }
+
+    @Test
+    public void testRelationConditionSql() {
+        Map<String, Object> row1 = new LinkedHashMap<>();
+        row1.put("user_id", 1L);
+        row1.put("type", "t1");
+        Map<String, Object> row2 = new LinkedHashMap<>();
+        row2.put("user_id", 2L);
+        row2.put("type", "t1");
+
+        Assert.assertEquals(" c.user_id=1  AND c.type='t1' ",
+            ESSyncUtil.relationConditionSql("c", Arrays.asList(row1)));
+        // 相同的行只保留一个
+        Assert.assertEquals(" ((c.user_id=1  AND c.type='t1') OR (c.user_id=2  AND c.type='t1')) ",
+            ESSyncUtil.relationConditionSql("c", Arrays.asList(row1, row2, row1)));
+    }
+
+    @Test
+    public void testQueryConditionSql() {
+        List<Object> values = new ArrayList<>();
+        Assert.assertEquals(" _v.role_id IN (?,?) ",
+            ESSyncUtil.queryConditionSql(Arrays.asList("role_id"),
+                Arrays.asList(Arrays.<Object> asList(1L), Arrays.<Object> asList(2L)),
+                values));
+        Assert.assertEquals(Arrays.<Object> asList(1L, 2L), values);
+
+        values = new ArrayList<>();
+        Assert.assertEquals(" ((_v.role_id=? AND _v.type=?) OR (_v.role_id=? AND _v.type=?)) ",
+            ESSyncUtil.queryConditionSql(Arrays.asList("role_id", "type"),
+                Arrays.asList(Arrays.<Object> asList(1L, "t1"), Arrays.<Object> asList(2L, "t2")),
+                values));
+        Assert.assertEquals(Arrays.<Object> asList(1L, "t1", 2L, "t2"), values);
+    }
+
+    @Test
+    public void testQueryKey() {
+        // dml数据与回查结果的数值类型不同时仍能匹配
+        Assert.assertEquals(ESSyncUtil.queryKey(Arrays.<Object> asList(1L, "t1")),
+            ESSyncUtil.queryKey(Arrays.<Object> asList(1, "t1")));
+        Assert.assertEquals(ESSyncUtil.queryKey(Arrays.<Object> asList(new BigDecimal("1.50"))),
+            ESSyncUtil.queryKey(Arrays.<Object> asList(1.5d)));
+        Assert.assertNotEquals(ESSyncUtil.queryKey(Arrays.<Object> asList(1L, "t1")),
+            ESSyncUtil.queryKey(Arrays.<Object> asList(1L, "t2")));
+        // 含null的值无法回查匹配
+        Assert.assertNull(ESSyncUtil.queryKey(Arrays.<Object> asList(1L, null)));
+    }
+
+    private static ESMapping mapping(String sql) {
+        ESMapping mapping = new ESMapping();
+        mapping.set_id("_id");
+        mapping.setSql(sql);
+        mapping.setSchemaItem(SqlParser.parse(sql));
+        return mapping;
+    }
+
+    private static Map<String, Object> row(Long id, String type) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("id", id);
+        if (type != null) {
+            data.put("type", type);
+        }
+        return data;
+    }
+}
@@ -111,6 +111,7 @@ public class HbaseAdapter implements OuterAdapter {
         for (Dml dml : dmls) {
             sync(dml);
         }
+        hbaseSyncService.commit();
     }
 
     private void sync(Dml dml) {
@@ -1,5 +1,7 @@
 package com.alibaba.otter.canal.client.adapter.hbase.config;
 
+import com.alibaba.otter.canal.client.adapter.hbase.support.PhType;
+import com.alibaba.otter.canal.client.adapter.hbase.support.Type;
 import com.alibaba.otter.canal.client.adapter.support.AdapterConfig;
 
 import java.util.*;
@@ -120,6 +122,8 @@ public class MappingConfig implements AdapterConfig {
         private String  family;
         private String  qualifier;
         private String  type;
+        private Type    nativeType;    // 按type预先解析的类型, 避免每行数据按名称查找
+        private PhType  phType;
 
         public boolean isRowKey() {
             return isRowKey;
@@ -167,6 +171,22 @@ public class MappingConfig implements AdapterConfig {
 
         public void setType(String type) {
             this.type = type;
+            this.nativeType = null;
+            this.phType = null;
+        }
+
+        public Type getNativeType() {
+            if (nativeType == null) {
+                nativeType = Type.getType(type);
+            }
+            return nativeType;
+        }
+
+        public PhType getPhType() {
+            if (phType == null) {
+                phType = PhType.getType(type);
+            }
+            return phType;
         }
 
         @Override
@@ -208,10 +228,12 @@ public class MappingConfig implements AdapterConfig {
         private boolean                 uppercaseQualifier = true;                  // 是否转大写
         private boolean                 autoCreateTable    = false;                 // 同步时HBase中表不存在的情况下自动建表
         private String                  rowKey;                                     // 指定复合主键为rowKey
+        private String[]                rowKeyColumns;                              // 复合主键的字段列表
         private Map<String, String>     columns;                                    // 字段映射
         private List<String>            excludeColumns;                             // 不映射的字段
         private ColumnItem              rowKeyColumn;                               // rowKey字段
         private String                  etlCondition;                               // etl条件sql
+        private String                  etlPk              = "id";                  // etl分页的主键字段
 
         private Map<String, ColumnItem> columnItems        = new LinkedHashMap<>(); // 转换后的字段映射列表
         private Set<String>             families           = new LinkedHashSet<>(); // column family列表
@@ -284,6 +306,14 @@ public class MappingConfig implements AdapterConfig {
 
         public void setRowKey(String rowKey) {
             this.rowKey = rowKey;
+            this.rowKeyColumns = null;
+        }
+
+        public String[] getRowKeyColumns() {
+            if (rowKeyColumns == null && rowKey != null) {
+                rowKeyColumns = rowKey.trim().split(",");
+            }
+            return rowKeyColumns;
         }
 
         public String getEtlCondition() {
@@ -294,6 +324,14 @@ public class MappingConfig implements AdapterConfig {
             this.etlCondition = etlCondition;
         }
 
+        public String getEtlPk() {
+            return etlPk;
+        }
+
+        public void setEtlPk(String etlPk) {
+            this.etlPk = etlPk;
+        }
+
         public void setColumns(Map<String, String> columns) {
             this.columns = columns;
 
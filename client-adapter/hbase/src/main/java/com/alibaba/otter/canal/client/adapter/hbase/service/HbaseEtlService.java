@@ -97,17 +97,19 @@ public class HbaseEtlService extends AbstractEtlService {
                                        AdapterConfig config, LongAdder impCount, List<String> errMsg) {
         MappingConfig.HbaseMapping hbaseMapping = (MappingConfig.HbaseMapping) config.getMapping();
         try {
-            Util.sqlRS(ds, sql, values, rs -> {
+            return Util.sqlRS(ds, sql, values, rs -> {
                 int i = 1;
+                Object lastPk = null;
 
                 try {
                     boolean complete = false;
                     List<HRow> rows = new ArrayList<>();
                     String[] rowKeyColumns = null;
                     if (hbaseMapping.getRowKey() != null) {
-                        rowKeyColumns = hbaseMapping.getRowKey().trim().split(",");
+                        rowKeyColumns = hbaseMapping.getRowKeyColumns();
                     }
                     while (rs.next()) {
+                        lastPk = getPkValue(rs);
                         int cc = rs.getMetaData().getColumnCount();
                         int[] jdbcTypes = new int[cc];
                         Class<?>[] classes = new Class[cc];
@@ -206,7 +208,7 @@ public class HbaseEtlService extends AbstractEtlService {
                                             row.addCell(columnItem.getFamily(), columnItem.getQualifier(), valBytes);
                                         }
                                     } else if (MappingConfig.Mode.NATIVE == hbaseMapping.getMode()) {
-                                        Type type = Type.getType(columnItem.getType());
+                                        Type type = columnItem.getNativeType();
                                         if (columnItem.isRowKey()) {
                                             if (columnItem.getRowKeyLen() != null) {
                                                 String v = limitLenNum(columnItem.getRowKeyLen(), val);
@@ -220,7 +222,7 @@ public class HbaseEtlService extends AbstractEtlService {
                                                 TypeUtil.toBytes(val, type));
                                         }
                                     } else if (MappingConfig.Mode.PHOENIX == hbaseMapping.getMode()) {
-                                        PhType phType = PhType.getType(columnItem.getType());
+                                        PhType phType = columnItem.getPhType();
                                         if (columnItem.isRowKey()) {
                                             row.setRowKey(PhTypeUtil.toBytes(val, phType));
                                         } else {
@@ -255,15 +257,13 @@ public class HbaseEtlService extends AbstractEtlService {
 
                 } catch (Exception e) {
                     logger.error(hbaseMapping.getHbaseTable() + " etl failed! ==>" + e.getMessage(), e);
-                    errMsg.add(hbaseMapping.getHbaseTable() + " etl failed! ==>" + e.getMessage());
-                    // throw new RuntimeException(e);
+                    throw new RuntimeException(hbaseMapping.getHbaseTable() + " etl failed! ==>" + e.getMessage(), e);
                 }
-                return i;
+                return lastPk;
             });
-            return true;
-        } catch (Exception e) {
+        } catch (RuntimeException e) {
             logger.error(e.getMessage(), e);
-            return false;
+            throw e;
         }
     }
 
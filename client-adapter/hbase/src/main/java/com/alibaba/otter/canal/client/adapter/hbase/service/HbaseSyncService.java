@@ -28,6 +28,13 @@ public class HbaseSyncService {
         this.hbaseTemplate = hbaseTemplate;
     }
 
+    /**
+     * 提交写缓冲中的数据, 在每批dml同步结束时调用
+     */
+    public void commit() {
+        hbaseTemplate.flush();
+    }
+
     public void sync(MappingConfig config, Dml dml) {
         if (config != null) {
             String type = dml.getType();
@@ -71,7 +78,7 @@ public class HbaseSyncService {
 
             // 拼接复合rowKey
             if (hbaseMapping.getRowKey() != null) {
-                String[] rowKeyColumns = hbaseMapping.getRowKey().trim().split(",");
+                String[] rowKeyColumns = hbaseMapping.getRowKeyColumns();
                 String rowKeyVale = getRowKeys(rowKeyColumns, r);
                 // params.put("rowKey", Bytes.toBytes(rowKeyVale));
                 hRow.setRowKey(Bytes.toBytes(rowKeyVale));
@@ -84,14 +91,14 @@ public class HbaseSyncService {
             rows.add(hRow);
             complete = false;
             if (i % config.getHbaseMapping().getCommitBatch() == 0 && !rows.isEmpty()) {
-                hbaseTemplate.puts(hbaseMapping.getHbaseTable(), rows);
+                hbaseTemplate.bufferPuts(hbaseMapping.getHbaseTable(), rows);
                 rows.clear();
                 complete = true;
             }
             i++;
         }
         if (!complete && !rows.isEmpty()) {
-            hbaseTemplate.puts(hbaseMapping.getHbaseTable(), rows);
+            hbaseTemplate.bufferPuts(hbaseMapping.getHbaseTable(), rows);
         }
 
     }
@@ -184,7 +191,7 @@ public class HbaseSyncService {
             byte[] rowKeyBytes;
 
             if (hbaseMapping.getRowKey() != null) {
-                String[] rowKeyColumns = hbaseMapping.getRowKey().trim().split(",");
+                String[] rowKeyColumns = hbaseMapping.getRowKeyColumns();
 
                 // 判断是否有复合主键修改
                 for (String updateColumn : old.get(index).keySet()) {
@@ -245,7 +252,7 @@ public class HbaseSyncService {
             rows.add(hRow);
             complete = false;
             if (i % config.getHbaseMapping().getCommitBatch() == 0 && !rows.isEmpty()) {
-                hbaseTemplate.puts(hbaseMapping.getHbaseTable(), rows);
+                hbaseTemplate.bufferPuts(hbaseMapping.getHbaseTable(), rows);
                 rows.clear();
                 complete = true;
             }
@@ -253,7 +260,7 @@ public class HbaseSyncService {
             index++;
         }
         if (!complete && !rows.isEmpty()) {
-            hbaseTemplate.puts(hbaseMapping.getHbaseTable(), rows);
+            hbaseTemplate.bufferPuts(hbaseMapping.getHbaseTable(), rows);
         }
     }
 
@@ -279,7 +286,7 @@ public class HbaseSyncService {
             byte[] rowKeyBytes;
 
             if (hbaseMapping.getRowKey() != null) {
-                String[] rowKeyColumns = hbaseMapping.getRowKey().trim().split(",");
+                String[] rowKeyColumns = hbaseMapping.getRowKeyColumns();
                 String rowKeyVale = getRowKeys(rowKeyColumns, r);
                 rowKeyBytes = Bytes.toBytes(rowKeyVale);
             } else if (rowKeyColumn == null) {
@@ -292,14 +299,14 @@ public class HbaseSyncService {
             rowKeys.add(rowKeyBytes);
             complete = false;
             if (i % config.getHbaseMapping().getCommitBatch() == 0 && !rowKeys.isEmpty()) {
-                hbaseTemplate.deletes(hbaseMapping.getHbaseTable(), rowKeys);
+                hbaseTemplate.bufferDeletes(hbaseMapping.getHbaseTable(), rowKeys);
                 rowKeys.clear();
                 complete = true;
             }
             i++;
         }
         if (!complete && !rowKeys.isEmpty()) {
-            hbaseTemplate.deletes(hbaseMapping.getHbaseTable(), rowKeys);
+            hbaseTemplate.bufferDeletes(hbaseMapping.getHbaseTable(), rowKeys);
         }
     }
 
@@ -311,7 +318,7 @@ public class HbaseSyncService {
         }
         MappingConfig.HbaseMapping hbaseMapping = config.getHbaseMapping();
 
-        String[] rowKeyColumns = hbaseMapping.getRowKey().trim().split(",");
+        String[] rowKeyColumns = hbaseMapping.getRowKeyColumns();
 
         int index = 0;
         int i = 1;
@@ -356,9 +363,9 @@ public class HbaseSyncService {
             rows.add(row);
             complete = false;
             if (i % config.getHbaseMapping().getCommitBatch() == 0 && !rows.isEmpty()) {
-                hbaseTemplate.deletes(hbaseMapping.getHbaseTable(), rowKeys);
+                hbaseTemplate.bufferDeletes(hbaseMapping.getHbaseTable(), rowKeys);
 
-                hbaseTemplate.puts(hbaseMapping.getHbaseTable(), rows);
+                hbaseTemplate.bufferPuts(hbaseMapping.getHbaseTable(), rows);
                 rowKeys.clear();
                 rows.clear();
                 complete = true;
@@ -367,8 +374,8 @@ public class HbaseSyncService {
             index++;
         }
         if (!complete && !rows.isEmpty()) {
-            hbaseTemplate.deletes(hbaseMapping.getHbaseTable(), rowKeys);
-            hbaseTemplate.puts(hbaseMapping.getHbaseTable(), rows);
+            hbaseTemplate.bufferDeletes(hbaseMapping.getHbaseTable(), rowKeys);
+            hbaseTemplate.bufferPuts(hbaseMapping.getHbaseTable(), rows);
         }
     }
 
@@ -399,10 +406,10 @@ public class HbaseSyncService {
             if (hbaseMapping.getMode() == MappingConfig.Mode.STRING) {
                 bytes = Bytes.toBytes(value.toString());
             } else if (hbaseMapping.getMode() == MappingConfig.Mode.NATIVE) {
-                Type type = Type.getType(columnItem.getType());
+                Type type = columnItem.getNativeType();
                 bytes = TypeUtil.toBytes(value, type);
             } else if (hbaseMapping.getMode() == MappingConfig.Mode.PHOENIX) {
-                PhType phType = PhType.getType(columnItem.getType());
+                PhType phType = columnItem.getPhType();
                 bytes = PhTypeUtil.toBytes(value, phType);
             }
         }
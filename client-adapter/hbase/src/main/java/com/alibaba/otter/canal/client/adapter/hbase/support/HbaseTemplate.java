@@ -1,19 +1,26 @@
 package com.alibaba.otter.canal.client.adapter.hbase.support;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.ConnectionFactory;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.HBaseAdmin;
 import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Mutation;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.slf4j.Logger;
@@ -27,16 +34,25 @@ import org.slf4j.LoggerFactory;
  */
 public class HbaseTemplate {
 
-    private Logger        logger = LoggerFactory.getLogger(this.getClass());
+    private Logger                    logger   = LoggerFactory.getLogger(this.getClass());
 
-    private Configuration hbaseConfig;                                      // hbase配置对象
-    private Connection    conn;                                             // hbase连接
+    private Configuration             hbaseConfig;                                      // hbase配置对象
+    private Connection                conn;                                             // hbase连接
+    private long                      writeBufferSize;                                  // BufferedMutator写缓冲大小
+    private Map<String, TableMutator> mutators = new ConcurrentHashMap<>();             // hbase表名 -> 写缓冲
 
     public HbaseTemplate(Configuration hbaseConfig){
         this.hbaseConfig = hbaseConfig;
+        this.writeBufferSize = hbaseConfig.getLong("hbase.client.write.buffer", 2 * 1024 * 1024);
         initConn();
     }
 
+    HbaseTemplate(Configuration hbaseConfig, Connection conn){
+        this.hbaseConfig = hbaseConfig;
+        this.writeBufferSize = hbaseConfig.getLong("hbase.client.write.buffer", 2 * 1024 * 1024);
+        this.conn = conn;
+    }
+
     private void initConn() {
         try {
             this.conn = ConnectionFactory.createConnection(hbaseConfig);
@@ -183,9 +199,137 @@ public class HbaseTemplate {
         return flag;
     }
 
+    /**
+     * 通过BufferedMutator异步批量插入, 写缓冲满时自动提交, 调用flush确保全部写入
+     *
+     * @param tableName 表名
+     * @param rows 行数据对象集合
+     */
+    public void bufferPuts(String tableName, List<HRow> rows) {
+        List<Put> puts = new ArrayList<>(rows.size());
+        for (HRow hRow : rows) {
+            Put put = new Put(hRow.getRowKey());
+            for (HRow.HCell hCell : hRow.getCells()) {
+                put.addColumn(Bytes.toBytes(hCell.getFamily()), Bytes.toBytes(hCell.getQualifier()), hCell.getValue());
+            }
+            puts.add(put);
+        }
+        mutate(tableName, puts, false);
+    }
+
+    /**
+     * 通过BufferedMutator异步批量删除, 调用flush确保全部写入
+     *
+     * @param tableName 表名
+     * @param rowKeys rowKey集合
+     */
+    public void bufferDeletes(String tableName, Set<byte[]> rowKeys) {
+        List<Delete> deletes = new ArrayList<>(rowKeys.size());
+        for (byte[] rowKey : rowKeys) {
+            deletes.add(new Delete(rowKey));
+        }
+        mutate(tableName, deletes, true);
+    }
+
+    /**
+     * 提交所有表写缓冲中的数据
+     */
+    public void flush() {
+        for (Map.Entry<String, TableMutator> entry : mutators.entrySet()) {
+            try {
+                entry.getValue().flush();
+            } catch (IOException e) {
+                // 失败后丢弃该写缓冲, 由上层重试整个批次
+                mutators.remove(entry.getKey(), entry.getValue());
+                entry.getValue().close();
+                logger.error(e.getMessage(), e);
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private void mutate(String tableName, List<? extends Mutation> mutations, boolean delete) {
+        if (mutations.isEmpty()) {
+            return;
+        }
+        TableMutator mutator = mutators.computeIfAbsent(tableName, k -> {
+            BufferedMutatorParams params = new BufferedMutatorParams(TableName.valueOf(k))
+                .writeBufferSize(writeBufferSize);
+            try {
+                return new TableMutator(getConnection().getBufferedMutator(params));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        try {
+            mutator.mutate(mutations, delete);
+        } catch (IOException e) {
+            mutators.remove(tableName, mutator);
+            mutator.close();
+            logger.error(e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
     public void close() throws IOException {
-        if (conn != null) {
-            conn.close();
+        try {
+            flush();
+        } finally {
+            for (TableMutator mutator : mutators.values()) {
+                mutator.close();
+            }
+            mutators.clear();
+            if (conn != null) {
+                conn.close();
+            }
+        }
+    }
+
+    /**
+     * 单表的写缓冲
+     *
+     * <pre>
+     * BufferedMutator不保证同一行Put与Delete的先后顺序, 同一行已有未提交的另一类操作时先flush再写入
+     * </pre>
+     */
+    private static class TableMutator {
+
+        private BufferedMutator mutator;
+        private Set<ByteBuffer> putRows    = new HashSet<>(); // 未提交的put行
+        private Set<ByteBuffer> deleteRows = new HashSet<>(); // 未提交的delete行
+
+        private TableMutator(BufferedMutator mutator){
+            this.mutator = mutator;
+        }
+
+        private synchronized void mutate(List<? extends Mutation> mutations, boolean delete) throws IOException {
+            Set<ByteBuffer> rows = delete ? deleteRows : putRows;
+            Set<ByteBuffer> conflictRows = delete ? putRows : deleteRows;
+            int from = 0;
+            for (int i = 0; i < mutations.size(); i++) {
+                ByteBuffer row = ByteBuffer.wrap(mutations.get(i).getRow());
+                if (conflictRows.contains(row)) {
+                    mutator.mutate(mutations.subList(from, i));
+                    flush();
+                    from = i;
+                }
+                rows.add(row);
+            }
+            mutator.mutate(mutations.subList(from, mutations.size()));
+        }
+
+        private synchronized void flush() throws IOException {
+            mutator.flush();
+            putRows.clear();
+            deleteRows.clear();
+        }
+
+        private void close() {
+            try {
+                mutator.close();
+            } catch (IOException e) {
+                // ignore
+            }
         }
     }
 }
@@ -0,0 +1,163 @@
+package com.alibaba.otter.canal.client.adapter.hbase.support;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HbaseTemplateTest {
+
+    private static final String TABLE = "test";
+
+    private List<String>        events;
+    private int                 mutators;
+    private boolean             failFlush;
+    private HbaseTemplate       hbaseTemplate;
+
+    @Before
+    public void setUp() {
+        events = new ArrayList<>();
+        mutators = 0;
+        failFlush = false;
+        hbaseTemplate = new HbaseTemplate(new Configuration(false), connection());
+    }
+
+    @Test
+    public void testSameKindNoFlush() {
+        // 同一行的同类操作直接进入写缓冲
+        hbaseTemplate.bufferPuts(TABLE, rows("a", "b"));
+        hbaseTemplate.bufferPuts(TABLE, rows("a"));
+        hbaseTemplate.bufferDeletes(TABLE, rowKeys("c"));
+        hbaseTemplate.bufferDeletes(TABLE, rowKeys("c"));
+        Assert.assertEquals(Arrays.asList("put a", "put b", "put a", "delete c", "delete c"), events);
+
+        hbaseTemplate.flush();
+        Assert.assertEquals("flush", events.get(events.size() - 1));
+        Assert.assertEquals(1, mutators);
+    }
+
+    @Test
+    public void testFlushOnConflict() {
+        hbaseTemplate.bufferPuts(TABLE, rows("a", "b"));
+
+        // 同一行有未提交的put时, 先写入冲突行之前的delete, flush后再写入其余的delete
+        hbaseTemplate.bufferDeletes(TABLE, rowKeys("x", "a", "y"));
+        Assert.assertEquals(Arrays.asList("put a", "put b", "delete x", "flush", "delete a", "delete y"), events);
+
+        // flush后之前put过的行不再冲突, 只有flush之后delete的行需要再次flush
+        events.clear();
+        hbaseTemplate.bufferPuts(TABLE, rows("b", "y"));
+        Assert.assertEquals(Arrays.asList("put b", "flush", "put y"), events);
+    }
+
+    @Test
+    public void testTablesIndependent() {
+        // 不同表的写缓冲互不影响
+        hbaseTemplate.bufferPuts(TABLE, rows("a"));
+        hbaseTemplate.bufferDeletes("other", rowKeys("a"));
+        Assert.assertEquals(Arrays.asList("put a", "delete a"), events);
+        Assert.assertEquals(2, mutators);
+    }
+
+    @Test
+    public void testFlushFailure() {
+        hbaseTemplate.bufferPuts(TABLE, rows("a"));
+
+        // flush失败时关闭并丢弃写缓冲, 重试的批次使用新的写缓冲
+        failFlush = true;
+        try {
+            hbaseTemplate.flush();
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+        Assert.assertEquals(Arrays.asList("put a", "flush", "close"), events);
+
+        failFlush = false;
+        events.clear();
+        hbaseTemplate.bufferDeletes(TABLE, rowKeys("a"));
+        hbaseTemplate.flush();
+        Assert.assertEquals(Arrays.asList("delete a", "flush"), events);
+        Assert.assertEquals(2, mutators);
+    }
+
+    private Connection connection() {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[] { Connection.class },
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getBufferedMutator":
+                        mutators++;
+                        return bufferedMutator();
+                    case "isAborted":
+                    case "isClosed":
+                        return false;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+
+    /**
+     * 按调用顺序记录写入的行和flush
+     */
+    private BufferedMutator bufferedMutator() {
+        return (BufferedMutator) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[] { BufferedMutator.class },
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "mutate":
+                        List<?> mutations = args[0] instanceof List ? (List<?>) args[0] : Collections
+                            .singletonList(args[0]);
+                        for (Object mutation : mutations) {
+                            events.add((mutation instanceof Delete ? "delete " : "put ")
+                                       + Bytes.toString(((Mutation) mutation).getRow()));
+                        }
+                        return null;
+                    case "flush":
+                        events.add("flush");
+                        if (failFlush) {
+                            throw new IOException("flush error");
+                        }
+                        return null;
+                    case "close":
+                        events.add("close");
+                        return null;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+
+    private static List<HRow> rows(String... rowKeys) {
+        List<HRow> rows = new ArrayList<>();
+        for (String rowKey : rowKeys) {
+            HRow row = new HRow(Bytes.toBytes(rowKey));
+            row.addCell("f", "c", Bytes.toBytes(rowKey));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static Set<byte[]> rowKeys(String... rowKeys) {
+        Set<byte[]> set = new LinkedHashSet<>();
+        for (String rowKey : rowKeys) {
+            set.add(Bytes.toBytes(rowKey));
+        }
+        return set;
+    }
+}
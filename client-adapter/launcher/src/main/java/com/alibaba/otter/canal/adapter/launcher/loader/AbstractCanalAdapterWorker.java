@@ -1,7 +1,9 @@
 package com.alibaba.otter.canal.adapter.launcher.loader;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -50,89 +52,100 @@ public abstract class AbstractCanalAdapterWorker {
     }
 
     protected void writeOut(final Message message) {
-        List<Future<Boolean>> futures = new ArrayList<>();
-        // 组间适配器并行运行
-        canalOuterAdapters.forEach(outerAdapters -> {
-            final List<OuterAdapter> adapters = outerAdapters;
-            futures.add(groupInnerExecutorService.submit(() -> {
-                try {
-                    // 组内适配器穿行运行，尽量不要配置组内适配器
-                    adapters.forEach(adapter -> {
-                        long begin = System.currentTimeMillis();
-                        List<Dml> dmls = MessageUtil.parse4Dml(canalDestination, groupId, message);
-                        if (dmls != null) {
-                            batchSync(dmls, adapter);
+        List<Dml> dmls = MessageUtil.parse4Dml(canalDestination, groupId, message);
+        if (dmls != null) {
+            writeOut(dmls, message.getId());
+        }
+    }
 
-                            logger.info("{} elapsed time: {}, batchId:{}",
-                                adapter.getClass().getName(),
-                                (System.currentTimeMillis() - begin),
-                                message.getId());
-                        }
-                    });
-                    return true;
-                } catch (Exception e) {
-                    errorLogger.error(e.getMessage(), e);
-                    return false;
-                }
-            }));
+    protected void writeOut(final List<FlatMessage> flatMessages) {
+        List<Dml> dmls = MessageUtil.flatMessage2Dml(canalDestination, groupId, flatMessages);
+        writeOut(dmls, null);
+    }
 
-            // 等待所有适配器写入完成
-            // 由于是组间并发操作，所以将阻塞直到耗时最久的工作组操作完成
-            RuntimeException exception = null;
-            for (Future<Boolean> future : futures) {
-                try {
-                    if (!future.get()) {
-                        exception = new RuntimeException("Outer adapter sync failed! ");
-                    }
-                } catch (Exception e) {
-                    exception = new RuntimeException(e);
+    /**
+     * 将解析好的dml同时分发给所有适配器组，全部组完成后返回
+     *
+     * <pre>
+     * 消息只解析一次，各组共享同一份dml，适配器不能修改dml
+     * 共享前将dml的主键、data和old替换为只读视图，修改行数据会抛出UnsupportedOperationException
+     * </pre>
+     *
+     * @param dmls 解析后的dml
+     * @param batchId 批次id，flatMessage时为空
+     */
+    private void writeOut(List<Dml> dmls, Long batchId) {
+        final List<Dml> sharedDmls = readOnly(dmls);
+        // 组间适配器并行运行，第一组在当前线程执行
+        List<Future<Boolean>> futures = new ArrayList<>(canalOuterAdapters.size());
+        for (int i = 1; i < canalOuterAdapters.size(); i++) {
+            List<OuterAdapter> adapters = canalOuterAdapters.get(i);
+            futures.add(groupInnerExecutorService.submit(() -> writeOut(adapters, sharedDmls, batchId)));
+        }
+        boolean success = canalOuterAdapters.isEmpty() || writeOut(canalOuterAdapters.get(0), sharedDmls, batchId);
+
+        // 等待所有适配器写入完成
+        // 由于是组间并发操作，所以将阻塞直到耗时最久的工作组操作完成
+        RuntimeException exception = success ? null : new RuntimeException("Outer adapter sync failed! ");
+        for (Future<Boolean> future : futures) {
+            try {
+                if (!future.get()) {
+                    exception = new RuntimeException("Outer adapter sync failed! ");
                 }
+            } catch (Exception e) {
+                exception = new RuntimeException(e);
             }
-            if (exception != null) {
-                throw exception;
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /**
+     * 将dml列表及其中的主键、行数据替换为只读视图
+     *
+     * @param dmls 解析后的dml
+     * @return 只读的dml列表
+     */
+    static List<Dml> readOnly(List<Dml> dmls) {
+        for (Dml dml : dmls) {
+            if (dml.getPkNames() != null) {
+                dml.setPkNames(Collections.unmodifiableList(dml.getPkNames()));
             }
-        });
+            dml.setData(readOnlyRows(dml.getData()));
+            dml.setOld(readOnlyRows(dml.getOld()));
+        }
+        return Collections.unmodifiableList(dmls);
     }
 
-    protected void writeOut(final List<FlatMessage> flatMessages) {
-        List<Future<Boolean>> futures = new ArrayList<>();
-        // 组间适配器并行运行
-        canalOuterAdapters.forEach(outerAdapters -> {
-            futures.add(groupInnerExecutorService.submit(() -> {
-                try {
-                    // 组内适配器穿行运行，尽量不要配置组内适配器
-                    outerAdapters.forEach(adapter -> {
-                        long begin = System.currentTimeMillis();
-                        List<Dml> dmls = MessageUtil.flatMessage2Dml(canalDestination, groupId, flatMessages);
-                        batchSync(dmls, adapter);
+    private static List<Map<String, Object>> readOnlyRows(List<Map<String, Object>> rows) {
+        if (rows == null) {
+            return null;
+        }
+        List<Map<String, Object>> readOnlyRows = new ArrayList<>(rows.size());
+        for (Map<String, Object> row : rows) {
+            readOnlyRows.add(row == null ? null : Collections.unmodifiableMap(row));
+        }
+        return Collections.unmodifiableList(readOnlyRows);
+    }
 
-                        logger.info("{} elapsed time: {}",
-                            adapter.getClass().getName(),
-                            (System.currentTimeMillis() - begin));
-                    });
-                    return true;
-                } catch (Exception e) {
-                    errorLogger.error(e.getMessage(), e);
-                    return false;
-                }
-            }));
+    private boolean writeOut(List<OuterAdapter> adapters, List<Dml> dmls, Long batchId) {
+        try {
+            // 组内适配器串行运行，尽量不要配置组内适配器
+            adapters.forEach(adapter -> {
+                long begin = System.currentTimeMillis();
+                batchSync(dmls, adapter);
 
-            // 等待所有适配器写入完成
-            // 由于是组间并发操作，所以将阻塞直到耗时最久的工作组操作完成
-            RuntimeException exception = null;
-            for (Future<Boolean> future : futures) {
-                try {
-                    if (!future.get()) {
-                        exception = new RuntimeException("Outer adapter sync failed! ");
-                    }
-                } catch (Exception e) {
-                    exception = new RuntimeException(e);
-                }
-            }
-            if (exception != null) {
-                throw exception;
-            }
-        });
+                logger.info("{} elapsed time: {}, batchId:{}",
+                    adapter.getClass().getName(),
+                    (System.currentTimeMillis() - begin),
+                    batchId);
+            });
+            return true;
+        } catch (Exception e) {
+            errorLogger.error(e.getMessage(), e);
+            return false;
+        }
     }
 
     @SuppressWarnings("unchecked")
@@ -150,8 +163,9 @@ public abstract class AbstractCanalAdapterWorker {
                     if (flatMessage) {
                         // batch write
                         writeOut((List<FlatMessage>) messages);
-                        //FIXME xxx
-                        messages.forEach((message -> System.out.println(JSON.toJSONString(message))));
+                        if (logger.isDebugEnabled()) {
+                            messages.forEach(message -> logger.debug("FlatMessage: {}", JSON.toJSONString(message)));
+                        }
                     } else {
                         for (final Object message : messages) {
                             writeOut((Message) message);
@@ -0,0 +1,235 @@
+package com.alibaba.otter.canal.adapter.launcher.loader;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.context.ApplicationContext;
+
+import com.alibaba.otter.canal.adapter.launcher.config.SpringContext;
+import com.alibaba.otter.canal.client.adapter.OuterAdapter;
+import com.alibaba.otter.canal.client.adapter.support.CanalClientConfig;
+import com.alibaba.otter.canal.client.adapter.support.Dml;
+import com.alibaba.otter.canal.client.adapter.support.OuterAdapterConfig;
+import com.alibaba.otter.canal.protocol.FlatMessage;
+
+public class AbstractCanalAdapterWorkerTest {
+
+    private static final int  SIZE = 10;
+    private static final long WAIT = 2000L;
+
+    private TestWorker        worker;
+
+    @BeforeClass
+    public static void setUpClass() {
+        // 测试中不需要SyncSwitch
+        new SpringContext().setApplicationContext((ApplicationContext) Proxy.newProxyInstance(
+            AbstractCanalAdapterWorkerTest.class.getClassLoader(),
+            new Class[] { ApplicationContext.class },
+            (proxy, method, args) -> null));
+    }
+
+    @After
+    public void tearDown() {
+        if (worker != null) {
+            worker.groupInnerExecutorService.shutdown();
+        }
+    }
+
+    @Test
+    public void testFanOutOrder() {
+        CyclicBarrier barrier = new CyclicBarrier(3);
+        RecordingAdapter first = new RecordingAdapter(barrier);
+        RecordingAdapter second = new RecordingAdapter(barrier);
+        RecordingAdapter secondNext = new RecordingAdapter(null);
+        RecordingAdapter third = new RecordingAdapter(barrier);
+        worker = new TestWorker(Arrays.asList(Collections.singletonList(first),
+            Arrays.asList(second, secondNext),
+            Collections.singletonList(third)), 3);
+
+        // 三个组同时进入第一批同步，串行执行时barrier会超时
+        worker.writeOut(flatMessages());
+
+        // 每个适配器都按binlog顺序收到全部dml，分批同步
+        List<Long> ids = new ArrayList<>();
+        for (long i = 1; i <= SIZE; i++) {
+            ids.add(i);
+        }
+        for (RecordingAdapter adapter : Arrays.asList(first, second, secondNext, third)) {
+            Assert.assertNull(adapter.error);
+            Assert.assertEquals(ids, adapter.ids);
+            Assert.assertEquals(4, adapter.batches);
+        }
+
+        // 第一组在调用线程执行，组内适配器串行使用同一个线程
+        Assert.assertEquals(Collections.singleton(Thread.currentThread()), first.threads);
+        Assert.assertEquals(second.threads, secondNext.threads);
+        Assert.assertEquals(1, second.threads.size());
+        Assert.assertFalse(second.threads.contains(Thread.currentThread()));
+        Assert.assertFalse(third.threads.contains(Thread.currentThread()));
+        Assert.assertNotEquals(second.threads, third.threads);
+    }
+
+    @Test
+    public void testGroupFailure() {
+        RecordingAdapter first = new RecordingAdapter(null);
+        RecordingAdapter failed = new RecordingAdapter(null) {
+
+            @Override
+            public void sync(List<Dml> dmls) {
+                throw new RuntimeException("sync error");
+            }
+        };
+        RecordingAdapter third = new RecordingAdapter(null);
+        worker = new TestWorker(Arrays.asList(Collections.singletonList(first),
+            Collections.singletonList(failed),
+            Collections.singletonList(third)), 1000);
+
+        // 任一组失败时等待其他组完成后抛出
+        try {
+            worker.writeOut(flatMessages());
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Assert.assertEquals("Outer adapter sync failed! ", e.getMessage());
+        }
+        Assert.assertEquals(SIZE, first.ids.size());
+        Assert.assertEquals(SIZE, third.ids.size());
+    }
+
+    @Test
+    public void testReadOnly() {
+        RecordingAdapter first = new RecordingAdapter(null);
+        RecordingAdapter modifier = new RecordingAdapter(null) {
+
+            @Override
+            public void sync(List<Dml> dmls) {
+                dmls.get(0).getData().get(0).put("id", 0L);
+            }
+        };
+        worker = new TestWorker(Arrays.asList(Collections.singletonList(modifier),
+            Collections.singletonList(first)), 1000);
+
+        // 共享的行数据不能修改，其他组看到的仍是原始数据
+        try {
+            worker.writeOut(flatMessages());
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Assert.assertEquals("Outer adapter sync failed! ", e.getMessage());
+        }
+        Assert.assertEquals(Long.valueOf(1L), first.ids.get(0));
+
+        Dml dml = new Dml();
+        dml.setPkNames(new ArrayList<>(Collections.singletonList("id")));
+        List<Map<String, Object>> data = new ArrayList<>();
+        data.add(new HashMap<>());
+        dml.setData(data);
+        List<Dml> dmls = AbstractCanalAdapterWorker.readOnly(new ArrayList<>(Collections.singletonList(dml)));
+        assertUnsupported(() -> dmls.add(new Dml()));
+        assertUnsupported(() -> dml.getPkNames().add("name"));
+        assertUnsupported(() -> dml.getData().add(new HashMap<>()));
+        assertUnsupported(() -> dml.getData().get(0).put("id", 1L));
+        Assert.assertNull(dml.getOld());
+    }
+
+    private static void assertUnsupported(Runnable runnable) {
+        try {
+            runnable.run();
+            Assert.fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    private static List<FlatMessage> flatMessages() {
+        Map<String, Integer> sqlType = new HashMap<>();
+        sqlType.put("id", -5);
+        Map<String, String> mysqlType = new HashMap<>();
+        mysqlType.put("id", "bigint(20)");
+
+        List<FlatMessage> flatMessages = new ArrayList<>();
+        for (long i = 1; i <= SIZE; i++) {
+            FlatMessage flatMessage = new FlatMessage(i);
+            flatMessage.setDatabase("test");
+            flatMessage.setTable("user");
+            flatMessage.addPkName("id");
+            flatMessage.setIsDdl(false);
+            flatMessage.setType("INSERT");
+            flatMessage.setSqlType(sqlType);
+            flatMessage.setMysqlType(mysqlType);
+            Map<String, String> row = new HashMap<>();
+            row.put("id", String.valueOf(i));
+            flatMessage.setData(new ArrayList<>(Collections.singletonList(row)));
+            flatMessages.add(flatMessage);
+        }
+        return flatMessages;
+    }
+
+    private static class TestWorker extends AbstractCanalAdapterWorker {
+
+        TestWorker(List<List<OuterAdapter>> canalOuterAdapters, int syncBatchSize){
+            super(canalOuterAdapters);
+            canalDestination = "example";
+            canalClientConfig = new CanalClientConfig();
+            canalClientConfig.setSyncBatchSize(syncBatchSize);
+        }
+
+        @Override
+        protected void process() {
+        }
+    }
+
+    /**
+     * 记录收到的dml顺序和执行线程，第一次同步时在barrier上等待其他组
+     */
+    private static class RecordingAdapter implements OuterAdapter {
+
+        private final CyclicBarrier   barrier;
+        private final List<Long>      ids     = new ArrayList<>();
+        private final Set<Thread>     threads = new HashSet<>();
+        private int                   batches;
+        private volatile Exception    error;
+
+        RecordingAdapter(CyclicBarrier barrier){
+            this.barrier = barrier;
+        }
+
+        @Override
+        public void init(OuterAdapterConfig configuration, Properties envProperties) {
+        }
+
+        @Override
+        public void sync(List<Dml> dmls) {
+            if (barrier != null && batches == 0) {
+                try {
+                    barrier.await(WAIT, TimeUnit.MILLISECONDS);
+                } catch (Exception e) {
+                    error = e;
+                }
+            }
+            batches++;
+            threads.add(Thread.currentThread());
+            for (Dml dml : dmls) {
+                for (Map<String, Object> data : dml.getData()) {
+                    ids.add((Long) data.get("id"));
+                }
+            }
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+}
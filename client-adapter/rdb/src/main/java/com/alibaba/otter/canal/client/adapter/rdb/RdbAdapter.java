@@ -121,6 +121,10 @@ public class RdbAdapter implements OuterAdapter {
         dataSource.setTimeBetweenEvictionRunsMillis(60000);
         dataSource.setMinEvictableIdleTimeMillis(300000);
         dataSource.setUseUnfairLock(true);
+        if (StringUtils.containsIgnoreCase(properties.get("jdbc.driverClassName"), "mysql")) {
+            // 批量执行的insert由驱动改写为多值insert，jdbc.url中显式配置时以url为准
+            dataSource.addConnectionProperty("rewriteBatchedStatements", "true");
+        }
         // List<String> array = new ArrayList<>();
         // array.add("set names utf8mb4;");
         // dataSource.setConnectionInitSqls(array);
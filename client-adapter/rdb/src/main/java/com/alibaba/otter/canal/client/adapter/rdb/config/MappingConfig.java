@@ -118,6 +118,7 @@ public class MappingConfig implements AdapterConfig {
         private Map<String, String> targetColumns;                       // 目标表字段映射
 
         private String              etlCondition;                        // etl条件sql
+        private String              etlPk       = "id";                  // etl分页的主键字段
 
         private int                 readBatch   = 5000;
         private int                 commitBatch = 5000;                  // etl等批量提交大小
@@ -203,6 +204,14 @@ public class MappingConfig implements AdapterConfig {
             this.etlCondition = etlCondition;
         }
 
+        public String getEtlPk() {
+            return etlPk;
+        }
+
+        public void setEtlPk(String etlPk) {
+            this.etlPk = etlPk;
+        }
+
         public int getReadBatch() {
             return readBatch;
         }
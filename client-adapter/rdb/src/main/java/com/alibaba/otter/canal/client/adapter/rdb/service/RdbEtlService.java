@@ -72,8 +72,9 @@ public class RdbEtlService extends AbstractEtlService {
                 }
             });
 
-            Util.sqlRS(srcDS, sql, values, rs -> {
+            return Util.sqlRS(srcDS, sql, values, rs -> {
                 int idx = 1;
+                Object lastPk = null;
 
                 try {
                     boolean completed = false;
@@ -97,6 +98,7 @@ public class RdbEtlService extends AbstractEtlService {
 
                         while (rs.next()) {
                             completed = false;
+                            lastPk = getPkValue(rs);
 
                             pstmt.clearParameters();
 
@@ -155,14 +157,13 @@ public class RdbEtlService extends AbstractEtlService {
 
                 } catch (Exception e) {
                     logger.error(dbMapping.getTable() + " etl failed! ==>" + e.getMessage(), e);
-                    errMsg.add(dbMapping.getTable() + " etl failed! ==>" + e.getMessage());
+                    throw new RuntimeException(dbMapping.getTable() + " etl failed! ==>" + e.getMessage(), e);
                 }
-                return idx;
+                return lastPk;
             });
-            return true;
-        } catch (Exception e) {
+        } catch (RuntimeException e) {
             logger.error(e.getMessage(), e);
-            return false;
+            throw e;
         }
     }
 
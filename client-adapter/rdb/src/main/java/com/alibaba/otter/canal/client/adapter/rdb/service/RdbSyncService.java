@@ -4,11 +4,15 @@ import java.sql.Connection;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -28,12 +32,21 @@ import com.alibaba.otter.canal.client.adapter.rdb.config.MappingConfig.DbMapping
 import com.alibaba.otter.canal.client.adapter.rdb.support.BatchExecutor;
 import com.alibaba.otter.canal.client.adapter.rdb.support.SingleDml;
 import com.alibaba.otter.canal.client.adapter.rdb.support.SyncUtil;
+import com.alibaba.otter.canal.client.adapter.rdb.support.WriteSetPartitioner;
 import com.alibaba.otter.canal.client.adapter.support.Dml;
 import com.alibaba.otter.canal.client.adapter.support.Util;
 
 /**
  * RDB同步操作业务
  *
+ * <pre>
+ * 一个批次内的dml按目标表+主键计算写集合，写集合冲突的dml划为同一组并保持原始顺序，
+ * 互不冲突的组由各线程从共享队列中抢占执行，避免固定的主键hash分区中热点分区拖慢整个批次；
+ * 非并行配置以及truncate对整张目标表加锁，该表的所有dml都归入同一组；
+ * 所有非并行配置的dml还共享同一个锁，跨表保持原始顺序串行执行。
+ * 每个线程在批次内只提交一次事务，所有线程提交后才返回，由调用方ack
+ * </pre>
+ *
  * @author rewerma 2018-11-7 下午06:45:49
  * @version 1.0.0
  */
@@ -41,29 +54,51 @@ public class RdbSyncService {
 
     private static final Logger               logger  = LoggerFactory.getLogger(RdbSyncService.class);
 
+    // 所有非并行配置的dml共享的写集合元素
+    private static final Object               NON_CONCURRENT_LOCK = new Object();
+
     // 源库表字段类型缓存: instance.schema.table -> <columnName, jdbcType>
     private Map<String, Map<String, Integer>> columnsTypeCache;
 
     private int                               threads = 3;
     private boolean                           skipDupException;
 
-    private List<SyncItem>[]                  dmlsPartition;
+    private List<SyncItem>                    syncItems = new ArrayList<>();
     private BatchExecutor[]                   batchExecutors;
-    private ExecutorService[]                 executorThreads;
+    private ExecutorService                   executorThreads;
 
-    public List<SyncItem>[] getDmlsPartition() {
-        return dmlsPartition;
+    public void addSyncItem(MappingConfig config, SingleDml singleDml) {
+        syncItems.add(new SyncItem(config, singleDml));
     }
 
     public Map<String, Map<String, Integer>> getColumnsTypeCache() {
         return columnsTypeCache;
     }
 
+    /**
+     * 按主键hash划分的待同步dml，非并行配置的dml都在第一个分区
+     *
+     * @deprecated 同步已改为按写集合冲突分组调度，该分区不再决定执行的线程，仅为兼容保留
+     */
+    @Deprecated
+    @SuppressWarnings("unchecked")
+    public List<SyncItem>[] getDmlsPartition() {
+        List<SyncItem>[] dmlsPartition = new List[threads];
+        for (int i = 0; i < threads; i++) {
+            dmlsPartition[i] = new ArrayList<>();
+        }
+        for (SyncItem syncItem : syncItems) {
+            int hash = syncItem.config.getConcurrent() ? pkHash(syncItem.config.getDbMapping(),
+                syncItem.singleDml.getData()) : 0;
+            dmlsPartition[hash].add(syncItem);
+        }
+        return dmlsPartition;
+    }
+
     public RdbSyncService(DataSource dataSource, Integer threads, boolean skipDupException){
         this(dataSource, threads, new ConcurrentHashMap<>(), skipDupException);
     }
 
-    @SuppressWarnings("unchecked")
     public RdbSyncService(DataSource dataSource, Integer threads, Map<String, Map<String, Integer>> columnsTypeCache,
                           boolean skipDupException){
         this.columnsTypeCache = columnsTypeCache;
@@ -72,13 +107,11 @@ public class RdbSyncService {
             if (threads != null) {
                 this.threads = threads;
             }
-            this.dmlsPartition = new List[this.threads];
             this.batchExecutors = new BatchExecutor[this.threads];
-            this.executorThreads = new ExecutorService[this.threads];
+            this.executorThreads = Executors.newFixedThreadPool(this.threads);
             for (int i = 0; i < this.threads; i++) {
-                dmlsPartition[i] = new ArrayList<>();
-                batchExecutors[i] = new BatchExecutor(dataSource);
-                executorThreads[i] = Executors.newSingleThreadExecutor();
+                batchExecutors[i] = new BatchExecutor(dataSource,
+                    skipDupException ? RdbSyncService::isDuplicateException : null);
             }
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -101,16 +134,20 @@ public class RdbSyncService {
                     function.apply(dml);
                 }
             }
-            if (toExecute) {
+            if (toExecute && !syncItems.isEmpty()) {
+                List<List<SyncItem>> groups = partition(syncItems);
+                ConcurrentLinkedQueue<List<SyncItem>> queue = new ConcurrentLinkedQueue<>(groups);
                 List<Future<Boolean>> futures = new ArrayList<>();
-                for (int i = 0; i < threads; i++) {
+                for (int i = 0; i < Math.min(threads, groups.size()); i++) {
                     int j = i;
-                    futures.add(executorThreads[i].submit(() -> {
+                    futures.add(executorThreads.submit(() -> {
                         try {
-                            dmlsPartition[j].forEach(syncItem -> sync(batchExecutors[j],
-                                syncItem.config,
-                                syncItem.singleDml));
-                            dmlsPartition[j].clear();
+                            List<SyncItem> group;
+                            while ((group = queue.poll()) != null) {
+                                group.forEach(syncItem -> sync(batchExecutors[j],
+                                    syncItem.config,
+                                    syncItem.singleDml));
+                            }
                             batchExecutors[j].commit();
                             return true;
                         } catch (Throwable e) {
@@ -129,6 +166,7 @@ public class RdbSyncService {
                 });
             }
         } finally {
+            syncItems.clear();
             for (BatchExecutor batchExecutor : batchExecutors) {
                 if (batchExecutor != null) {
                     batchExecutor.close();
@@ -171,21 +209,8 @@ public class RdbSyncService {
             }
 
             for (MappingConfig config : configMap.values()) {
-                if (config.getConcurrent()) {
-                    List<SingleDml> singleDmls = SingleDml.dml2SingleDmls(dml);
-                    singleDmls.forEach(singleDml -> {
-                        int hash = pkHash(config.getDbMapping(), singleDml.getData());
-                        SyncItem syncItem = new SyncItem(config, singleDml);
-                        dmlsPartition[hash].add(syncItem);
-                    });
-                } else {
-                    int hash = 0;
-                    List<SingleDml> singleDmls = SingleDml.dml2SingleDmls(dml);
-                    singleDmls.forEach(singleDml -> {
-                        SyncItem syncItem = new SyncItem(config, singleDml);
-                        dmlsPartition[hash].add(syncItem);
-                    });
-                }
+                List<SingleDml> singleDmls = SingleDml.dml2SingleDmls(dml);
+                singleDmls.forEach(singleDml -> addSyncItem(config, singleDml));
             }
             return true;
         }
@@ -252,7 +277,7 @@ public class RdbSyncService {
 
         Map<String, Integer> ctype = getTargetColumnType(batchExecutor.getConn(), config);
 
-        List<Map<String, ?>> values = new ArrayList<>();
+        List<BatchExecutor.Param> values = new ArrayList<>();
         for (Map.Entry<String, String> entry : columnsMap.entrySet()) {
             String targetColumnName = entry.getKey();
             String srcColumnName = entry.getValue();
@@ -268,17 +293,8 @@ public class RdbSyncService {
             BatchExecutor.setValue(values, type, value);
         }
 
-        try {
-            batchExecutor.execute(insertSql.toString(), values);
-        } catch (SQLException e) {
-            if (skipDupException
-                && (e.getMessage().contains("Duplicate entry") || e.getMessage().startsWith("ORA-00001:"))) {
-                // ignore
-                // TODO 增加更多关系数据库的主键冲突的错误码
-            } else {
-                throw e;
-            }
-        }
+        // 主键冲突在批次执行时按skipDupException处理
+        batchExecutor.addBatch(insertSql.toString(), values, true);
         if (logger.isTraceEnabled()) {
             logger.trace("Insert into target table, sql: {}", insertSql);
         }
@@ -310,7 +326,7 @@ public class RdbSyncService {
 
         StringBuilder updateSql = new StringBuilder();
         updateSql.append("UPDATE ").append(SyncUtil.getDbTableName(dbMapping)).append(" SET ");
-        List<Map<String, ?>> values = new ArrayList<>();
+        List<BatchExecutor.Param> values = new ArrayList<>();
         boolean hasMatched = false;
         for (String srcColumnName : old.keySet()) {
             List<String> targetColumnNames = new ArrayList<>();
@@ -340,7 +356,7 @@ public class RdbSyncService {
 
         // 拼接主键
         appendCondition(dbMapping, updateSql, ctype, values, data, old);
-        batchExecutor.execute(updateSql.toString(), values);
+        batchExecutor.addBatch(updateSql.toString(), values, false);
         if (logger.isTraceEnabled()) {
             logger.trace("Update target table, sql: {}", updateSql);
         }
@@ -365,10 +381,10 @@ public class RdbSyncService {
         StringBuilder sql = new StringBuilder();
         sql.append("DELETE FROM ").append(SyncUtil.getDbTableName(dbMapping)).append(" WHERE ");
 
-        List<Map<String, ?>> values = new ArrayList<>();
+        List<BatchExecutor.Param> values = new ArrayList<>();
         // 拼接主键
         appendCondition(dbMapping, sql, ctype, values, data);
-        batchExecutor.execute(sql.toString(), values);
+        batchExecutor.addBatch(sql.toString(), values, false);
         if (logger.isTraceEnabled()) {
             logger.trace("Delete from target table, sql: {}", sql);
         }
@@ -429,12 +445,12 @@ public class RdbSyncService {
      * 拼接主键 where条件
      */
     private void appendCondition(MappingConfig.DbMapping dbMapping, StringBuilder sql, Map<String, Integer> ctype,
-                                 List<Map<String, ?>> values, Map<String, Object> d) {
+                                 List<BatchExecutor.Param> values, Map<String, Object> d) {
         appendCondition(dbMapping, sql, ctype, values, d, null);
     }
 
     private void appendCondition(MappingConfig.DbMapping dbMapping, StringBuilder sql, Map<String, Integer> ctype,
-                                 List<Map<String, ?>> values, Map<String, Object> d, Map<String, Object> o) {
+                                 List<BatchExecutor.Param> values, Map<String, Object> d, Map<String, Object> o) {
         // 拼接主键
         for (Map.Entry<String, String> entry : dbMapping.getTargetPk().entrySet()) {
             String targetColumnName = entry.getKey();
@@ -458,6 +474,15 @@ public class RdbSyncService {
         sql.delete(len - 4, len);
     }
 
+    /**
+     * 是否为主键冲突
+     */
+    private static boolean isDuplicateException(SQLException e) {
+        // TODO 增加更多关系数据库的主键冲突的错误码
+        return e.getMessage() != null
+               && (e.getMessage().contains("Duplicate entry") || e.getMessage().startsWith("ORA-00001:"));
+    }
+
     public static class SyncItem {
 
         private MappingConfig config;
@@ -469,13 +494,76 @@ public class RdbSyncService {
         }
     }
 
+    /**
+     * 按写集合冲突关系对批次内的dml分组
+     */
+    private static List<List<SyncItem>> partition(List<SyncItem> syncItems) {
+        // 非并行配置以及truncate需要锁整张目标表，非并行配置还需要跨表保持顺序
+        Set<String> tableLocks = new HashSet<>();
+        for (SyncItem syncItem : syncItems) {
+            if (!syncItem.config.getConcurrent() || "TRUNCATE".equalsIgnoreCase(syncItem.singleDml.getType())) {
+                tableLocks.add(SyncUtil.getDbTableName(syncItem.config.getDbMapping()));
+            }
+        }
+
+        WriteSetPartitioner<SyncItem> partitioner = new WriteSetPartitioner<>();
+        for (SyncItem syncItem : syncItems) {
+            partitioner.add(syncItem, writeSet(syncItem, tableLocks));
+        }
+        return partitioner.partition();
+    }
+
+    /**
+     * 取dml的写集合: 目标表+主键值，主键变更时同时包含新旧主键
+     */
+    private static Collection<Object> writeSet(SyncItem syncItem, Set<String> tableLocks) {
+        DbMapping dbMapping = syncItem.config.getDbMapping();
+        String tableName = SyncUtil.getDbTableName(dbMapping);
+        List<Object> writeSet = new ArrayList<>(2);
+        if (tableLocks.contains(tableName)) {
+            writeSet.add(tableName);
+            if (!syncItem.config.getConcurrent()) {
+                writeSet.add(NON_CONCURRENT_LOCK);
+            }
+            return writeSet;
+        }
+
+        Map<String, Object> data = syncItem.singleDml.getData();
+        Map<String, Object> old = syncItem.singleDml.getOld();
+        List<Object> key = new ArrayList<>();
+        List<Object> oldKey = new ArrayList<>();
+        key.add(tableName);
+        oldKey.add(tableName);
+        for (Map.Entry<String, String> entry : dbMapping.getTargetPk().entrySet()) {
+            String srcColumnName = entry.getValue();
+            if (srcColumnName == null) {
+                srcColumnName = Util.cleanColumn(entry.getKey());
+            }
+            Object value = data == null ? null : data.get(srcColumnName);
+            key.add(value);
+            oldKey.add(old != null && old.containsKey(srcColumnName) ? old.get(srcColumnName) : value);
+        }
+        writeSet.add(key);
+        if (!oldKey.equals(key)) {
+            writeSet.add(oldKey);
+        }
+        return writeSet;
+    }
+
     /**
      * 取主键hash
+     *
+     * @deprecated 同步已改为按写集合冲突分组调度，不再使用主键hash分区
      */
+    @Deprecated
     public int pkHash(DbMapping dbMapping, Map<String, Object> d) {
         return pkHash(dbMapping, d, null);
     }
 
+    /**
+     * @deprecated 同步已改为按写集合冲突分组调度，不再使用主键hash分区
+     */
+    @Deprecated
     public int pkHash(DbMapping dbMapping, Map<String, Object> d, Map<String, Object> o) {
         int hash = 0;
         // 取主键
@@ -500,8 +588,6 @@ public class RdbSyncService {
     }
 
     public void close() {
-        for (int i = 0; i < threads; i++) {
-            executorThreads[i].shutdown();
-        }
+        executorThreads.shutdown();
     }
 }
@@ -4,10 +4,13 @@ import java.io.Closeable;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.util.HashMap;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 
 import javax.sql.DataSource;
 
@@ -17,21 +20,40 @@ import org.slf4j.LoggerFactory;
 /**
  * sql批量执行器
  *
+ * <pre>
+ * 1. 同一个链接内按sql文本缓存PreparedStatement，超过cacheSize时关闭最久未使用的
+ * 2. 连续的相同sql通过addBatch/executeBatch批量执行，sql变化或达到batchSize时先执行已累积的批次，保证执行顺序不变
+ * 3. 可忽略异常(如主键冲突)的批次执行失败时，回滚到批次前的savepoint后逐条重放，跳过可忽略的异常，批次完成后释放savepoint
+ * </pre>
+ *
  * @author rewerma 2018-11-7 下午06:45:49
  * @version 1.0.0
  */
 public class BatchExecutor implements Closeable {
 
-    private static final Logger logger = LoggerFactory.getLogger(BatchExecutor.class);
+    private static final Logger            logger      = LoggerFactory.getLogger(BatchExecutor.class);
+
+    private DataSource                     dataSource;
+    private Connection                     conn;
+    private AtomicInteger                  idx         = new AtomicInteger(0);
+    private int                            batchSize   = 1000;                 // 单个批次最多包含的dml数
+    private int                            cacheSize   = 100;                  // 缓存的PreparedStatement数
+    private Predicate<SQLException>        ignorableException;                 // 可忽略的异常，为空时不忽略
 
-    private DataSource          dataSource;
-    private Connection          conn;
-    private AtomicInteger       idx    = new AtomicInteger(0);
+    private Map<String, PreparedStatement> statements  = new StatementCache();
+    private String                         batchSql;                           // 当前批次的sql
+    private boolean                        batchIgnorable;
+    private List<List<Param>>              batchValues = new ArrayList<>();
 
     public BatchExecutor(DataSource dataSource){
         this.dataSource = dataSource;
     }
 
+    public BatchExecutor(DataSource dataSource, Predicate<SQLException> ignorableException){
+        this.dataSource = dataSource;
+        this.ignorableException = ignorableException;
+    }
+
     public Connection getConn() {
         if (conn == null) {
             try {
@@ -44,28 +66,84 @@ public class BatchExecutor implements Closeable {
         return conn;
     }
 
-    public static void setValue(List<Map<String, ?>> values, int type, Object value) {
-        Map<String, Object> valueItem = new HashMap<>();
-        valueItem.put("type", type);
-        valueItem.put("value", value);
-        values.add(valueItem);
+    public static void setValue(List<Param> values, int type, Object value) {
+        values.add(new Param(type, value));
     }
 
-    public void execute(String sql, List<Map<String, ?>> values) throws SQLException {
-        PreparedStatement pstmt = getConn().prepareStatement(sql);
-        int len = values.size();
-        for (int i = 0; i < len; i++) {
-            int type = (Integer) values.get(i).get("type");
-            Object value = values.get(i).get("value");
-            SyncUtil.setPStmt(type, pstmt, value, i + 1);
-        }
-
+    /**
+     * 立即执行，执行前先提交已累积的批次
+     */
+    public void execute(String sql, List<Param> values) throws SQLException {
+        flush();
+        PreparedStatement pstmt = prepare(sql);
+        setValues(pstmt, values);
         pstmt.execute();
         idx.incrementAndGet();
-        pstmt.close();
+    }
+
+    /**
+     * 加入批次，与当前批次的sql不同或批次已满时先执行已累积的批次
+     *
+     * @param ignorable 执行失败时是否可以按ignorableException忽略
+     */
+    public void addBatch(String sql, List<Param> values, boolean ignorable) throws SQLException {
+        if (batchSql != null
+            && (!batchSql.equals(sql) || batchIgnorable != ignorable || batchValues.size() >= batchSize)) {
+            flush();
+        }
+
+        PreparedStatement pstmt = prepare(sql);
+        setValues(pstmt, values);
+        pstmt.addBatch();
+        batchSql = sql;
+        batchIgnorable = ignorable;
+        batchValues.add(values);
+    }
+
+    /**
+     * 执行已累积的批次
+     */
+    public void flush() throws SQLException {
+        if (batchSql == null) {
+            return;
+        }
+
+        PreparedStatement pstmt = statements.get(batchSql);
+        List<List<Param>> rows = batchValues;
+        boolean ignorable = batchIgnorable && ignorableException != null;
+        batchSql = null;
+        batchValues = new ArrayList<>();
+
+        Savepoint savepoint = ignorable ? getConn().setSavepoint() : null;
+        try {
+            pstmt.executeBatch();
+        } catch (SQLException e) {
+            pstmt.clearBatch();
+            if (savepoint == null) {
+                throw e;
+            }
+
+            // 批次中可能存在可忽略的异常，回滚批次后逐条重放
+            getConn().rollback(savepoint);
+            for (List<Param> values : rows) {
+                setValues(pstmt, values);
+                try {
+                    pstmt.executeUpdate();
+                } catch (SQLException e1) {
+                    if (!ignorableException.test(e1)) {
+                        throw e1;
+                    }
+                }
+            }
+        }
+        if (savepoint != null) {
+            releaseSavepoint(savepoint);
+        }
+        idx.addAndGet(rows.size());
     }
 
     public void commit() throws SQLException {
+        flush();
         getConn().commit();
         if (logger.isTraceEnabled()) {
             logger.trace("Batch executor commit " + idx.get() + " rows");
@@ -74,6 +152,7 @@ public class BatchExecutor implements Closeable {
     }
 
     public void rollback() throws SQLException {
+        clearBatch();
         getConn().rollback();
         if (logger.isTraceEnabled()) {
             logger.trace("Batch executor rollback " + idx.get() + " rows");
@@ -81,8 +160,21 @@ public class BatchExecutor implements Closeable {
         idx.set(0);
     }
 
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
     @Override
     public void close() {
+        clearBatch();
+        for (PreparedStatement pstmt : statements.values()) {
+            closeStatement(pstmt);
+        }
+        statements.clear();
         if (conn != null) {
             try {
                 conn.close();
@@ -93,4 +185,96 @@ public class BatchExecutor implements Closeable {
             }
         }
     }
+
+    private PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement pstmt = statements.get(sql);
+        if (pstmt == null) {
+            pstmt = getConn().prepareStatement(sql);
+            statements.put(sql, pstmt);
+        }
+        return pstmt;
+    }
+
+    private void releaseSavepoint(Savepoint savepoint) {
+        try {
+            getConn().releaseSavepoint(savepoint);
+        } catch (SQLException e) {
+            // 部分驱动不支持释放savepoint，事务结束时会一并释放
+            if (logger.isDebugEnabled()) {
+                logger.debug("release savepoint error: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void closeStatement(PreparedStatement pstmt) {
+        try {
+            pstmt.close();
+        } catch (SQLException e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    private void clearBatch() {
+        if (batchSql != null) {
+            try {
+                statements.get(batchSql).clearBatch();
+            } catch (SQLException e) {
+                logger.error(e.getMessage(), e);
+            }
+            batchSql = null;
+            batchValues = new ArrayList<>();
+        }
+    }
+
+    private static void setValues(PreparedStatement pstmt, List<Param> values) throws SQLException {
+        int len = values.size();
+        for (int i = 0; i < len; i++) {
+            Param param = values.get(i);
+            SyncUtil.setPStmt(param.type, pstmt, param.value, i + 1);
+        }
+    }
+
+    /**
+     * 按访问顺序淘汰的PreparedStatement缓存，淘汰时关闭statement
+     */
+    private class StatementCache extends LinkedHashMap<String, PreparedStatement> {
+
+        private static final long serialVersionUID = 1L;
+
+        StatementCache(){
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            // 当前批次的statement还未执行，不能关闭
+            if (size() <= cacheSize || eldest.getKey().equals(batchSql)) {
+                return false;
+            }
+            closeStatement(eldest.getValue());
+            return true;
+        }
+    }
+
+    /**
+     * sql参数
+     */
+    public static class Param {
+
+        private final int    type;
+        private final Object value;
+
+        public Param(int type, Object value){
+            this.type = type;
+            this.value = value;
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+    }
 }
@@ -0,0 +1,85 @@
+package com.alibaba.otter.canal.client.adapter.rdb.support;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按写集合(write-set)冲突关系对dml分组
+ *
+ * <pre>
+ * 1. 每个dml携带其修改的行key(如 表+主键值，主键变更时同时包含新旧主键)
+ * 2. 写集合有交集的dml之间存在依赖，依赖关系的连通分量划为同一组，组内保持原始顺序
+ * 3. 不同组之间没有冲突，可以由不同线程以任意顺序并行执行
+ * </pre>
+ *
+ * @version 1.1.4
+ */
+public class WriteSetPartitioner<T> {
+
+    private Map<Object, Integer> keyNodes  = new HashMap<>();  // key -> 并查集节点
+    private List<Integer>        parents   = new ArrayList<>();
+    private List<T>              items     = new ArrayList<>();
+    private List<Integer>        itemNodes = new ArrayList<>(); // dml -> 所属节点
+
+    /**
+     * 按顺序加入dml及其写集合，写集合不能为空
+     */
+    public void add(T item, Collection<?> keys) {
+        if (keys.isEmpty()) {
+            throw new IllegalArgumentException("write set of item is empty");
+        }
+
+        int node = -1;
+        for (Object key : keys) {
+            Integer keyNode = keyNodes.get(key);
+            if (keyNode == null) {
+                keyNode = parents.size();
+                parents.add(keyNode);
+                keyNodes.put(key, keyNode);
+            }
+            node = node < 0 ? find(keyNode) : union(node, keyNode);
+        }
+        items.add(item);
+        itemNodes.add(node);
+    }
+
+    /**
+     * 返回互不冲突的分组，组内保持加入顺序，按组大小降序排列以便优先调度大的分组
+     */
+    public List<List<T>> partition() {
+        Map<Integer, List<T>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < items.size(); i++) {
+            groups.computeIfAbsent(find(itemNodes.get(i)), k -> new ArrayList<>()).add(items.get(i));
+        }
+        List<List<T>> result = new ArrayList<>(groups.values());
+        result.sort((g1, g2) -> Integer.compare(g2.size(), g1.size()));
+        return result;
+    }
+
+    private int find(int node) {
+        int root = node;
+        while (parents.get(root) != root) {
+            root = parents.get(root);
+        }
+        // 路径压缩
+        while (parents.get(node) != root) {
+            int next = parents.get(node);
+            parents.set(node, root);
+            node = next;
+        }
+        return root;
+    }
+
+    private int union(int node1, int node2) {
+        int root1 = find(node1);
+        int root2 = find(node2);
+        if (root1 != root2) {
+            parents.set(root2, root1);
+        }
+        return root1;
+    }
+}
@@ -0,0 +1,225 @@
+package com.alibaba.otter.canal.client.adapter.rdb.test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.alibaba.otter.canal.client.adapter.rdb.support.BatchExecutor;
+
+public class BatchExecutorTest {
+
+    private static final String INSERT = "INSERT INTO t (id) VALUES (?)";
+    private static final String UPDATE = "UPDATE t SET name=? WHERE id=?";
+
+    @Test
+    public void testBatchConsecutiveSql() throws Exception {
+        FakeDataSource dataSource = new FakeDataSource();
+        BatchExecutor executor = new BatchExecutor(dataSource.proxy());
+        executor.addBatch(INSERT, values(1), true);
+        executor.addBatch(INSERT, values(2), true);
+        executor.addBatch(INSERT, values(3), true);
+        executor.addBatch(UPDATE, values("a", 1), false);
+        executor.addBatch(INSERT, values(4), true);
+        executor.commit();
+        executor.close();
+
+        // 相同的sql只prepare一次，连续的dml合并执行且保持顺序
+        Assert.assertEquals(Arrays.asList("prepare " + INSERT,
+            "executeBatch " + INSERT + " [[1], [2], [3]]",
+            "prepare " + UPDATE,
+            "executeBatch " + UPDATE + " [[a, 1]]",
+            "executeBatch " + INSERT + " [[4]]",
+            "commit",
+            "close " + UPDATE,
+            "close " + INSERT,
+            "close"), dataSource.events);
+    }
+
+    @Test
+    public void testStatementCacheEviction() throws Exception {
+        FakeDataSource dataSource = new FakeDataSource();
+        BatchExecutor executor = new BatchExecutor(dataSource.proxy());
+        executor.setCacheSize(1);
+        executor.addBatch(INSERT, values(1), false);
+        executor.addBatch(UPDATE, values("a", 1), false);
+        executor.addBatch(INSERT, values(2), false);
+        executor.commit();
+
+        // 超过缓存数时关闭最久未使用的statement，之后再用到时重新prepare
+        Assert.assertEquals(Arrays.asList("prepare " + INSERT,
+            "executeBatch " + INSERT + " [[1]]",
+            "prepare " + UPDATE,
+            "close " + INSERT,
+            "executeBatch " + UPDATE + " [[a, 1]]",
+            "prepare " + INSERT,
+            "close " + UPDATE,
+            "executeBatch " + INSERT + " [[2]]",
+            "commit"), dataSource.events);
+    }
+
+    @Test
+    public void testReleaseSavepoint() throws Exception {
+        FakeDataSource dataSource = new FakeDataSource();
+        BatchExecutor executor = new BatchExecutor(dataSource.proxy(),
+            e -> e.getMessage().contains("Duplicate entry"));
+        executor.addBatch(INSERT, values(1), true);
+        executor.addBatch(INSERT, values(2), true);
+        executor.addBatch(UPDATE, values("a", 1), false);
+        executor.commit();
+
+        // 可忽略异常的批次成功后释放savepoint
+        Assert.assertEquals(Arrays.asList("prepare " + INSERT,
+            "setSavepoint",
+            "executeBatch " + INSERT + " [[1], [2]]",
+            "releaseSavepoint",
+            "prepare " + UPDATE,
+            "executeBatch " + UPDATE + " [[a, 1]]",
+            "commit"), dataSource.events);
+    }
+
+    @Test
+    public void testReplayIgnorableBatch() throws Exception {
+        FakeDataSource dataSource = new FakeDataSource();
+        dataSource.duplicate = 2;
+        BatchExecutor executor = new BatchExecutor(dataSource.proxy(),
+            e -> e.getMessage().contains("Duplicate entry"));
+        executor.addBatch(INSERT, values(1), true);
+        executor.addBatch(INSERT, values(2), true);
+        executor.addBatch(INSERT, values(3), true);
+        executor.commit();
+
+        Assert.assertEquals(Arrays.asList("prepare " + INSERT,
+            "setSavepoint",
+            "executeBatch " + INSERT + " [[1], [2], [3]]",
+            "rollback savepoint",
+            "executeUpdate " + INSERT + " [1]",
+            "executeUpdate " + INSERT + " [2]",
+            "executeUpdate " + INSERT + " [3]",
+            "releaseSavepoint",
+            "commit"), dataSource.events);
+    }
+
+    @Test(expected = SQLException.class)
+    public void testNotIgnorableBatch() throws Exception {
+        FakeDataSource dataSource = new FakeDataSource();
+        dataSource.duplicate = 2;
+        BatchExecutor executor = new BatchExecutor(dataSource.proxy());
+        executor.addBatch(INSERT, values(1), true);
+        executor.addBatch(INSERT, values(2), true);
+        executor.commit();
+    }
+
+    private static List<BatchExecutor.Param> values(Object... values) {
+        List<BatchExecutor.Param> params = new ArrayList<>();
+        for (Object value : values) {
+            BatchExecutor.setValue(params, value instanceof String ? Types.VARCHAR : Types.INTEGER, value);
+        }
+        return params;
+    }
+
+    /**
+     * 记录jdbc调用的DataSource，id等于duplicate的insert会抛出主键冲突
+     */
+    private static class FakeDataSource {
+
+        private List<String> events    = new ArrayList<>();
+        private int          duplicate = -1;
+
+        private DataSource proxy() {
+            return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] { DataSource.class },
+                (proxy, method, args) -> {
+                    if ("getConnection".equals(method.getName())) {
+                        return connection();
+                    }
+                    return null;
+                });
+        }
+
+        private Connection connection() {
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] { Connection.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "prepareStatement":
+                            events.add("prepare " + args[0]);
+                            return statement((String) args[0]);
+                        case "setSavepoint":
+                            events.add("setSavepoint");
+                            return Proxy.newProxyInstance(getClass().getClassLoader(),
+                                new Class[] { Savepoint.class },
+                                (p, m, a) -> null);
+                        case "rollback":
+                            events.add(args == null ? "rollback" : "rollback savepoint");
+                            return null;
+                        case "releaseSavepoint":
+                        case "commit":
+                        case "close":
+                            events.add(method.getName());
+                            return null;
+                        default:
+                            return null;
+                    }
+                });
+        }
+
+        private PreparedStatement statement(String sql) {
+            Map<Integer, Object> params = new HashMap<>();
+            List<List<Object>> batch = new ArrayList<>();
+            return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] { PreparedStatement.class },
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (name.startsWith("set") && args.length >= 2) {
+                        params.put((Integer) args[0], args[1]);
+                        return null;
+                    }
+                    switch (name) {
+                        case "addBatch":
+                            batch.add(new ArrayList<>(params.values()));
+                            return null;
+                        case "clearBatch":
+                            batch.clear();
+                            return null;
+                        case "executeBatch":
+                            events.add("executeBatch " + sql + " " + batch);
+                            boolean failed = sql.equals(INSERT) && batch.stream().anyMatch(row -> row.contains(duplicate));
+                            int[] result = new int[batch.size()];
+                            batch.clear();
+                            if (failed) {
+                                throw new SQLException("Duplicate entry '" + duplicate + "' for key 'PRIMARY'");
+                            }
+                            return result;
+                        case "executeUpdate":
+                            List<Object> row = new ArrayList<>(params.values());
+                            events.add("executeUpdate " + sql + " " + row);
+                            if (sql.equals(INSERT) && row.contains(duplicate)) {
+                                throw new SQLException("Duplicate entry '" + duplicate + "' for key 'PRIMARY'");
+                            }
+                            return 1;
+                        case "execute":
+                            events.add("execute " + sql);
+                            return false;
+                        case "close":
+                            events.add("close " + sql);
+                            return null;
+                        default:
+                            return null;
+                    }
+                });
+        }
+    }
+}
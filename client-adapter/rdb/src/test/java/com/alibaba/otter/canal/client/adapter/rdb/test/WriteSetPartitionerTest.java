@@ -0,0 +1,45 @@
+package com.alibaba.otter.canal.client.adapter.rdb.test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.alibaba.otter.canal.client.adapter.rdb.support.WriteSetPartitioner;
+
+public class WriteSetPartitionerTest {
+
+    @Test
+    public void testPartition() {
+        WriteSetPartitioner<String> partitioner = new WriteSetPartitioner<>();
+        partitioner.add("insert 1", Collections.singletonList(1));
+        partitioner.add("insert 2", Collections.singletonList(2));
+        partitioner.add("insert 3", Collections.singletonList(3));
+        partitioner.add("update 1", Collections.singletonList(1));
+        // 主键由3改为4，关联3和4两个key
+        partitioner.add("update 3->4", Arrays.asList(4, 3));
+        partitioner.add("delete 4", Collections.singletonList(4));
+        partitioner.add("insert 5", Collections.singletonList(5));
+
+        List<List<String>> groups = partitioner.partition();
+        Assert.assertEquals(Arrays.asList(Arrays.asList("insert 3", "update 3->4", "delete 4"),
+            Arrays.asList("insert 1", "update 1"),
+            Collections.singletonList("insert 2"),
+            Collections.singletonList("insert 5")), groups);
+    }
+
+    @Test
+    public void testMergeGroups() {
+        WriteSetPartitioner<String> partitioner = new WriteSetPartitioner<>();
+        partitioner.add("a", Collections.singletonList("k1"));
+        partitioner.add("b", Collections.singletonList("k2"));
+        // 同时写k1/k2，前面两个分组合并且保持顺序
+        partitioner.add("c", Arrays.asList("k1", "k2"));
+        partitioner.add("d", Collections.singletonList("k3"));
+
+        List<List<String>> groups = partitioner.partition();
+        Assert.assertEquals(Arrays.asList(Arrays.asList("a", "b", "c"), Collections.singletonList("d")), groups);
+    }
+}
@@ -115,6 +115,8 @@ public interface CanalConnector {
      * 该方法返回的条件：
      *  a. 拿够batchSize条记录或者超过timeout时间
      *  b. 如果timeout=0，则阻塞至拿到batchSize记录才返回
+     *  c. 开启预取时返回的是之前预先发出的GET的结果，batchSize和timeout以发出GET时的参数为准，
+     *     修改参数后最多prefetchSize个batch之后才生效，参见SimpleCanalConnector.setPrefetchSize
      * </pre>
      * 
      * canal 会记住此 client 最新的position。 <br/>
@@ -139,6 +141,10 @@ public interface CanalConnector {
     /**
      * 回滚到未进行 {@link #ack} 的地方，指定回滚具体的batchId
      * 
+     * <pre>
+     * 注意：SimpleCanalConnector开启预取(prefetchSize>0)时，已预取的batch会被丢弃，该方法会退化为 {@link #rollback()}
+     * </pre>
+     * 
      * @throws CanalClientException
      */
     void rollback(long batchId) throws CanalClientException;
@@ -1,9 +1,13 @@
 package com.alibaba.otter.canal.client;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 import com.alibaba.otter.canal.protocol.CanalEntry;
 import com.alibaba.otter.canal.protocol.CanalPacket;
 import com.alibaba.otter.canal.protocol.CanalPacket.Ack;
 import com.alibaba.otter.canal.protocol.CanalPacket.Compression;
+import com.alibaba.otter.canal.protocol.CompressionUtils;
 import com.alibaba.otter.canal.protocol.Message;
 import com.alibaba.otter.canal.protocol.exception.CanalClientException;
 import com.google.protobuf.ByteString;
@@ -19,39 +23,63 @@ public class CanalMessageDeserializer {
             if (data == null) {
                 return null;
             } else {
-                CanalPacket.Packet p = CanalPacket.Packet.parseFrom(data);
-                switch (p.getType()) {
-                    case MESSAGES: {
-                        if (!p.getCompression().equals(Compression.NONE)
-                            && !p.getCompression().equals(Compression.COMPRESSIONCOMPATIBLEPROTO2)) {
-                            throw new CanalClientException("compression is not supported in this connector");
-                        }
-
-                        CanalPacket.Messages messages = CanalPacket.Messages.parseFrom(p.getBody());
-                        Message result = new Message(messages.getBatchId());
-                        if (lazyParseEntry) {
-                            // byteString
-                            result.setRawEntries(messages.getMessagesList());
-                            result.setRaw(true);
-                        } else {
-                            for (ByteString byteString : messages.getMessagesList()) {
-                                result.addEntry(CanalEntry.Entry.parseFrom(byteString));
-                            }
-                            result.setRaw(false);
-                        }
-                        return result;
-                    }
-                    case ACK: {
-                        Ack ack = Ack.parseFrom(p.getBody());
-                        throw new CanalClientException("something goes wrong with reason: " + ack.getErrorMessage());
-                    }
-                    default: {
-                        throw new CanalClientException("unexpected packet type: " + p.getType());
-                    }
-                }
+                return deserializer(CanalPacket.Packet.parseFrom(data), lazyParseEntry);
+            }
+        } catch (Exception e) {
+            throw new CanalClientException("deserializer failed", e);
+        }
+    }
+
+    /**
+     * 直接从ByteBuffer解析，解析结果不会引用data，data可以被复用
+     */
+    public static Message deserializer(ByteBuffer data, boolean lazyParseEntry) {
+        try {
+            if (data == null) {
+                return null;
+            } else {
+                return deserializer(CanalPacket.Packet.parseFrom(data), lazyParseEntry);
             }
         } catch (Exception e) {
             throw new CanalClientException("deserializer failed", e);
         }
     }
+
+    private static Message deserializer(CanalPacket.Packet p, boolean lazyParseEntry) throws IOException {
+        switch (p.getType()) {
+            case MESSAGES: {
+                Compression compression = p.getCompression();
+                if (!CompressionUtils.isSupported(compression)) {
+                    throw new CanalClientException("compression is not supported in this connector");
+                }
+
+                CanalPacket.Messages messages;
+                if (CompressionUtils.isCompressed(compression)) {
+                    // 解压到复用的缓冲后直接解析
+                    messages = CanalPacket.Messages.parseFrom(CompressionUtils.decompress(compression, p.getBody()));
+                } else {
+                    messages = CanalPacket.Messages.parseFrom(p.getBody());
+                }
+                Message result = new Message(messages.getBatchId());
+                if (lazyParseEntry) {
+                    // byteString
+                    result.setRawEntries(messages.getMessagesList());
+                    result.setRaw(true);
+                } else {
+                    for (ByteString byteString : messages.getMessagesList()) {
+                        result.addEntry(CanalEntry.Entry.parseFrom(byteString));
+                    }
+                    result.setRaw(false);
+                }
+                return result;
+            }
+            case ACK: {
+                Ack ack = Ack.parseFrom(p.getBody());
+                throw new CanalClientException("something goes wrong with reason: " + ack.getErrorMessage());
+            }
+            default: {
+                throw new CanalClientException("unexpected packet type: " + p.getType());
+            }
+        }
+    }
 }
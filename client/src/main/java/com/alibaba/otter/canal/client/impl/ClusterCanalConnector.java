@@ -8,6 +8,7 @@ import org.slf4j.LoggerFactory;
 
 import com.alibaba.otter.canal.client.CanalConnector;
 import com.alibaba.otter.canal.client.CanalNodeAccessStrategy;
+import com.alibaba.otter.canal.protocol.CanalPacket.Compression;
 import com.alibaba.otter.canal.protocol.Message;
 import com.alibaba.otter.canal.protocol.exception.CanalClientException;
 
@@ -30,6 +31,8 @@ public class ClusterCanalConnector implements CanalConnector {
     private SimpleCanalConnector    currentConnector;
     private String                  destination;
     private String                  filter;                                                  // 记录上一次的filter提交值,便于自动重试时提交
+    private Compression             compression   = Compression.NONE;                        // 期望server端使用的压缩方式
+    private int                     prefetchSize  = 0;                                       // 预取的batch数，0代表不开启
 
     public ClusterCanalConnector(String username, String password, String destination,
                                  CanalNodeAccessStrategy accessStrategy){
@@ -54,6 +57,8 @@ public class ClusterCanalConnector implements CanalConnector {
                     };
                     currentConnector.setSoTimeout(soTimeout);
                     currentConnector.setIdleTimeout(idleTimeout);
+                    currentConnector.setCompression(compression);
+                    currentConnector.setPrefetchSize(prefetchSize);
                     if (filter != null) {
                         currentConnector.setFilter(filter);
                     }
@@ -308,6 +313,25 @@ public class ClusterCanalConnector implements CanalConnector {
         this.idleTimeout = idleTimeout;
     }
 
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public void setCompression(Compression compression) {
+        this.compression = compression;
+    }
+
+    public int getPrefetchSize() {
+        return prefetchSize;
+    }
+
+    /**
+     * @see SimpleCanalConnector#setPrefetchSize(int)
+     */
+    public void setPrefetchSize(int prefetchSize) {
+        this.prefetchSize = prefetchSize;
+    }
+
     public int getRetryTimes() {
         return retryTimes;
     }
@@ -10,8 +10,15 @@ import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
@@ -37,6 +44,7 @@ import com.alibaba.otter.canal.protocol.CanalPacket.PacketType;
 import com.alibaba.otter.canal.protocol.CanalPacket.Sub;
 import com.alibaba.otter.canal.protocol.CanalPacket.Unsub;
 import com.alibaba.otter.canal.protocol.ClientIdentity;
+import com.alibaba.otter.canal.protocol.CompressionUtils;
 import com.alibaba.otter.canal.protocol.Message;
 import com.alibaba.otter.canal.protocol.exception.CanalClientException;
 import com.google.protobuf.ByteString;
@@ -50,6 +58,8 @@ import com.google.protobuf.ByteString;
 public class SimpleCanalConnector implements CanalConnector {
 
     private static final Logger  logger                = LoggerFactory.getLogger(SimpleCanalConnector.class);
+    private static final int     READ_BUFFER_SIZE      = 8 * 1024;
+    private static final int     MAX_READ_BUFFER_SIZE  = 16 * 1024 * 1024;                                   // 超过该大小的数据包不复用读缓冲
     private SocketAddress        address;
     private String               username;
     private String               password;
@@ -59,10 +69,13 @@ public class SimpleCanalConnector implements CanalConnector {
 
     private final ByteBuffer     readHeader            = ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN);
     private final ByteBuffer     writeHeader           = ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN);
+    private ByteBuffer           readBuffer            = ByteBuffer.allocate(READ_BUFFER_SIZE).order(ByteOrder.BIG_ENDIAN);
     private SocketChannel        channel;
     private ReadableByteChannel  readableChannel;
     private WritableByteChannel  writableChannel;
     private List<Compression>    supportedCompressions = new ArrayList<Compression>();
+    private Compression          compression           = Compression.NONE;                                   // 期望server端使用的压缩方式
+    private Compression          negotiatedCompression = Compression.NONE;                                   // 握手后与server协商一致的压缩方式
     private ClientIdentity       clientIdentity;
     private ClientRunningMonitor runningMonitor;                                                             // 运行控制
     private ZkClientx            zkClientx;
@@ -74,6 +87,12 @@ public class SimpleCanalConnector implements CanalConnector {
     // 读写数据分别使用不同的锁进行控制，减小锁粒度,读也需要排他锁，并发度容易造成数据包混乱，反序列化失败
     private Object               readDataLock          = new Object();
     private Object               writeDataLock         = new Object();
+    private int                  prefetchSize          = 0;                                                  // 预取的batch数，大于0时开启预取，保持该数量的GET在途
+    private MessagePrefetcher    prefetcher;
+    // 预取模式下ack按batch获取的顺序提交，只提交连续已ack的部分
+    private final Object         ackLock               = new Object();
+    private final Deque<Long>    deliveredBatchIds     = new ArrayDeque<Long>();                             // 已返回给调用方但还未提交ack的batchId
+    private final Set<Long>      ackedBatchIds         = new HashSet<Long>();                                // 已ack但前面还有未ack的batchId
 
     private volatile boolean     running               = false;
 
@@ -148,7 +167,7 @@ public class SimpleCanalConnector implements CanalConnector {
             channel.connect(address);
             readableChannel = Channels.newChannel(channel.socket().getInputStream());
             writableChannel = Channels.newChannel(channel.socket().getOutputStream());
-            Packet p = Packet.parseFrom(readNextPacket());
+            Packet p = readNextPacket(data -> Packet.parseFrom(data));
             if (p.getVersion() != 1) {
                 throw new CanalClientException("unsupported version at this client.");
             }
@@ -158,7 +177,13 @@ public class SimpleCanalConnector implements CanalConnector {
             }
             //
             Handshake handshake = Handshake.parseFrom(p.getBody());
+            supportedCompressions.clear();
             supportedCompressions.add(handshake.getSupportedCompressions());
+            if (CompressionUtils.isCompressed(compression) && supportedCompressions.contains(compression)) {
+                negotiatedCompression = compression;
+            } else {
+                negotiatedCompression = Compression.NONE;
+            }
             //
             ClientAuth ca = ClientAuth.newBuilder()
                 .setUsername(username != null ? username : "")
@@ -172,7 +197,7 @@ public class SimpleCanalConnector implements CanalConnector {
                 .build()
                 .toByteArray());
             //
-            Packet ack = Packet.parseFrom(readNextPacket());
+            Packet ack = readNextPacket(data -> Packet.parseFrom(data));
             if (ack.getType() != PacketType.ACK) {
                 throw new CanalClientException("unexpected packet type when ack is expected");
             }
@@ -191,6 +216,14 @@ public class SimpleCanalConnector implements CanalConnector {
     }
 
     private void doDisconnect() throws CanalClientException {
+        if (prefetcher != null) {
+            prefetcher.abort();
+            prefetcher = null;
+        }
+        synchronized (ackLock) {
+            deliveredBatchIds.clear();
+            ackedBatchIds.clear();
+        }
         if (readableChannel != null) {
             quietlyClose(readableChannel);
             readableChannel = null;
@@ -223,6 +256,9 @@ public class SimpleCanalConnector implements CanalConnector {
             return;
         }
         try {
+            if (stopPrefetch()) {
+                rollback();// 已预取的batch被丢弃，需要回滚
+            }
             writeWithHeader(Packet.newBuilder()
                 .setType(PacketType.SUBSCRIPTION)
                 .setBody(Sub.newBuilder()
@@ -234,7 +270,7 @@ public class SimpleCanalConnector implements CanalConnector {
                 .build()
                 .toByteArray());
             //
-            Packet p = Packet.parseFrom(readNextPacket());
+            Packet p = readNextPacket(data -> Packet.parseFrom(data));
             Ack ack = Ack.parseFrom(p.getBody());
             if (ack.getErrorCode() > 0) {
                 throw new CanalClientException("failed to subscribe with reason: " + ack.getErrorMessage());
@@ -252,6 +288,9 @@ public class SimpleCanalConnector implements CanalConnector {
             return;
         }
         try {
+            if (stopPrefetch()) {
+                rollback();// 已预取的batch被丢弃，需要回滚
+            }
             writeWithHeader(Packet.newBuilder()
                 .setType(PacketType.UNSUBSCRIPTION)
                 .setBody(Unsub.newBuilder()
@@ -262,7 +301,7 @@ public class SimpleCanalConnector implements CanalConnector {
                 .build()
                 .toByteArray());
             //
-            Packet p = Packet.parseFrom(readNextPacket());
+            Packet p = readNextPacket(data -> Packet.parseFrom(data));
             Ack ack = Ack.parseFrom(p.getBody());
             if (ack.getErrorCode() > 0) {
                 throw new CanalClientException("failed to unSubscribe with reason: " + ack.getErrorMessage());
@@ -298,28 +337,81 @@ public class SimpleCanalConnector implements CanalConnector {
                 unit = TimeUnit.MILLISECONDS;
             }
 
-            writeWithHeader(Packet.newBuilder()
-                .setType(PacketType.GET)
-                .setBody(Get.newBuilder()
-                    .setAutoAck(false)
-                    .setDestination(clientIdentity.getDestination())
-                    .setClientId(String.valueOf(clientIdentity.getClientId()))
-                    .setFetchSize(size)
-                    .setTimeout(time)
-                    .setUnit(unit.ordinal())
-                    .build()
-                    .toByteString())
-                .build()
-                .toByteArray());
+            if (prefetchSize > 0) {
+                return prefetch(size, time, unit);
+            }
+
+            writeWithHeader(buildGetPacket(size, time, unit));
             return receiveMessages();
         } catch (IOException e) {
             throw new CanalClientException(e);
         }
     }
 
+    private byte[] buildGetPacket(int size, long time, TimeUnit unit) {
+        Packet.Builder packetBuilder = Packet.newBuilder()
+            .setType(PacketType.GET)
+            .setBody(Get.newBuilder()
+                .setAutoAck(false)
+                .setDestination(clientIdentity.getDestination())
+                .setClientId(String.valueOf(clientIdentity.getClientId()))
+                .setFetchSize(size)
+                .setTimeout(time)
+                .setUnit(unit.ordinal())
+                .build()
+                .toByteString());
+        if (CompressionUtils.isCompressed(negotiatedCompression)) {
+            // 告知server本次返回的数据可以压缩
+            packetBuilder.setCompression(negotiatedCompression);
+        }
+        return packetBuilder.build().toByteArray();
+    }
+
+    private Message prefetch(int size, long time, TimeUnit unit) throws IOException {
+        if (prefetcher == null) {
+            prefetcher = new MessagePrefetcher();
+            prefetcher.start();
+        }
+
+        Message message = prefetcher.take(size, time, unit);
+        if (message.getId() != -1) {
+            synchronized (ackLock) {
+                deliveredBatchIds.addLast(message.getId());
+            }
+        }
+        return message;
+    }
+
+    /**
+     * 停止预取，已预取但未返回给调用方的batch会被丢弃，调用方需要随后执行rollback
+     *
+     * @return 是否存在被停止的预取
+     */
+    private boolean stopPrefetch() {
+        if (prefetcher == null) {
+            return false;
+        }
+
+        boolean clean = prefetcher.stop();
+        prefetcher = null;
+        synchronized (ackLock) {
+            deliveredBatchIds.clear();
+            ackedBatchIds.clear();
+        }
+        if (!clean) {
+            // 在途返回的数量已不可信，重建链接保证后续数据包的对应关系
+            logger.warn("prefetch of destination:{} is broken, reconnect to server", clientIdentity.getDestination());
+            doDisconnect();
+            doConnect();
+            if (filter != null) {
+                subscribe(filter);
+            }
+        }
+        return true;
+    }
+
     private Message receiveMessages() throws IOException {
-        byte[] data = readNextPacket();
-        return CanalMessageDeserializer.deserializer(data, lazyParseEntry);
+        return readNextPacket(data -> CanalMessageDeserializer.deserializer(data, lazyParseEntry));
     }
 
     public void ack(long batchId) throws CanalClientException {
@@ -327,24 +419,61 @@ public class SimpleCanalConnector implements CanalConnector {
         if (!running) {
             return;
         }
+        try {
+            if (prefetchSize > 0) {
+                ackInOrder(batchId);
+            } else {
+                writeWithHeader(buildAckPacket(batchId));
+            }
+        } catch (IOException e) {
+            throw new CanalClientException(e);
+        }
+    }
+
+    /**
+     * server要求按batch获取的顺序ack，乱序的ack先暂存，连续的部分合并为一次写出，不等待server响应
+     */
+    private void ackInOrder(long batchId) throws IOException {
+        synchronized (ackLock) {
+            List<byte[]> packets = new ArrayList<byte[]>();
+            if (!deliveredBatchIds.contains(batchId)) {
+                // 不是本次预取返回的batch，直接提交由server校验
+                packets.add(buildAckPacket(batchId));
+            } else {
+                ackedBatchIds.add(batchId);
+                while (!deliveredBatchIds.isEmpty() && ackedBatchIds.remove(deliveredBatchIds.peekFirst())) {
+                    packets.add(buildAckPacket(deliveredBatchIds.pollFirst()));
+                }
+            }
+
+            if (!packets.isEmpty()) {
+                writeWithHeader(writableChannel, packets);
+            }
+        }
+    }
+
+    private byte[] buildAckPacket(long batchId) {
         ClientAck ca = ClientAck.newBuilder()
             .setDestination(clientIdentity.getDestination())
             .setClientId(String.valueOf(clientIdentity.getClientId()))
             .setBatchId(batchId)
             .build();
-        try {
-            writeWithHeader(Packet.newBuilder()
-                .setType(PacketType.CLIENTACK)
-                .setBody(ca.toByteString())
-                .build()
-                .toByteArray());
-        } catch (IOException e) {
-            throw new CanalClientException(e);
-        }
+        return Packet.newBuilder().setType(PacketType.CLIENTACK).setBody(ca.toByteString()).build().toByteArray();
     }
 
+    /**
+     * 开启预取时，已预取的batch会被丢弃，指定batchId的回滚会退化为全部回滚，回滚所有未ack的batch
+     */
     public void rollback(long batchId) throws CanalClientException {
         waitClientRunning();
+        if (stopPrefetch()) {
+            if (batchId != 0) {
+                logger.warn("prefetch of destination:{} is enabled, rollback of batchId:{} falls back to rollback all",
+                    clientIdentity.getDestination(),
+                    batchId);
+            }
+            batchId = 0;// 已预取的batch被丢弃，只能全部回滚
+        }
         ClientRollback ca = ClientRollback.newBuilder()
             .setDestination(clientIdentity.getDestination())
             .setClientId(String.valueOf(clientIdentity.getClientId()))
@@ -372,8 +501,8 @@ public class SimpleCanalConnector implements CanalConnector {
         writeWithHeader(writableChannel, body);
     }
 
-    private byte[] readNextPacket() throws IOException {
-        return readNextPacket(readableChannel);
+    private <T> T readNextPacket(PacketParser<T> parser) throws IOException {
+        return readNextPacket(readableChannel, parser);
     }
 
     private void writeWithHeader(WritableByteChannel channel, byte[] body) throws IOException {
@@ -386,17 +515,50 @@ public class SimpleCanalConnector implements CanalConnector {
         }
     }
 
-    private byte[] readNextPacket(ReadableByteChannel channel) throws IOException {
+    private void writeWithHeader(WritableByteChannel channel, List<byte[]> bodies) throws IOException {
+        int size = 0;
+        for (byte[] body : bodies) {
+            size += writeHeader.capacity() + body.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.BIG_ENDIAN);
+        for (byte[] body : bodies) {
+            buffer.putInt(body.length);
+            buffer.put(body);
+        }
+        buffer.flip();
+        synchronized (writeDataLock) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * 读取下一个数据包并在读锁内完成解析，读取用的ByteBuffer会被下一次读取复用，parser不能在返回结果中引用它
+     */
+    private <T> T readNextPacket(ReadableByteChannel channel, PacketParser<T> parser) throws IOException {
         synchronized (readDataLock) {
             readHeader.clear();
             read(channel, readHeader);
             int bodyLen = readHeader.getInt(0);
-            ByteBuffer bodyBuf = ByteBuffer.allocate(bodyLen).order(ByteOrder.BIG_ENDIAN);
+            ByteBuffer bodyBuf = readBuffer;
+            if (bodyLen > bodyBuf.capacity()) {
+                bodyBuf = ByteBuffer.allocate(bodyLen).order(ByteOrder.BIG_ENDIAN);
+                if (bodyLen <= MAX_READ_BUFFER_SIZE) {
+                    readBuffer = bodyBuf;
+                }
+            }
+            bodyBuf.clear();
+            bodyBuf.limit(bodyLen);
             read(channel, bodyBuf);
-            return bodyBuf.array();
+            bodyBuf.flip();
+            return parser.parse(bodyBuf);
         }
     }
 
+    private interface PacketParser<T> {
+
+        T parse(ByteBuffer data) throws IOException;
+    }
+
     private void read(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
         while (buffer.hasRemaining()) {
             int r = channel.read(buffer);
@@ -525,6 +687,35 @@ public class SimpleCanalConnector implements CanalConnector {
         this.lazyParseEntry = lazyParseEntry;
     }
 
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public void setCompression(Compression compression) {
+        if (!CompressionUtils.isSupported(compression)) {
+            throw new CanalClientException("compression " + compression + " is not supported in this connector");
+        }
+        this.compression = compression;
+    }
+
+    public int getPrefetchSize() {
+        return prefetchSize;
+    }
+
+    /**
+     * 设置预取的batch数，大于0时开启预取，getWithoutAck返回前会补齐prefetchSize个在途的GET
+     *
+     * <pre>
+     * 注意：在途的GET在发出时就带上了当次调用的batchSize和timeout，已发出的GET无法撤回，
+     * 调用方修改batchSize/timeout后，最多还会返回prefetchSize个按之前参数获取的batch，之后补齐的GET才使用新的参数。
+     * timeout在后台读取时已经等待，getWithoutAck本身可能立即返回。对参数有严格要求时不要开启预取
+     * 开启预取后rollback(batchId)会丢弃已预取的batch，退化为全部回滚
+     * </pre>
+     */
+    public void setPrefetchSize(int prefetchSize) {
+        this.prefetchSize = prefetchSize;
+    }
+
     public void stopRunning() {
         if (running) {
             running = false; // 设置为非running状态
@@ -534,4 +725,115 @@ public class SimpleCanalConnector implements CanalConnector {
         }
     }
 
+    /**
+     * 预取：调用线程补齐在途的GET请求，后台线程按顺序读取server返回的数据包
+     *
+     * <pre>
+     * 1. server按请求顺序处理同一个链接上的GET，返回的数据包与GET一一对应
+     * 2. 已发送GET但还未被取走的batch数不超过prefetchSize
+     * 3. 出现异常后在途数量不再可信，停止时需要重建链接
+     * </pre>
+     */
+    private class MessagePrefetcher implements Runnable {
+
+        private final BlockingQueue<Object> messages  = new LinkedBlockingQueue<Object>(); // Message或读取时的异常
+        private final Semaphore             responses = new Semaphore(0);                  // 待读取的返回数
+        private int                         inflight  = 0;                                 // 已发送GET但还未被取走的数量
+        private volatile boolean            broken    = false;
+        private Thread                      thread;
+
+        void start() {
+            thread = new Thread(this, "canal-client-prefetch-" + clientIdentity.getDestination());
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        synchronized Message take(int size, long time, TimeUnit unit) throws IOException {
+            if (broken) {
+                throw new CanalClientException("prefetch is broken, should rollback first");
+            }
+
+            while (inflight < prefetchSize) {
+                writeWithHeader(buildGetPacket(size, time, unit));
+                inflight++;
+                responses.release();
+            }
+
+            Object result;
+            try {
+                result = messages.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CanalClientException(e);
+            }
+            inflight--;
+            if (result instanceof Message) {
+                return (Message) result;
+            }
+
+            broken = true;
+            if (result instanceof IOException) {
+                throw (IOException) result;
+            } else if (result instanceof CanalClientException) {
+                throw (CanalClientException) result;
+            } else {
+                throw new CanalClientException((Throwable) result);
+            }
+        }
+
+        public void run() {
+            while (true) {
+                try {
+                    responses.acquire();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                try {
+                    messages.add(receiveMessages());
+                } catch (Throwable e) {
+                    messages.add(e);
+                    if (e instanceof IOException) {
+                        return; // 链接已不可用
+                    }
+                }
+            }
+        }
+
+        /**
+         * 读完在途的返回并丢弃，返回false代表无法确认数据包的对应关系
+         */
+        synchronized boolean stop() {
+            boolean clean = !broken;
+            try {
+                while (clean && inflight > 0) {
+                    Object result = messages.poll(soTimeout, TimeUnit.MILLISECONDS);
+                    clean = result instanceof Message;
+                    inflight--;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                clean = false;
+            }
+
+            if (clean) {
+                // 在途的返回都已读完，后台线程此时只会阻塞在等待新的GET上
+                thread.interrupt();
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else {
+                abort();
+            }
+            return clean;
+        }
+
+        void abort() {
+            broken = true;
+            thread.interrupt();
+        }
+    }
+
 }
@@ -0,0 +1,140 @@
+package com.alibaba.otter.canal.client;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.alibaba.otter.canal.protocol.CanalPacket.Compression;
+import com.alibaba.otter.canal.protocol.CanalPacket.Messages;
+import com.alibaba.otter.canal.protocol.CanalPacket.Packet;
+import com.alibaba.otter.canal.protocol.CanalPacket.PacketType;
+import com.alibaba.otter.canal.protocol.CompressionUtils;
+import com.alibaba.otter.canal.protocol.Message;
+import com.google.protobuf.ByteString;
+
+/**
+ * 对比不同压缩方式下MESSAGES数据包的网络字节数以及每MB数据的压缩/解压cpu耗时
+ *
+ * <pre>
+ * 数据包的构造方式与server端一致，解压使用client端的CanalMessageDeserializer
+ * </pre>
+ */
+public class CompressionPerformanceTest {
+
+    private static final int  BATCH_SIZE = 1000;
+    private static final int  LOOP       = 200;
+    private static final long MB         = 1024 * 1024;
+
+    public static void main(String args[]) throws Exception {
+        List<ByteString> entries = buildEntries();
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        for (Compression compression : new Compression[] { Compression.NONE, Compression.ZLIB, Compression.GZIP }) {
+            // warm up
+            for (int i = 0; i < 10; i++) {
+                CanalMessageDeserializer.deserializer(buildPacket(entries, compression), true);
+            }
+
+            long rawBytes = 0;
+            long wireBytes = 0;
+            long compressCpu = 0;
+            long decompressCpu = 0;
+            for (int i = 0; i < LOOP; i++) {
+                long start = threadMXBean.getCurrentThreadCpuTime();
+                byte[] packet = buildPacket(entries, compression);
+                long middle = threadMXBean.getCurrentThreadCpuTime();
+                Message message = CanalMessageDeserializer.deserializer(packet, true);
+                long end = threadMXBean.getCurrentThreadCpuTime();
+
+                if (message.getRawEntries().size() != BATCH_SIZE) {
+                    throw new IllegalStateException("unexpected entry size " + message.getRawEntries().size());
+                }
+                rawBytes += Messages.newBuilder().setBatchId(i).addAllMessages(entries).build().getSerializedSize();
+                wireBytes += packet.length;
+                compressCpu += middle - start;
+                decompressCpu += end - middle;
+            }
+
+            double rawMB = (double) rawBytes / MB;
+            System.out.println(String.format("%-5s wire bytes : %d (%.1f%%), compress cpu : %.2f ms/MB, decompress cpu : %.2f ms/MB",
+                compression,
+                wireBytes / LOOP,
+                wireBytes * 100.0 / rawBytes,
+                compressCpu / 1000000.0 / rawMB,
+                decompressCpu / 1000000.0 / rawMB));
+        }
+    }
+
+    private static byte[] buildPacket(List<ByteString> entries, Compression compression) throws Exception {
+        Messages messages = Messages.newBuilder().setBatchId(1L).addAllMessages(entries).build();
+        if (!CompressionUtils.isCompressed(compression)) {
+            return Packet.newBuilder()
+                .setType(PacketType.MESSAGES)
+                .setBody(messages.toByteString())
+                .build()
+                .toByteArray();
+        }
+
+        ByteString.Output compressed = ByteString.newOutput();
+        try (OutputStream out = CompressionUtils.compress(compression, compressed)) {
+            messages.writeTo(out);
+        }
+        return Packet.newBuilder()
+            .setType(PacketType.MESSAGES)
+            .setCompression(compression)
+            .setBody(compressed.toByteString())
+            .build()
+            .toByteArray();
+    }
+
+    private static List<ByteString> buildEntries() {
+        List<ByteString> entries = new ArrayList<ByteString>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            CanalEntry.RowData.Builder rowData = CanalEntry.RowData.newBuilder();
+            rowData.addAfterColumns(CanalEntry.Column.newBuilder()
+                .setName("id")
+                .setIndex(0)
+                .setIsKey(true)
+                .setSqlType(-5)
+                .setMysqlType("bigint(20)")
+                .setValue(String.valueOf(i))
+                .build());
+            rowData.addAfterColumns(CanalEntry.Column.newBuilder()
+                .setName("name")
+                .setIndex(1)
+                .setSqlType(12)
+                .setMysqlType("varchar(32)")
+                .setValue("name_" + i)
+                .build());
+            rowData.addAfterColumns(CanalEntry.Column.newBuilder()
+                .setName("gmt_modified")
+                .setIndex(2)
+                .setSqlType(93)
+                .setMysqlType("datetime")
+                .setValue("2019-01-01 00:00:00")
+                .build());
+
+            CanalEntry.RowChange rowChange = CanalEntry.RowChange.newBuilder()
+                .setEventType(CanalEntry.EventType.INSERT)
+                .addRowDatas(rowData)
+                .build();
+            CanalEntry.Header header = CanalEntry.Header.newBuilder()
+                .setLogfileName("mysql-bin.000001")
+                .setLogfileOffset(i * 100L)
+                .setSchemaName("test")
+                .setTableName("t" + (i % 4))
+                .setEventType(CanalEntry.EventType.INSERT)
+                .setExecuteTime(System.currentTimeMillis())
+                .build();
+            entries.add(CanalEntry.Entry.newBuilder()
+                .setEntryType(CanalEntry.EntryType.ROWDATA)
+                .setHeader(header)
+                .setStoreValue(rowChange.toByteString())
+                .build()
+                .toByteString());
+        }
+        return entries;
+    }
+}
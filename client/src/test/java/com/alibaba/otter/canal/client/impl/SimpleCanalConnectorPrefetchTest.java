@@ -0,0 +1,326 @@
+package com.alibaba.otter.canal.client.impl;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.otter.canal.protocol.CanalPacket.Ack;
+import com.alibaba.otter.canal.protocol.CanalPacket.ClientAck;
+import com.alibaba.otter.canal.protocol.CanalPacket.ClientRollback;
+import com.alibaba.otter.canal.protocol.CanalPacket.Compression;
+import com.alibaba.otter.canal.protocol.CanalPacket.Get;
+import com.alibaba.otter.canal.protocol.CanalPacket.Handshake;
+import com.alibaba.otter.canal.protocol.CanalPacket.Messages;
+import com.alibaba.otter.canal.protocol.CanalPacket.Packet;
+import com.alibaba.otter.canal.protocol.CanalPacket.PacketType;
+import com.alibaba.otter.canal.protocol.Message;
+import com.google.protobuf.ByteString;
+
+public class SimpleCanalConnectorPrefetchTest {
+
+    private static final String  DESTINATION = "example";
+    private static final long    WAIT        = 2000L;
+
+    private StubCanalServer      server;
+    private SimpleCanalConnector connector;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubCanalServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (connector != null) {
+            connector.disconnect();
+        }
+        server.stop();
+    }
+
+    @Test
+    public void testPrefetchOrder() throws Exception {
+        connect(3, 60000);
+        for (long i = 1; i <= 5; i++) {
+            Assert.assertEquals(i, connector.getWithoutAck(10).getId());
+        }
+        // 首次补齐3个GET，之后每取走一个补一个
+        for (int i = 0; i < 7; i++) {
+            Assert.assertEquals(Integer.valueOf(10), server.gets.poll(WAIT, TimeUnit.MILLISECONDS));
+        }
+        Assert.assertNull(server.gets.poll(200, TimeUnit.MILLISECONDS));
+
+        // 修改batchSize后返回的仍是之前发出的GET，新补齐的GET才使用新的参数
+        Assert.assertEquals(6L, connector.getWithoutAck(20).getId());
+        Assert.assertEquals(Integer.valueOf(20), server.gets.poll(WAIT, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testAckInOrder() throws Exception {
+        connect(3, 60000);
+        for (long i = 1; i <= 3; i++) {
+            Assert.assertEquals(i, connector.getWithoutAck(10).getId());
+        }
+
+        // 前面的batch没有ack时暂存，连续后一次提交
+        connector.ack(3);
+        connector.ack(2);
+        Assert.assertNull(server.acks.poll(200, TimeUnit.MILLISECONDS));
+        connector.ack(1);
+        for (long i = 1; i <= 3; i++) {
+            Assert.assertEquals(Long.valueOf(i), server.acks.poll(WAIT, TimeUnit.MILLISECONDS));
+        }
+
+        // 不是预取返回的batch直接提交
+        connector.ack(100);
+        Assert.assertEquals(Long.valueOf(100), server.acks.poll(WAIT, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testRollbackWhileInflight() throws Exception {
+        connect(3, 60000);
+        final StubConnection connection = server.connections.get(0);
+        connection.hold(1);
+        Message message = connector.getWithoutAck(10);
+        Assert.assertEquals(1L, message.getId());
+
+        // rollback时等待在途的返回读完并丢弃，链接可以继续使用
+        new Thread() {
+
+            public void run() {
+                pause(100);
+                connection.release(2);
+            }
+        }.start();
+        connector.rollback(message.getId());
+        Assert.assertEquals(Long.valueOf(0), server.rollbacks.poll(WAIT, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(1, server.connections.size());
+
+        // 重新开始预取，被丢弃的batch由server rollback后重新返回
+        Assert.assertEquals(4L, connector.getWithoutAck(10).getId());
+        connector.ack(4);
+        Assert.assertEquals(Long.valueOf(4), server.acks.poll(WAIT, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testStopBrokenPrefetch() throws Exception {
+        connect(3, 300);
+        server.connections.get(0).hold(1);
+        Assert.assertEquals(1L, connector.getWithoutAck(10).getId());
+
+        // 在途的返回等不到，无法确认数据包的对应关系，重建链接后再rollback
+        connector.rollback(1);
+        Assert.assertEquals(2, server.connections.size());
+        Assert.assertEquals(Long.valueOf(0), server.rollbacks.poll(WAIT, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(server.connections.get(1), server.rollbackConnection);
+
+        Assert.assertEquals(2L, connector.getWithoutAck(10).getId());
+    }
+
+    @Test
+    public void testDisconnect() throws Exception {
+        connect(2, 60000);
+        server.connections.get(0).hold(1);
+        Assert.assertEquals(1L, connector.getWithoutAck(10).getId());
+
+        // 断开链接时停止后台读取线程，不等待在途的返回
+        connector.disconnect();
+        long deadline = System.currentTimeMillis() + WAIT;
+        while (prefetchThreadAlive() && System.currentTimeMillis() < deadline) {
+            pause(10);
+        }
+        Assert.assertFalse(prefetchThreadAlive());
+
+        // 重新链接后从新的链接预取，之前返回的batch不再参与顺序ack
+        connector.connect();
+        Assert.assertEquals(2, server.connections.size());
+        Assert.assertEquals(2L, connector.getWithoutAck(10).getId());
+        connector.ack(2);
+        Assert.assertEquals(Long.valueOf(2), server.acks.poll(WAIT, TimeUnit.MILLISECONDS));
+    }
+
+    private void connect(int prefetchSize, int soTimeout) {
+        connector = new SimpleCanalConnector(server.getAddress(), "", "", DESTINATION, soTimeout);
+        connector.setRollbackOnConnect(false);
+        connector.setPrefetchSize(prefetchSize);
+        connector.connect();
+    }
+
+    private boolean prefetchThreadAlive() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().equals("canal-client-prefetch-" + DESTINATION)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 模拟canal server，按请求顺序返回GET，batchId递增，记录收到的GET/ack/rollback
+     */
+    private static class StubCanalServer implements Runnable {
+
+        private final ServerSocket               serverSocket;
+        private final List<StubConnection>       connections = new CopyOnWriteArrayList<StubConnection>();
+        private final AtomicLong                 batchId     = new AtomicLong(0);
+        private final BlockingQueue<Integer>     gets        = new LinkedBlockingQueue<Integer>();
+        private final BlockingQueue<Long>        acks        = new LinkedBlockingQueue<Long>();
+        private final BlockingQueue<Long>        rollbacks   = new LinkedBlockingQueue<Long>();
+        private volatile StubConnection          rollbackConnection;
+
+        StubCanalServer() throws IOException{
+            serverSocket = new ServerSocket(0);
+        }
+
+        void start() {
+            Thread thread = new Thread(this, "stub-canal-server");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        InetSocketAddress getAddress() {
+            return new InetSocketAddress("127.0.0.1", serverSocket.getLocalPort());
+        }
+
+        public void run() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    StubConnection connection = new StubConnection(this, serverSocket.accept());
+                    connections.add(connection);
+                    connection.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        void stop() {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            for (StubConnection connection : connections) {
+                connection.close();
+            }
+        }
+    }
+
+    private static class StubConnection extends Thread {
+
+        private final StubCanalServer server;
+        private final Socket          socket;
+        private final Semaphore       responses = new Semaphore(Integer.MAX_VALUE);
+
+        StubConnection(StubCanalServer server, Socket socket){
+            super("stub-canal-connection");
+            setDaemon(true);
+            this.server = server;
+            this.socket = socket;
+        }
+
+        /**
+         * 只返回接下来的permits个GET，之后的GET挂起直到release
+         */
+        void hold(int permits) {
+            responses.drainPermits();
+            responses.release(permits);
+        }
+
+        void release(int permits) {
+            responses.release(permits);
+        }
+
+        public void run() {
+            try {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                write(out, PacketType.HANDSHAKE, Handshake.newBuilder()
+                    .setSupportedCompressions(Compression.NONE)
+                    .build()
+                    .toByteArray());
+                read(in); // ClientAuth
+                write(out, PacketType.ACK, Ack.newBuilder().build().toByteArray());
+
+                while (true) {
+                    Packet packet = read(in);
+                    switch (packet.getType()) {
+                        case GET:
+                            server.gets.add(Get.parseFrom(packet.getBody()).getFetchSize());
+                            responses.acquire();
+                            write(out, PacketType.MESSAGES, Messages.newBuilder()
+                                .setBatchId(server.batchId.incrementAndGet())
+                                .build()
+                                .toByteArray());
+                            break;
+                        case CLIENTACK:
+                            server.acks.add(ClientAck.parseFrom(packet.getBody()).getBatchId());
+                            break;
+                        case CLIENTROLLBACK:
+                            server.rollbackConnection = this;
+                            server.rollbacks.add(ClientRollback.parseFrom(packet.getBody()).getBatchId());
+                            break;
+                        default:
+                            write(out, PacketType.ACK, Ack.newBuilder().build().toByteArray());
+                            break;
+                    }
+                }
+            } catch (IOException e) {
+                // client关闭链接
+            } catch (InterruptedException e) {
+                // server关闭
+            } finally {
+                close();
+            }
+        }
+
+        void close() {
+            interrupt();
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+
+        private Packet read(DataInputStream in) throws IOException {
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            return Packet.parseFrom(body);
+        }
+
+        private void write(DataOutputStream out, PacketType type, byte[] body) throws IOException {
+            byte[] packet = Packet.newBuilder()
+                .setType(type)
+                .setBody(ByteString.copyFrom(body))
+                .build()
+                .toByteArray();
+            out.writeInt(packet.length);
+            out.write(packet);
+            out.flush();
+        }
+    }
+}
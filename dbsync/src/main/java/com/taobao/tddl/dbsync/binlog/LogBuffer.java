@@ -61,6 +61,16 @@ public class LogBuffer {
         return dupBuffer;
     }
 
+    /**
+     * Return n bytes in this buffer without memory copy, the returned buffer
+     * shares the backing array with this buffer, so it must be read only.
+     */
+    public final LogBuffer share(final int pos, final int len) {
+        if (pos + len > limit) throw new IllegalArgumentException("limit excceed: " + (pos + len));
+
+        return new LogBuffer(buffer, origin + pos, len);
+    }
+
     /**
      * Return next n bytes in this buffer.
      */
@@ -70,6 +80,32 @@ public class LogBuffer {
         return new LogBuffer(buf, 0, limit);
     }
 
+    /**
+     * Return all remaining data copied into the given array, the array can be
+     * reused once the returned buffer is no longer in use.
+     */
+    public final LogBuffer duplicateTo(byte[] dest) {
+        if (limit > dest.length) throw new IllegalArgumentException("limit excceed: " + limit);
+
+        System.arraycopy(buffer, origin, dest, 0, limit);
+        return new LogBuffer(dest, 0, limit);
+    }
+
+    /**
+     * Returns the backing array of this buffer, the array is shared so it
+     * must be read only.
+     */
+    public final byte[] array() {
+        return buffer;
+    }
+
+    /**
+     * Returns the offset within the backing array of this buffer's position.
+     */
+    public final int arrayPosition() {
+        return position;
+    }
+
     /**
      * Returns this buffer's capacity. </p>
      * 
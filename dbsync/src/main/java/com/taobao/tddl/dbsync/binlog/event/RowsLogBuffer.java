@@ -3,7 +3,9 @@ package com.taobao.tddl.dbsync.binlog.event;
 import java.io.Serializable;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -13,6 +15,7 @@ import com.taobao.tddl.dbsync.binlog.JsonConversion.Json_Value;
 import com.taobao.tddl.dbsync.binlog.JsonDiffConversion;
 import com.taobao.tddl.dbsync.binlog.LogBuffer;
 import com.taobao.tddl.dbsync.binlog.LogEvent;
+import com.taobao.tddl.dbsync.binlog.event.TableMapLogEvent.ColumnInfo;
 
 /**
  * Extracting JDBC type & value information from packed rows-buffer.
@@ -126,6 +129,24 @@ public final class RowsLogBuffer {
         }
     }
 
+    /**
+     * Extracting next field value from packed buffer, and push the typed value
+     * to the sink without boxing or string formatting. Only {@link #isNull()}
+     * is updated for this path, the value/javaType/length accessors are not.
+     *
+     * @see RowsValueSink
+     */
+    public final void nextValue(final String columName, final int columnIndex, final int type, final int meta,
+                                boolean isBinary, RowsValueSink sink) {
+        fNull = nullBits.get(nullBitIndex++);
+
+        if (fNull) {
+            sink.onNull(columnIndex, mysqlToJavaType(type, meta, isBinary));
+        } else {
+            pushValue(columName, columnIndex, type, meta, isBinary, sink);
+        }
+    }
+
     /**
      * Maps the given MySQL type to the correct JDBC type.
      */
@@ -1146,6 +1167,528 @@ public final class RowsLogBuffer {
         return value;
     }
 
+    /**
+     * Extracting next field value from packed buffer into the sink.
+     *
+     * @see #fetchValue(String, int, int, int, boolean)
+     */
+    final void pushValue(String columnName, int columnIndex, int type, final int meta, boolean isBinary,
+                         RowsValueSink sink) {
+        int len = 0;
+
+        if (type == LogEvent.MYSQL_TYPE_STRING) {
+            if (meta >= 256) {
+                int byte0 = meta >> 8;
+                int byte1 = meta & 0xff;
+                if ((byte0 & 0x30) != 0x30) {
+                    /* a long CHAR() field: see #37426 */
+                    len = byte1 | (((byte0 & 0x30) ^ 0x30) << 4);
+                    type = byte0 | 0x30;
+                } else {
+                    switch (byte0) {
+                        case LogEvent.MYSQL_TYPE_SET:
+                        case LogEvent.MYSQL_TYPE_ENUM:
+                        case LogEvent.MYSQL_TYPE_STRING:
+                            type = byte0;
+                            len = byte1;
+                            break;
+                        default:
+                            throw new IllegalArgumentException(String.format("!! Don't know how to handle column type=%d meta=%d (%04X)",
+                                type,
+                                meta,
+                                meta));
+                    }
+                }
+            } else {
+                len = meta;
+            }
+        }
+
+        switch (type) {
+            case LogEvent.MYSQL_TYPE_LONG:
+                sink.onLong(columnIndex, Types.INTEGER, buffer.getInt32(), 4);
+                break;
+            case LogEvent.MYSQL_TYPE_TINY:
+                sink.onLong(columnIndex, Types.TINYINT, buffer.getInt8(), 1);
+                break;
+            case LogEvent.MYSQL_TYPE_SHORT:
+                sink.onLong(columnIndex, Types.SMALLINT, (short) buffer.getInt16(), 2);
+                break;
+            case LogEvent.MYSQL_TYPE_INT24:
+                sink.onLong(columnIndex, Types.INTEGER, buffer.getInt24(), 3);
+                break;
+            case LogEvent.MYSQL_TYPE_LONGLONG:
+                sink.onLong(columnIndex, Types.BIGINT, buffer.getLong64(), 8);
+                break;
+            case LogEvent.MYSQL_TYPE_DECIMAL:
+                sink.onNull(columnIndex, Types.DECIMAL);
+                break;
+            case LogEvent.MYSQL_TYPE_NEWDECIMAL:
+                sink.onDecimal(columnIndex, buffer.getDecimal(meta >> 8, meta & 0xff));
+                break;
+            case LogEvent.MYSQL_TYPE_FLOAT:
+                sink.onDouble(columnIndex, Types.REAL, buffer.getFloat32());
+                break;
+            case LogEvent.MYSQL_TYPE_DOUBLE:
+                sink.onDouble(columnIndex, Types.DOUBLE, buffer.getDouble64());
+                break;
+            case LogEvent.MYSQL_TYPE_BIT: {
+                /* Meta-data: bit_len, bytes_in_rec, 2 bytes */
+                final int nbits = ((meta >> 8) * 8) + (meta & 0xff);
+                len = (nbits + 7) / 8;
+                long bits;
+                if (nbits > 1) {
+                    switch (len) {
+                        case 1:
+                            bits = buffer.getUint8();
+                            break;
+                        case 2:
+                            bits = buffer.getBeUint16();
+                            break;
+                        case 3:
+                            bits = buffer.getBeUint24();
+                            break;
+                        case 4:
+                            bits = buffer.getBeUint32();
+                            break;
+                        case 5:
+                            bits = buffer.getBeUlong40();
+                            break;
+                        case 6:
+                            bits = buffer.getBeUlong48();
+                            break;
+                        case 7:
+                            bits = buffer.getBeUlong56();
+                            break;
+                        case 8:
+                            bits = buffer.getBeLong64();
+                            break;
+                        default:
+                            throw new IllegalArgumentException("!! Unknown Bit len = " + len);
+                    }
+                } else {
+                    bits = buffer.getInt8();
+                }
+                sink.onLong(columnIndex, Types.BIT, bits, nbits);
+                break;
+            }
+            case LogEvent.MYSQL_TYPE_TIMESTAMP:
+                sink.onTimestamp(columnIndex, buffer.getUint32(), 0, 0);
+                break;
+            case LogEvent.MYSQL_TYPE_TIMESTAMP2: {
+                final long tv_sec = buffer.getBeUint32(); // big-endian
+                sink.onTimestamp(columnIndex, tv_sec, getFraction(meta), meta);
+                break;
+            }
+            case LogEvent.MYSQL_TYPE_DATETIME: {
+                final long i64 = buffer.getLong64(); /* YYYYMMDDhhmmss */
+                final int d = (int) (i64 / 1000000);
+                final int t = (int) (i64 % 1000000);
+                sink.onDatetime(columnIndex,
+                    Types.TIMESTAMP,
+                    d / 10000,
+                    (d % 10000) / 100,
+                    d % 100,
+                    t / 10000,
+                    (t % 10000) / 100,
+                    t % 100,
+                    0,
+                    0);
+                break;
+            }
+            case LogEvent.MYSQL_TYPE_DATETIME2: {
+                long intpart = buffer.getBeUlong40() - DATETIMEF_INT_OFS; // big-endian
+                int frac = getFraction(meta);
+                long ymd = intpart >> 17;
+                long ym = ymd >> 5;
+                long hms = intpart % (1 << 17);
+                sink.onDatetime(columnIndex,
+                    Types.TIMESTAMP,
+                    (int) (ym / 13),
+                    (int) (ym % 13),
+                    (int) (ymd % (1 << 5)),
+                    (int) (hms >> 12),
+                    (int) ((hms >> 6) % (1 << 6)),
+                    (int) (hms % (1 << 6)),
+                    frac,
+                    meta);
+                break;
+            }
+            case LogEvent.MYSQL_TYPE_TIME: {
+                final int i32 = buffer.getInt24();
+                final int u32 = Math.abs(i32);
+                sink.onTime(columnIndex, i32 < 0, u32 / 10000, (u32 % 10000) / 100, u32 % 100, 0, 0);
+                break;
+            }
+            case LogEvent.MYSQL_TYPE_TIME2: {
+                long intpart = 0;
+                int frac = 0;
+                long ltime = 0;
+                switch (meta) {
+                    case 1:
+                    case 2:
+                        intpart = buffer.getBeUint24() - TIMEF_INT_OFS;
+                        frac = buffer.getUint8();
+                        if (intpart < 0 && frac > 0) {
+                            intpart++; /* Shift to the next integer value */
+                            frac -= 0x100; /* -(0x100 - frac) */
+                        }
+                        frac = frac * 10000;
+                        ltime = intpart << 24;
+                        break;
+                    case 3:
+                    case 4:
+                        intpart = buffer.getBeUint24() - TIMEF_INT_OFS;
+                        frac = buffer.getBeUint16();
+                        if (intpart < 0 && frac > 0) {
+                            intpart++; /* Shift to the next integer value */
+                            frac -= 0x10000; /* -(0x10000-frac) */
+                        }
+                        frac = frac * 100;
+                        ltime = intpart << 24;
+                        break;
+                    case 5:
+                    case 6:
+                        intpart = buffer.getBeUlong48() - TIMEF_OFS;
+                        ltime = intpart;
+                        frac = (int) (intpart % (1L << 24));
+                        break;
+                    default:
+                        intpart = buffer.getBeUint24() - TIMEF_INT_OFS;
+                        ltime = intpart << 24;
+                        break;
+                }
+
+                long ultime = intpart == 0 ? 0 : Math.abs(ltime) >> 24;
+                sink.onTime(columnIndex,
+                    intpart != 0 && ltime < 0,
+                    (int) ((ultime >> 12) % (1 << 10)),
+                    (int) ((ultime >> 6) % (1 << 6)),
+                    (int) (ultime % (1 << 6)),
+                    Math.abs(frac),
+                    meta);
+                break;
+            }
+            case LogEvent.MYSQL_TYPE_NEWDATE:
+                sink.onNull(columnIndex, Types.DATE);
+                break;
+            case LogEvent.MYSQL_TYPE_DATE: {
+                final int i32 = buffer.getUint24();
+                sink.onDatetime(columnIndex, Types.DATE, i32 / (16 * 32), i32 / 32 % 16, i32 % 32, 0, 0, 0, 0, 0);
+                break;
+            }
+            case LogEvent.MYSQL_TYPE_YEAR: {
+                final int i32 = buffer.getUint8();
+                sink.onLong(columnIndex, Types.VARCHAR, i32 == 0 ? 0 : i32 + 1900, 1);
+                break;
+            }
+            case LogEvent.MYSQL_TYPE_ENUM: {
+                final int int32;
+                switch (len) {
+                    case 1:
+                        int32 = buffer.getUint8();
+                        break;
+                    case 2:
+                        int32 = buffer.getUint16();
+                        break;
+                    default:
+                        throw new IllegalArgumentException("!! Unknown ENUM packlen = " + len);
+                }
+                sink.onLong(columnIndex, Types.INTEGER, int32, len);
+                break;
+            }
+            case LogEvent.MYSQL_TYPE_SET: {
+                final int nbits = (meta & 0xFF) * 8;
+                len = (nbits + 7) / 8;
+                long bits;
+                if (nbits > 1) {
+                    switch (len) {
+                        case 1:
+                            bits = buffer.getUint8();
+                            break;
+                        case 2:
+                            bits = buffer.getUint16();
+                            break;
+                        case 3:
+                            bits = buffer.getUint24();
+                            break;
+                        case 4:
+                            bits = buffer.getUint32();
+                            break;
+                        case 5:
+                            bits = buffer.getUlong40();
+                            break;
+                        case 6:
+                            bits = buffer.getUlong48();
+                            break;
+                        case 7:
+                            bits = buffer.getUlong56();
+                            break;
+                        case 8:
+                            bits = buffer.getLong64();
+                            break;
+                        default:
+                            throw new IllegalArgumentException("!! Unknown Set len = " + len);
+                    }
+                } else {
+                    bits = buffer.getInt8();
+                }
+                sink.onLong(columnIndex, Types.BIT, bits, len);
+                break;
+            }
+            case LogEvent.MYSQL_TYPE_TINY_BLOB:
+            case LogEvent.MYSQL_TYPE_MEDIUM_BLOB:
+            case LogEvent.MYSQL_TYPE_LONG_BLOB:
+            case LogEvent.MYSQL_TYPE_BLOB:
+                switch (meta) {
+                    case 1:
+                        len = buffer.getUint8();
+                        pushBytes(columnIndex, Types.VARBINARY, len, sink);
+                        break;
+                    case 2:
+                        len = buffer.getUint16();
+                        pushBytes(columnIndex, Types.LONGVARBINARY, len, sink);
+                        break;
+                    case 3:
+                        len = buffer.getUint24();
+                        pushBytes(columnIndex, Types.LONGVARBINARY, len, sink);
+                        break;
+                    case 4:
+                        len = (int) buffer.getUint32();
+                        pushBytes(columnIndex, Types.LONGVARBINARY, len, sink);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("!! Unknown BLOB packlen = " + meta);
+                }
+                break;
+            case LogEvent.MYSQL_TYPE_VARCHAR:
+            case LogEvent.MYSQL_TYPE_VAR_STRING:
+                len = meta < 256 ? buffer.getUint8() : buffer.getUint16();
+                pushBytes(columnIndex, isBinary ? Types.VARBINARY : Types.VARCHAR, len, sink);
+                break;
+            case LogEvent.MYSQL_TYPE_STRING:
+                len = len < 256 ? buffer.getUint8() : buffer.getUint16();
+                pushBytes(columnIndex, isBinary ? Types.BINARY : Types.CHAR, len, sink);
+                break;
+            case LogEvent.MYSQL_TYPE_JSON:
+                // json需要做格式转换，复用原有的解析
+                fetchValue(columnName, columnIndex, type, meta, isBinary);
+                sink.onString(columnIndex, Types.VARCHAR, (String) value);
+                value = null;
+                break;
+            case LogEvent.MYSQL_TYPE_GEOMETRY:
+                switch (meta) {
+                    case 1:
+                        len = buffer.getUint8();
+                        break;
+                    case 2:
+                        len = buffer.getUint16();
+                        break;
+                    case 3:
+                        len = buffer.getUint24();
+                        break;
+                    case 4:
+                        len = (int) buffer.getUint32();
+                        break;
+                    default:
+                        throw new IllegalArgumentException("!! Unknown MYSQL_TYPE_GEOMETRY packlen = " + meta);
+                }
+                pushBytes(columnIndex, Types.BINARY, len, sink);
+                break;
+            default:
+                logger.error(String.format("!! Don't know how to handle column type=%d meta=%d (%04X)",
+                    type,
+                    meta,
+                    meta));
+                sink.onNull(columnIndex, Types.OTHER);
+        }
+    }
+
+    private void pushBytes(int columnIndex, int javaType, int len, RowsValueSink sink) {
+        final int offset = buffer.arrayPosition();
+        buffer.forward(len);
+        sink.onBytes(columnIndex, javaType, buffer.array(), offset, len);
+    }
+
+    /**
+     * Read fractional seconds part of TIMESTAMP2/DATETIME2 in microseconds.
+     */
+    private int getFraction(final int meta) {
+        switch (meta) {
+            case 1:
+            case 2:
+                return buffer.getInt8() * 10000;
+            case 3:
+            case 4:
+                return buffer.getBeInt16() * 100;
+            case 5:
+            case 6:
+                return buffer.getBeInt24();
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Pre-scan row boundaries and split the remaining rows into at most
+     * <code>slices</code> buffers with similar size, each slice can be parsed
+     * independently (e.g. in another thread). A slice always ends on a row
+     * boundary (a before/after pair for update events). The position of this
+     * buffer is restored after scanning.
+     */
+    public final List<RowsLogBuffer> splitRows(BitSet columns, BitSet changeColumns, boolean isUpdate,
+                                               ColumnInfo[] columnInfo, final int slices) {
+        final int start = buffer.position();
+        final int end = buffer.limit();
+        final int sliceSize = Math.max(1, (end - start + slices - 1) / slices);
+        List<RowsLogBuffer> rowsSlices = new ArrayList<RowsLogBuffer>(slices);
+        try {
+            int sliceStart = start;
+            while (skipOneRow(columns, false, columnInfo)) {
+                if (isUpdate && !skipOneRow(changeColumns, true, columnInfo)) {
+                    break;
+                }
+
+                final int position = buffer.position();
+                if (position - sliceStart >= sliceSize && position < end) {
+                    rowsSlices.add(slice(sliceStart, position - sliceStart));
+                    sliceStart = position;
+                }
+            }
+
+            if (end > sliceStart) {
+                rowsSlices.add(slice(sliceStart, end - sliceStart));
+            }
+        } finally {
+            buffer.position(start);
+            nullBitIndex = 0;
+            nullBits.clear();
+            partialBits.clear();
+        }
+        return rowsSlices;
+    }
+
+    private RowsLogBuffer slice(final int pos, final int len) {
+        return new RowsLogBuffer(buffer.share(pos, len), columnLen, charsetName, jsonColumnCount, partial);
+    }
+
+    /**
+     * Skip next row in packed buffer without decoding any value.
+     */
+    private boolean skipOneRow(BitSet columns, boolean after, ColumnInfo[] columnInfo) {
+        if (!nextOneRow(columns, after)) {
+            return false;
+        }
+
+        for (int i = 0; i < columnInfo.length; i++) {
+            if (!columns.get(i)) {
+                continue;
+            }
+
+            if (!nullBits.get(nullBitIndex++)) {
+                buffer.forward(valueLength(columnInfo[i].type, columnInfo[i].meta));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compute the packed length of next field value, only length prefix is
+     * read from buffer.
+     *
+     * @see #fetchValue(String, int, int, int, boolean)
+     */
+    private int valueLength(int type, final int meta) {
+        int len = 0;
+        if (type == LogEvent.MYSQL_TYPE_STRING) {
+            if (meta >= 256) {
+                int byte0 = meta >> 8;
+                int byte1 = meta & 0xff;
+                if ((byte0 & 0x30) != 0x30) {
+                    /* a long CHAR() field: see #37426 */
+                    len = byte1 | (((byte0 & 0x30) ^ 0x30) << 4);
+                    type = byte0 | 0x30;
+                } else {
+                    type = byte0;
+                    len = byte1;
+                }
+            } else {
+                len = meta;
+            }
+        }
+
+        final int pos = buffer.position();
+        switch (type) {
+            case LogEvent.MYSQL_TYPE_TINY:
+            case LogEvent.MYSQL_TYPE_YEAR:
+                return 1;
+            case LogEvent.MYSQL_TYPE_SHORT:
+                return 2;
+            case LogEvent.MYSQL_TYPE_INT24:
+            case LogEvent.MYSQL_TYPE_TIME:
+            case LogEvent.MYSQL_TYPE_DATE:
+                return 3;
+            case LogEvent.MYSQL_TYPE_LONG:
+            case LogEvent.MYSQL_TYPE_FLOAT:
+            case LogEvent.MYSQL_TYPE_TIMESTAMP:
+                return 4;
+            case LogEvent.MYSQL_TYPE_LONGLONG:
+            case LogEvent.MYSQL_TYPE_DOUBLE:
+            case LogEvent.MYSQL_TYPE_DATETIME:
+                return 8;
+            case LogEvent.MYSQL_TYPE_NEWDECIMAL: {
+                final int intg = (meta >> 8) - (meta & 0xff);
+                final int frac = meta & 0xff;
+                final int intg0 = intg / LogBuffer.DIG_PER_INT32;
+                final int frac0 = frac / LogBuffer.DIG_PER_INT32;
+                return intg0 * LogBuffer.SIZE_OF_INT32 + LogBuffer.dig2bytes[intg - intg0 * LogBuffer.DIG_PER_INT32]
+                       + frac0 * LogBuffer.SIZE_OF_INT32 + LogBuffer.dig2bytes[frac - frac0 * LogBuffer.DIG_PER_INT32];
+            }
+            case LogEvent.MYSQL_TYPE_BIT: {
+                final int nbits = ((meta >> 8) * 8) + (meta & 0xff);
+                return nbits > 1 ? (nbits + 7) / 8 : 1;
+            }
+            case LogEvent.MYSQL_TYPE_TIMESTAMP2:
+                return 4 + (meta + 1) / 2;
+            case LogEvent.MYSQL_TYPE_DATETIME2:
+                return 5 + (meta + 1) / 2;
+            case LogEvent.MYSQL_TYPE_TIME2:
+                return 3 + (meta + 1) / 2;
+            case LogEvent.MYSQL_TYPE_ENUM:
+                return len;
+            case LogEvent.MYSQL_TYPE_SET: {
+                final int nbits = (meta & 0xFF) * 8;
+                return nbits > 1 ? (nbits + 7) / 8 : 1;
+            }
+            case LogEvent.MYSQL_TYPE_TINY_BLOB:
+            case LogEvent.MYSQL_TYPE_MEDIUM_BLOB:
+            case LogEvent.MYSQL_TYPE_LONG_BLOB:
+            case LogEvent.MYSQL_TYPE_BLOB:
+            case LogEvent.MYSQL_TYPE_JSON:
+            case LogEvent.MYSQL_TYPE_GEOMETRY:
+                switch (meta) {
+                    case 1:
+                        return 1 + buffer.getUint8(pos);
+                    case 2:
+                        return 2 + buffer.getUint16(pos);
+                    case 3:
+                        return 3 + buffer.getUint24(pos);
+                    case 4:
+                        return 4 + (int) buffer.getUint32(pos);
+                    default:
+                        throw new IllegalArgumentException("!! Unknown BLOB packlen = " + meta);
+                }
+            case LogEvent.MYSQL_TYPE_VARCHAR:
+            case LogEvent.MYSQL_TYPE_VAR_STRING:
+                return meta < 256 ? 1 + buffer.getUint8(pos) : 2 + buffer.getUint16(pos);
+            case LogEvent.MYSQL_TYPE_STRING:
+                return len < 256 ? 1 + buffer.getUint8(pos) : 2 + buffer.getUint16(pos);
+            default:
+                // MYSQL_TYPE_DECIMAL/MYSQL_TYPE_NEWDATE has no value
+                return 0;
+        }
+    }
+
     public final boolean isNull() {
         return fNull;
     }
@@ -0,0 +1,70 @@
+package com.taobao.tddl.dbsync.binlog.event;
+
+import java.math.BigDecimal;
+
+/**
+ * Receives typed field values pushed by
+ * {@link RowsLogBuffer#nextValue(String, int, int, int, boolean, RowsValueSink)}
+ * without boxing or intermediate String formatting.
+ * <p>
+ * The <code>javaType</code> argument is the same JDBC type which
+ * {@link RowsLogBuffer#getJavaType()} reports for the classic path. Values are
+ * signed as stored in binlog, unsigned columns should be corrected by the
+ * consumer using <code>length</code> (bytes, or bits for BIT).
+ * <p>
+ * Byte slices point into the backing array of the rows buffer and are only
+ * valid during the callback, string values are encoded with the charset of
+ * the rows buffer.
+ *
+ * @version 1.0
+ */
+public interface RowsValueSink {
+
+    /**
+     * NULL value, or a value type which has no value in binlog.
+     */
+    void onNull(int columnIndex, int javaType);
+
+    /**
+     * TINY/SHORT/INT24/LONG/LONGLONG, BIT/SET (raw bits), ENUM (index) and
+     * YEAR (javaType VARCHAR, 0 means '0000').
+     */
+    void onLong(int columnIndex, int javaType, long value, int length);
+
+    /**
+     * FLOAT/DOUBLE.
+     */
+    void onDouble(int columnIndex, int javaType, double value);
+
+    /**
+     * NEWDECIMAL.
+     */
+    void onDecimal(int columnIndex, BigDecimal value);
+
+    /**
+     * CHAR/VARCHAR (encoded text), BINARY/VARBINARY, BLOB/TEXT and GEOMETRY.
+     */
+    void onBytes(int columnIndex, int javaType, byte[] data, int offset, int length);
+
+    /**
+     * TIMESTAMP/TIMESTAMP2, seconds since epoch (0 means '0000-00-00
+     * 00:00:00'), fsp is the fractional seconds precision.
+     */
+    void onTimestamp(int columnIndex, long seconds, int micros, int fsp);
+
+    /**
+     * DATETIME/DATETIME2 (javaType TIMESTAMP) and DATE (javaType DATE).
+     */
+    void onDatetime(int columnIndex, int javaType, int year, int month, int day, int hour, int minute, int second,
+                    int micros, int fsp);
+
+    /**
+     * TIME/TIME2.
+     */
+    void onTime(int columnIndex, boolean negative, int hour, int minute, int second, int micros, int fsp);
+
+    /**
+     * JSON, already converted to text.
+     */
+    void onString(int columnIndex, int javaType, String value);
+}
@@ -0,0 +1,123 @@
+package com.taobao.tddl.dbsync;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.taobao.tddl.dbsync.binlog.FileLogFetcher;
+import com.taobao.tddl.dbsync.binlog.LogBuffer;
+import com.taobao.tddl.dbsync.binlog.LogContext;
+import com.taobao.tddl.dbsync.binlog.LogDecoder;
+import com.taobao.tddl.dbsync.binlog.LogEvent;
+import com.taobao.tddl.dbsync.binlog.LogPosition;
+import com.taobao.tddl.dbsync.binlog.event.FormatDescriptionLogEvent;
+
+/**
+ * 回放binlog文件，对比每个event复制到新分配的byte[](duplicate) 与复制到循环复用的slab(duplicateTo) 的吞吐及分配量
+ *
+ * <pre>
+ * 用法: LogBufferSlabPerformanceTest [binlog文件]，默认使用 test/resources/binlog/mysql-bin.000001
+ * slab按ring buffer大小循环复用，与MysqlMultiStageCoprocessor.publishCopy一致
+ * </pre>
+ */
+public class LogBufferSlabPerformanceTest {
+
+    private static final int RING_SIZE     = 256;
+    private static final int MIN_SLAB_SIZE = 4 * 1024;
+    private static final int MAX_SLAB_SIZE = 64 * 1024;
+    private static final int LOOP          = 200;
+    private static long      checksum;
+
+    public static void main(String args[]) throws Exception {
+        File file;
+        if (args.length > 0) {
+            file = new File(args[0]);
+        } else {
+            URL url = Thread.currentThread().getContextClassLoader().getResource("dummy.txt");
+            file = new File(new File(url.getFile()).getParent() + "/binlog", "mysql-bin.000001");
+        }
+        List<LogBuffer> events = load(file);
+        byte[][] slabs = new byte[RING_SIZE][];
+
+        // warm up
+        for (int i = 0; i < LOOP; i++) {
+            replay(file, events, null);
+            replay(file, events, slabs);
+        }
+
+        long[] heap = measure(file, events, null);
+        long[] slab = measure(file, events, slabs);
+        long count = (long) events.size() * LOOP;
+        System.out.println("events    : " + events.size() + " , loop : " + LOOP);
+        System.out.println("duplicate : " + (count * 1000000000L / heap[0]) + " events/s , " + (heap[1] / count)
+                           + " bytes/event allocated");
+        System.out.println("slab      : " + (count * 1000000000L / slab[0]) + " events/s , " + (slab[1] / count)
+                           + " bytes/event allocated");
+        System.out.println("checksum  : " + checksum);
+    }
+
+    /**
+     * 读取文件中的所有event，每个event一个LogBuffer，模拟DirectLogFetcher每次fetch的结果
+     */
+    private static List<LogBuffer> load(File file) throws Exception {
+        List<LogBuffer> events = new ArrayList<>();
+        FileLogFetcher fetcher = new FileLogFetcher(1024 * 16);
+        try {
+            fetcher.open(file);
+            while (fetcher.fetch()) {
+                while (fetcher.limit() >= FormatDescriptionLogEvent.LOG_EVENT_HEADER_LEN) {
+                    int len = (int) fetcher.getUint32(LogEvent.EVENT_LEN_OFFSET);
+                    if (fetcher.limit() < len) {
+                        break;
+                    }
+                    events.add(fetcher.duplicate(0, len));
+                    fetcher.consume(len);
+                }
+            }
+        } finally {
+            fetcher.close();
+        }
+        return events;
+    }
+
+    private static long[] measure(File file, List<LogBuffer> events, byte[][] slabs) throws Exception {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocated = bean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOP; i++) {
+            replay(file, events, slabs);
+        }
+        long cost = System.nanoTime() - start;
+        return new long[] { cost, bean.getThreadAllocatedBytes(threadId) - allocated };
+    }
+
+    private static void replay(File file, List<LogBuffer> events, byte[][] slabs) throws Exception {
+        LogDecoder decoder = new LogDecoder(LogEvent.UNKNOWN_EVENT, LogEvent.ENUM_END_EVENT);
+        LogContext context = new LogContext();
+        context.setLogPosition(new LogPosition(file.getName()));
+        for (int i = 0; i < events.size(); i++) {
+            LogBuffer source = events.get(i);
+            LogBuffer buffer;
+            if (slabs == null || source.limit() > MAX_SLAB_SIZE) {
+                buffer = source.duplicate();
+            } else {
+                int slot = i % RING_SIZE;
+                if (slabs[slot] == null || slabs[slot].length < source.limit()) {
+                    int size = MIN_SLAB_SIZE;
+                    while (size < source.limit()) {
+                        size <<= 1;
+                    }
+                    slabs[slot] = new byte[size];
+                }
+                buffer = source.duplicateTo(slabs[slot]);
+            }
+            LogEvent event = decoder.decode(buffer, context);
+            if (event != null) {
+                checksum += event.getEventLen();
+            }
+        }
+    }
+}
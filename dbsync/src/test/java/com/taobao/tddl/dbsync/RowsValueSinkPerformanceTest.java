@@ -0,0 +1,135 @@
+package com.taobao.tddl.dbsync;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.util.BitSet;
+
+import com.taobao.tddl.dbsync.binlog.LogBuffer;
+import com.taobao.tddl.dbsync.binlog.LogEvent;
+import com.taobao.tddl.dbsync.binlog.event.RowsLogBuffer;
+import com.taobao.tddl.dbsync.binlog.event.RowsValueSink;
+
+/**
+ * 对比 RowsLogBuffer.nextValue 返回Serializable 与 RowsValueSink 推送原始类型两种解码方式的吞吐
+ */
+public class RowsValueSinkPerformanceTest {
+
+    private static final int   ROWS    = 10000;
+    private static final int   LOOP    = 200;
+    private static final int[] TYPES   = { LogEvent.MYSQL_TYPE_LONGLONG, LogEvent.MYSQL_TYPE_LONG,
+            LogEvent.MYSQL_TYPE_VARCHAR, LogEvent.MYSQL_TYPE_DATETIME2, LogEvent.MYSQL_TYPE_TIMESTAMP2,
+            LogEvent.MYSQL_TYPE_DOUBLE    };
+    private static final int[] METAS   = { 0, 0, 255, 0, 3, 8 };
+    private static long        checksum;
+
+    public static void main(String args[]) throws Exception {
+        byte[] data = buildRows();
+        BitSet columns = new BitSet(TYPES.length);
+        columns.set(0, TYPES.length);
+
+        // warm up
+        for (int i = 0; i < LOOP; i++) {
+            decodeValue(data, columns);
+            decodeSink(data, columns);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOP; i++) {
+            decodeValue(data, columns);
+        }
+        long valueCost = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < LOOP; i++) {
+            decodeSink(data, columns);
+        }
+        long sinkCost = System.nanoTime() - start;
+
+        long rows = (long) ROWS * LOOP;
+        System.out.println("nextValue : " + (rows * 1000000000L / valueCost) + " rows/s");
+        System.out.println("sink      : " + (rows * 1000000000L / sinkCost) + " rows/s");
+        System.out.println("checksum  : " + checksum);
+    }
+
+    private static void decodeValue(byte[] data, BitSet columns) {
+        RowsLogBuffer buffer = new RowsLogBuffer(new LogBuffer(data, 0, data.length), TYPES.length, "UTF-8", 0, false);
+        while (buffer.nextOneRow(columns)) {
+            for (int i = 0; i < TYPES.length; i++) {
+                Object value = buffer.nextValue(null, i, TYPES[i], METAS[i]);
+                checksum += value.hashCode();
+            }
+        }
+    }
+
+    private static void decodeSink(byte[] data, BitSet columns) {
+        RowsLogBuffer buffer = new RowsLogBuffer(new LogBuffer(data, 0, data.length), TYPES.length, "UTF-8", 0, false);
+        RowsValueSink sink = new ChecksumSink();
+        while (buffer.nextOneRow(columns)) {
+            for (int i = 0; i < TYPES.length; i++) {
+                buffer.nextValue(null, i, TYPES[i], METAS[i], false, sink);
+            }
+        }
+    }
+
+    private static byte[] buildRows() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < ROWS; i++) {
+            out.write(0); // null bitmap
+            for (int j = 0; j < 8; j++) {
+                out.write((i >> (j * 8)) & 0xff);
+            }
+            for (int j = 0; j < 4; j++) {
+                out.write((i >> (j * 8)) & 0xff);
+            }
+            byte[] value = ("canal_value_" + i).getBytes("UTF-8");
+            out.write(value.length);
+            out.write(value);
+            out.write(new byte[] { (byte) 0x99, (byte) 0xa2, 0x42, 0x00, 0x00 });
+            out.write(new byte[] { 0x5c, 0x2a, 0x00, 0x00, 0x00, 0x10 });
+            long bits = Double.doubleToLongBits(i * 1.5d);
+            for (int j = 0; j < 8; j++) {
+                out.write((int) (bits >> (j * 8)) & 0xff);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static class ChecksumSink implements RowsValueSink {
+
+        public void onNull(int columnIndex, int javaType) {
+        }
+
+        public void onLong(int columnIndex, int javaType, long value, int length) {
+            checksum += value;
+        }
+
+        public void onDouble(int columnIndex, int javaType, double value) {
+            checksum += (long) value;
+        }
+
+        public void onDecimal(int columnIndex, BigDecimal value) {
+            checksum += value.hashCode();
+        }
+
+        public void onBytes(int columnIndex, int javaType, byte[] data, int offset, int length) {
+            checksum += length;
+        }
+
+        public void onTimestamp(int columnIndex, long seconds, int micros, int fsp) {
+            checksum += seconds + micros;
+        }
+
+        public void onDatetime(int columnIndex, int javaType, int year, int month, int day, int hour, int minute,
+                               int second, int micros, int fsp) {
+            checksum += year + month + day + hour + minute + second + micros;
+        }
+
+        public void onTime(int columnIndex, boolean negative, int hour, int minute, int second, int micros, int fsp) {
+            checksum += hour + minute + second + micros;
+        }
+
+        public void onString(int columnIndex, int javaType, String value) {
+            checksum += value.length();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.taobao.tddl.dbsync.binlog.event;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.taobao.tddl.dbsync.binlog.LogBuffer;
+import com.taobao.tddl.dbsync.binlog.LogEvent;
+import com.taobao.tddl.dbsync.binlog.event.TableMapLogEvent.ColumnInfo;
+
+public class RowsLogBufferTest extends TestCase {
+
+    private static final int ROWS = 100;
+
+    public void testSplitRows() throws Exception {
+        ColumnInfo[] columnInfo = new ColumnInfo[3];
+        columnInfo[0] = newColumnInfo(LogEvent.MYSQL_TYPE_LONG, 0);
+        columnInfo[1] = newColumnInfo(LogEvent.MYSQL_TYPE_VARCHAR, 100);
+        columnInfo[2] = newColumnInfo(LogEvent.MYSQL_TYPE_DATETIME2, 0);
+        BitSet columns = new BitSet(columnInfo.length);
+        columns.set(0, columnInfo.length);
+
+        byte[] data = buildRows(ROWS);
+
+        List<Serializable> expected = readAll(new RowsLogBuffer(new LogBuffer(data, 0, data.length),
+            columnInfo.length,
+            "UTF-8",
+            0,
+            false), columns, columnInfo);
+        assertEquals(ROWS * columnInfo.length, expected.size());
+
+        RowsLogBuffer buffer = new RowsLogBuffer(new LogBuffer(data, 0, data.length),
+            columnInfo.length,
+            "UTF-8",
+            0,
+            false);
+        List<RowsLogBuffer> slices = buffer.splitRows(columns, columns, false, columnInfo, 4);
+        assertEquals(4, slices.size());
+
+        List<Serializable> actual = new ArrayList<Serializable>();
+        for (RowsLogBuffer slice : slices) {
+            actual.addAll(readAll(slice, columns, columnInfo));
+        }
+        assertEquals(expected, actual);
+        // position of origin buffer must be restored
+        assertEquals(expected, readAll(buffer, columns, columnInfo));
+    }
+
+    public void testValueSink() throws Exception {
+        ColumnInfo[] columnInfo = new ColumnInfo[3];
+        columnInfo[0] = newColumnInfo(LogEvent.MYSQL_TYPE_LONG, 0);
+        columnInfo[1] = newColumnInfo(LogEvent.MYSQL_TYPE_VARCHAR, 100);
+        columnInfo[2] = newColumnInfo(LogEvent.MYSQL_TYPE_DATETIME2, 0);
+        BitSet columns = new BitSet(columnInfo.length);
+        columns.set(0, columnInfo.length);
+
+        byte[] data = buildRows(ROWS);
+        List<Serializable> expected = readAll(new RowsLogBuffer(new LogBuffer(data, 0, data.length),
+            columnInfo.length,
+            "UTF-8",
+            0,
+            false), columns, columnInfo);
+
+        final List<Serializable> actual = new ArrayList<Serializable>();
+        RowsValueSink sink = new RowsValueSink() {
+
+            public void onNull(int columnIndex, int javaType) {
+                actual.add(null);
+            }
+
+            public void onLong(int columnIndex, int javaType, long value, int length) {
+                actual.add((int) value);
+            }
+
+            public void onDouble(int columnIndex, int javaType, double value) {
+                actual.add(value);
+            }
+
+            public void onDecimal(int columnIndex, BigDecimal value) {
+                actual.add(value);
+            }
+
+            public void onBytes(int columnIndex, int javaType, byte[] data, int offset, int length) {
+                actual.add(new String(data, offset, length, Charset.forName("UTF-8")));
+            }
+
+            public void onTimestamp(int columnIndex, long seconds, int micros, int fsp) {
+                actual.add(seconds);
+            }
+
+            public void onDatetime(int columnIndex, int javaType, int year, int month, int day, int hour,
+                                   int minute, int second, int micros, int fsp) {
+                StringBuilder builder = new StringBuilder();
+                RowsLogBuffer.appendNumber4(builder, year);
+                builder.append('-');
+                RowsLogBuffer.appendNumber2(builder, month);
+                builder.append('-');
+                RowsLogBuffer.appendNumber2(builder, day);
+                builder.append(' ');
+                RowsLogBuffer.appendNumber2(builder, hour);
+                builder.append(':');
+                RowsLogBuffer.appendNumber2(builder, minute);
+                builder.append(':');
+                RowsLogBuffer.appendNumber2(builder, second);
+                actual.add(builder.toString());
+            }
+
+            public void onTime(int columnIndex, boolean negative, int hour, int minute, int second, int micros,
+                               int fsp) {
+                actual.add(hour + ":" + minute + ":" + second);
+            }
+
+            public void onString(int columnIndex, int javaType, String value) {
+                actual.add(value);
+            }
+        };
+
+        RowsLogBuffer buffer = new RowsLogBuffer(new LogBuffer(data, 0, data.length),
+            columnInfo.length,
+            "UTF-8",
+            0,
+            false);
+        while (buffer.nextOneRow(columns)) {
+            for (int i = 0; i < columnInfo.length; i++) {
+                buffer.nextValue(null, i, columnInfo[i].type, columnInfo[i].meta, false, sink);
+            }
+        }
+        assertEquals(expected, actual);
+    }
+
+    static byte[] buildRows(int rows) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < rows; i++) {
+            // null bitmap, varchar is null for every 3rd row
+            out.write(i % 3 == 0 ? 0x02 : 0x00);
+            out.write(i & 0xff);
+            out.write((i >> 8) & 0xff);
+            out.write((i >> 16) & 0xff);
+            out.write((i >> 24) & 0xff);
+            if (i % 3 != 0) {
+                byte[] value = ("value_" + i).getBytes("UTF-8");
+                out.write(value.length);
+                out.write(value);
+            }
+            // 2019-02-01 00:00:00
+            out.write(new byte[] { (byte) 0x99, (byte) 0xa2, 0x42, 0x00, 0x00 });
+        }
+        return out.toByteArray();
+    }
+
+    private List<Serializable> readAll(RowsLogBuffer buffer, BitSet columns, ColumnInfo[] columnInfo) {
+        List<Serializable> values = new ArrayList<Serializable>();
+        while (buffer.nextOneRow(columns)) {
+            for (int i = 0; i < columnInfo.length; i++) {
+                values.add(buffer.nextValue(null, i, columnInfo[i].type, columnInfo[i].meta));
+            }
+        }
+        return values;
+    }
+
+    private ColumnInfo newColumnInfo(int type, int meta) {
+        ColumnInfo info = new ColumnInfo();
+        info.type = type;
+        info.meta = meta;
+        return info;
+    }
+}
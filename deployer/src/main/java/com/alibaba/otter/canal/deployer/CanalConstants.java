@@ -19,6 +19,7 @@ public class CanalConstants {
     public static final String CANAL_ADMIN_JMX_PORT                 = ROOT + "." + "admin.jmx.port";
     public static final String CANAL_ZKSERVERS                      = ROOT + "." + "zkServers";
     public static final String CANAL_WITHOUT_NETTY                  = ROOT + "." + "withoutNetty";
+    public static final String CANAL_COMPRESSION                    = ROOT + "." + "compression";
 
     public static final String CANAL_DESTINATIONS                   = ROOT + "." + "destinations";
     public static final String CANAL_AUTO_SCAN                      = ROOT + "." + "auto.scan";
@@ -37,6 +38,8 @@ public class CanalConstants {
     public static final String CANAL_DESTINATION_PROPERTY           = ROOT + ".instance.destination";
 
     public static final String CANAL_SOCKETCHANNEL                  = ROOT + "." + "socketChannel";
+    public static final String CANAL_SOCKETCHANNEL_RCVBUF           = ROOT + "." + "socketChannel.receiveBufferSize";
+    public static final String CANAL_SOCKETCHANNEL_TCPNODELAY       = ROOT + "." + "socketChannel.tcpNoDelay";
 
     public static final String CANAL_MQ_SERVERS                     = ROOT + "." + "mq.servers";
     public static final String CANAL_MQ_RETRIES                     = ROOT + "." + "mq.retries";
@@ -46,6 +49,12 @@ public class CanalConstants {
     public static final String CANAL_MQ_BUFFERMEMORY                = ROOT + "." + "mq.bufferMemory";
     public static final String CANAL_MQ_CANALBATCHSIZE              = ROOT + "." + "mq.canalBatchSize";
     public static final String CANAL_MQ_CANALGETTIMEOUT             = ROOT + "." + "mq.canalGetTimeout";
+    public static final String CANAL_MQ_CANALBATCHADAPTIVE          = ROOT + "." + "mq.canalBatchAdaptive";
+    public static final String CANAL_MQ_CANALBATCHMAXSIZE           = ROOT + "." + "mq.canalBatchMaxSize";
+    public static final String CANAL_MQ_CANALTARGETLATENCY          = ROOT + "." + "mq.canalTargetLatency";
+    public static final String CANAL_MQ_PIPELINEWINDOW              = ROOT + "." + "mq.pipelineWindow";
+    public static final String CANAL_MQ_MAXINFLIGHTRECORDS          = ROOT + "." + "mq.maxInFlightRecords";
+    public static final String CANAL_MQ_PARTITIONMURMURHASH         = ROOT + "." + "mq.partitionMurmurHash";
     public static final String CANAL_MQ_FLATMESSAGE                 = ROOT + "." + "mq.flatMessage";
     public static final String CANAL_MQ_COMPRESSION_TYPE            = ROOT + "." + "mq.compressionType";
     public static final String CANAL_MQ_ACKS                        = ROOT + "." + "mq.acks";
@@ -35,6 +35,7 @@ import com.alibaba.otter.canal.instance.manager.CanalConfigClient;
 import com.alibaba.otter.canal.instance.manager.ManagerCanalInstanceGenerator;
 import com.alibaba.otter.canal.instance.spring.SpringCanalInstanceGenerator;
 import com.alibaba.otter.canal.parse.CanalEventParser;
+import com.alibaba.otter.canal.protocol.CanalPacket.Compression;
 import com.alibaba.otter.canal.server.CanalMQStarter;
 import com.alibaba.otter.canal.server.embedded.CanalServerWithEmbedded;
 import com.alibaba.otter.canal.server.exception.CanalServerException;
@@ -94,6 +95,14 @@ public class CanalController {
         if (StringUtils.isNotEmpty(socketChannel)) {
             System.setProperty(CanalConstants.CANAL_SOCKETCHANNEL, socketChannel);
         }
+        String receiveBufferSize = getProperty(properties, CanalConstants.CANAL_SOCKETCHANNEL_RCVBUF);
+        if (StringUtils.isNotEmpty(receiveBufferSize)) {
+            System.setProperty(CanalConstants.CANAL_SOCKETCHANNEL_RCVBUF, receiveBufferSize);
+        }
+        String tcpNoDelay = getProperty(properties, CanalConstants.CANAL_SOCKETCHANNEL_TCPNODELAY);
+        if (StringUtils.isNotEmpty(tcpNoDelay)) {
+            System.setProperty(CanalConstants.CANAL_SOCKETCHANNEL_TCPNODELAY, tcpNoDelay);
+        }
 
         // 兼容1.1.0版本的ak/sk参数名
         String accesskey = getProperty(properties, "canal.instance.rds.accesskey");
@@ -124,6 +133,10 @@ public class CanalController {
             canalServer = CanalServerWithNetty.instance();
             canalServer.setIp(ip);
             canalServer.setPort(port);
+            String compression = getProperty(properties, CanalConstants.CANAL_COMPRESSION);
+            if (StringUtils.isNotBlank(compression)) {
+                canalServer.setCompression(Compression.valueOf(StringUtils.upperCase(StringUtils.trim(compression))));
+            }
         }
 
         // 处理下ip为空，默认使用hostIp暴露到zk中
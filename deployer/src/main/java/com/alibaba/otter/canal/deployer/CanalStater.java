@@ -201,6 +201,34 @@ public class CanalStater {
         if (!StringUtils.isEmpty(canalGetTimeout)) {
             mqProperties.setCanalGetTimeout(Long.valueOf(canalGetTimeout));
         }
+        String canalBatchAdaptive = CanalController.getProperty(properties,
+            CanalConstants.CANAL_MQ_CANALBATCHADAPTIVE);
+        if (!StringUtils.isEmpty(canalBatchAdaptive)) {
+            mqProperties.setCanalBatchAdaptive(Boolean.valueOf(canalBatchAdaptive));
+        }
+        String canalBatchMaxSize = CanalController.getProperty(properties, CanalConstants.CANAL_MQ_CANALBATCHMAXSIZE);
+        if (!StringUtils.isEmpty(canalBatchMaxSize)) {
+            mqProperties.setCanalBatchMaxSize(Integer.valueOf(canalBatchMaxSize));
+        }
+        String canalTargetLatency = CanalController.getProperty(properties,
+            CanalConstants.CANAL_MQ_CANALTARGETLATENCY);
+        if (!StringUtils.isEmpty(canalTargetLatency)) {
+            mqProperties.setCanalTargetLatency(Long.valueOf(canalTargetLatency));
+        }
+        String pipelineWindow = CanalController.getProperty(properties, CanalConstants.CANAL_MQ_PIPELINEWINDOW);
+        if (!StringUtils.isEmpty(pipelineWindow)) {
+            mqProperties.setPipelineWindow(Integer.valueOf(pipelineWindow));
+        }
+        String maxInFlightRecords = CanalController.getProperty(properties,
+            CanalConstants.CANAL_MQ_MAXINFLIGHTRECORDS);
+        if (!StringUtils.isEmpty(maxInFlightRecords)) {
+            mqProperties.setMaxInFlightRecords(Integer.valueOf(maxInFlightRecords));
+        }
+        String partitionMurmurHash = CanalController.getProperty(properties,
+            CanalConstants.CANAL_MQ_PARTITIONMURMURHASH);
+        if (!StringUtils.isEmpty(partitionMurmurHash)) {
+            mqProperties.setPartitionMurmurHash(Boolean.valueOf(partitionMurmurHash));
+        }
         String flatMessage = CanalController.getProperty(properties, CanalConstants.CANAL_MQ_FLATMESSAGE);
         if (!StringUtils.isEmpty(flatMessage)) {
             mqProperties.setFlatMessage(Boolean.valueOf(flatMessage));
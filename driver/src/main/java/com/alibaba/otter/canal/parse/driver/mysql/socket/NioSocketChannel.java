@@ -0,0 +1,199 @@
+package com.alibaba.otter.canal.parse.driver.mysql.socket;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * 使用非阻塞NIO进行dump
+ *
+ * <pre>
+ * 1. 数据先批量读入direct buffer, 再复制到调用方的数组(如DirectLogFetcher的buffer), 不再为每次读取分配byte[]
+ * 2. 剩余待读取的数据不小于direct buffer时直接读入调用方的数组
+ * 3. 读超时按截止时间等待selector, 不再依赖SO_TIMEOUT轮询
+ * 4. 读写使用各自的selector, dump线程读取的同时可以由其他线程发送semi ack
+ * </pre>
+ *
+ * @version 1.1.4
+ */
+public class NioSocketChannel implements SocketChannel {
+
+    static final int                    DEFAULT_CONNECT_TIMEOUT = 10 * 1000;
+    static final int                    MIN_READ_BUFFER_SIZE    = 64 * 1024;
+    private java.nio.channels.SocketChannel channel;
+    private Selector                    readSelector;
+    private Selector                    writeSelector;
+    private ByteBuffer                  readBuffer;                           // 已读取未消费的数据, 处于读模式
+
+    NioSocketChannel(java.nio.channels.SocketChannel channel, int readBufferSize) throws IOException{
+        this.channel = channel;
+        channel.configureBlocking(false);
+        this.readSelector = Selector.open();
+        this.writeSelector = Selector.open();
+        channel.register(readSelector, SelectionKey.OP_READ);
+        channel.register(writeSelector, SelectionKey.OP_WRITE);
+        this.readBuffer = ByteBuffer.allocateDirect(Math.max(readBufferSize, MIN_READ_BUFFER_SIZE));
+        this.readBuffer.flip();
+    }
+
+    public void write(byte[]... buf) throws IOException {
+        java.nio.channels.SocketChannel channel = this.channel;
+        if (channel == null) {
+            throw new SocketException("Socket already closed.");
+        }
+        synchronized (writeSelector) {
+            for (byte[] bs : buf) {
+                ByteBuffer buffer = ByteBuffer.wrap(bs);
+                while (buffer.hasRemaining()) {
+                    if (channel.write(buffer) == 0) {
+                        await(writeSelector, 0);
+                    }
+                }
+            }
+        }
+    }
+
+    public byte[] read(int readSize) throws IOException {
+        byte[] data = new byte[readSize];
+        read(data, 0, readSize, 0);
+        return data;
+    }
+
+    public byte[] read(int readSize, int timeout) throws IOException {
+        byte[] data = new byte[readSize];
+        read(data, 0, readSize, timeout);
+        return data;
+    }
+
+    /**
+     * 读取len个字节到data, timeout不大于0时一直等待
+     */
+    @Override
+    public void read(byte[] data, int off, int len, int timeout) throws IOException {
+        java.nio.channels.SocketChannel channel = this.channel;
+        if (channel == null) {
+            throw new SocketException("Socket already closed.");
+        }
+
+        long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+        ByteBuffer readBuffer = this.readBuffer;
+        int n = Math.min(readBuffer.remaining(), len);
+        readBuffer.get(data, off, n);
+        while (n < len) {
+            int read;
+            if (len - n >= readBuffer.capacity()) {
+                // 大数据包直接读入调用方的数组, 避免再经过readBuffer复制
+                read = channel.read(ByteBuffer.wrap(data, off + n, len - n));
+            } else {
+                readBuffer.clear();
+                read = channel.read(readBuffer);
+                readBuffer.flip();
+                if (read > 0) {
+                    int size = Math.min(read, len - n);
+                    readBuffer.get(data, off + n, size);
+                    read = size;
+                }
+            }
+
+            if (read > 0) {
+                n += read;
+            } else if (read < 0) {
+                throw new IOException("EOF encountered.");
+            } else {
+                long wait = 0;
+                if (deadline > 0) {
+                    wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        throw new SocketTimeoutException("Timeout occurred, failed to read total " + len
+                                                         + " bytes in " + timeout + " milliseconds, actual read only "
+                                                         + n + " bytes");
+                    }
+                }
+                await(readSelector, wait);
+            }
+        }
+    }
+
+    /**
+     * 等待channel可读/可写, 线程被中断时抛出ClosedByInterruptException
+     */
+    private void await(Selector selector, long timeout) throws IOException {
+        try {
+            selector.select(timeout);
+            selector.selectedKeys().clear();
+        } catch (ClosedSelectorException e) {
+            throw new SocketException("Socket already closed.");
+        }
+        if (Thread.interrupted()) {
+            throw new ClosedByInterruptException();
+        }
+    }
+
+    public boolean isConnected() {
+        java.nio.channels.SocketChannel channel = this.channel;
+        if (channel != null) {
+            return channel.isConnected();
+        }
+        return false;
+    }
+
+    public SocketAddress getRemoteSocketAddress() {
+        java.nio.channels.SocketChannel channel = this.channel;
+        if (channel != null) {
+            return channel.socket().getRemoteSocketAddress();
+        }
+
+        return null;
+    }
+
+    public SocketAddress getLocalSocketAddress() {
+        java.nio.channels.SocketChannel channel = this.channel;
+        if (channel != null) {
+            return channel.socket().getLocalSocketAddress();
+        }
+
+        return null;
+    }
+
+    public void close() {
+        java.nio.channels.SocketChannel channel = this.channel;
+        if (channel != null) {
+            Socket socket = channel.socket();
+            try {
+                socket.shutdownInput();
+            } catch (IOException e) {
+                // Ignore, could not do anymore
+            }
+            try {
+                socket.shutdownOutput();
+            } catch (IOException e) {
+                // Ignore, could not do anymore
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Ignore, could not do anymore
+            }
+        }
+        // 关闭selector同时唤醒阻塞中的读写
+        try {
+            readSelector.close();
+        } catch (IOException e) {
+            // Ignore, could not do anymore
+        }
+        try {
+            writeSelector.close();
+        } catch (IOException e) {
+            // Ignore, could not do anymore
+        }
+        this.channel = null;
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.alibaba.otter.canal.parse.driver.mysql.socket;
+
+import java.net.Socket;
+import java.net.SocketAddress;
+
+/**
+ * 创建NIO的socket channel
+ *
+ * @version 1.1.4
+ */
+public abstract class NioSocketChannelPool {
+
+    /**
+     * @param receiveBufferSize SO_RCVBUF, 不大于0时使用系统默认值(保留内核的自动调整)
+     * @param tcpNoDelay 是否关闭Nagle算法
+     */
+    public static NioSocketChannel open(SocketAddress address, int receiveBufferSize, boolean tcpNoDelay)
+                                                                                                          throws Exception {
+        java.nio.channels.SocketChannel channel = java.nio.channels.SocketChannel.open();
+        try {
+            Socket socket = channel.socket();
+            // 需要在connect之前设置, 超过64KB的接收窗口依赖握手时协商的window scale
+            if (receiveBufferSize > 0) {
+                socket.setReceiveBufferSize(receiveBufferSize);
+            }
+            socket.setTcpNoDelay(tcpNoDelay);
+            socket.setKeepAlive(true);
+            socket.setReuseAddress(true);
+            socket.connect(address, NioSocketChannel.DEFAULT_CONNECT_TIMEOUT);
+            return new NioSocketChannel(channel, receiveBufferSize);
+        } catch (Exception e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+}
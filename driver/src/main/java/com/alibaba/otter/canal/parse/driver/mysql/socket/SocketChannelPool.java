@@ -14,6 +14,10 @@ public abstract class SocketChannelPool {
         String type = chooseSocketChannel();
         if ("netty".equalsIgnoreCase(type)) {
             return NettySocketChannelPool.open(address);
+        } else if ("nio".equalsIgnoreCase(type)) {
+            return NioSocketChannelPool.open(address,
+                Integer.parseInt(getConfig("canal.socketChannel.receiveBufferSize", "0")),
+                Boolean.parseBoolean(getConfig("canal.socketChannel.tcpNoDelay", "true")));
         } else {
             return BioSocketChannelPool.open(address);
         }
@@ -21,15 +25,19 @@ public abstract class SocketChannelPool {
     }
 
     private static String chooseSocketChannel() {
-        String socketChannel = System.getenv("canal.socketChannel");
-        if (StringUtils.isEmpty(socketChannel)) {
-            socketChannel = System.getProperty("canal.socketChannel");
+        return getConfig("canal.socketChannel", "bio"); // bio, nio or netty
+    }
+
+    private static String getConfig(String name, String defaultValue) {
+        String value = System.getenv(name);
+        if (StringUtils.isEmpty(value)) {
+            value = System.getProperty(name);
         }
 
-        if (StringUtils.isEmpty(socketChannel)) {
-            socketChannel = "bio"; // bio or netty
+        if (StringUtils.isEmpty(value)) {
+            value = defaultValue;
         }
 
-        return socketChannel;
+        return value;
     }
 }
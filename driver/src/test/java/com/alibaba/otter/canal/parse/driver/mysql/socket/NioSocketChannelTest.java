@@ -0,0 +1,88 @@
+package com.alibaba.otter.canal.parse.driver.mysql.socket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NioSocketChannelTest {
+
+    private ServerSocket server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new ServerSocket(0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        final byte[] payload = new byte[300000];
+        new Random(1).nextBytes(payload);
+        Thread thread = new Thread(() -> {
+            try (Socket socket = server.accept()) {
+                byte[] command = new byte[5];
+                new DataInputStream(socket.getInputStream()).readFully(command);
+                OutputStream output = socket.getOutputStream();
+                // 分成小段写出, 覆盖读取跨越多次到达的数据
+                for (int i = 0; i < payload.length; i += 777) {
+                    output.write(payload, i, Math.min(777, payload.length - i));
+                }
+                output.flush();
+                Thread.sleep(1000);
+            } catch (Exception e) {
+                // ignore
+            }
+        });
+        thread.start();
+
+        NioSocketChannel channel = NioSocketChannelPool.open(new InetSocketAddress("127.0.0.1",
+            server.getLocalPort()), 0, true);
+        try {
+            channel.write("hello".getBytes());
+            byte[] data = new byte[payload.length];
+            channel.read(data, 0, 10, 5000);
+            // 大于读缓冲区的数据直接读入数组
+            channel.read(data, 10, 200000, 5000);
+            byte[] rest = channel.read(payload.length - 200010, 5000);
+            System.arraycopy(rest, 0, data, 200010, rest.length);
+            assertArrayEquals(payload, data);
+        } finally {
+            channel.close();
+        }
+        thread.join();
+    }
+
+    @Test
+    public void testReadTimeout() throws Exception {
+        NioSocketChannel channel = NioSocketChannelPool.open(new InetSocketAddress("127.0.0.1",
+            server.getLocalPort()), 0, true);
+        try (Socket socket = server.accept()) {
+            socket.getOutputStream().write(new byte[] { 1, 2, 3 });
+            try {
+                channel.read(10, 200);
+                fail("read should timeout");
+            } catch (SocketTimeoutException e) {
+                assertEquals("Timeout occurred, failed to read total 10 bytes in 200 milliseconds, actual read only 3 bytes",
+                    e.getMessage());
+            }
+        } finally {
+            channel.close();
+        }
+    }
+}
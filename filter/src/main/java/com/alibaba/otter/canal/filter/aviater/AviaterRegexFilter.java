@@ -4,38 +4,57 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.oro.text.regex.Pattern;
+import org.apache.oro.text.regex.Perl5Matcher;
 
 import com.alibaba.otter.canal.filter.CanalEventFilter;
+import com.alibaba.otter.canal.filter.PatternUtils;
 import com.alibaba.otter.canal.filter.exception.CanalFilterException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.googlecode.aviator.AviatorEvaluator;
-import com.googlecode.aviator.Expression;
 
 /**
  * 基于aviater进行tableName正则匹配的过滤算法
- * 
+ *
+ * <pre>
+ * pattern在构造时预编译:
+ * 1. 不含通配的pattern(如 s1\.t1)放入精确匹配的集合
+ * 2. 只在头或尾包含.*的pattern(如 s1\..*)按前缀/后缀匹配，中间允许单字符的.
+ * 3. 其余pattern合并为一个正则，按原有方式匹配
+ * 匹配结果按表名缓存，配置变更时会创建新的filter，缓存随之失效
+ * </pre>
+ *
  * @author jianghang 2012-7-20 下午06:01:34
  */
 public class AviaterRegexFilter implements CanalEventFilter<String> {
 
     private static final String             SPLIT             = ",";
     private static final String             PATTERN_SPLIT     = "|";
-    private static final String             FILTER_EXPRESSION = "regex(pattern,target)";
     private static final RegexFunction      regexFunction     = new RegexFunction();
-    private final Expression                exp               = AviatorEvaluator.compile(FILTER_EXPRESSION, true);
     static {
+        // 保留regex函数的注册, AviaterELFilter的表达式中可能会使用
         AviatorEvaluator.addFunction(regexFunction);
     }
 
     private static final Comparator<String> COMPARATOR        = new StringComparator();
+    private static final int                MAX_CACHE_SIZE    = 10000;
 
     final private String                    pattern;
     final private boolean                   defaultEmptyValue;
 
+    private Set<String>                     exactNames        = new HashSet<String>();
+    private List<WildcardPattern>           wildcardPatterns  = new ArrayList<WildcardPattern>();
+    private Pattern                         regexPattern;                                        // 其余pattern合并后的正则
+    private Cache<String, Boolean>          decisions         = CacheBuilder.newBuilder()
+                                                                  .maximumSize(MAX_CACHE_SIZE)
+                                                                  .build();
+
     public AviaterRegexFilter(String pattern){
         this(pattern, true);
     }
@@ -55,6 +74,21 @@ public class AviaterRegexFilter implements CanalEventFilter<String> {
         // 的长度不一样
         Collections.sort(list, COMPARATOR);
         // 对pattern进行头尾完全匹配
+        List<String> regexList = new ArrayList<String>();
+        for (String p : list) {
+            WildcardPattern wildcard = WildcardPattern.compile(p.toLowerCase());
+            if (wildcard == null) {
+                regexList.add(p);
+            } else if (wildcard.isExact()) {
+                exactNames.add(wildcard.fixed);
+            } else {
+                wildcardPatterns.add(wildcard);
+            }
+        }
+        if (!regexList.isEmpty()) {
+            this.regexPattern = PatternUtils.getPattern(StringUtils.join(completionPattern(regexList), PATTERN_SPLIT));
+        }
+
         list = completionPattern(list);
         this.pattern = StringUtils.join(list, PATTERN_SPLIT);
     }
@@ -68,10 +102,24 @@ public class AviaterRegexFilter implements CanalEventFilter<String> {
             return defaultEmptyValue;
         }
 
-        Map<String, Object> env = new HashMap<String, Object>();
-        env.put("pattern", pattern);
-        env.put("target", filtered.toLowerCase());
-        return (Boolean) exp.execute(env);
+        Boolean result = decisions.getIfPresent(filtered);
+        if (result == null) {
+            result = match(filtered.toLowerCase());
+            decisions.put(filtered, result);
+        }
+        return result;
+    }
+
+    private boolean match(String target) {
+        if (exactNames.contains(target)) {
+            return true;
+        }
+        for (WildcardPattern wildcard : wildcardPatterns) {
+            if (wildcard.matches(target)) {
+                return true;
+            }
+        }
+        return regexPattern != null && new Perl5Matcher().matches(target, regexPattern);
     }
 
     /**
@@ -130,4 +178,95 @@ public class AviaterRegexFilter implements CanalEventFilter<String> {
         return pattern;
     }
 
+    /**
+     * 只包含普通字符、单字符通配的.以及头或尾的.*的pattern，不需要正则引擎即可匹配
+     */
+    private static class WildcardPattern {
+
+        private String    fixed;        // 去掉头尾.*后的部分，转义已还原
+        private boolean[] anyChar;      // fixed中对应位置是否为单字符通配
+        private boolean   anyPrefix;    // 以.*开头
+        private boolean   anySuffix;    // 以.*结尾
+        private boolean   hasAnyChar;
+
+        /**
+         * 解析pattern，包含其它正则语法时返回null
+         */
+        private static WildcardPattern compile(String pattern) {
+            WildcardPattern wildcard = new WildcardPattern();
+            String body = pattern;
+            if (body.startsWith(".*")) {
+                wildcard.anyPrefix = true;
+                body = body.substring(2);
+            }
+            if (body.endsWith(".*") && !body.endsWith("\\.*")) {
+                wildcard.anySuffix = true;
+                body = body.substring(0, body.length() - 2);
+            }
+            if (wildcard.anyPrefix && wildcard.anySuffix) {
+                return null;
+            }
+
+            StringBuilder fixed = new StringBuilder(body.length());
+            List<Boolean> anyChar = new ArrayList<Boolean>(body.length());
+            for (int i = 0; i < body.length(); i++) {
+                char c = body.charAt(i);
+                if (c == '\\') {
+                    if (i + 1 == body.length() || Character.isLetterOrDigit(body.charAt(i + 1))) {
+                        // \d \w 等字符类
+                        return null;
+                    }
+                    fixed.append(body.charAt(++i));
+                    anyChar.add(false);
+                } else if (c == '.') {
+                    if (i + 1 < body.length() && "*+?{".indexOf(body.charAt(i + 1)) >= 0) {
+                        return null;
+                    }
+                    fixed.append(c);
+                    anyChar.add(true);
+                    wildcard.hasAnyChar = true;
+                } else if ("*+?^$|()[]{}".indexOf(c) >= 0) {
+                    return null;
+                } else {
+                    fixed.append(c);
+                    anyChar.add(false);
+                }
+            }
+
+            wildcard.fixed = fixed.toString();
+            wildcard.anyChar = new boolean[anyChar.size()];
+            for (int i = 0; i < anyChar.size(); i++) {
+                wildcard.anyChar[i] = anyChar.get(i);
+            }
+            return wildcard;
+        }
+
+        private boolean isExact() {
+            return !anyPrefix && !anySuffix && !hasAnyChar;
+        }
+
+        private boolean matches(String target) {
+            int len = fixed.length();
+            if (anyPrefix) {
+                return target.length() >= len && matchAt(target, target.length() - len);
+            } else if (anySuffix) {
+                return target.length() >= len && matchAt(target, 0);
+            } else {
+                return target.length() == len && matchAt(target, 0);
+            }
+        }
+
+        private boolean matchAt(String target, int offset) {
+            if (!hasAnyChar) {
+                return target.startsWith(fixed, offset);
+            }
+            for (int i = 0; i < anyChar.length; i++) {
+                if (!anyChar[i] && target.charAt(offset + i) != fixed.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
 }
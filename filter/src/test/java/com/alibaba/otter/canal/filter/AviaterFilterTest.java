@@ -98,6 +98,30 @@ public class AviaterFilterTest {
 
     }
 
+    @Test
+    public void testCompiledPattern() {
+        AviaterRegexFilter filter = new AviaterRegexFilter("s1\\.t1,s2\\..*,.*\\.t_log,s3.t.,s4\\.t\\d+");
+
+        // 精确匹配
+        Assert.assertEquals(true, filter.filter("s1.t1"));
+        Assert.assertEquals(true, filter.filter("S1.T1"));
+        Assert.assertEquals(false, filter.filter("s1.t11"));
+        // 前缀/后缀
+        Assert.assertEquals(true, filter.filter("s2.abc"));
+        Assert.assertEquals(false, filter.filter("s22.abc"));
+        Assert.assertEquals(true, filter.filter("x.t_log"));
+        Assert.assertEquals(false, filter.filter("x.t_log1"));
+        // 单字符通配
+        Assert.assertEquals(true, filter.filter("s3xt1"));
+        Assert.assertEquals(false, filter.filter("s3.t12"));
+        // 其余正则
+        Assert.assertEquals(true, filter.filter("s4.t123"));
+        Assert.assertEquals(false, filter.filter("s4.tx"));
+        // 缓存的结果不变
+        Assert.assertEquals(true, filter.filter("s4.t123"));
+        Assert.assertEquals(false, filter.filter("s4.tx"));
+    }
+
     @Test
     public void test_el() {
         AviaterELFilter filter = new AviaterELFilter("str(entry.entryType) == 'ROWDATA'");
@@ -59,6 +59,7 @@ import com.alibaba.otter.canal.protocol.position.EntryPosition;
 import com.alibaba.otter.canal.sink.entry.EntryEventSink;
 import com.alibaba.otter.canal.sink.entry.group.GroupEventSink;
 import com.alibaba.otter.canal.store.AbstractCanalStoreScavenge;
+import com.alibaba.otter.canal.store.file.FileEventStoreWithSegment;
 import com.alibaba.otter.canal.store.memory.MemoryEventStoreWithBuffer;
 import com.alibaba.otter.canal.store.model.BatchMode;
 
@@ -190,8 +191,23 @@ public class CanalInstanceWithManager extends AbstractCanalInstance {
             memoryEventStore.setRaw(parameters.getMemoryStorageRawEntry());
             eventStore = memoryEventStore;
         } else if (mode.isFile()) {
-            // 后续版本支持
-            throw new CanalException("unsupport MetaMode for " + mode);
+            FileEventStoreWithSegment fileEventStore = new FileEventStoreWithSegment();
+            if (StringUtils.isNotEmpty(parameters.getFileStorageDirectory())) {
+                fileEventStore.setDataDir(parameters.getFileStorageDirectory());
+            } else {
+                fileEventStore.setDataDir(parameters.getDataDir());
+            }
+            if (parameters.getFileStorageStoreCount() != null) {
+                fileEventStore.setSegmentCount(parameters.getFileStorageStoreCount());
+            }
+            if (parameters.getFileStorageRollverCount() != null) {
+                fileEventStore.setMaxSegments(parameters.getFileStorageRollverCount());
+            }
+            fileEventStore.setBufferMemUnit(parameters.getMemoryStorageBufferMemUnit());
+            fileEventStore.setBatchMode(BatchMode.valueOf(parameters.getStorageBatchMode().name()));
+            fileEventStore.setDdlIsolation(parameters.getDdlIsolation());
+            fileEventStore.setRaw(parameters.getMemoryStorageRawEntry());
+            eventStore = fileEventStore;
         } else if (mode.isMixed()) {
             // 后续版本支持
             throw new CanalException("unsupport MetaMode for " + mode);
@@ -104,6 +104,7 @@ public abstract class AbstractEventParser<EVENT> extends AbstractCanalLifeCycle
     protected Integer                                parallelThreadSize         = Runtime.getRuntime()
                                                                                     .availableProcessors() * 60 / 100;     // 60%的能力跑解析,剩余部分处理网络
     protected int                                    parallelBufferSize         = 256;                                     // 必须为2的幂
+    protected int                                    parallelRowsEventSize      = 0;                                       // 超过该大小的rows事件拆分并行解析,0为关闭
     protected MultiStageCoprocessor                  multiStageCoprocessor;
     protected ParserExceptionHandler                 parserExceptionHandler;
     protected long                                   serverId;
@@ -150,6 +151,9 @@ public abstract class AbstractEventParser<EVENT> extends AbstractCanalLifeCycle
                 if (position != null) { // 可能position为空
                     logPositionManager.persistLogPosition(AbstractEventParser.this.destination, position);
                 }
+                if (!transaction.isEmpty()) {
+                    afterTransactionFlush(transaction.get(transaction.size() - 1));
+                }
             }
         });
     }
@@ -440,6 +444,12 @@ public abstract class AbstractEventParser<EVENT> extends AbstractCanalLifeCycle
         return null;
     }
 
+    /**
+     * 事务成功投递并记录位点之后的回调，参数为投递的最后一个entry
+     */
+    protected void afterTransactionFlush(CanalEntry.Entry lastEntry) {
+    }
+
     protected LogPosition buildLastPosition(CanalEntry.Entry entry) { // 初始化一下
         LogPosition logPosition = new LogPosition();
         EntryPosition position = new EntryPosition();
@@ -672,6 +682,14 @@ public abstract class AbstractEventParser<EVENT> extends AbstractCanalLifeCycle
         this.parallelBufferSize = parallelBufferSize;
     }
 
+    public int getParallelRowsEventSize() {
+        return parallelRowsEventSize;
+    }
+
+    public void setParallelRowsEventSize(int parallelRowsEventSize) {
+        this.parallelRowsEventSize = parallelRowsEventSize;
+    }
+
     public ParserExceptionHandler getParserExceptionHandler() {
         return parserExceptionHandler;
     }
@@ -24,5 +24,10 @@ public interface MultiStageCoprocessor extends CanalLifeCycle {
      */
     public boolean publish(LogBuffer buffer);
 
+    /**
+     * 网络数据投递, 数据在调用返回前完成复制, 调用方可以复用buffer
+     */
+    public boolean publishCopy(LogBuffer buffer);
+
     public boolean publish(LogEvent event);
 }
@@ -175,6 +175,7 @@ public abstract class AbstractMysqlEventParser extends AbstractEventParser {
             transactionBuffer,
             destination);
         mysqlMultiStageCoprocessor.setEventsPublishBlockingTime(eventsPublishBlockingTime);
+        mysqlMultiStageCoprocessor.setParallelRowsEventSize(parallelRowsEventSize);
         return mysqlMultiStageCoprocessor;
     }
 
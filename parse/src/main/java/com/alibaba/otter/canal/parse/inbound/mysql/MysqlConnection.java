@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -33,16 +34,19 @@ import com.alibaba.otter.canal.parse.inbound.ErosaConnection;
 import com.alibaba.otter.canal.parse.inbound.MultiStageCoprocessor;
 import com.alibaba.otter.canal.parse.inbound.SinkFunction;
 import com.alibaba.otter.canal.parse.inbound.mysql.dbsync.DirectLogFetcher;
+import com.alibaba.otter.canal.parse.index.BinlogTimestampIndex;
 import com.alibaba.otter.canal.parse.support.AuthenticationInfo;
-import com.taobao.tddl.dbsync.binlog.LogBuffer;
+import com.alibaba.otter.canal.protocol.position.EntryPosition;
 import com.taobao.tddl.dbsync.binlog.LogContext;
 import com.taobao.tddl.dbsync.binlog.LogDecoder;
 import com.taobao.tddl.dbsync.binlog.LogEvent;
 import com.taobao.tddl.dbsync.binlog.event.FormatDescriptionLogEvent;
+import com.taobao.tddl.dbsync.binlog.event.QueryLogEvent;
 
 public class MysqlConnection implements ErosaConnection {
 
     private static final Logger logger         = LoggerFactory.getLogger(MysqlConnection.class);
+    private static final long   BINLOG_START_OFFSET = 4L;
 
     private MysqlConnector      connector;
     private long                slaveId;
@@ -57,6 +61,8 @@ public class MysqlConnection implements ErosaConnection {
     private int                 binlogChecksum = LogEvent.BINLOG_CHECKSUM_ALG_OFF;
     // dump binlog bytes, 暂不包括meta与TSDB
     private AtomicLong          receivedBinlogBytes;
+    // 按时间戳查找位点使用的索引
+    private BinlogTimestampIndex timestampIndex;
 
     public MysqlConnection(){
     }
@@ -218,7 +224,10 @@ public class MysqlConnection implements ErosaConnection {
     }
 
     public void dump(long timestamp, SinkFunction func) throws IOException {
-        throw new NullPointerException("Not implement yet");
+        EntryPosition position = findPositionByTimestamp(timestamp);
+        // 查找过程中执行过binlog dump, 需要重建链接
+        reconnect();
+        dump(position.getJournalName(), position.getPosition(), func);
     }
 
     @Override
@@ -234,11 +243,11 @@ public class MysqlConnection implements ErosaConnection {
             fetcher.start(connector.getChannel());
             while (fetcher.fetch()) {
                 accumulateReceivedBytes(fetcher.limit());
-                LogBuffer buffer = fetcher.duplicate();
-                fetcher.consume(fetcher.limit());
-                if (!coprocessor.publish(buffer)) {
+                // 复制到ring buffer槽位复用的缓冲区, 避免每个event分配新的byte[]
+                if (!coprocessor.publishCopy(fetcher)) {
                     break;
                 }
+                fetcher.consume(fetcher.limit());
             }
         } finally {
             fetcher.close();
@@ -247,7 +256,152 @@ public class MysqlConnection implements ErosaConnection {
 
     @Override
     public void dump(long timestamp, MultiStageCoprocessor coprocessor) throws IOException {
-        throw new NullPointerException("Not implement yet");
+        EntryPosition position = findPositionByTimestamp(timestamp);
+        // 查找过程中执行过binlog dump, 需要重建链接
+        reconnect();
+        dump(position.getJournalName(), position.getPosition(), coprocessor);
+    }
+
+    /**
+     * 查找按时间戳开始dump的位点，即时间戳之前最后一个事务的结束位置，所有binlog都不早于时间戳时返回最早的binlog文件头
+     */
+    public EntryPosition findPositionByTimestamp(long timestamp) throws IOException {
+        EntryPosition endPosition = showMasterStatus();
+        EntryPosition checkpoint = findCheckpointByTimestamp(timestamp);
+        if (checkpoint == null) {
+            List<String> binlogs = showBinaryLogs();
+            return new EntryPosition(binlogs.get(0), BINLOG_START_OFFSET);
+        }
+
+        final String binlog = checkpoint.getJournalName();
+        if (binlog.equals(endPosition.getJournalName()) && checkpoint.getPosition() >= endPosition.getPosition()) {
+            return checkpoint;
+        }
+
+        // 从检查点开始顺序扫描，记录时间戳之前最后一个事务的结束位置
+        reconnect();
+        final EntryPosition[] found = { checkpoint };
+        seek(binlog, checkpoint.getPosition(), null, new SinkFunction<LogEvent>() {
+
+            public boolean sink(LogEvent event) {
+                int type = event.getHeader().getType();
+                if (type == LogEvent.ROTATE_EVENT && event.getWhen() == 0) {
+                    return true; // 开始dump时的fake rotate
+                }
+                if (type == LogEvent.ROTATE_EVENT || event.getWhen() * 1000 >= timestamp) {
+                    return false;
+                }
+                if (binlog.equals(endPosition.getJournalName()) && event.getLogPos() >= endPosition.getPosition()) {
+                    return false;
+                }
+
+                boolean commit = type == LogEvent.XID_EVENT
+                                 || (type == LogEvent.QUERY_EVENT && StringUtils.endsWithIgnoreCase(((QueryLogEvent) event).getQuery(),
+                                     "COMMIT"));
+                if (commit) {
+                    found[0] = new EntryPosition(binlog, event.getLogPos(), event.getWhen() * 1000, event.getServerId());
+                }
+                return true;
+            }
+        });
+        return found[0];
+    }
+
+    /**
+     * 查找按时间戳扫描binlog的起点，不需要扫描完整的binlog文件
+     *
+     * <pre>
+     * 1. 按binlog文件头(format description event)的时间二分查找最后一个早于时间戳的binlog，文件头的时间会记录到timestampIndex，避免重复探测
+     * 2. timestampIndex中存在该binlog内早于时间戳的检查点时，从最近的检查点开始，否则从文件头开始
+     * 3. 所有binlog都不早于时间戳时返回null
+     * </pre>
+     */
+    public EntryPosition findCheckpointByTimestamp(long timestamp) throws IOException {
+        BinlogTimestampIndex index = timestampIndex != null ? timestampIndex : new BinlogTimestampIndex(null);
+        List<String> binlogs = showBinaryLogs();
+        if (binlogs.isEmpty()) {
+            return null;
+        }
+        index.retain(binlogs.get(0), binlogs.get(binlogs.size() - 1));
+
+        EntryPosition binlogStart = null;
+        int low = 0;
+        int high = binlogs.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            EntryPosition start = findBinlogStart(binlogs.get(mid), index);
+            if (start.getTimestamp() < timestamp) {
+                binlogStart = start;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (binlogStart == null) {
+            return null;
+        }
+
+        EntryPosition checkpoint = index.floor(timestamp);
+        if (checkpoint != null && checkpoint.getJournalName().equals(binlogStart.getJournalName())
+            && checkpoint.getPosition() > binlogStart.getPosition()) {
+            return checkpoint;
+        }
+        return binlogStart;
+    }
+
+    /**
+     * binlog文件头的位点及时间
+     */
+    private EntryPosition findBinlogStart(final String binlog, BinlogTimestampIndex index) throws IOException {
+        EntryPosition start = index.get(binlog, BINLOG_START_OFFSET);
+        if (start != null) {
+            return start;
+        }
+
+        reconnect();
+        final EntryPosition[] found = new EntryPosition[1];
+        seek(binlog, BINLOG_START_OFFSET, null, new SinkFunction<LogEvent>() {
+
+            public boolean sink(LogEvent event) {
+                if (event.getWhen() > 0) {
+                    found[0] = new EntryPosition(binlog,
+                        BINLOG_START_OFFSET,
+                        event.getWhen() * 1000,
+                        event.getServerId());
+                    return false;
+                }
+                return true;
+            }
+        });
+        if (found[0] == null) {
+            throw new CanalParseException("can't find the start timestamp of binlog " + binlog);
+        }
+        index.add(found[0]);
+        return found[0];
+    }
+
+    private List<String> showBinaryLogs() throws IOException {
+        ResultSetPacket packet = query("show binary logs");
+        List<String> fields = packet.getFieldValues();
+        int columns = packet.getFieldDescriptors().size();
+        if (fields == null || fields.isEmpty() || columns == 0) {
+            throw new CanalParseException("command : 'show binary logs' has an error! pls check. you need (at least one of) the SUPER,REPLICATION CLIENT privilege(s) for this operation");
+        }
+
+        List<String> binlogs = new ArrayList<String>(fields.size() / columns);
+        for (int i = 0; i < fields.size(); i += columns) {
+            binlogs.add(fields.get(i));
+        }
+        return binlogs;
+    }
+
+    private EntryPosition showMasterStatus() throws IOException {
+        ResultSetPacket packet = query("show master status");
+        List<String> fields = packet.getFieldValues();
+        if (fields == null || fields.isEmpty()) {
+            throw new CanalParseException("command : 'show master status' has an error! pls check. you need (at least one of) the SUPER,REPLICATION CLIENT privilege(s) for this operation");
+        }
+        return new EntryPosition(fields.get(0), Long.valueOf(fields.get(1)));
     }
 
     @Override
@@ -262,11 +416,11 @@ public class MysqlConnection implements ErosaConnection {
             fetcher.start(connector.getChannel());
             while (fetcher.fetch()) {
                 accumulateReceivedBytes(fetcher.limit());
-                LogBuffer buffer = fetcher.duplicate();
-                fetcher.consume(fetcher.limit());
-                if (!coprocessor.publish(buffer)) {
+                // 复制到ring buffer槽位复用的缓冲区, 避免每个event分配新的byte[]
+                if (!coprocessor.publishCopy(fetcher)) {
                     break;
                 }
+                fetcher.consume(fetcher.limit());
             }
         } finally {
             fetcher.close();
@@ -359,6 +513,7 @@ public class MysqlConnection implements ErosaConnection {
         connection.setCharset(getCharset());
         connection.setSlaveId(getSlaveId());
         connection.setConnector(connector.fork());
+        connection.setTimestampIndex(timestampIndex);
         // set authInfo
         connection.setAuthInfo(authInfo);
         return connection;
@@ -681,4 +836,12 @@ public class MysqlConnection implements ErosaConnection {
         this.receivedBinlogBytes = receivedBinlogBytes;
     }
 
+    public BinlogTimestampIndex getTimestampIndex() {
+        return timestampIndex;
+    }
+
+    public void setTimestampIndex(BinlogTimestampIndex timestampIndex) {
+        this.timestampIndex = timestampIndex;
+    }
+
 }
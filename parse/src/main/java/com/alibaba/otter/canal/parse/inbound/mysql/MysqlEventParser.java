@@ -1,7 +1,9 @@
 package com.alibaba.otter.canal.parse.inbound.mysql;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.util.HashMap;
@@ -27,6 +29,7 @@ import com.alibaba.otter.canal.parse.inbound.mysql.MysqlConnection.BinlogImage;
 import com.alibaba.otter.canal.parse.inbound.mysql.dbsync.LogEventConvert;
 import com.alibaba.otter.canal.parse.inbound.mysql.dbsync.TableMetaCache;
 import com.alibaba.otter.canal.parse.inbound.mysql.tsdb.DatabaseTableMeta;
+import com.alibaba.otter.canal.parse.index.BinlogTimestampIndex;
 import com.alibaba.otter.canal.parse.support.AuthenticationInfo;
 import com.alibaba.otter.canal.protocol.CanalEntry;
 import com.alibaba.otter.canal.protocol.position.EntryPosition;
@@ -71,6 +74,11 @@ public class MysqlEventParser extends AbstractMysqlEventParser implements CanalE
     private int                  dumpErrorCountThreshold           = 2;        // binlogDump失败异常计数阀值
     private boolean              rdsOssMode                        = false;
 
+    // 按时间戳查找位点使用的binlog时间索引, 目录为空时只保存在内存中
+    private String               timestampIndexDir;
+    private BinlogTimestampIndex timestampIndex;
+    private InetSocketAddress    timestampIndexAddress;
+
     protected ErosaConnection buildErosaConnection() {
         return buildMysqlConnection(this.runningInfo);
     }
@@ -176,6 +184,30 @@ public class MysqlEventParser extends AbstractMysqlEventParser implements CanalE
         }
 
         super.stop();
+
+        BinlogTimestampIndex timestampIndex = this.timestampIndex;
+        if (timestampIndex != null) {
+            timestampIndex.flush();
+        }
+    }
+
+    /**
+     * 按时间间隔采样事务结束位置到binlog时间索引
+     */
+    protected void afterTransactionFlush(CanalEntry.Entry lastEntry) {
+        BinlogTimestampIndex timestampIndex = this.timestampIndex;
+        if (timestampIndex == null || lastEntry.getEntryType() != CanalEntry.EntryType.TRANSACTIONEND) {
+            return;
+        }
+
+        CanalEntry.Header header = lastEntry.getHeader();
+        // 记录事务结束event之后的位置, 与按时间戳查找返回的位点一致
+        EntryPosition position = new EntryPosition(header.getLogfileName(),
+            header.getLogfileOffset() + header.getEventLength(),
+            header.getExecuteTime(),
+            header.getServerId());
+        position.setGtid(header.getGtid());
+        timestampIndex.sample(position);
     }
 
     protected TimerTask buildHeartBeatTimeTask(ErosaConnection connection) {
@@ -321,6 +353,7 @@ public class MysqlEventParser extends AbstractMysqlEventParser implements CanalE
         connection.getConnector().setSoTimeout(defaultConnectionTimeoutInSeconds * 1000);
         connection.setCharset(connectionCharset);
         connection.setReceivedBinlogBytes(receivedBinlogBytes);
+        connection.setTimestampIndex(getTimestampIndex(runningInfo.getAddress()));
         // 随机生成slaveId
         if (this.slaveId <= 0) {
             this.slaveId = generateUniqueServerId();
@@ -329,6 +362,27 @@ public class MysqlEventParser extends AbstractMysqlEventParser implements CanalE
         return connection;
     }
 
+    /**
+     * 每个数据库地址对应一个binlog时间索引
+     */
+    private synchronized BinlogTimestampIndex getTimestampIndex(InetSocketAddress address) {
+        if (timestampIndex == null || !address.equals(timestampIndexAddress)) {
+            if (timestampIndex != null) {
+                timestampIndex.flush();
+            }
+
+            File dataFile = null;
+            if (StringUtils.isNotEmpty(timestampIndexDir)) {
+                dataFile = new File(new File(timestampIndexDir, destination), "binlog_timestamp_"
+                                                                               + address.getHostString() + "_"
+                                                                               + address.getPort() + ".dat");
+            }
+            timestampIndex = new BinlogTimestampIndex(dataFile);
+            timestampIndexAddress = address;
+        }
+        return timestampIndex;
+    }
+
     private final long generateUniqueServerId() {
         try {
             // a=`echo $masterip|cut -d\. -f1`
@@ -396,6 +450,7 @@ public class MysqlEventParser extends AbstractMysqlEventParser implements CanalE
                 startTimestamp,
                 endPosition,
                 endPosition.getJournalName(),
+                BINLOG_START_OFFEST,
                 true);
         } else {
             return endPosition;
@@ -411,6 +466,7 @@ public class MysqlEventParser extends AbstractMysqlEventParser implements CanalE
                 startTimestamp,
                 fixedPosition,
                 fixedPosition.getJournalName(),
+                BINLOG_START_OFFEST,
                 true);
             if (entryPosition == null) {
                 throw new CanalParseException("[fixed timestamp] can't found begin/commit position before with fixed position"
@@ -470,6 +526,7 @@ public class MysqlEventParser extends AbstractMysqlEventParser implements CanalE
                                 entryPosition.getTimestamp(),
                                 endPosition,
                                 entryPosition.getJournalName(),
+                                BINLOG_START_OFFEST,
                                 true);
                         }
                     }
@@ -578,6 +635,35 @@ public class MysqlEventParser extends AbstractMysqlEventParser implements CanalE
         String minBinlogFileName = startPosition.getJournalName();
         logger.info("show master status to set search end condition:{} ", endPosition);
         String startSearchBinlogFile = endPosition.getJournalName();
+        try {
+            // 按binlog文件头时间二分查找binlog, 并从时间索引中最近的检查点开始扫描
+            EntryPosition checkpoint = mysqlConnection.findCheckpointByTimestamp(startTimestamp);
+            if (checkpoint == null) {
+                logger.warn("Didn't find the corresponding binlog files from {} to {}",
+                    minBinlogFileName,
+                    maxBinlogFileName);
+                return null;
+            }
+
+            logger.info("found checkpoint:{} in findByStartTimeStamp operation.", checkpoint);
+            if (checkpoint.getPosition() > BINLOG_START_OFFEST) {
+                EntryPosition entryPosition = findAsPerTimestampInSpecificLogFile(mysqlConnection,
+                    startTimestamp,
+                    endPosition,
+                    checkpoint.getJournalName(),
+                    checkpoint.getPosition(),
+                    false);
+                if (entryPosition != null) {
+                    logger.info("found and return:{} in findByStartTimeStamp operation.", entryPosition);
+                    return entryPosition;
+                }
+            }
+            // 检查点之后没有找到, 从该binlog文件头开始扫描
+            startSearchBinlogFile = checkpoint.getJournalName();
+        } catch (Exception e) {
+            logger.warn("find binlog checkpoint by timestamp failed, search from the last binlog file", e);
+        }
+
         boolean shouldBreak = false;
         while (running && !shouldBreak) {
             try {
@@ -585,6 +671,7 @@ public class MysqlEventParser extends AbstractMysqlEventParser implements CanalE
                     startTimestamp,
                     endPosition,
                     startSearchBinlogFile,
+                    BINLOG_START_OFFEST,
                     false);
                 if (entryPosition == null) {
                     if (StringUtils.equalsIgnoreCase(minBinlogFileName, startSearchBinlogFile)) {
@@ -731,19 +818,20 @@ public class MysqlEventParser extends AbstractMysqlEventParser implements CanalE
 
     /**
      * 根据给定的时间戳，在指定的binlog中找到最接近于该时间戳(必须是小于时间戳)的一个事务起始位置。
-     * 针对最后一个binlog会给定endPosition，避免无尽的查询
+     * 针对最后一个binlog会给定endPosition，避免无尽的查询; searchPosition为开始扫描的位置，需要是事务的边界
      */
     private EntryPosition findAsPerTimestampInSpecificLogFile(MysqlConnection mysqlConnection,
                                                               final Long startTimestamp,
                                                               final EntryPosition endPosition,
                                                               final String searchBinlogFile,
+                                                              final Long searchPosition,
                                                               final Boolean justForPositionTimestamp) {
 
         final LogPosition logPosition = new LogPosition();
         try {
             mysqlConnection.reconnect();
             // 开始遍历文件
-            mysqlConnection.seek(searchBinlogFile, 4L, endPosition.getGtid(), new SinkFunction<LogEvent>() {
+            mysqlConnection.seek(searchBinlogFile, searchPosition, endPosition.getGtid(), new SinkFunction<LogEvent>() {
 
                 private LogPosition lastPosition;
 
@@ -807,7 +895,7 @@ public class MysqlEventParser extends AbstractMysqlEventParser implements CanalE
 
                         lastPosition = buildLastPosition(entry);
                     } catch (Throwable e) {
-                        processSinkError(e, lastPosition, searchBinlogFile, 4L);
+                        processSinkError(e, lastPosition, searchBinlogFile, searchPosition);
                     }
 
                     return running;
@@ -934,4 +1022,8 @@ public class MysqlEventParser extends AbstractMysqlEventParser implements CanalE
         this.rdsOssMode = rdsOssMode;
     }
 
+    public void setTimestampIndexDir(String timestampIndexDir) {
+        this.timestampIndexDir = timestampIndexDir;
+    }
+
 }
@@ -44,7 +44,7 @@ import com.taobao.tddl.dbsync.binlog.event.WriteRowsLogEvent;
  * <pre>
  * 1. 网络接收 (单线程)
  * 2. 事件基本解析 (单线程，事件类型、DDL解析构造TableMeta、维护位点信息)
- * 3. 事件深度解析 (多线程, DML事件数据的完整解析)
+ * 3. 事件深度解析 (多线程, DML事件数据的完整解析, 超大的rows事件可拆分为多段并行解析)
  * 4. 投递到store (单线程)
  * </pre>
  * 
@@ -53,7 +53,9 @@ import com.taobao.tddl.dbsync.binlog.event.WriteRowsLogEvent;
  */
 public class MysqlMultiStageCoprocessor extends AbstractCanalLifeCycle implements MultiStageCoprocessor {
 
-    private static final int                  maxFullTimes = 10;
+    private static final int                  maxFullTimes  = 10;
+    private static final int                  MIN_SLAB_SIZE = 4 * 1024;
+    private static final int                  MAX_SLAB_SIZE = 64 * 1024;     // 槽位slab上限, 总内存不超过ringBufferSize * 64KB
     private LogEventConvert                   logEventConvert;
     private EventTransactionBuffer            transactionBuffer;
     private ErosaConnection                   connection;
@@ -63,6 +65,8 @@ public class MysqlMultiStageCoprocessor extends AbstractCanalLifeCycle implement
     private RingBuffer<MessageEvent>          disruptorMsgBuffer;
     private ExecutorService                   parserExecutor;
     private ExecutorService                   stageExecutor;
+    private ExecutorService                   rowsParserExecutor;
+    private int                               parallelRowsEventSize;
     private String                            destination;
     private volatile CanalParseException      exception;
     private AtomicLong                        eventsPublishBlockingTime;
@@ -94,6 +98,11 @@ public class MysqlMultiStageCoprocessor extends AbstractCanalLifeCycle implement
 
         this.stageExecutor = Executors.newFixedThreadPool(2, new NamedThreadFactory("MultiStageCoprocessor-other-"
                                                                                     + destination));
+        if (parallelRowsEventSize > 0 && tc > 1) {
+            // 超大rows事件的行级并行解析
+            this.rowsParserExecutor = Executors.newFixedThreadPool(tc,
+                new NamedThreadFactory("MultiStageCoprocessor-Rows-" + destination));
+        }
         SequenceBarrier sequenceBarrier = disruptorMsgBuffer.newBarrier();
         ExceptionHandler exceptionHandler = new SimpleFatalExceptionHandler();
         // stage 2
@@ -168,21 +177,38 @@ public class MysqlMultiStageCoprocessor extends AbstractCanalLifeCycle implement
         } catch (Throwable e) {
             // ignore
         }
+
+        if (rowsParserExecutor != null) {
+            rowsParserExecutor.shutdownNow();
+            rowsParserExecutor = null;
+        }
         super.stop();
     }
 
     public boolean publish(LogBuffer buffer) {
-        return this.publish(buffer, null);
+        return this.publish(buffer, null, false);
+    }
+
+    /**
+     * 网络数据投递, 数据复制到ring buffer槽位自带的缓冲区中, 调用返回后buffer即可被复用
+     *
+     * <pre>
+     * 槽位在SinkStoreStage处理完成后才会被重新申请, 所以槽位的缓冲区随ring buffer的序号循环复用, 避免每个event分配新的byte[]
+     * 超过MAX_SLAB_SIZE的event仍然复制到新分配的堆内存
+     * </pre>
+     */
+    public boolean publishCopy(LogBuffer buffer) {
+        return this.publish(buffer, null, true);
     }
 
     /**
      * 网络数据投递
      */
     public boolean publish(LogEvent event) {
-        return this.publish(null, event);
+        return this.publish(null, event, false);
     }
 
-    private boolean publish(LogBuffer buffer, LogEvent event) {
+    private boolean publish(LogBuffer buffer, LogEvent event, boolean copy) {
         if (!isStart()) {
             if (exception != null) {
                 throw exception;
@@ -205,7 +231,7 @@ public class MysqlMultiStageCoprocessor extends AbstractCanalLifeCycle implement
                 long next = disruptorMsgBuffer.tryNext();
                 MessageEvent data = disruptorMsgBuffer.get(next);
                 if (buffer != null) {
-                    data.setBuffer(buffer);
+                    data.setBuffer(copy ? data.copy(buffer) : buffer);
                 } else {
                     data.setEvent(event);
                 }
@@ -327,7 +353,17 @@ public class MysqlMultiStageCoprocessor extends AbstractCanalLifeCycle implement
                             break;
                         default:
                             // 单独解析dml事件
-                            entry = logEventConvert.parseRowsEvent((RowsLogEvent) event.getEvent(), event.getTable());
+                            RowsLogEvent rowsLogEvent = (RowsLogEvent) event.getEvent();
+                            if (rowsParserExecutor != null
+                                && rowsLogEvent.getHeader().getEventLen() >= parallelRowsEventSize) {
+                                // 大事件拆分为多段并行解析, 按顺序合并回一个entry
+                                entry = logEventConvert.parseRowsEvent(rowsLogEvent,
+                                    event.getTable(),
+                                    rowsParserExecutor,
+                                    parserThreadCount);
+                            } else {
+                                entry = logEventConvert.parseRowsEvent(rowsLogEvent, event.getTable());
+                            }
                     }
 
                     event.setEntry(entry);
@@ -364,7 +400,7 @@ public class MysqlMultiStageCoprocessor extends AbstractCanalLifeCycle implement
                         logEvent.getHeader().getLogPos());
                 }
 
-                // clear for gc
+                // clear for gc, 槽位的slab保留给后续的event复用
                 event.setBuffer(null);
                 event.setEvent(null);
                 event.setTable(null);
@@ -389,6 +425,7 @@ public class MysqlMultiStageCoprocessor extends AbstractCanalLifeCycle implement
 
     class MessageEvent {
 
+        private byte[]           slab;                 // 槽位复用的缓冲区, 见publishCopy
         private LogBuffer        buffer;
         private CanalEntry.Entry entry;
         private boolean          needDmlParse = false;
@@ -403,6 +440,24 @@ public class MysqlMultiStageCoprocessor extends AbstractCanalLifeCycle implement
             this.buffer = buffer;
         }
 
+        /**
+         * 将数据复制到槽位的slab中, slab按2的幂次扩容, 超过MAX_SLAB_SIZE时在堆上复制
+         */
+        LogBuffer copy(LogBuffer source) {
+            int len = source.limit();
+            if (len > MAX_SLAB_SIZE) {
+                return source.duplicate();
+            }
+            if (slab == null || slab.length < len) {
+                int size = MIN_SLAB_SIZE;
+                while (size < len) {
+                    size <<= 1;
+                }
+                slab = new byte[Math.min(size, MAX_SLAB_SIZE)];
+            }
+            return source.duplicateTo(slab);
+        }
+
         public LogEvent getEvent() {
             return event;
         }
@@ -481,4 +536,8 @@ public class MysqlMultiStageCoprocessor extends AbstractCanalLifeCycle implement
         this.gtidSet = gtidSet;
     }
 
+    public void setParallelRowsEventSize(int parallelRowsEventSize) {
+        this.parallelRowsEventSize = parallelRowsEventSize;
+    }
+
 }
@@ -6,11 +6,18 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.nio.charset.Charset;
 import java.sql.Types;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
@@ -27,6 +34,7 @@ import com.alibaba.otter.canal.parse.inbound.TableMeta.FieldMeta;
 import com.alibaba.otter.canal.parse.inbound.mysql.ddl.DdlResult;
 import com.alibaba.otter.canal.parse.inbound.mysql.ddl.DruidDdlParser;
 import com.alibaba.otter.canal.parse.inbound.mysql.ddl.SimpleDdlParser;
+import com.alibaba.otter.canal.parse.inbound.mysql.dbsync.TableColumnPlan.ColumnPlan;
 import com.alibaba.otter.canal.protocol.CanalEntry.Column;
 import com.alibaba.otter.canal.protocol.CanalEntry.Entry;
 import com.alibaba.otter.canal.protocol.CanalEntry.EntryType;
@@ -90,6 +98,8 @@ public class LogEventConvert extends AbstractCanalLifeCycle implements BinlogPar
     private volatile AviaterRegexFilter nameBlackFilter;
     private Map<String, List<String>> 	fieldFilterMap 		= new HashMap<String, List<String>>();
     private Map<String, List<String>> 	fieldBlackFilterMap = new HashMap<String, List<String>>();
+    // 按表缓存的列解析计划，TableMeta变化后自动重建
+    private ConcurrentMap<String, TableColumnPlan> columnPlans = new ConcurrentHashMap<String, TableColumnPlan>();
 
     private TableMetaCache              tableMetaCache;
     private Charset                     charset             = Charset.defaultCharset();
@@ -492,6 +502,13 @@ public class LogEventConvert extends AbstractCanalLifeCycle implements BinlogPar
     }
 
     public Entry parseRowsEvent(RowsLogEvent event, TableMeta tableMeta) {
+        return parseRowsEvent(event, tableMeta, null, 1);
+    }
+
+    /**
+     * 解析rows事件，如果指定了executor并且slices大于1，会预先扫描row的边界，将单个rows事件拆分为多段并行解析，最后按顺序合并
+     */
+    public Entry parseRowsEvent(RowsLogEvent event, TableMeta tableMeta, ExecutorService executor, int slices) {
         if (filterRows) {
             return null;
         }
@@ -527,30 +544,34 @@ public class LogEventConvert extends AbstractCanalLifeCycle implements BinlogPar
             BitSet columns = event.getColumns();
             BitSet changeColumns = event.getChangeColumns();
 
-            boolean tableError = false;
-            int rowsCount = 0;
-            while (buffer.nextOneRow(columns, false)) {
-                // 处理row记录
-                RowData.Builder rowDataBuilder = RowData.newBuilder();
-                if (EventType.INSERT == eventType) {
-                    // insert的记录放在before字段中
-                    tableError |= parseOneRow(rowDataBuilder, event, buffer, columns, true, tableMeta);
-                } else if (EventType.DELETE == eventType) {
-                    // delete的记录放在before字段中
-                    tableError |= parseOneRow(rowDataBuilder, event, buffer, columns, false, tableMeta);
-                } else {
-                    // update需要处理before/after
-                    tableError |= parseOneRow(rowDataBuilder, event, buffer, columns, false, tableMeta);
-                    if (!buffer.nextOneRow(changeColumns, true)) {
-                        rowChangeBuider.addRowDatas(rowDataBuilder.build());
-                        break;
-                    }
-
-                    tableError |= parseOneRow(rowDataBuilder, event, buffer, changeColumns, true, tableMeta);
+            List<RowsSlice> rowsSlices = null;
+            if (executor != null && slices > 1) {
+                List<RowsLogBuffer> buffers = buffer.splitRows(columns,
+                    changeColumns,
+                    EventType.UPDATE == eventType,
+                    event.getTable().getColumnInfo(),
+                    slices);
+                rowsSlices = new ArrayList<RowsSlice>(buffers.size());
+                for (RowsLogBuffer sliceBuffer : buffers) {
+                    rowsSlices.add(new RowsSlice(sliceBuffer));
                 }
+            } else {
+                rowsSlices = Arrays.asList(new RowsSlice(buffer));
+            }
 
-                rowsCount++;
-                rowChangeBuider.addRowDatas(rowDataBuilder.build());
+            if (rowsSlices.size() > 1) {
+                parseRowsSlices(rowsSlices, event, eventType, tableMeta, executor);
+            } else if (rowsSlices.size() == 1) {
+                parseRowsSlice(rowsSlices.get(0), event, eventType, tableMeta);
+            }
+
+            // 按顺序合并
+            boolean tableError = false;
+            int rowsCount = 0;
+            for (RowsSlice rowsSlice : rowsSlices) {
+                tableError |= rowsSlice.tableError;
+                rowsCount += rowsSlice.rowsCount;
+                rowChangeBuider.addAllRowDatas(rowsSlice.rowDatas);
             }
             TableMapLogEvent table = event.getTable();
             Header header = createHeader(event.getHeader(),
@@ -573,14 +594,93 @@ public class LogEventConvert extends AbstractCanalLifeCycle implements BinlogPar
         }
     }
 
+    private void parseRowsSlices(List<RowsSlice> rowsSlices, final RowsLogEvent event, final EventType eventType,
+                                 final TableMeta tableMeta, ExecutorService executor) throws Exception {
+        List<Future<?>> futures = new ArrayList<Future<?>>(rowsSlices.size() - 1);
+        try {
+            for (int i = 1; i < rowsSlices.size(); i++) {
+                final RowsSlice rowsSlice = rowsSlices.get(i);
+                futures.add(executor.submit(new Callable<Object>() {
+
+                    @Override
+                    public Object call() throws Exception {
+                        parseRowsSlice(rowsSlice, event, eventType, tableMeta);
+                        return null;
+                    }
+                }));
+            }
+
+            // 当前线程解析第一段，避免空等
+            parseRowsSlice(rowsSlices.get(0), event, eventType, tableMeta);
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new CanalParseException(e.getCause());
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private void parseRowsSlice(RowsSlice rowsSlice, RowsLogEvent event, EventType eventType, TableMeta tableMeta)
+                                                                                                                 throws UnsupportedEncodingException {
+        RowsLogBuffer buffer = rowsSlice.buffer;
+        BitSet columns = event.getColumns();
+        BitSet changeColumns = event.getChangeColumns();
+        TableColumnPlan plan = getColumnPlan(tableMeta);
+        while (buffer.nextOneRow(columns, false)) {
+            // 处理row记录
+            RowData.Builder rowDataBuilder = RowData.newBuilder();
+            if (EventType.INSERT == eventType) {
+                // insert的记录放在before字段中
+                rowsSlice.tableError |= parseOneRow(rowDataBuilder, event, buffer, columns, true, tableMeta, plan);
+            } else if (EventType.DELETE == eventType) {
+                // delete的记录放在before字段中
+                rowsSlice.tableError |= parseOneRow(rowDataBuilder, event, buffer, columns, false, tableMeta, plan);
+            } else {
+                // update需要处理before/after
+                rowsSlice.tableError |= parseOneRow(rowDataBuilder, event, buffer, columns, false, tableMeta, plan);
+                if (!buffer.nextOneRow(changeColumns, true)) {
+                    rowsSlice.rowDatas.add(rowDataBuilder.build());
+                    break;
+                }
+
+                rowsSlice.tableError |= parseOneRow(rowDataBuilder, event, buffer, changeColumns, true, tableMeta, plan);
+            }
+
+            rowsSlice.rowsCount++;
+            rowsSlice.rowDatas.add(rowDataBuilder.build());
+        }
+    }
+
     private EntryPosition createPosition(LogHeader logHeader) {
         return new EntryPosition(logHeader.getLogFileName(), logHeader.getLogPos() - logHeader.getEventLen(), // startPos
             logHeader.getWhen() * 1000L,
             logHeader.getServerId()); // 记录到秒
     }
 
+    private TableColumnPlan getColumnPlan(TableMeta tableMeta) {
+        if (tableMeta == null) {
+            return null;
+        }
+
+        String fullName = tableMeta.getFullName();
+        TableColumnPlan plan = columnPlans.get(fullName);
+        if (plan == null || !plan.isValid(tableMeta)) {
+            String upperFullName = fullName.toUpperCase();
+            plan = new TableColumnPlan(tableMeta,
+                fieldFilterMap.get(upperFullName),
+                fieldBlackFilterMap.get(upperFullName));
+            columnPlans.put(fullName, plan);
+        }
+        return plan;
+    }
+
     private boolean parseOneRow(RowData.Builder rowDataBuilder, RowsLogEvent event, RowsLogBuffer buffer, BitSet cols,
-                                boolean isAfter, TableMeta tableMeta) throws UnsupportedEncodingException {
+                                boolean isAfter, TableMeta tableMeta, TableColumnPlan plan)
+                                                                                           throws UnsupportedEncodingException {
         int columnCnt = event.getTable().getColumnCnt();
         ColumnInfo[] columnInfo = event.getTable().getColumnInfo();
         // mysql8.0针对set @@global.binlog_row_metadata='FULL' 可以记录部分的metadata信息
@@ -588,15 +688,6 @@ public class LogEventConvert extends AbstractCanalLifeCycle implements BinlogPar
         boolean tableError = false;
         // check table fileds count，只能处理加字段
         boolean existRDSNoPrimaryKey = false;
-        //获取字段过滤条件
-        List<String> fieldList = null;
-        List<String> blackFieldList = null;
-        
-        if (tableMeta != null) {
-        	fieldList = fieldFilterMap.get(tableMeta.getFullName().toUpperCase());
-        	blackFieldList = fieldBlackFilterMap.get(tableMeta.getFullName().toUpperCase());
-        }
-        
         if (tableMeta != null && columnInfo.length > tableMeta.getFields().size()) {
             if (tableMetaCache.isOnRDS()) {
                 // 特殊处理下RDS的场景
@@ -641,6 +732,21 @@ public class LogEventConvert extends AbstractCanalLifeCycle implements BinlogPar
             }
         }
 
+        if (tableMeta != null && (plan == null || !plan.isValid(tableMeta))) {
+            // 表结构发生了重新加载
+            plan = getColumnPlan(tableMeta);
+        }
+        //获取字段过滤条件
+        List<String> fieldList = null;
+        List<String> blackFieldList = null;
+        if (plan != null) {
+            fieldList = plan.getFieldList();
+            blackFieldList = plan.getBlackFieldList();
+        }
+
+        // 复用builder，避免每列创建
+        Column.Builder columnBuilder = Column.newBuilder();
+
         for (int i = 0; i < columnCnt; i++) {
             ColumnInfo info = columnInfo[i];
             // mysql 5.6开始支持nolob/mininal类型,并不一定记录所有的列,需要进行判断
@@ -652,7 +758,7 @@ public class LogEventConvert extends AbstractCanalLifeCycle implements BinlogPar
                 // 不解析最后一列
                 String rdsRowIdColumnName = "#alibaba_rds_row_id#";
                 buffer.nextValue(rdsRowIdColumnName, i, info.type, info.meta, false);
-                Column.Builder columnBuilder = Column.newBuilder();
+                columnBuilder.clear();
                 columnBuilder.setName(rdsRowIdColumnName);
                 columnBuilder.setIsKey(true);
                 columnBuilder.setMysqlType("bigint");
@@ -674,9 +780,11 @@ public class LogEventConvert extends AbstractCanalLifeCycle implements BinlogPar
             }
 
             FieldMeta fieldMeta = null;
+            ColumnPlan columnPlan = null;
             if (tableMeta != null && !tableError) {
                 // 处理file meta
                 fieldMeta = tableMeta.getFields().get(i);
+                columnPlan = plan.getColumn(i);
             }
 
             if (fieldMeta != null && existOptionalMetaData && tableMetaCache.isOnTSDB()) {
@@ -694,12 +802,12 @@ public class LogEventConvert extends AbstractCanalLifeCycle implements BinlogPar
                 }
             }
 
-            Column.Builder columnBuilder = Column.newBuilder();
-            if (fieldMeta != null) {
-                columnBuilder.setName(fieldMeta.getColumnName());
-                columnBuilder.setIsKey(fieldMeta.isKey());
+            columnBuilder.clear();
+            if (columnPlan != null) {
+                columnBuilder.setName(columnPlan.getName());
+                columnBuilder.setIsKey(columnPlan.isKey());
                 // 增加mysql type类型,issue 73
-                columnBuilder.setMysqlType(fieldMeta.getColumnType());
+                columnBuilder.setMysqlType(columnPlan.getMysqlType());
             } else if (existOptionalMetaData) {
                 columnBuilder.setName(info.name);
                 columnBuilder.setIsKey(info.pk);
@@ -711,17 +819,8 @@ public class LogEventConvert extends AbstractCanalLifeCycle implements BinlogPar
 
             // fixed issue
             // https://github.com/alibaba/canal/issues/66，特殊处理binary/varbinary，不能做编码处理
-            boolean isBinary = false;
-            boolean isSingleBit = false;
-            if (fieldMeta != null) {
-                if (StringUtils.containsIgnoreCase(fieldMeta.getColumnType(), "VARBINARY")) {
-                    isBinary = true;
-                } else if (StringUtils.containsIgnoreCase(fieldMeta.getColumnType(), "BINARY")) {
-                    isBinary = true;
-                } else if (StringUtils.containsIgnoreCase(fieldMeta.getColumnType(), "TINYINT(1)")) {
-                    isSingleBit = true;
-                }
-            }
+            boolean isBinary = columnPlan != null && columnPlan.isBinary();
+            boolean isSingleBit = columnPlan != null && columnPlan.isSingleBit();
 
             buffer.nextValue(columnBuilder.getName(), i, info.type, info.meta, isBinary);
             int javaType = buffer.getJavaType();
@@ -737,7 +836,7 @@ public class LogEventConvert extends AbstractCanalLifeCycle implements BinlogPar
                     case Types.BIGINT:
                         // 处理unsigned类型
                         Number number = (Number) value;
-                        boolean isUnsigned = (fieldMeta != null ? fieldMeta.isUnsigned() : (existOptionalMetaData ? info.unsigned : false));
+                        boolean isUnsigned = (columnPlan != null ? columnPlan.isUnsigned() : (existOptionalMetaData ? info.unsigned : false));
                         if (isUnsigned && number.longValue() < 0) {
                             switch (buffer.getLength()) {
                                 case 1: /* MYSQL_TYPE_TINY */
@@ -809,7 +908,7 @@ public class LogEventConvert extends AbstractCanalLifeCycle implements BinlogPar
                         // https://github.com/AlibabaTech/canal/issues/18
                         // mysql binlog中blob/text都处理为blob类型，需要反查table
                         // meta，按编码解析text
-                        if (fieldMeta != null && isText(fieldMeta.getColumnType())) {
+                        if (columnPlan != null && columnPlan.isText()) {
                             columnBuilder.setValue(new String((byte[]) value, charset));
                             javaType = Types.CLOB;
                         } else {
@@ -835,7 +934,10 @@ public class LogEventConvert extends AbstractCanalLifeCycle implements BinlogPar
                                      && isUpdate(rowDataBuilder.getBeforeColumnsList(),
                                          columnBuilder.getIsNull() ? null : columnBuilder.getValue(),
                                          i));
-            if (needField(fieldList, blackFieldList, columnBuilder.getName())) {
+            boolean needField = (columnPlan != null ? columnPlan.isNeedField() : needField(fieldList,
+                blackFieldList,
+                columnBuilder.getName()));
+            if (needField) {
             	if (isAfter) {
                     rowDataBuilder.addAfterColumns(columnBuilder.build());
                 } else {
@@ -963,11 +1065,6 @@ public class LogEventConvert extends AbstractCanalLifeCycle implements BinlogPar
         }
     }
 
-    private boolean isText(String columnType) {
-        return "LONGTEXT".equalsIgnoreCase(columnType) || "MEDIUMTEXT".equalsIgnoreCase(columnType)
-               || "TEXT".equalsIgnoreCase(columnType) || "TINYTEXT".equalsIgnoreCase(columnType);
-    }
-
     private boolean isAliSQLHeartBeat(String schema, String table) {
         return "test".equalsIgnoreCase(schema) && "heartbeat".equalsIgnoreCase(table);
     }
@@ -987,6 +1084,21 @@ public class LogEventConvert extends AbstractCanalLifeCycle implements BinlogPar
     	}
     }
 
+    /**
+     * rows事件中的一段连续row记录及其解析结果
+     */
+    private static class RowsSlice {
+
+        private final RowsLogBuffer buffer;
+        private final List<RowData> rowDatas   = new ArrayList<RowData>();
+        private int                 rowsCount  = 0;
+        private boolean             tableError = false;
+
+        public RowsSlice(RowsLogBuffer buffer){
+            this.buffer = buffer;
+        }
+    }
+
     public static TransactionBegin createTransactionBegin(long threadId) {
         TransactionBegin.Builder beginBuilder = TransactionBegin.newBuilder();
         beginBuilder.setThreadId(threadId);
@@ -1034,6 +1146,7 @@ public class LogEventConvert extends AbstractCanalLifeCycle implements BinlogPar
     	} else {
     		this.fieldFilterMap = new HashMap<String, List<String>>();
     	}
+    	this.columnPlans.clear();
 		
 		
 		for (Map.Entry<String, List<String>> entry : this.fieldFilterMap.entrySet()) {
@@ -1047,6 +1160,7 @@ public class LogEventConvert extends AbstractCanalLifeCycle implements BinlogPar
     	} else {
     		this.fieldBlackFilterMap = new HashMap<String, List<String>>();
     	}
+    	this.columnPlans.clear();
 		
 		for (Map.Entry<String, List<String>> entry : this.fieldBlackFilterMap.entrySet()) {
 			logger.warn("--> init field black filter : " + entry.getKey() + "->" + entry.getValue());
@@ -0,0 +1,130 @@
+package com.alibaba.otter.canal.parse.inbound.mysql.dbsync;
+
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.alibaba.otter.canal.parse.inbound.TableMeta;
+import com.alibaba.otter.canal.parse.inbound.TableMeta.FieldMeta;
+
+/**
+ * 基于{@linkplain TableMeta}预先编译的列解析计划
+ *
+ * <pre>
+ * 缓存每一列不会随row变化的判断(binary/tinyint(1)/unsigned/text类型、字段过滤等)，
+ * 同一个TableMeta版本下的所有row复用，TableMeta发生变化后需要重新构建
+ * </pre>
+ *
+ * @since 1.1.4
+ */
+public class TableColumnPlan {
+
+    private final TableMeta       tableMeta;
+    private final List<FieldMeta> fields;
+    private final int             fieldSize;
+    private final List<String>    fieldList;
+    private final List<String>    blackFieldList;
+    private final ColumnPlan[]    columns;
+
+    public TableColumnPlan(TableMeta tableMeta, List<String> fieldList, List<String> blackFieldList){
+        this.tableMeta = tableMeta;
+        this.fields = tableMeta.getFields();
+        this.fieldSize = fields.size();
+        this.fieldList = fieldList;
+        this.blackFieldList = blackFieldList;
+        this.columns = new ColumnPlan[fieldSize];
+        for (int i = 0; i < fieldSize; i++) {
+            columns[i] = new ColumnPlan(fields.get(i));
+        }
+    }
+
+    /**
+     * 判断当前计划是否仍然对应该TableMeta版本
+     */
+    public boolean isValid(TableMeta tableMeta) {
+        return this.tableMeta == tableMeta && this.fields == tableMeta.getFields() && fieldSize == fields.size();
+    }
+
+    public ColumnPlan getColumn(int index) {
+        return columns[index];
+    }
+
+    public List<String> getFieldList() {
+        return fieldList;
+    }
+
+    public List<String> getBlackFieldList() {
+        return blackFieldList;
+    }
+
+    /**
+     * 字段过滤判断
+     */
+    public boolean needField(String columnName) {
+        if (fieldList == null || fieldList.isEmpty()) {
+            return blackFieldList == null || blackFieldList.isEmpty()
+                   || !blackFieldList.contains(columnName.toUpperCase());
+        } else {
+            return fieldList.contains(columnName.toUpperCase());
+        }
+    }
+
+    public class ColumnPlan {
+
+        private final String  name;
+        private final String  mysqlType;
+        private final boolean key;
+        private final boolean unsigned;
+        private final boolean binary;
+        private final boolean singleBit;
+        private final boolean text;
+        private final boolean needField;
+
+        ColumnPlan(FieldMeta fieldMeta){
+            String columnType = fieldMeta.getColumnType();
+            this.name = fieldMeta.getColumnName();
+            this.mysqlType = columnType;
+            this.key = fieldMeta.isKey();
+            this.unsigned = fieldMeta.isUnsigned();
+            // fixed issue
+            // https://github.com/alibaba/canal/issues/66，特殊处理binary/varbinary，不能做编码处理
+            this.binary = StringUtils.containsIgnoreCase(columnType, "BINARY");
+            this.singleBit = !binary && StringUtils.containsIgnoreCase(columnType, "TINYINT(1)");
+            this.text = "LONGTEXT".equalsIgnoreCase(columnType) || "MEDIUMTEXT".equalsIgnoreCase(columnType)
+                        || "TEXT".equalsIgnoreCase(columnType) || "TINYTEXT".equalsIgnoreCase(columnType);
+            this.needField = TableColumnPlan.this.needField(name);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getMysqlType() {
+            return mysqlType;
+        }
+
+        public boolean isKey() {
+            return key;
+        }
+
+        public boolean isUnsigned() {
+            return unsigned;
+        }
+
+        public boolean isBinary() {
+            return binary;
+        }
+
+        public boolean isSingleBit() {
+            return singleBit;
+        }
+
+        public boolean isText() {
+            return text;
+        }
+
+        public boolean isNeedField() {
+            return needField;
+        }
+    }
+}
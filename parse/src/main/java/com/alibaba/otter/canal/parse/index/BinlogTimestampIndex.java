@@ -0,0 +1,256 @@
+package com.alibaba.otter.canal.parse.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.fastjson.TypeReference;
+import com.alibaba.otter.canal.common.utils.JsonUtils;
+import com.alibaba.otter.canal.protocol.position.EntryPosition;
+
+/**
+ * binlog位点的稀疏时间索引，用于按时间戳查找位点时跳过大部分binlog
+ *
+ * <pre>
+ * 1. 检查点为可以直接开始dump的位点(事务结束位置或binlog文件头)，记录 file/offset/timestamp/gtid
+ * 2. 解析过程中按时间间隔采样事务结束位置，按时间查找时探测到的binlog文件头时间也会记录下来
+ * 3. 检查点按binlog位置排序，查找时二分查找最后一个(连同之前所有检查点)早于指定时间的检查点
+ * 4. dataFile不为空时定期写入文件，重启后可以继续使用
+ * </pre>
+ *
+ * @version 1.1.4
+ */
+public class BinlogTimestampIndex {
+
+    private static final Logger                  logger                = LoggerFactory.getLogger(BinlogTimestampIndex.class);
+    private static final Charset                 charset               = Charset.forName("UTF-8");
+    private static final long                    DEFAULT_INTERVAL      = 60 * 1000L;
+    private static final int                     DEFAULT_MAX_SIZE      = 10000;
+    private static final long                    DEFAULT_FLUSH_PERIOD  = 10 * 1000L;
+
+    private final File                           dataFile;
+    private long                                 interval              = DEFAULT_INTERVAL;      // 同一binlog内两个采样检查点的最小时间间隔(ms)
+    private int                                  maxSize               = DEFAULT_MAX_SIZE;      // 超过后丢弃最早的检查点
+    private long                                 flushPeriod           = DEFAULT_FLUSH_PERIOD;  // 写文件的最小间隔(ms)
+    private TreeMap<EntryPosition, EntryPosition> checkpoints          = new TreeMap<EntryPosition, EntryPosition>(new PositionComparator());
+    private List<EntryPosition>                  sorted;                                          // 二分查找用的快照，修改后重建
+    private long[]                               maxTimestamps;                                   // sorted前缀的最大时间戳
+    private EntryPosition                        lastSampled;
+    private boolean                              dirty;
+    private long                                 lastFlushTime;
+
+    public BinlogTimestampIndex(File dataFile){
+        this.dataFile = dataFile;
+        load();
+    }
+
+    /**
+     * 记录解析到的事务结束位置，距离上一个采样检查点不足interval时忽略
+     *
+     * <pre>
+     * 解析是顺序推进的，索引中位于该位置之后的检查点来自之前的binlog(如reset master之后重新生成的同名文件)，一并删除
+     * </pre>
+     */
+    public synchronized void sample(EntryPosition position) {
+        if (!isValid(position)) {
+            return;
+        }
+        if (lastSampled != null && StringUtils.equals(lastSampled.getJournalName(), position.getJournalName())
+            && position.getTimestamp() - lastSampled.getTimestamp() < interval
+            && position.getPosition() >= lastSampled.getPosition()) {
+            return;
+        }
+
+        Map<EntryPosition, EntryPosition> stale = checkpoints.tailMap(position, false);
+        if (!stale.isEmpty()) {
+            stale.clear();
+        }
+        put(position);
+        lastSampled = position;
+        flushIfNecessary();
+    }
+
+    /**
+     * 记录一个已知时间的位点，比如binlog文件头
+     */
+    public synchronized void add(EntryPosition position) {
+        if (!isValid(position)) {
+            return;
+        }
+        put(position);
+        flushIfNecessary();
+    }
+
+    /**
+     * 返回指定位点的检查点
+     */
+    public synchronized EntryPosition get(String journalName, long position) {
+        return checkpoints.get(new EntryPosition(journalName, position));
+    }
+
+    /**
+     * 返回最后一个早于timestamp的检查点，且之前的所有检查点也都早于timestamp，没有时返回null
+     */
+    public synchronized EntryPosition floor(long timestamp) {
+        if (sorted == null) {
+            sorted = new ArrayList<EntryPosition>(checkpoints.values());
+            maxTimestamps = new long[sorted.size()];
+            long max = Long.MIN_VALUE;
+            for (int i = 0; i < sorted.size(); i++) {
+                max = Math.max(max, sorted.get(i).getTimestamp());
+                maxTimestamps[i] = max;
+            }
+        }
+
+        int low = 0;
+        int high = sorted.size() - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (maxTimestamps[mid] < timestamp) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found < 0 ? null : sorted.get(found);
+    }
+
+    /**
+     * 删除不在 [minJournalName, maxJournalName] 之间的检查点，比如已经被purge的binlog
+     */
+    public synchronized void retain(String minJournalName, String maxJournalName) {
+        PositionComparator comparator = new PositionComparator();
+        boolean changed = checkpoints.keySet()
+            .removeIf(position -> comparator.compareJournalName(position.getJournalName(), minJournalName) < 0
+                                  || comparator.compareJournalName(position.getJournalName(), maxJournalName) > 0);
+        if (changed) {
+            sorted = null;
+            dirty = true;
+        }
+    }
+
+    public synchronized int size() {
+        return checkpoints.size();
+    }
+
+    public synchronized void flush() {
+        if (dataFile == null || !dirty) {
+            return;
+        }
+
+        String json = JsonUtils.marshalToString(new ArrayList<EntryPosition>(checkpoints.values()));
+        try {
+            // 先写临时文件再替换，避免中断时留下不完整的索引
+            File tmp = new File(dataFile.getPath() + ".tmp");
+            FileUtils.writeStringToFile(tmp, json, charset.name());
+            if (!tmp.renameTo(dataFile)) {
+                FileUtils.copyFile(tmp, dataFile);
+                FileUtils.deleteQuietly(tmp);
+            }
+            dirty = false;
+        } catch (IOException e) {
+            logger.warn("flush binlog timestamp index to " + dataFile + " failed", e);
+        }
+        lastFlushTime = System.currentTimeMillis();
+    }
+
+    private void put(EntryPosition position) {
+        EntryPosition checkpoint = new EntryPosition(position.getJournalName(),
+            position.getPosition(),
+            position.getTimestamp(),
+            position.getServerId());
+        checkpoint.setGtid(position.getGtid());
+        checkpoints.put(checkpoint, checkpoint);
+        while (checkpoints.size() > maxSize) {
+            checkpoints.pollFirstEntry();
+        }
+        sorted = null;
+        dirty = true;
+    }
+
+    private void flushIfNecessary() {
+        if (System.currentTimeMillis() - lastFlushTime >= flushPeriod) {
+            flush();
+        }
+    }
+
+    private boolean isValid(EntryPosition position) {
+        return position != null && StringUtils.isNotEmpty(position.getJournalName()) && position.getPosition() != null
+               && position.getTimestamp() != null && position.getTimestamp() > 0;
+    }
+
+    private void load() {
+        if (dataFile == null || !dataFile.exists()) {
+            return;
+        }
+
+        try {
+            String json = FileUtils.readFileToString(dataFile, charset.name());
+            List<EntryPosition> positions = JsonUtils.unmarshalFromString(json,
+                new TypeReference<List<EntryPosition>>() {
+                });
+            for (EntryPosition position : positions) {
+                if (isValid(position)) {
+                    put(position);
+                }
+            }
+            dirty = false;
+        } catch (Exception e) {
+            logger.warn("ignore broken binlog timestamp index " + dataFile, e);
+            checkpoints.clear();
+        }
+    }
+
+    public void setInterval(long interval) {
+        this.interval = interval;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public void setFlushPeriod(long flushPeriod) {
+        this.flushPeriod = flushPeriod;
+    }
+
+    /**
+     * 按binlog文件序号及offset排序，文件序号按数值比较(超过6位时仍然有序)
+     */
+    static class PositionComparator implements Comparator<EntryPosition> {
+
+        @Override
+        public int compare(EntryPosition o1, EntryPosition o2) {
+            int result = compareJournalName(o1.getJournalName(), o2.getJournalName());
+            if (result != 0) {
+                return result;
+            }
+            return Long.compare(o1.getPosition(), o2.getPosition());
+        }
+
+        int compareJournalName(String name1, String name2) {
+            int index1 = name1.lastIndexOf('.');
+            int index2 = name2.lastIndexOf('.');
+            if (index1 > 0 && index2 > 0 && name1.regionMatches(0, name2, 0, Math.max(index1, index2))) {
+                String seq1 = name1.substring(index1 + 1);
+                String seq2 = name2.substring(index2 + 1);
+                if (StringUtils.isNumeric(seq1) && StringUtils.isNumeric(seq2)) {
+                    int result = Integer.compare(seq1.length(), seq2.length());
+                    return result != 0 ? result : seq1.compareTo(seq2);
+                }
+            }
+            return name1.compareTo(name2);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.alibaba.otter.canal.parse.inbound.mysql.dbsync;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.alibaba.otter.canal.parse.inbound.TableMeta;
+import com.alibaba.otter.canal.parse.inbound.TableMeta.FieldMeta;
+
+public class TableColumnPlanTest {
+
+    @Test
+    public void testValid() {
+        TableMeta tableMeta = tableMeta();
+        TableColumnPlan plan = new TableColumnPlan(tableMeta, null, null);
+        Assert.assertTrue(plan.isValid(tableMeta));
+        Assert.assertEquals("bigint(20) unsigned", plan.getColumn(0).getMysqlType());
+        Assert.assertTrue(plan.getColumn(0).isKey());
+        Assert.assertTrue(plan.getColumn(1).isBinary());
+        Assert.assertTrue(plan.getColumn(2).isText());
+
+        // 其他版本的TableMeta
+        Assert.assertFalse(plan.isValid(tableMeta()));
+
+        // 增加字段
+        tableMeta.addFieldMeta(new FieldMeta("age", "tinyint(1)", true, false, null));
+        Assert.assertFalse(plan.isValid(tableMeta));
+
+        // 替换字段列表
+        plan = new TableColumnPlan(tableMeta, null, null);
+        tableMeta.setFields(new ArrayList<FieldMeta>(tableMeta.getFields()));
+        Assert.assertFalse(plan.isValid(tableMeta));
+    }
+
+    @Test
+    public void testNeedField() {
+        TableColumnPlan plan = new TableColumnPlan(tableMeta(), Arrays.asList("ID", "NAME"), null);
+        Assert.assertTrue(plan.getColumn(0).isNeedField());
+        Assert.assertFalse(plan.getColumn(2).isNeedField());
+
+        plan = new TableColumnPlan(tableMeta(), null, Arrays.asList("NAME"));
+        Assert.assertTrue(plan.getColumn(0).isNeedField());
+        Assert.assertFalse(plan.getColumn(1).isNeedField());
+    }
+
+    @Test
+    public void testColumnPlanCache() throws Exception {
+        LogEventConvert convert = new LogEventConvert();
+        TableMeta tableMeta = tableMeta();
+
+        // 相同的TableMeta版本复用同一个计划
+        TableColumnPlan plan = columnPlan(convert, tableMeta);
+        Assert.assertSame(plan, columnPlan(convert, tableMeta));
+        Assert.assertTrue(plan.getColumn(2).isNeedField());
+
+        // 重新设置字段过滤后重建
+        Map<String, List<String>> fieldFilterMap = new HashMap<String, List<String>>();
+        fieldFilterMap.put("TEST.USER", Arrays.asList("ID", "NAME"));
+        convert.setFieldFilterMap(fieldFilterMap);
+        TableColumnPlan filtered = columnPlan(convert, tableMeta);
+        Assert.assertNotSame(plan, filtered);
+        Assert.assertFalse(filtered.getColumn(2).isNeedField());
+
+        Map<String, List<String>> fieldBlackFilterMap = new HashMap<String, List<String>>();
+        fieldBlackFilterMap.put("TEST.USER", Arrays.asList("NAME"));
+        convert.setFieldFilterMap(null);
+        convert.setFieldBlackFilterMap(fieldBlackFilterMap);
+        TableColumnPlan blackFiltered = columnPlan(convert, tableMeta);
+        Assert.assertNotSame(filtered, blackFiltered);
+        Assert.assertFalse(blackFiltered.getColumn(1).isNeedField());
+        Assert.assertTrue(blackFiltered.getColumn(2).isNeedField());
+
+        // TableMeta变化后重建
+        TableMeta altered = tableMeta();
+        altered.addFieldMeta(new FieldMeta("age", "int(11)", true, false, null));
+        TableColumnPlan alteredPlan = columnPlan(convert, altered);
+        Assert.assertNotSame(blackFiltered, alteredPlan);
+        Assert.assertTrue(alteredPlan.isValid(altered));
+        Assert.assertEquals("age", alteredPlan.getColumn(3).getName());
+    }
+
+    private static TableColumnPlan columnPlan(LogEventConvert convert, TableMeta tableMeta) throws Exception {
+        Method method = LogEventConvert.class.getDeclaredMethod("getColumnPlan", TableMeta.class);
+        method.setAccessible(true);
+        return (TableColumnPlan) method.invoke(convert, tableMeta);
+    }
+
+    private static TableMeta tableMeta() {
+        List<FieldMeta> fields = new ArrayList<FieldMeta>();
+        fields.add(new FieldMeta("id", "bigint(20) unsigned", false, true, null));
+        fields.add(new FieldMeta("name", "varbinary(32)", true, false, null));
+        fields.add(new FieldMeta("remark", "text", true, false, null));
+        return new TableMeta("test", "user", fields);
+    }
+}
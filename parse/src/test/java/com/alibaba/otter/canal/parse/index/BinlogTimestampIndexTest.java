@@ -0,0 +1,86 @@
+package com.alibaba.otter.canal.parse.index;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.alibaba.otter.canal.protocol.position.EntryPosition;
+
+public class BinlogTimestampIndexTest {
+
+    @Test
+    public void testFloor() {
+        BinlogTimestampIndex index = new BinlogTimestampIndex(null);
+        index.add(new EntryPosition("mysql-bin.000001", 4L, 1000L, 1L));
+        index.add(new EntryPosition("mysql-bin.000001", 1000L, 2000L, 1L));
+        // 时间回退的检查点, 之后的检查点都不能作为早于2500的结果
+        index.add(new EntryPosition("mysql-bin.000002", 4L, 3000L, 1L));
+        index.add(new EntryPosition("mysql-bin.000002", 500L, 2500L, 1L));
+        index.add(new EntryPosition("mysql-bin.000003", 4L, 4000L, 1L));
+
+        Assert.assertNull(index.floor(1000L));
+        Assert.assertEquals(Long.valueOf(4L), index.floor(1001L).getPosition());
+        Assert.assertEquals(Long.valueOf(1000L), index.floor(2600L).getPosition());
+        EntryPosition position = index.floor(3500L);
+        Assert.assertEquals("mysql-bin.000002", position.getJournalName());
+        Assert.assertEquals(Long.valueOf(500L), position.getPosition());
+        Assert.assertEquals("mysql-bin.000003", index.floor(Long.MAX_VALUE).getJournalName());
+    }
+
+    @Test
+    public void testSample() {
+        BinlogTimestampIndex index = new BinlogTimestampIndex(null);
+        index.setInterval(1000L);
+        index.sample(new EntryPosition("mysql-bin.000001", 100L, 10000L, 1L));
+        index.sample(new EntryPosition("mysql-bin.000001", 200L, 10500L, 1L));
+        index.sample(new EntryPosition("mysql-bin.000001", 300L, 11000L, 1L));
+        // 切换binlog后不受间隔限制
+        index.sample(new EntryPosition("mysql-bin.000002", 100L, 11100L, 1L));
+        Assert.assertEquals(3, index.size());
+        Assert.assertNull(index.get("mysql-bin.000001", 200L));
+
+        // 回到之前的位置重新解析, 之后的检查点被丢弃
+        index.sample(new EntryPosition("mysql-bin.000001", 150L, 20000L, 1L));
+        Assert.assertEquals(2, index.size());
+        Assert.assertNotNull(index.get("mysql-bin.000001", 100L));
+        Assert.assertEquals(Long.valueOf(20000L), index.get("mysql-bin.000001", 150L).getTimestamp());
+    }
+
+    @Test
+    public void testRetain() {
+        BinlogTimestampIndex index = new BinlogTimestampIndex(null);
+        index.setMaxSize(3);
+        index.add(new EntryPosition("mysql-bin.999999", 4L, 1000L, 1L));
+        index.add(new EntryPosition("mysql-bin.1000000", 4L, 2000L, 1L));
+        index.add(new EntryPosition("mysql-bin.1000001", 4L, 3000L, 1L));
+        index.add(new EntryPosition("mysql-bin.1000002", 4L, 4000L, 1L));
+        // 超过maxSize时丢弃最早的检查点, 文件序号按数值排序
+        Assert.assertEquals(3, index.size());
+        Assert.assertNull(index.get("mysql-bin.999999", 4L));
+
+        index.retain("mysql-bin.1000001", "mysql-bin.1000001");
+        Assert.assertEquals(1, index.size());
+        Assert.assertEquals("mysql-bin.1000001", index.floor(Long.MAX_VALUE).getJournalName());
+    }
+
+    @Test
+    public void testFlushAndLoad() throws Exception {
+        File file = File.createTempFile("binlog_timestamp", ".dat");
+        file.delete();
+        try {
+            BinlogTimestampIndex index = new BinlogTimestampIndex(file);
+            EntryPosition position = new EntryPosition("mysql-bin.000001", 1000L, 2000L, 1L);
+            position.setGtid("uuid:1-10");
+            index.add(position);
+            index.flush();
+
+            BinlogTimestampIndex loaded = new BinlogTimestampIndex(file);
+            Assert.assertEquals(1, loaded.size());
+            Assert.assertEquals(position, loaded.get("mysql-bin.000001", 1000L));
+            Assert.assertEquals("uuid:1-10", loaded.get("mysql-bin.000001", 1000L).getGtid());
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -24,6 +24,7 @@ public class CanalInstanceExports {
     private final Collector          metaCollector;
     private final Collector          sinkCollector;
     private final Collector          parserCollector;
+    private final Collector          mqBatchCollector;
 
     private CanalInstanceExports() {
         this.storeCollector = StoreCollector.instance();
@@ -31,6 +32,7 @@ public class CanalInstanceExports {
         this.metaCollector = MetaCollector.instance();
         this.sinkCollector = SinkCollector.instance();
         this.parserCollector = ParserCollector.instance();
+        this.mqBatchCollector = MQBatchCollector.instance();
     }
 
     private static class SingletonHolder {
@@ -47,6 +49,7 @@ public class CanalInstanceExports {
         metaCollector.register();
         sinkCollector.register();
         parserCollector.register();
+        mqBatchCollector.register();
     }
 
     public void terminate() {
@@ -55,6 +58,7 @@ public class CanalInstanceExports {
         CollectorRegistry.defaultRegistry.unregister(metaCollector);
         CollectorRegistry.defaultRegistry.unregister(sinkCollector);
         CollectorRegistry.defaultRegistry.unregister(parserCollector);
+        CollectorRegistry.defaultRegistry.unregister(mqBatchCollector);
     }
 
     void register(CanalInstance instance) {
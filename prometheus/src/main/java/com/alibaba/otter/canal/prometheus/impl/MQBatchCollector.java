@@ -0,0 +1,59 @@
+package com.alibaba.otter.canal.prometheus.impl;
+
+import static com.alibaba.otter.canal.prometheus.CanalInstanceExports.DEST_LABELS_LIST;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.GaugeMetricFamily;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.alibaba.otter.canal.common.AdaptiveBatchSizer;
+
+/**
+ * MQ投递动态batchSize相关指标，数据来自{@linkplain AdaptiveBatchSizer}
+ *
+ * @version 1.1.4
+ */
+public class MQBatchCollector extends Collector {
+
+    private static final String BATCH_SIZE          = "canal_instance_mq_batch_size";
+    private static final String P99_LATENCY         = "canal_instance_mq_delivery_latency_p99";
+    private static final String TARGET_LATENCY      = "canal_instance_mq_target_latency";
+    private static final String BATCH_SIZE_HELP     = "Current adaptive batch size of MQ worker";
+    private static final String P99_LATENCY_HELP    = "P99 delivery latency of MQ worker in milliseconds";
+    private static final String TARGET_LATENCY_HELP = "Target delivery latency of MQ worker in milliseconds";
+
+    private MQBatchCollector() {}
+
+    private static class SingletonHolder {
+        private static final MQBatchCollector SINGLETON = new MQBatchCollector();
+    }
+
+    public static MQBatchCollector instance() {
+        return SingletonHolder.SINGLETON;
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        List<MetricFamilySamples> mfs = new ArrayList<>();
+        GaugeMetricFamily batchSize = new GaugeMetricFamily(BATCH_SIZE, BATCH_SIZE_HELP, DEST_LABELS_LIST);
+        GaugeMetricFamily p99Latency = new GaugeMetricFamily(P99_LATENCY, P99_LATENCY_HELP, DEST_LABELS_LIST);
+        GaugeMetricFamily targetLatency = new GaugeMetricFamily(TARGET_LATENCY, TARGET_LATENCY_HELP, DEST_LABELS_LIST);
+        for (Map.Entry<String, AdaptiveBatchSizer> entry : AdaptiveBatchSizer.getSizers().entrySet()) {
+            List<String> labelValues = Collections.singletonList(entry.getKey());
+            AdaptiveBatchSizer sizer = entry.getValue();
+            batchSize.addMetric(labelValues, sizer.getBatchSize());
+            p99Latency.addMetric(labelValues, sizer.getP99Latency());
+            targetLatency.addMetric(labelValues, sizer.getTargetLatency());
+        }
+        if (!batchSize.samples.isEmpty()) {
+            mfs.add(batchSize);
+            mfs.add(p99Latency);
+            mfs.add(targetLatency);
+        }
+        return mfs;
+    }
+}
@@ -3,7 +3,9 @@ package com.alibaba.otter.canal.prometheus.impl;
 import com.alibaba.otter.canal.instance.core.CanalInstance;
 import com.alibaba.otter.canal.prometheus.InstanceRegistry;
 import com.alibaba.otter.canal.store.CanalEventStore;
+import com.alibaba.otter.canal.store.file.FileEventStoreWithSegment;
 import com.alibaba.otter.canal.store.memory.MemoryEventStoreWithBuffer;
+import com.alibaba.otter.canal.store.memory.MemoryEventStoreWithRingBuffer;
 import com.alibaba.otter.canal.store.model.BatchMode;
 import com.google.common.base.Preconditions;
 import io.prometheus.client.Collector;
@@ -137,28 +139,57 @@ public class StoreCollector extends Collector implements InstanceRegistry {
         final String destination = instance.getDestination();
         StoreMetricsHolder holder = new StoreMetricsHolder();
         CanalEventStore store = instance.getEventStore();
-        if (!(store instanceof MemoryEventStoreWithBuffer)) {
-            throw new IllegalArgumentException("EventStore must be MemoryEventStoreWithBuffer");
+        if (store instanceof MemoryEventStoreWithBuffer) {
+            MemoryEventStoreWithBuffer memStore = (MemoryEventStoreWithBuffer) store;
+            holder.batchMode = memStore.getBatchMode();
+            holder.putSeq = memStore.getPutSequence();
+            holder.ackSeq = memStore.getAckSequence();
+            holder.size = memStore.getBufferSize();
+            holder.putExecTime = memStore.getPutExecTime();
+            holder.getExecTime = memStore.getGetExecTime();
+            holder.ackExecTime = memStore.getAckExecTime();
+            holder.putTableRows = memStore.getPutTableRows();
+            holder.getTableRows = memStore.getGetTableRows();
+            holder.ackTableRows = memStore.getAckTableRows();
+            holder.putMemSize = memStore.getPutMemSize();
+            holder.ackMemSize = memStore.getAckMemSize();
+        } else if (store instanceof MemoryEventStoreWithRingBuffer) {
+            MemoryEventStoreWithRingBuffer ringStore = (MemoryEventStoreWithRingBuffer) store;
+            holder.batchMode = ringStore.getBatchMode();
+            holder.putSeq = ringStore.getPutSequence();
+            holder.ackSeq = ringStore.getAckSequence();
+            holder.size = ringStore.getBufferSize();
+            holder.putExecTime = ringStore.getPutExecTime();
+            holder.getExecTime = ringStore.getGetExecTime();
+            holder.ackExecTime = ringStore.getAckExecTime();
+            holder.putTableRows = ringStore.getPutTableRows();
+            holder.getTableRows = ringStore.getGetTableRows();
+            holder.ackTableRows = ringStore.getAckTableRows();
+            holder.putMemSize = ringStore.getPutMemSize();
+            holder.ackMemSize = ringStore.getAckMemSize();
+        } else if (store instanceof FileEventStoreWithSegment) {
+            FileEventStoreWithSegment fileStore = (FileEventStoreWithSegment) store;
+            holder.batchMode = fileStore.getBatchMode();
+            holder.putSeq = fileStore.getPutSequence();
+            holder.ackSeq = fileStore.getAckSequence();
+            holder.size = fileStore.getMaxSegments();
+            holder.putExecTime = fileStore.getPutExecTime();
+            holder.getExecTime = fileStore.getGetExecTime();
+            holder.ackExecTime = fileStore.getAckExecTime();
+            holder.putTableRows = fileStore.getPutTableRows();
+            holder.getTableRows = fileStore.getGetTableRows();
+            holder.ackTableRows = fileStore.getAckTableRows();
+            holder.putMemSize = fileStore.getPutMemSize();
+            holder.ackMemSize = fileStore.getAckMemSize();
+        } else {
+            throw new IllegalArgumentException("EventStore must be MemoryEventStoreWithBuffer, MemoryEventStoreWithRingBuffer or FileEventStoreWithSegment");
         }
-        MemoryEventStoreWithBuffer memStore = (MemoryEventStoreWithBuffer) store;
-        holder.batchMode = memStore.getBatchMode();
-        holder.putSeq = memStore.getPutSequence();
-        holder.ackSeq = memStore.getAckSequence();
         holder.destLabelValues = Collections.singletonList(destination);
-        holder.size = memStore.getBufferSize();
         holder.storeLabelValues = Arrays.asList(destination, holder.batchMode.name(), Integer.toString(holder.size));
-        holder.putExecTime = memStore.getPutExecTime();
-        holder.getExecTime = memStore.getGetExecTime();
-        holder.ackExecTime = memStore.getAckExecTime();
-        holder.putTableRows = memStore.getPutTableRows();
-        holder.getTableRows = memStore.getGetTableRows();
-        holder.ackTableRows = memStore.getAckTableRows();
         Preconditions.checkNotNull(holder.batchMode);
         Preconditions.checkNotNull(holder.putSeq);
         Preconditions.checkNotNull(holder.ackSeq);
         if (holder.batchMode.isMemSize()) {
-            holder.putMemSize = memStore.getPutMemSize();
-            holder.ackMemSize = memStore.getAckMemSize();
             Preconditions.checkNotNull(holder.putMemSize);
             Preconditions.checkNotNull(holder.ackMemSize);
         }
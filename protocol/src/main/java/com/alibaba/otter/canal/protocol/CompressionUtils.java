@@ -0,0 +1,110 @@
+package com.alibaba.otter.canal.protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.alibaba.otter.canal.protocol.CanalPacket.Compression;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+
+/**
+ * canal tcp协议中Packet body的压缩/解压
+ *
+ * <pre>
+ * 1. 协议沿用CanalPacket.Compression定义，目前支持ZLIB/GZIP，均使用最快的压缩级别
+ * 2. Deflater/Inflater以及解压缓冲按线程复用，避免每个batch重新分配
+ * </pre>
+ *
+ * @version 1.1.4
+ */
+public class CompressionUtils {
+
+    private static final int                   BUFFER_SIZE     = 64 * 1024;
+    private static final int                   MAX_POOLED_SIZE = 16 * 1024 * 1024;
+    private static final ThreadLocal<Deflater> DEFLATERS       = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> INFLATERS       = ThreadLocal.withInitial(Inflater::new);
+    private static final ThreadLocal<byte[]>   BUFFERS         = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+    /**
+     * 是否为需要压缩的类型，未设置(兼容proto2)与NONE均代表不压缩
+     */
+    public static boolean isCompressed(Compression compression) {
+        return compression != null && compression != Compression.NONE
+               && compression != Compression.COMPRESSIONCOMPATIBLEPROTO2;
+    }
+
+    public static boolean isSupported(Compression compression) {
+        return !isCompressed(compression) || compression == Compression.ZLIB || compression == Compression.GZIP;
+    }
+
+    /**
+     * 返回一个写入即压缩的输出流，close时完成压缩但不释放复用的Deflater
+     */
+    public static OutputStream compress(Compression compression, OutputStream out) throws IOException {
+        switch (compression) {
+            case ZLIB:
+                Deflater deflater = DEFLATERS.get();
+                deflater.reset();
+                return new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+            case GZIP:
+                return new GZIPOutputStream(out, BUFFER_SIZE) {
+
+                    {
+                        def.setLevel(Deflater.BEST_SPEED);
+                    }
+                };
+            default:
+                throw new IllegalArgumentException("compression " + compression + " is not supported");
+        }
+    }
+
+    /**
+     * 解压到当前线程复用的缓冲中，返回的CodedInputStream只在下一次解压前有效，需要立即完成解析
+     */
+    public static CodedInputStream decompress(Compression compression, ByteString body) throws IOException {
+        InputStream in;
+        switch (compression) {
+            case ZLIB:
+                Inflater inflater = INFLATERS.get();
+                inflater.reset();
+                in = new InflaterInputStream(body.newInput(), inflater, BUFFER_SIZE);
+                break;
+            case GZIP:
+                in = new GZIPInputStream(body.newInput(), BUFFER_SIZE);
+                break;
+            default:
+                throw new IllegalArgumentException("compression " + compression + " is not supported");
+        }
+
+        byte[] buffer = BUFFERS.get();
+        int length = 0;
+        try {
+            while (true) {
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                int read = in.read(buffer, length, buffer.length - length);
+                if (read < 0) {
+                    break;
+                }
+                length += read;
+            }
+        } finally {
+            in.close();
+        }
+
+        if (buffer.length <= MAX_POOLED_SIZE) {
+            BUFFERS.set(buffer);
+        }
+        // 未开启aliasing，解析出的bytes字段会各自拷贝，不会引用复用的缓冲
+        return CodedInputStream.newInstance(buffer, 0, length);
+    }
+}
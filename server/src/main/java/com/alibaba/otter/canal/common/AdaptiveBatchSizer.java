@@ -0,0 +1,106 @@
+package com.alibaba.otter.canal.common;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 根据投递延迟动态调整每次get的batchSize
+ *
+ * <pre>
+ * 1. 每次投递完成后记录一次延迟(从发起get到MQ确认)，按最近的窗口计算p99
+ * 2. p99超过targetLatency时batchSize减半，否则在拿满一批的情况下逐步放大，保持在[minBatchSize, maxBatchSize]之间
+ * 3. batchSize的含义与store的batchMode一致(ITEMSIZE为条数，MEMSIZE为内存单位)
+ * 4. 空闲时使用get的超时等待store的notEmpty信号，不再固定sleep
+ * </pre>
+ *
+ * @version 1.1.4
+ */
+public class AdaptiveBatchSizer {
+
+    private static final int                                      WINDOW_SIZE     = 128;
+    private static final int                                      ADJUST_INTERVAL = 16;
+    private static final ConcurrentMap<String, AdaptiveBatchSizer> SIZERS          = new ConcurrentHashMap<>();
+
+    private final int                                             minBatchSize;
+    private final int                                             maxBatchSize;
+    private final long                                            targetLatency;  // 目标p99延迟，单位ms
+    private final long[]                                          latencies       = new long[WINDOW_SIZE];
+    private long                                                  samples;
+    private volatile int                                          batchSize;
+    private volatile long                                         p99Latency;
+
+    public AdaptiveBatchSizer(int initBatchSize, int minBatchSize, int maxBatchSize, long targetLatency){
+        if (minBatchSize <= 0 || maxBatchSize < minBatchSize) {
+            throw new IllegalArgumentException("invalid batch size range [" + minBatchSize + ", " + maxBatchSize + "]");
+        }
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.targetLatency = targetLatency;
+        this.batchSize = Math.min(maxBatchSize, Math.max(minBatchSize, initBatchSize));
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * long-poll等待时间，预留一半的目标延迟给投递本身
+     */
+    public long getPollTimeout() {
+        return Math.max(1, targetLatency / 2);
+    }
+
+    public long getP99Latency() {
+        return p99Latency;
+    }
+
+    public long getTargetLatency() {
+        return targetLatency;
+    }
+
+    /**
+     * 记录一次投递结果
+     *
+     * @param getCost 本次get的耗时，store的get只有拿满batchSize才会在超时前返回
+     * @param latency 本次投递的延迟，单位ms
+     */
+    public synchronized void feedback(long getCost, long latency) {
+        latencies[(int) (samples++ % WINDOW_SIZE)] = latency;
+        if (samples % ADJUST_INTERVAL == 0) {
+            p99Latency = percentile99();
+            if (p99Latency > targetLatency) {
+                batchSize = Math.max(minBatchSize, batchSize / 2);
+                return;
+            }
+        }
+
+        if (getCost < getPollTimeout() && latency <= targetLatency) {
+            // 拿满了一批说明有积压，放大batch减少往返
+            batchSize = Math.min(maxBatchSize, batchSize + Math.max(1, batchSize / 4));
+        }
+    }
+
+    private long percentile99() {
+        int count = (int) Math.min(samples, WINDOW_SIZE);
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        return sorted[Math.min(count - 1, (int) Math.ceil(count * 0.99) - 1)];
+    }
+
+    // ================== 指标注册 ==================
+
+    public static void register(String destination, AdaptiveBatchSizer sizer) {
+        SIZERS.put(destination, sizer);
+    }
+
+    public static void unregister(String destination, AdaptiveBatchSizer sizer) {
+        SIZERS.remove(destination, sizer);
+    }
+
+    public static Map<String, AdaptiveBatchSizer> getSizers() {
+        return Collections.unmodifiableMap(SIZERS);
+    }
+}
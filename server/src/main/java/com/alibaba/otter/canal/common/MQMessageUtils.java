@@ -1,12 +1,16 @@
 package com.alibaba.otter.canal.common;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.apache.commons.lang.StringUtils;
 
@@ -20,6 +24,9 @@ import com.google.common.base.Function;
 import com.google.common.collect.Lists;
 import com.google.common.collect.MapMaker;
 import com.google.common.collect.MigrateMap;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 
@@ -30,6 +37,21 @@ import com.google.protobuf.InvalidProtocolBufferException;
  */
 public class MQMessageUtils {
 
+    // entry数量超过该值时并行计算分区
+    private static final int                           PARALLEL_PARTITION_THRESHOLD = 256;
+    private static final HashFunction                  MURMUR3                      = Hashing.murmur3_32();
+    // 表名没有匹配到任何分区规则时的占位
+    private static final HashMode                      NO_HASH_MODE                 = new HashMode();
+
+    @SuppressWarnings("deprecation")
+    private static Map<String, Map<String, HashMode>>  partitionTables              = MigrateMap.makeComputingMap(new MapMaker().softValues(),
+                                                                                        new Function<String, Map<String, HashMode>>() {
+
+                                                                                            public Map<String, HashMode> apply(String pkHashConfigs) {
+                                                                                                return new ConcurrentHashMap<>();
+                                                                                            }
+                                                                                        });
+
     @SuppressWarnings("deprecation")
     private static Map<String, List<PartitionData>>    partitionDatas    = MigrateMap.makeComputingMap(new MapMaker().softValues(),
                                                                              new Function<String, List<PartitionData>>() {
@@ -167,111 +189,145 @@ public class MQMessageUtils {
      * @param pkHashConfigs 分区库表主键正则表达式
      * @return 分区message数组
      */
-    @SuppressWarnings("unchecked")
     public static Message[] messagePartition(Message message, Integer partitionsNum, String pkHashConfigs) {
+        return messagePartition(message, partitionsNum, pkHashConfigs, false);
+    }
+
+    /**
+     * 将 message 分区，entry数量超过{@linkplain #PARALLEL_PARTITION_THRESHOLD}时使用ForkJoin公共线程池并行解析和hash，
+     * 合并时保持entry原有的顺序，保证单个分区内的消费顺序
+     *
+     * @param partitionsNum 分区数
+     * @param pkHashConfigs 分区库表主键正则表达式
+     * @param murmurHash 是否使用murmur3计算hash，分布比String.hashCode异或更均匀
+     * @return 分区message数组
+     */
+    @SuppressWarnings("unchecked")
+    public static Message[] messagePartition(final Message message, Integer partitionsNum, final String pkHashConfigs,
+                                             final boolean murmurHash) {
         if (partitionsNum == null) {
             partitionsNum = 1;
         }
-        Message[] partitionMessages = new Message[partitionsNum];
-        List<Entry>[] partitionEntries = new List[partitionsNum];
-        for (int i = 0; i < partitionsNum; i++) {
+        final int num = partitionsNum;
+        Message[] partitionMessages = new Message[num];
+        List<Entry>[] partitionEntries = new List[num];
+        for (int i = 0; i < num; i++) {
             partitionEntries[i] = new ArrayList<>();
         }
 
-        List<CanalEntry.Entry> entries;
-        if (message.isRaw()) {
-            List<ByteString> rawEntries = message.getRawEntries();
-            entries = new ArrayList<>(rawEntries.size());
-            for (ByteString byteString : rawEntries) {
-                Entry entry;
-                try {
-                    entry = Entry.parseFrom(byteString);
-                } catch (InvalidProtocolBufferException e) {
-                    throw new RuntimeException(e);
+        final int size = message.isRaw() ? message.getRawEntries().size() : message.getEntries().size();
+        if (size >= PARALLEL_PARTITION_THRESHOLD) {
+            List<List<PartitionEntry>> results = IntStream.range(0, size)
+                .parallel()
+                .mapToObj(i -> partitionEntry(getEntry(message, i), num, pkHashConfigs, murmurHash))
+                .collect(Collectors.toList());
+            for (List<PartitionEntry> result : results) {
+                for (PartitionEntry partitionEntry : result) {
+                    partitionEntries[partitionEntry.partition].add(partitionEntry.entry);
                 }
-                entries.add(entry);
             }
         } else {
-            entries = message.getEntries();
+            for (int i = 0; i < size; i++) {
+                for (PartitionEntry partitionEntry : partitionEntry(getEntry(message, i),
+                    num,
+                    pkHashConfigs,
+                    murmurHash)) {
+                    partitionEntries[partitionEntry.partition].add(partitionEntry.entry);
+                }
+            }
+        }
+
+        for (int i = 0; i < num; i++) {
+            List<Entry> entriesTmp = partitionEntries[i];
+            if (!entriesTmp.isEmpty()) {
+                partitionMessages[i] = new Message(message.getId(), entriesTmp);
+            }
         }
 
-        for (Entry entry : entries) {
-            CanalEntry.RowChange rowChange;
+        return partitionMessages;
+    }
+
+    private static Entry getEntry(Message message, int index) {
+        if (message.isRaw()) {
             try {
-                rowChange = CanalEntry.RowChange.parseFrom(entry.getStoreValue());
-            } catch (Exception e) {
-                throw new RuntimeException(e.getMessage(), e);
+                return Entry.parseFrom(message.getRawEntries().get(index));
+            } catch (InvalidProtocolBufferException e) {
+                throw new RuntimeException(e);
             }
+        } else {
+            return message.getEntries().get(index);
+        }
+    }
 
-            if (rowChange.getIsDdl()) {
-                partitionEntries[0].add(entry);
-            } else {
-                if (rowChange.getRowDatasList() != null && !rowChange.getRowDatasList().isEmpty()) {
-                    String database = entry.getHeader().getSchemaName();
-                    String table = entry.getHeader().getTableName();
-                    HashMode hashMode = getPartitionHashColumns(database + "." + table, pkHashConfigs);
-                    if (hashMode == null) {
-                        // 如果都没有匹配，发送到第一个分区
-                        partitionEntries[0].add(entry);
-                    } else if (hashMode.tableHash) {
-                        int hashCode = table.hashCode();
-                        int pkHash = Math.abs(hashCode) % partitionsNum;
-                        pkHash = Math.abs(pkHash);
-                        // tableHash not need split entry message
-                        partitionEntries[pkHash].add(entry);
-                    } else {
-                        for (CanalEntry.RowData rowData : rowChange.getRowDatasList()) {
-                            int hashCode = database.hashCode();
-                            CanalEntry.EventType eventType = rowChange.getEventType();
-                            List<CanalEntry.Column> columns = null;
-                            if (eventType == CanalEntry.EventType.DELETE) {
-                                columns = rowData.getBeforeColumnsList();
-                            } else {
-                                columns = rowData.getAfterColumnsList();
-                            }
+    /**
+     * 计算单个entry对应的分区，按主键hash时一个entry会按行拆分成多个entry
+     */
+    private static List<PartitionEntry> partitionEntry(Entry entry, int partitionsNum, String pkHashConfigs,
+                                                       boolean murmurHash) {
+        CanalEntry.RowChange rowChange;
+        try {
+            rowChange = CanalEntry.RowChange.parseFrom(entry.getStoreValue());
+        } catch (Exception e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
 
-                            if (hashMode.autoPkHash) {
-                                // isEmpty use default pkNames
-                                for (CanalEntry.Column column : columns) {
-                                    if (column.getIsKey()) {
-                                        hashCode = hashCode ^ column.getValue().hashCode();
-                                    }
-                                }
-                            } else {
-                                for (CanalEntry.Column column : columns) {
-                                    if (checkPkNamesHasContain(hashMode.pkNames, column.getName())) {
-                                        hashCode = hashCode ^ column.getValue().hashCode();
-                                    }
-                                }
-                            }
+        if (rowChange.getIsDdl()) {
+            return Collections.singletonList(new PartitionEntry(0, entry));
+        }
 
-                            int pkHash = Math.abs(hashCode) % partitionsNum;
-                            pkHash = Math.abs(pkHash);
-                            // build new entry
-                            Entry.Builder builder = Entry.newBuilder(entry);
-                            RowChange.Builder rowChangeBuilder = RowChange.newBuilder(rowChange);
-                            rowChangeBuilder.clearRowDatas();
-                            rowChangeBuilder.addRowDatas(rowData);
-                            builder.clearStoreValue();
-                            builder.setStoreValue(rowChangeBuilder.build().toByteString());
-                            partitionEntries[pkHash].add(builder.build());
-                        }
+        if (rowChange.getRowDatasList() == null || rowChange.getRowDatasList().isEmpty()) {
+            // 针对stmt/mixed binlog格式的query事件
+            return Collections.singletonList(new PartitionEntry(0, entry));
+        }
+
+        String database = entry.getHeader().getSchemaName();
+        String table = entry.getHeader().getTableName();
+        HashMode hashMode = getPartitionHashColumns(database + "." + table, pkHashConfigs);
+        if (hashMode == null) {
+            // 如果都没有匹配，发送到第一个分区
+            return Collections.singletonList(new PartitionEntry(0, entry));
+        } else if (hashMode.tableHash) {
+            int hashCode = murmurHash ? MURMUR3.hashUnencodedChars(table).asInt() : table.hashCode();
+            // tableHash not need split entry message
+            return Collections.singletonList(new PartitionEntry(partition(hashCode, partitionsNum), entry));
+        }
+
+        List<PartitionEntry> result = new ArrayList<>(rowChange.getRowDatasCount());
+        for (CanalEntry.RowData rowData : rowChange.getRowDatasList()) {
+            CanalEntry.EventType eventType = rowChange.getEventType();
+            List<CanalEntry.Column> columns = null;
+            if (eventType == CanalEntry.EventType.DELETE) {
+                columns = rowData.getBeforeColumnsList();
+            } else {
+                columns = rowData.getAfterColumnsList();
+            }
+
+            RowHasher hasher = new RowHasher(database, murmurHash);
+            if (hashMode.autoPkHash) {
+                // isEmpty use default pkNames
+                for (CanalEntry.Column column : columns) {
+                    if (column.getIsKey()) {
+                        hasher.put(column.getValue());
+                    }
+                }
+            } else {
+                for (CanalEntry.Column column : columns) {
+                    if (checkPkNamesHasContain(hashMode.pkNames, column.getName())) {
+                        hasher.put(column.getValue());
                     }
-                } else {
-                    // 针对stmt/mixed binlog格式的query事件
-                    partitionEntries[0].add(entry);
                 }
             }
-        }
 
-        for (int i = 0; i < partitionsNum; i++) {
-            List<Entry> entriesTmp = partitionEntries[i];
-            if (!entriesTmp.isEmpty()) {
-                partitionMessages[i] = new Message(message.getId(), entriesTmp);
-            }
+            // build new entry
+            Entry.Builder builder = Entry.newBuilder(entry);
+            RowChange.Builder rowChangeBuilder = RowChange.newBuilder(rowChange);
+            rowChangeBuilder.clearRowDatas();
+            rowChangeBuilder.addRowDatas(rowData);
+            builder.clearStoreValue();
+            builder.setStoreValue(rowChangeBuilder.build().toByteString());
+            result.add(new PartitionEntry(partition(hasher.hash(), partitionsNum), builder.build()));
         }
-
-        return partitionMessages;
+        return result;
     }
 
     /**
@@ -416,6 +472,20 @@ public class MQMessageUtils {
      * @return 拆分后的flatMessage数组
      */
     public static FlatMessage[] messagePartition(FlatMessage flatMessage, Integer partitionsNum, String pkHashConfigs) {
+        return messagePartition(flatMessage, partitionsNum, pkHashConfigs, false);
+    }
+
+    /**
+     * 将FlatMessage按指定的字段值hash拆分
+     *
+     * @param flatMessage flatMessage
+     * @param partitionsNum 分区数量
+     * @param pkHashConfigs hash映射
+     * @param murmurHash 是否使用murmur3计算hash
+     * @return 拆分后的flatMessage数组
+     */
+    public static FlatMessage[] messagePartition(FlatMessage flatMessage, Integer partitionsNum, String pkHashConfigs,
+                                                 boolean murmurHash) {
         if (partitionsNum == null) {
             partitionsNum = 1;
         }
@@ -432,11 +502,8 @@ public class MQMessageUtils {
                     // 如果都没有匹配，发送到第一个分区
                     partitionMessages[0] = flatMessage;
                 } else if (hashMode.tableHash) {
-                    int hashCode = table.hashCode();
-                    int pkHash = Math.abs(hashCode) % partitionsNum;
-                    // math.abs可能返回负值，这里再取反，把出现负值的数据还是写到固定的分区，仍然可以保证消费顺序
-                    pkHash = Math.abs(pkHash);
-                    partitionMessages[pkHash] = flatMessage;
+                    int hashCode = murmurHash ? MURMUR3.hashUnencodedChars(table).asInt() : table.hashCode();
+                    partitionMessages[partition(hashCode, partitionsNum)] = flatMessage;
                 } else {
                     List<String> pkNames = hashMode.pkNames;
                     if (hashMode.autoPkHash) {
@@ -445,20 +512,18 @@ public class MQMessageUtils {
 
                     int idx = 0;
                     for (Map<String, String> row : flatMessage.getData()) {
-                        int hashCode = database.hashCode();
+                        RowHasher hasher = new RowHasher(database, murmurHash);
                         if (pkNames != null) {
                             for (String pkName : pkNames) {
                                 String value = row.get(pkName);
                                 if (value == null) {
                                     value = "";
                                 }
-                                hashCode = hashCode ^ value.hashCode();
+                                hasher.put(value);
                             }
                         }
 
-                        int pkHash = Math.abs(hashCode) % partitionsNum;
-                        // math.abs可能返回负值，这里再取反，把出现负值的数据还是写到固定的分区，仍然可以保证消费顺序
-                        pkHash = Math.abs(pkHash);
+                        int pkHash = partition(hasher.hash(), partitionsNum);
 
                         FlatMessage flatMessageTmp = partitionMessages[pkHash];
                         if (flatMessageTmp == null) {
@@ -508,20 +573,37 @@ public class MQMessageUtils {
             return null;
         }
 
-        List<PartitionData> datas = partitionDatas.get(pkHashConfigs);
-        for (PartitionData data : datas) {
-            if (data.simpleName != null) {
-                if (data.simpleName.equalsIgnoreCase(name)) {
-                    return data.hashMode;
-                }
-            } else {
-                if (data.regexFilter.filter(name)) {
-                    return data.hashMode;
+        // 每个表只需要匹配一次正则，之后直接命中缓存
+        Map<String, HashMode> tables = partitionTables.get(pkHashConfigs);
+        HashMode hashMode = tables.get(name);
+        if (hashMode == null) {
+            hashMode = NO_HASH_MODE;
+            List<PartitionData> datas = partitionDatas.get(pkHashConfigs);
+            for (PartitionData data : datas) {
+                if (data.simpleName != null) {
+                    if (data.simpleName.equalsIgnoreCase(name)) {
+                        hashMode = data.hashMode;
+                        break;
+                    }
+                } else {
+                    if (data.regexFilter.filter(name)) {
+                        hashMode = data.hashMode;
+                        break;
+                    }
                 }
             }
+            tables.put(name, hashMode);
         }
 
-        return null;
+        return hashMode == NO_HASH_MODE ? null : hashMode;
+    }
+
+    /**
+     * math.abs可能返回负值，这里再取反，把出现负值的数据还是写到固定的分区，仍然可以保证消费顺序
+     */
+    private static int partition(int hashCode, int partitionsNum) {
+        int pkHash = Math.abs(hashCode) % partitionsNum;
+        return Math.abs(pkHash);
     }
 
     private static Set<String> matchTopics(String name, String dynamicTopicConfigs) {
@@ -610,6 +692,49 @@ public class MQMessageUtils {
         public List<String> pkNames    = Lists.newArrayList();
     }
 
+    private static class PartitionEntry {
+
+        private final int   partition;
+        private final Entry entry;
+
+        PartitionEntry(int partition, Entry entry){
+            this.partition = partition;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * 按库名+主键值计算hash，默认为String.hashCode异或(与历史版本的分区结果保持一致)，可选murmur3
+     */
+    private static class RowHasher {
+
+        private final Hasher hasher;
+        private int          hashCode;
+
+        RowHasher(String database, boolean murmurHash){
+            if (murmurHash) {
+                hasher = MURMUR3.newHasher();
+                hasher.putUnencodedChars(database);
+            } else {
+                hasher = null;
+                hashCode = database.hashCode();
+            }
+        }
+
+        void put(String value) {
+            if (hasher != null) {
+                // 加上分隔符，避免不同列的值拼接后产生相同的输入
+                hasher.putByte((byte) 0).putUnencodedChars(value);
+            } else {
+                hashCode = hashCode ^ value.hashCode();
+            }
+        }
+
+        int hash() {
+            return hasher != null ? hasher.hash().asInt() : hashCode;
+        }
+    }
+
     public static class DynamicTopicData {
 
         public String             simpleName;
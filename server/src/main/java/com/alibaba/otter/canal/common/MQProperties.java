@@ -20,6 +20,12 @@ public class MQProperties {
     private String     producerGroup          = "Canal-Producer";
     private int        canalBatchSize         = 50;
     private Long       canalGetTimeout        = 100L;
+    private boolean    canalBatchAdaptive     = false;           // 是否根据投递延迟动态调整canalBatchSize
+    private int        canalBatchMaxSize      = 1000;            // 动态调整时batchSize的上限
+    private long       canalTargetLatency     = 100L;            // 动态调整时的目标p99投递延迟，单位ms
+    private int        pipelineWindow         = 1;               // 同时在途的batch数量，1代表串行投递，大于1时失败重投会打乱batch顺序
+    private int        maxInFlightRecords     = 4096;            // 同步发送时未flush的record上限，0代表每个batch只flush一次
+    private boolean    partitionMurmurHash    = false;           // 分区hash是否使用murmur3，开启后分区结果与之前不同
     private boolean    flatMessage            = true;
     private String     compressionType        = "none";
     private String     acks                   = "all";
@@ -148,6 +154,54 @@ public class MQProperties {
         this.canalGetTimeout = canalGetTimeout;
     }
 
+    public boolean isCanalBatchAdaptive() {
+        return canalBatchAdaptive;
+    }
+
+    public void setCanalBatchAdaptive(boolean canalBatchAdaptive) {
+        this.canalBatchAdaptive = canalBatchAdaptive;
+    }
+
+    public int getCanalBatchMaxSize() {
+        return canalBatchMaxSize;
+    }
+
+    public void setCanalBatchMaxSize(int canalBatchMaxSize) {
+        this.canalBatchMaxSize = canalBatchMaxSize;
+    }
+
+    public long getCanalTargetLatency() {
+        return canalTargetLatency;
+    }
+
+    public void setCanalTargetLatency(long canalTargetLatency) {
+        this.canalTargetLatency = canalTargetLatency;
+    }
+
+    public int getPipelineWindow() {
+        return pipelineWindow;
+    }
+
+    public void setPipelineWindow(int pipelineWindow) {
+        this.pipelineWindow = pipelineWindow;
+    }
+
+    public int getMaxInFlightRecords() {
+        return maxInFlightRecords;
+    }
+
+    public void setMaxInFlightRecords(int maxInFlightRecords) {
+        this.maxInFlightRecords = maxInFlightRecords;
+    }
+
+    public boolean isPartitionMurmurHash() {
+        return partitionMurmurHash;
+    }
+
+    public void setPartitionMurmurHash(boolean partitionMurmurHash) {
+        this.partitionMurmurHash = partitionMurmurHash;
+    }
+
     public boolean getFlatMessage() {
         return flatMessage;
     }
@@ -281,7 +335,11 @@ public class MQProperties {
         return "MQProperties{" + "servers='" + servers + '\'' + ", retries=" + retries + ", batchSize=" + batchSize
                + ", lingerMs=" + lingerMs + ", maxRequestSize=" + maxRequestSize + ", bufferMemory=" + bufferMemory
                + ", filterTransactionEntry=" + filterTransactionEntry + ", producerGroup='" + producerGroup + '\''
-               + ", canalBatchSize=" + canalBatchSize + ", canalGetTimeout=" + canalGetTimeout + ", flatMessage="
+               + ", canalBatchSize=" + canalBatchSize + ", canalGetTimeout=" + canalGetTimeout
+               + ", canalBatchAdaptive=" + canalBatchAdaptive + ", canalBatchMaxSize=" + canalBatchMaxSize
+               + ", canalTargetLatency=" + canalTargetLatency + ", pipelineWindow=" + pipelineWindow
+               + ", maxInFlightRecords=" + maxInFlightRecords + ", partitionMurmurHash=" + partitionMurmurHash
+               + ", flatMessage="
                + flatMessage + ", compressionType='" + compressionType + '\'' + ", acks='" + acks + '\''
                + ", aliyunAccessKey='" + aliyunAccessKey + '\'' + ", aliyunSecretKey='" + aliyunSecretKey + '\''
                + ", properties=" + properties + ", enableMessageTrace=" + enableMessageTrace + ", accessChannel='"
@@ -7,6 +7,8 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.kafka.clients.producer.KafkaProducer;
@@ -102,23 +104,8 @@ public class CanalKafkaProducer implements CanalMQProducer {
     @Override
     public void send(MQProperties.CanalDestination canalDestination, Message message, Callback callback) {
         try {
-            if (!StringUtils.isEmpty(canalDestination.getDynamicTopic())) {
-                // 动态topic
-                Map<String, Message> messageMap = MQMessageUtils.messageTopics(message,
-                    canalDestination.getTopic(),
-                    canalDestination.getDynamicTopic());
-
-                for (Map.Entry<String, Message> entry : messageMap.entrySet()) {
-                    String topicName = entry.getKey(); //.replace('.', '_');
-                    Message messageSub = entry.getValue();
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("## Send message to kafka topic: " + topicName);
-                    }
-                    send(canalDestination, topicName, messageSub);
-                }
-            } else {
-                send(canalDestination, canalDestination.getTopic(), message);
-            }
+            // 一个canal batch的所有record按顺序提交，只在最后flush一次
+            produce(buildRecords(canalDestination, message), kafkaProperties.getFlatMessage());
             callback.commit();
         } catch (Throwable e) {
             logger.error(e.getMessage(), e);
@@ -126,14 +113,52 @@ public class CanalKafkaProducer implements CanalMQProducer {
         }
     }
 
-    private void send(MQProperties.CanalDestination canalDestination, String topicName, Message message)
-                                                                                                        throws Exception {
+    @Override
+    public void sendAsync(MQProperties.CanalDestination canalDestination, Message message, Callback callback) {
+        List<ProducerRecord> records;
+        try {
+            records = buildRecords(canalDestination, message);
+        } catch (Throwable e) {
+            logger.error(e.getMessage(), e);
+            callback.rollback();
+            return;
+        }
+
+        produceAsync(records, kafkaProperties.getFlatMessage(), callback);
+    }
+
+    /**
+     * 构造一个canal batch对应的所有record，同一个partition内保持binlog的顺序
+     */
+    private List<ProducerRecord> buildRecords(MQProperties.CanalDestination canalDestination, Message message) {
+        if (StringUtils.isEmpty(canalDestination.getDynamicTopic())) {
+            return buildRecords(canalDestination, canalDestination.getTopic(), message);
+        }
+
+        // 动态topic
+        List<ProducerRecord> records = new ArrayList<ProducerRecord>();
+        Map<String, Message> messageMap = MQMessageUtils.messageTopics(message,
+            canalDestination.getTopic(),
+            canalDestination.getDynamicTopic());
+        for (Map.Entry<String, Message> entry : messageMap.entrySet()) {
+            String topicName = entry.getKey(); //.replace('.', '_');
+            if (logger.isDebugEnabled()) {
+                logger.debug("## Send message to kafka topic: " + topicName);
+            }
+            records.addAll(buildRecords(canalDestination, topicName, entry.getValue()));
+        }
+        return records;
+    }
+
+    private List<ProducerRecord> buildRecords(MQProperties.CanalDestination canalDestination, String topicName,
+                                              Message message) {
+        List<ProducerRecord> records = new ArrayList<ProducerRecord>();
         if (!kafkaProperties.getFlatMessage()) {
-            List<ProducerRecord> records = new ArrayList<ProducerRecord>();
             if (canalDestination.getPartitionHash() != null && !canalDestination.getPartitionHash().isEmpty()) {
                 Message[] messages = MQMessageUtils.messagePartition(message,
                     canalDestination.getPartitionsNum(),
-                    canalDestination.getPartitionHash());
+                    canalDestination.getPartitionHash(),
+                    kafkaProperties.isPartitionMurmurHash());
                 int length = messages.length;
                 for (int i = 0; i < length; i++) {
                     Message messagePartition = messages[i];
@@ -145,45 +170,46 @@ public class CanalKafkaProducer implements CanalMQProducer {
                 final int partition = canalDestination.getPartition() != null ? canalDestination.getPartition() : 0;
                 records.add(new ProducerRecord<String, Message>(topicName, partition, null, message));
             }
-
-            produce(topicName, records, false);
         } else {
-            // 发送扁平数据json
             List<FlatMessage> flatMessages = MQMessageUtils.messageConverter(message);
-            List<ProducerRecord> records = new ArrayList<ProducerRecord>();
             if (flatMessages != null) {
                 for (FlatMessage flatMessage : flatMessages) {
-                    if (canalDestination.getPartitionHash() != null && !canalDestination.getPartitionHash().isEmpty()) {
-                        FlatMessage[] partitionFlatMessage = MQMessageUtils.messagePartition(flatMessage,
-                            canalDestination.getPartitionsNum(),
-                            canalDestination.getPartitionHash());
-                        int length = partitionFlatMessage.length;
-                        for (int i = 0; i < length; i++) {
-                            FlatMessage flatMessagePart = partitionFlatMessage[i];
-                            if (flatMessagePart != null) {
-                                records.add(new ProducerRecord<String, String>(topicName,
-                                    i,
-                                    null,
-                                    JSON.toJSONString(flatMessagePart, SerializerFeature.WriteMapNullValue)));
-                            }
-                        }
-                    } else {
-                        final int partition = canalDestination.getPartition() != null ? canalDestination.getPartition() : 0;
-                        records.add(new ProducerRecord<String, String>(topicName,
-                            partition,
-                            null,
-                            JSON.toJSONString(flatMessage, SerializerFeature.WriteMapNullValue)));
-                    }
+                    records.addAll(buildFlatRecords(canalDestination, topicName, flatMessage));
+                }
+            }
+        }
+        return records;
+    }
 
-                    // 每条记录需要flush
-                    produce(topicName, records, true);
-                    records.clear();
+    private List<ProducerRecord> buildFlatRecords(MQProperties.CanalDestination canalDestination, String topicName,
+                                                  FlatMessage flatMessage) {
+        List<ProducerRecord> records = new ArrayList<ProducerRecord>();
+        if (canalDestination.getPartitionHash() != null && !canalDestination.getPartitionHash().isEmpty()) {
+            FlatMessage[] partitionFlatMessage = MQMessageUtils.messagePartition(flatMessage,
+                canalDestination.getPartitionsNum(),
+                canalDestination.getPartitionHash(),
+                kafkaProperties.isPartitionMurmurHash());
+            int length = partitionFlatMessage.length;
+            for (int i = 0; i < length; i++) {
+                FlatMessage flatMessagePart = partitionFlatMessage[i];
+                if (flatMessagePart != null) {
+                    records.add(new ProducerRecord<String, String>(topicName,
+                        i,
+                        null,
+                        JSON.toJSONString(flatMessagePart, SerializerFeature.WriteMapNullValue)));
                 }
             }
+        } else {
+            final int partition = canalDestination.getPartition() != null ? canalDestination.getPartition() : 0;
+            records.add(new ProducerRecord<String, String>(topicName,
+                partition,
+                null,
+                JSON.toJSONString(flatMessage, SerializerFeature.WriteMapNullValue)));
         }
+        return records;
     }
 
-    private void produce(String topicName, List<ProducerRecord> records, boolean flatMessage) {
+    private void produce(List<ProducerRecord> records, boolean flatMessage) {
 
         Producer producerTmp = null;
         if (flatMessage) {
@@ -192,22 +218,31 @@ public class CanalKafkaProducer implements CanalMQProducer {
             producerTmp = producer;
         }
 
+        int maxInFlight = kafkaProperties.getMaxInFlightRecords();
         List<Future> futures = new ArrayList<Future>();
         try {
-            // 异步发送，因为在partition hash的时候已经按照每个分区合并了消息，走到这一步不需要考虑单个分区内的顺序问题
+            // 异步发送，record已经按partition内的顺序排好，max.in.flight.requests.per.connection=1保证了分区内有序
             for (ProducerRecord record : records) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Send  message to kafka topic: [{}], packet: {}", record.topic(), record.toString());
+                }
                 futures.add(producerTmp.send(record));
-            }
-        } finally {
-            if (logger.isDebugEnabled()) {
-                for (ProducerRecord record : records) {
-                    logger.debug("Send  message to kafka topic: [{}], packet: {}", topicName, record.toString());
+                if (maxInFlight > 0 && futures.size() >= maxInFlight) {
+                    // 超过在途上限，先刷出一次
+                    flush(producerTmp, futures);
                 }
             }
+        } finally {
             // 批量刷出
-            producerTmp.flush();
+            flush(producerTmp, futures);
+        }
+    }
+
+    private void flush(Producer producerTmp, List<Future> futures) {
+        producerTmp.flush();
 
-            // flush操作也有可能是发送失败,这里需要异步关注一下发送结果,针对有异常的直接出发rollback
+        // flush操作也有可能是发送失败,这里需要异步关注一下发送结果,针对有异常的直接出发rollback
+        try {
             for (Future future : futures) {
                 try {
                     future.get();
@@ -215,6 +250,41 @@ public class CanalKafkaProducer implements CanalMQProducer {
                     throw new RuntimeException(e);
                 }
             }
+        } finally {
+            futures.clear();
+        }
+    }
+
+    /**
+     * 按顺序提交所有record，不做flush，全部确认之后再回调commit，任意一条失败回调rollback
+     */
+    private void produceAsync(List<ProducerRecord> records, boolean flatMessage, final Callback callback) {
+        if (records.isEmpty()) {
+            callback.commit();
+            return;
+        }
+
+        Producer producerTmp = flatMessage ? producer2 : producer;
+        final AtomicInteger remaining = new AtomicInteger(records.size());
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        try {
+            for (ProducerRecord record : records) {
+                producerTmp.send(record, (metadata, exception) -> {
+                    if (exception != null) {
+                        logger.error(exception.getMessage(), exception);
+                        if (failed.compareAndSet(false, true)) {
+                            callback.rollback();
+                        }
+                    } else if (remaining.decrementAndGet() == 0 && !failed.get()) {
+                        callback.commit();
+                    }
+                });
+            }
+        } catch (Throwable e) {
+            logger.error(e.getMessage(), e);
+            if (failed.compareAndSet(false, true)) {
+                callback.rollback();
+            }
         }
     }
 
@@ -1,7 +1,10 @@
 package com.alibaba.otter.canal.rocketmq;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.rocketmq.acl.common.AclClientRPCHook;
@@ -11,6 +14,7 @@ import org.apache.rocketmq.client.exception.MQBrokerException;
 import org.apache.rocketmq.client.exception.MQClientException;
 import org.apache.rocketmq.client.producer.DefaultMQProducer;
 import org.apache.rocketmq.client.producer.MessageQueueSelector;
+import org.apache.rocketmq.client.producer.SendCallback;
 import org.apache.rocketmq.client.producer.SendResult;
 import org.apache.rocketmq.common.message.Message;
 import org.apache.rocketmq.common.message.MessageQueue;
@@ -34,6 +38,19 @@ public class CanalRocketMQProducer implements CanalMQProducer {
     private DefaultMQProducer   defaultMQProducer;
     private MQProperties        mqProperties;
     private static final String CLOUD_ACCESS_CHANNEL = "cloud";
+    // 按发送时传入的partition选择队列
+    private static final MessageQueueSelector PARTITION_SELECTOR = new MessageQueueSelector() {
+
+        @Override
+        public MessageQueue select(List<MessageQueue> mqs, Message msg, Object arg) {
+            int partition = (Integer) arg;
+            if (partition > mqs.size()) {
+                return mqs.get(partition % mqs.size());
+            } else {
+                return mqs.get(partition);
+            }
+        }
+    };
 
     @Override
     public void init(MQProperties rocketMQProperties) {
@@ -59,6 +76,8 @@ public class CanalRocketMQProducer implements CanalMQProducer {
         }
         defaultMQProducer.setNamesrvAddr(rocketMQProperties.getServers());
         defaultMQProducer.setRetryTimesWhenSendFailed(rocketMQProperties.getRetries());
+        // 异步发送失败时由DeliveryPipeline整体rollback重投，客户端重试会打乱同一队列内的消息顺序
+        defaultMQProducer.setRetryTimesWhenSendAsyncFailed(0);
         defaultMQProducer.setVipChannelEnabled(false);
         logger.info("##Start RocketMQ producer##");
         try {
@@ -72,34 +91,102 @@ public class CanalRocketMQProducer implements CanalMQProducer {
     public void send(final MQProperties.CanalDestination destination, com.alibaba.otter.canal.protocol.Message data,
                      Callback callback) {
         try {
-            if (!StringUtils.isEmpty(destination.getDynamicTopic())) {
-                // 动态topic
-                Map<String, com.alibaba.otter.canal.protocol.Message> messageMap = MQMessageUtils.messageTopics(data,
-                    destination.getTopic(),
-                    destination.getDynamicTopic());
-
-                for (Map.Entry<String, com.alibaba.otter.canal.protocol.Message> entry : messageMap.entrySet()) {
-                    String topicName = entry.getKey().replace('.', '_');
-                    com.alibaba.otter.canal.protocol.Message messageSub = entry.getValue();
-                    send(destination, topicName, messageSub);
-                }
-            } else {
-                send(destination, destination.getTopic(), data);
-            }
+            send(destination, data, this::sendMessage);
             callback.commit();
         } catch (Throwable e) {
             callback.rollback();
         }
     }
 
+    /**
+     * 先构造一个canal batch对应的所有消息，再按顺序异步发送，全部成功后commit，任意一条失败时rollback
+     */
+    @Override
+    public void sendAsync(final MQProperties.CanalDestination destination,
+                          com.alibaba.otter.canal.protocol.Message data, final Callback callback) {
+        final List<Message> messages = new ArrayList<Message>();
+        final List<Integer> partitions = new ArrayList<Integer>();
+        try {
+            send(destination, data, (message, partition) -> {
+                messages.add(message);
+                partitions.add(partition);
+            });
+        } catch (Throwable e) {
+            logger.error(e.getMessage(), e);
+            callback.rollback();
+            return;
+        }
+
+        if (messages.isEmpty()) {
+            callback.commit();
+            return;
+        }
+
+        final AtomicInteger remaining = new AtomicInteger(messages.size());
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        try {
+            for (int i = 0; i < messages.size(); i++) {
+                this.defaultMQProducer.send(messages.get(i), PARTITION_SELECTOR, partitions.get(i), new SendCallback() {
+
+                    @Override
+                    public void onSuccess(SendResult sendResult) {
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("Send Message Result: {}", sendResult);
+                        }
+                        if (remaining.decrementAndGet() == 0 && !failed.get()) {
+                            callback.commit();
+                        }
+                    }
+
+                    @Override
+                    public void onException(Throwable e) {
+                        logger.error("Send message error!", e);
+                        if (failed.compareAndSet(false, true)) {
+                            callback.rollback();
+                        }
+                    }
+                });
+            }
+        } catch (Throwable e) {
+            logger.error("Send message error!", e);
+            if (failed.compareAndSet(false, true)) {
+                callback.rollback();
+            }
+        }
+    }
+
+    private void send(final MQProperties.CanalDestination destination, com.alibaba.otter.canal.protocol.Message data,
+                      MessageSender sender) throws Exception {
+        if (!StringUtils.isEmpty(destination.getDynamicTopic())) {
+            // 动态topic
+            Map<String, com.alibaba.otter.canal.protocol.Message> messageMap = MQMessageUtils.messageTopics(data,
+                destination.getTopic(),
+                destination.getDynamicTopic());
+
+            for (Map.Entry<String, com.alibaba.otter.canal.protocol.Message> entry : messageMap.entrySet()) {
+                String topicName = entry.getKey().replace('.', '_');
+                com.alibaba.otter.canal.protocol.Message messageSub = entry.getValue();
+                send(destination, topicName, messageSub, sender);
+            }
+        } else {
+            send(destination, destination.getTopic(), data, sender);
+        }
+    }
+
     public void send(final MQProperties.CanalDestination destination, String topicName,
                      com.alibaba.otter.canal.protocol.Message data) throws Exception {
+        send(destination, topicName, data, this::sendMessage);
+    }
+
+    private void send(final MQProperties.CanalDestination destination, String topicName,
+                      com.alibaba.otter.canal.protocol.Message data, MessageSender sender) throws Exception {
         if (!mqProperties.getFlatMessage()) {
             try {
                 if (destination.getPartitionHash() != null && !destination.getPartitionHash().isEmpty()) {
                     com.alibaba.otter.canal.protocol.Message[] messages = MQMessageUtils.messagePartition(data,
                         destination.getPartitionsNum(),
-                        destination.getPartitionHash());
+                        destination.getPartitionHash(),
+                        mqProperties.isPartitionMurmurHash());
                     int length = messages.length;
                     for (int i = 0; i < length; i++) {
                         com.alibaba.otter.canal.protocol.Message dataPartition = messages[i];
@@ -114,7 +201,7 @@ public class CanalRocketMQProducer implements CanalMQProducer {
                                 Message message = new Message(topicName,
                                     CanalMessageSerializer.serializer(dataPartition,
                                         mqProperties.isFilterTransactionEntry()));
-                                sendMessage(message, index);
+                                sender.send(message, index);
                             } catch (Exception e) {
                                 logger.error("send flat message to hashed partition error", e);
                                 throw e;
@@ -131,7 +218,7 @@ public class CanalRocketMQProducer implements CanalMQProducer {
                             destination.getCanalDestination(),
                             partition);
                     }
-                    sendMessage(message, partition);
+                    sender.send(message, partition);
                 }
             } catch (MQClientException | RemotingException | MQBrokerException | InterruptedException e) {
                 logger.error("Send message error!", e);
@@ -144,7 +231,8 @@ public class CanalRocketMQProducer implements CanalMQProducer {
                     if (destination.getPartitionHash() != null && !destination.getPartitionHash().isEmpty()) {
                         FlatMessage[] partitionFlatMessage = MQMessageUtils.messagePartition(flatMessage,
                             destination.getPartitionsNum(),
-                            destination.getPartitionHash());
+                            destination.getPartitionHash(),
+                            mqProperties.isPartitionMurmurHash());
                         int length = partitionFlatMessage.length;
                         for (int i = 0; i < length; i++) {
                             FlatMessage flatMessagePart = partitionFlatMessage[i];
@@ -158,7 +246,7 @@ public class CanalRocketMQProducer implements CanalMQProducer {
                                 try {
                                     Message message = new Message(topicName, JSON.toJSONString(flatMessagePart,
                                         SerializerFeature.WriteMapNullValue).getBytes());
-                                    sendMessage(message, index);
+                                    sender.send(message, index);
                                 } catch (Exception e) {
                                     logger.error("send flat message to hashed partition error", e);
                                     throw e;
@@ -176,7 +264,7 @@ public class CanalRocketMQProducer implements CanalMQProducer {
                             }
                             Message message = new Message(topicName, JSON.toJSONString(flatMessage,
                                 SerializerFeature.WriteMapNullValue).getBytes());
-                            sendMessage(message, partition);
+                            sender.send(message, partition);
                         } catch (Exception e) {
                             logger.error("send flat message to fixed partition error", e);
                             throw e;
@@ -192,22 +280,17 @@ public class CanalRocketMQProducer implements CanalMQProducer {
     }
 
     private void sendMessage(Message message, int partition) throws Exception {
-        SendResult sendResult = this.defaultMQProducer.send(message, new MessageQueueSelector() {
-
-            @Override
-            public MessageQueue select(List<MessageQueue> mqs, Message msg, Object arg) {
-                if (partition > mqs.size()) {
-                    return mqs.get(partition % mqs.size());
-                } else {
-                    return mqs.get(partition);
-                }
-            }
-        }, null);
+        SendResult sendResult = this.defaultMQProducer.send(message, PARTITION_SELECTOR, partition);
         if (logger.isDebugEnabled()) {
             logger.debug("Send Message Result: {}", sendResult);
         }
     }
 
+    private interface MessageSender {
+
+        void send(Message message, int partition) throws Exception;
+    }
+
     @Override
     public void stop() {
         logger.info("## Stop RocketMQ producer##");
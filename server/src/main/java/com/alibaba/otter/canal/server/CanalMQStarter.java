@@ -12,6 +12,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 
+import com.alibaba.otter.canal.common.AdaptiveBatchSizer;
 import com.alibaba.otter.canal.common.MQProperties;
 import com.alibaba.otter.canal.instance.core.CanalInstance;
 import com.alibaba.otter.canal.instance.core.CanalMQConfig;
@@ -140,7 +141,9 @@ public class CanalMQStarter {
         logger.info("## start the MQ producer: {}.", destination);
         MDC.put("destination", destination);
         final ClientIdentity clientIdentity = new ClientIdentity(destination, (short) 1001, "");
+        final AdaptiveBatchSizer batchSizer = createBatchSizer(destination);
         while (running && destinationRunning.get()) {
+            DeliveryPipeline pipeline = null;
             try {
                 CanalInstance canalInstance = canalServer.getCanalInstances().get(destination);
                 if (canalInstance == null) {
@@ -165,9 +168,24 @@ public class CanalMQStarter {
 
                 Long getTimeout = properties.getCanalGetTimeout();
                 int getBatchSize = properties.getCanalBatchSize();
+                if (properties.getPipelineWindow() > 1) {
+                    pipeline = new DeliveryPipeline(canalMQProducer,
+                        canalServer,
+                        clientIdentity,
+                        properties.getPipelineWindow(),
+                        batchSizer);
+                }
                 while (running && destinationRunning.get()) {
                     Message message;
-                    if (getTimeout != null && getTimeout > 0) {
+                    final long startTime = System.currentTimeMillis();
+                    if (batchSizer != null) {
+                        // long-poll，在store的notEmpty上等待，有数据后立即返回
+                        getBatchSize = batchSizer.getBatchSize();
+                        message = canalServer.getWithoutAck(clientIdentity,
+                            getBatchSize,
+                            batchSizer.getPollTimeout(),
+                            TimeUnit.MILLISECONDS);
+                    } else if (getTimeout != null && getTimeout > 0) {
                         message = canalServer.getWithoutAck(clientIdentity,
                             getBatchSize,
                             getTimeout,
@@ -176,15 +194,30 @@ public class CanalMQStarter {
                         message = canalServer.getWithoutAck(clientIdentity, getBatchSize);
                     }
 
+                    final long getCost = System.currentTimeMillis() - startTime;
                     final long batchId = message.getId();
                     try {
                         int size = message.isRaw() ? message.getRawEntries().size() : message.getEntries().size();
-                        if (batchId != -1 && size != 0) {
+                        if (pipeline != null) {
+                            if (batchId != -1 && size != 0) {
+                                pipeline.send(canalDestination, message, startTime, getCost);
+                            } else if (!pipeline.awaitFirst(batchSizer == null ? 100 : 0) && batchSizer == null) {
+                                // 没有在途的batch，和非流水线模式一样空闲等待
+                                try {
+                                    Thread.sleep(100);
+                                } catch (InterruptedException e) {
+                                    // ignore
+                                }
+                            }
+                        } else if (batchId != -1 && size != 0) {
                             canalMQProducer.send(canalDestination, message, new CanalMQProducer.Callback() {
 
                                 @Override
                                 public void commit() {
                                     canalServer.ack(clientIdentity, batchId); // 提交确认
+                                    if (batchSizer != null) {
+                                        batchSizer.feedback(getCost, System.currentTimeMillis() - startTime);
+                                    }
                                 }
 
                                 @Override
@@ -192,7 +225,7 @@ public class CanalMQStarter {
                                     canalServer.rollback(clientIdentity, batchId);
                                 }
                             }); // 发送message到topic
-                        } else {
+                        } else if (batchSizer == null) {
                             try {
                                 Thread.sleep(100);
                             } catch (InterruptedException e) {
@@ -204,10 +237,41 @@ public class CanalMQStarter {
                         logger.error(e.getMessage(), e);
                     }
                 }
+
+                if (pipeline != null) {
+                    pipeline.finish();
+                }
             } catch (Exception e) {
                 logger.error("process error!", e);
+                if (pipeline != null) {
+                    try {
+                        pipeline.abort();
+                    } catch (Throwable t) {
+                        logger.error("rollback pipeline error!", t);
+                    }
+                }
             }
         }
+
+        if (batchSizer != null) {
+            AdaptiveBatchSizer.unregister(destination, batchSizer);
+        }
+    }
+
+    /**
+     * 开启canalBatchAdaptive时按投递延迟动态调整batchSize
+     */
+    private AdaptiveBatchSizer createBatchSizer(String destination) {
+        if (!properties.isCanalBatchAdaptive()) {
+            return null;
+        }
+
+        AdaptiveBatchSizer batchSizer = new AdaptiveBatchSizer(properties.getCanalBatchSize(),
+            1,
+            properties.getCanalBatchMaxSize(),
+            properties.getCanalTargetLatency());
+        AdaptiveBatchSizer.register(destination, batchSizer);
+        return batchSizer;
     }
 
     private class CanalMQRunnable implements Runnable {
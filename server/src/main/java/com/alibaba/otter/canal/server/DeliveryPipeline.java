@@ -0,0 +1,179 @@
+package com.alibaba.otter.canal.server;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.otter.canal.common.AdaptiveBatchSizer;
+import com.alibaba.otter.canal.common.MQProperties;
+import com.alibaba.otter.canal.protocol.ClientIdentity;
+import com.alibaba.otter.canal.protocol.Message;
+import com.alibaba.otter.canal.spi.CanalMQProducer;
+
+/**
+ * MQ流水线投递，最多保持window个batch在途
+ *
+ * <pre>
+ * 1. batch按get的顺序提交给MQ，发送结果可以乱序返回
+ * 2. 按batchId的顺序ack，前面的batch没有完成时后面的batch先不ack
+ * 3. 任意一个batch失败后不再提交新的batch，等待所有在途的batch结束，ack失败batch之前连续成功的batch，
+ *    其余整体rollback，从最后一次ack的位置重新投递
+ * </pre>
+ *
+ * 注意：失败batch之后已经在途的batch可能已经写入MQ，rollback后会跟在失败batch后面重新投递，
+ * 消费端会先看到较新的batch再看到较旧的batch(重复且乱序)，只保证at-least-once，不保证batch间的顺序。
+ * 对顺序有要求时保持pipelineWindow=1(默认值)，串行投递。
+ *
+ * @version 1.1.4
+ */
+class DeliveryPipeline {
+
+    private static final Logger       logger   = LoggerFactory.getLogger(DeliveryPipeline.class);
+
+    private final CanalMQProducer     canalMQProducer;
+    private final CanalService        canalServer;
+    private final ClientIdentity      clientIdentity;
+    private final int                 window;
+    private final AdaptiveBatchSizer  batchSizer;
+    private final Deque<PendingBatch> pendings = new ArrayDeque<>();
+    private volatile boolean          failed   = false;
+
+    DeliveryPipeline(CanalMQProducer canalMQProducer, CanalService canalServer, ClientIdentity clientIdentity,
+                     int window, AdaptiveBatchSizer batchSizer){
+        this.canalMQProducer = canalMQProducer;
+        this.canalServer = canalServer;
+        this.clientIdentity = clientIdentity;
+        this.window = window;
+        this.batchSizer = batchSizer;
+    }
+
+    /**
+     * 提交一个batch，窗口已满时等待最早的batch完成。返回false代表之前有batch失败并已整体rollback，
+     * 当前message没有发送，会在rollback后重新get到
+     */
+    boolean send(MQProperties.CanalDestination canalDestination, Message message, long startTime, long getCost)
+                                                                                                               throws InterruptedException {
+        while (true) {
+            if (drain()) {
+                return false;
+            }
+            if (pendings.size() < window) {
+                break;
+            }
+            pendings.peekFirst().latch.await();
+        }
+
+        PendingBatch pending = new PendingBatch(message.getId(), startTime, getCost);
+        pendings.addLast(pending);
+        try {
+            canalMQProducer.sendAsync(canalDestination, message, pending);
+        } catch (Throwable e) {
+            logger.error(e.getMessage(), e);
+            pending.rollback();
+        }
+        drain();
+        return true;
+    }
+
+    /**
+     * 没有新数据时等待最早的batch完成，返回false代表当前没有在途的batch
+     */
+    boolean awaitFirst(long timeout) throws InterruptedException {
+        PendingBatch first = pendings.peekFirst();
+        if (first == null) {
+            return false;
+        }
+
+        first.latch.await(timeout, TimeUnit.MILLISECONDS);
+        drain();
+        return true;
+    }
+
+    /**
+     * 停止前等待所有在途的batch完成
+     */
+    void finish() throws InterruptedException {
+        while (!pendings.isEmpty()) {
+            pendings.peekFirst().latch.await();
+            drain();
+        }
+    }
+
+    /**
+     * 投递过程中出现异常时调用，等待所有在途的batch结束后整体rollback，从最后一次ack的位置重新投递。
+     * 直接丢弃pipeline会使在途的batch永远不会ack，之后的ack会因为不是第一个batch而失败
+     */
+    void abort() throws InterruptedException {
+        try {
+            finish();
+        } finally {
+            pendings.clear();
+            failed = false;
+            canalServer.rollback(clientIdentity);
+        }
+    }
+
+    int inflight() {
+        return pendings.size();
+    }
+
+    /**
+     * 按顺序ack已经成功的batch，有batch失败时等待所有在途的batch结束后整体rollback，返回是否发生了rollback
+     */
+    private boolean drain() throws InterruptedException {
+        boolean rollback = failed;
+        if (rollback) {
+            // 等待在途的batch结束，避免rollback之后还有batch在发送
+            for (PendingBatch pending : pendings) {
+                pending.latch.await();
+            }
+        }
+
+        PendingBatch first;
+        while ((first = pendings.peekFirst()) != null && first.latch.getCount() == 0 && first.success) {
+            pendings.pollFirst();
+            canalServer.ack(clientIdentity, first.batchId); // 提交确认
+            if (batchSizer != null) {
+                batchSizer.feedback(first.getCost, System.currentTimeMillis() - first.startTime);
+            }
+        }
+
+        if (rollback) {
+            pendings.clear();
+            failed = false;
+            canalServer.rollback(clientIdentity);
+        }
+        return rollback;
+    }
+
+    private class PendingBatch implements CanalMQProducer.Callback {
+
+        private final long           batchId;
+        private final long           startTime;
+        private final long           getCost;
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile boolean     success;
+
+        PendingBatch(long batchId, long startTime, long getCost){
+            this.batchId = batchId;
+            this.startTime = startTime;
+            this.getCost = getCost;
+        }
+
+        @Override
+        public void commit() {
+            success = true;
+            latch.countDown();
+        }
+
+        @Override
+        public void rollback() {
+            failed = true;
+            latch.countDown();
+        }
+    }
+}
@@ -28,7 +28,10 @@ import com.alibaba.otter.canal.spi.CanalMetricsProvider;
 import com.alibaba.otter.canal.spi.CanalMetricsService;
 import com.alibaba.otter.canal.spi.NopCanalMetricsService;
 import com.alibaba.otter.canal.store.CanalEventStore;
+import com.alibaba.otter.canal.store.CanalMultiClientEventStore;
+import com.alibaba.otter.canal.store.file.FileEventStoreWithSegment;
 import com.alibaba.otter.canal.store.memory.MemoryEventStoreWithBuffer;
+import com.alibaba.otter.canal.store.memory.MemoryEventStoreWithRingBuffer;
 import com.alibaba.otter.canal.store.model.Event;
 import com.alibaba.otter.canal.store.model.Events;
 import com.google.common.base.Function;
@@ -48,6 +51,7 @@ public class CanalServerWithEmbedded extends AbstractCanalLifeCycle implements C
 
     private static final Logger        logger  = LoggerFactory.getLogger(CanalServerWithEmbedded.class);
     private Map<String, CanalInstance> canalInstances;
+    private Map<ClientIdentity, Object> clientLocks;    // multiClient模式下每个client独立加锁
     // private Map<ClientIdentity, Position> lastRollbackPostions;
     private CanalInstanceGenerator     canalInstanceGenerator;
     private int                        metricsPort;
@@ -79,6 +83,12 @@ public class CanalServerWithEmbedded extends AbstractCanalLifeCycle implements C
                     return canalInstanceGenerator.generate(destination);
                 }
             });
+            clientLocks = MigrateMap.makeComputingMap(new Function<ClientIdentity, Object>() {
+
+                public Object apply(ClientIdentity clientIdentity) {
+                    return new Object();
+                }
+            });
 
             // lastRollbackPostions = new MapMaker().makeMap();
         }
@@ -157,6 +167,8 @@ public class CanalServerWithEmbedded extends AbstractCanalLifeCycle implements C
         }
 
         canalInstance.getMetaManager().subscribe(clientIdentity); // 执行一下meta订阅
+        // 多client模式下注册独立的get/ack下标，从meta中记录的位点开始
+        getMultiClientStore(canalInstance, clientIdentity);
 
         Position position = canalInstance.getMetaManager().getCursor(clientIdentity);
         if (position == null) {
@@ -180,6 +192,11 @@ public class CanalServerWithEmbedded extends AbstractCanalLifeCycle implements C
     public void unsubscribe(ClientIdentity clientIdentity) throws CanalServerException {
         CanalInstance canalInstance = canalInstances.get(clientIdentity.getDestination());
         canalInstance.getMetaManager().unsubscribe(clientIdentity); // 执行一下meta订阅
+        CanalMultiClientEventStore multiClientStore = getMultiClientStore(canalInstance.getEventStore());
+        if (multiClientStore != null) {
+            multiClientStore.unsubscribe(clientIdentity); // 释放该client占用的数据
+            clientLocks.remove(clientIdentity);
+        }
 
         logger.info("unsubscribe successfully, {}", clientIdentity);
     }
@@ -223,7 +240,7 @@ public class CanalServerWithEmbedded extends AbstractCanalLifeCycle implements C
         checkStart(clientIdentity.getDestination());
         checkSubscribe(clientIdentity);
         CanalInstance canalInstance = canalInstances.get(clientIdentity.getDestination());
-        synchronized (canalInstance) {
+        synchronized (getLock(canalInstance, clientIdentity)) {
             // 获取到流式数据中的最后一批获取的位置
             PositionRange<LogPosition> positionRanges = canalInstance.getMetaManager().getLastestBatch(clientIdentity);
 
@@ -235,7 +252,7 @@ public class CanalServerWithEmbedded extends AbstractCanalLifeCycle implements C
 
             Events<Event> events = null;
             Position start = canalInstance.getMetaManager().getCursor(clientIdentity);
-            events = getEvents(canalInstance.getEventStore(), start, batchSize, timeout, unit);
+            events = getEvents(canalInstance, clientIdentity, start, batchSize, timeout, unit);
 
             if (CollectionUtils.isEmpty(events.getEvents())) {
                 logger.debug("get successfully, clientId:{} batchSize:{} but result is null",
@@ -248,12 +265,13 @@ public class CanalServerWithEmbedded extends AbstractCanalLifeCycle implements C
                 boolean raw = isRaw(canalInstance.getEventStore());
                 List entrys = null;
                 if (raw) {
-                    entrys = Lists.transform(events.getEvents(), new Function<Event, ByteString>() {
+                    // 立即取出rawEntry，store在ack之后会回收复用rawEntry的存储(offHeap模式)，不能延迟到序列化时再读取
+                    entrys = Lists.newArrayList(Lists.transform(events.getEvents(), new Function<Event, ByteString>() {
 
                         public ByteString apply(Event input) {
                             return input.getRawEntry();
                         }
-                    });
+                    }));
                 } else {
                     entrys = Lists.transform(events.getEvents(), new Function<Event, CanalEntry.Entry>() {
 
@@ -311,20 +329,30 @@ public class CanalServerWithEmbedded extends AbstractCanalLifeCycle implements C
         checkSubscribe(clientIdentity);
 
         CanalInstance canalInstance = canalInstances.get(clientIdentity.getDestination());
-        synchronized (canalInstance) {
+        synchronized (getLock(canalInstance, clientIdentity)) {
             // 获取到流式数据中的最后一批获取的位置
             PositionRange<LogPosition> positionRanges = canalInstance.getMetaManager().getLastestBatch(clientIdentity);
 
             Events<Event> events = null;
             if (positionRanges != null) { // 存在流数据
-                events = getEvents(canalInstance.getEventStore(), positionRanges.getStart(), batchSize, timeout, unit);
+                events = getEvents(canalInstance,
+                    clientIdentity,
+                    positionRanges.getStart(),
+                    batchSize,
+                    timeout,
+                    unit);
             } else {// ack后第一次获取
                 Position start = canalInstance.getMetaManager().getCursor(clientIdentity);
                 if (start == null) { // 第一次，还没有过ack记录，则获取当前store中的第一条
-                    start = canalInstance.getEventStore().getFirstPosition();
+                    CanalMultiClientEventStore multiClientStore = getMultiClientStore(canalInstance, clientIdentity);
+                    if (multiClientStore != null) {
+                        start = multiClientStore.getFirstPosition(clientIdentity);
+                    } else {
+                        start = canalInstance.getEventStore().getFirstPosition();
+                    }
                 }
 
-                events = getEvents(canalInstance.getEventStore(), start, batchSize, timeout, unit);
+                events = getEvents(canalInstance, clientIdentity, start, batchSize, timeout, unit);
             }
 
             if (CollectionUtils.isEmpty(events.getEvents())) {
@@ -340,12 +368,13 @@ public class CanalServerWithEmbedded extends AbstractCanalLifeCycle implements C
                 boolean raw = isRaw(canalInstance.getEventStore());
                 List entrys = null;
                 if (raw) {
-                    entrys = Lists.transform(events.getEvents(), new Function<Event, ByteString>() {
+                    // 立即取出rawEntry，store在ack之后会回收复用rawEntry的存储(offHeap模式)，不能延迟到序列化时再读取
+                    entrys = Lists.newArrayList(Lists.transform(events.getEvents(), new Function<Event, ByteString>() {
 
                         public ByteString apply(Event input) {
                             return input.getRawEntry();
                         }
-                    });
+                    }));
                 } else {
                     entrys = Lists.transform(events.getEvents(), new Function<Event, CanalEntry.Entry>() {
 
@@ -432,7 +461,12 @@ public class CanalServerWithEmbedded extends AbstractCanalLifeCycle implements C
         }
 
         // 可定时清理数据
-        canalInstance.getEventStore().ack(positionRanges.getEnd(), positionRanges.getEndSeq());
+        CanalMultiClientEventStore multiClientStore = getMultiClientStore(canalInstance, clientIdentity);
+        if (multiClientStore != null) {
+            multiClientStore.ack(clientIdentity, positionRanges.getEnd(), positionRanges.getEndSeq());
+        } else {
+            canalInstance.getEventStore().ack(positionRanges.getEnd(), positionRanges.getEndSeq());
+        }
     }
 
     /**
@@ -448,11 +482,11 @@ public class CanalServerWithEmbedded extends AbstractCanalLifeCycle implements C
             return;
         }
 
-        synchronized (canalInstance) {
+        synchronized (getLock(canalInstance, clientIdentity)) {
             // 清除batch信息
             canalInstance.getMetaManager().clearAllBatchs(clientIdentity);
             // rollback eventStore中的状态信息
-            canalInstance.getEventStore().rollback();
+            rollbackEventStore(canalInstance, clientIdentity);
             logger.info("rollback successfully, clientId:{}", new Object[] { clientIdentity.getClientId() });
         }
     }
@@ -470,7 +504,7 @@ public class CanalServerWithEmbedded extends AbstractCanalLifeCycle implements C
         if (!hasSubscribe) {
             return;
         }
-        synchronized (canalInstance) {
+        synchronized (getLock(canalInstance, clientIdentity)) {
             // 清除batch信息
             PositionRange<LogPosition> positionRanges = canalInstance.getMetaManager().removeBatch(clientIdentity,
                 batchId);
@@ -483,8 +517,8 @@ public class CanalServerWithEmbedded extends AbstractCanalLifeCycle implements C
             // lastRollbackPostions.put(clientIdentity,
             // positionRanges.getEnd());// 记录一下最后rollback的位置
             // TODO 后续rollback到指定的batchId位置
-            canalInstance.getEventStore().rollback();// rollback
-                                                     // eventStore中的状态信息
+            rollbackEventStore(canalInstance, clientIdentity);// rollback
+                                                                              // eventStore中的状态信息
             logger.info("rollback successfully, clientId:{} batchId:{} position:{}",
                 clientIdentity.getClientId(),
                 batchId,
@@ -498,6 +532,31 @@ public class CanalServerWithEmbedded extends AbstractCanalLifeCycle implements C
 
     // ======================== helper method =======================
 
+    /**
+     * 根据不同的参数，选择不同的方式获取数据，multiClient模式下使用client独立的下标
+     */
+    private Events<Event> getEvents(CanalInstance canalInstance, ClientIdentity clientIdentity, Position start,
+                                    int batchSize, Long timeout, TimeUnit unit) {
+        CanalMultiClientEventStore multiClientStore = getMultiClientStore(canalInstance, clientIdentity);
+        if (multiClientStore == null) {
+            return getEvents(canalInstance.getEventStore(), start, batchSize, timeout, unit);
+        }
+
+        if (timeout == null) {
+            return multiClientStore.tryGet(clientIdentity, start, batchSize);
+        } else {
+            try {
+                if (timeout <= 0) {
+                    return multiClientStore.get(clientIdentity, start, batchSize);
+                } else {
+                    return multiClientStore.get(clientIdentity, start, batchSize, timeout, unit);
+                }
+            } catch (Exception e) {
+                throw new CanalServerException(e);
+            }
+        }
+    }
+
     /**
      * 根据不同的参数，选择不同的方式获取数据
      */
@@ -518,6 +577,48 @@ public class CanalServerWithEmbedded extends AbstractCanalLifeCycle implements C
         }
     }
 
+    private void rollbackEventStore(CanalInstance canalInstance, ClientIdentity clientIdentity) {
+        CanalMultiClientEventStore multiClientStore = getMultiClientStore(canalInstance, clientIdentity);
+        if (multiClientStore != null) {
+            multiClientStore.rollback(clientIdentity);
+        } else {
+            canalInstance.getEventStore().rollback();
+        }
+    }
+
+    /**
+     * multiClient模式下返回store，client未在store中注册时(比如server重启之后)从meta中记录的位点开始注册
+     */
+    private CanalMultiClientEventStore getMultiClientStore(CanalInstance canalInstance, ClientIdentity clientIdentity) {
+        CanalMultiClientEventStore multiClientStore = getMultiClientStore(canalInstance.getEventStore());
+        if (multiClientStore != null && !multiClientStore.isSubscribed(clientIdentity)) {
+            multiClientStore.subscribe(clientIdentity, canalInstance.getMetaManager().getCursor(clientIdentity));
+        }
+        return multiClientStore;
+    }
+
+    /**
+     * multiClient模式下各个client使用独立的store下标，按client加锁，否则所有client共享store下标，按instance加锁
+     */
+    private Object getLock(CanalInstance canalInstance, ClientIdentity clientIdentity) {
+        if (getMultiClientStore(canalInstance.getEventStore()) != null) {
+            return clientLocks.get(clientIdentity);
+        }
+        return canalInstance;
+    }
+
+    /**
+     * 开启了multiClient模式的store，每个client使用独立的get/ack下标
+     */
+    private CanalMultiClientEventStore getMultiClientStore(CanalEventStore eventStore) {
+        if (eventStore instanceof CanalMultiClientEventStore
+            && ((CanalMultiClientEventStore) eventStore).isMultiClient()) {
+            return (CanalMultiClientEventStore) eventStore;
+        }
+
+        return null;
+    }
+
     private void checkSubscribe(ClientIdentity clientIdentity) {
         CanalInstance canalInstance = canalInstances.get(clientIdentity.getDestination());
         boolean hasSubscribe = canalInstance.getMetaManager().hasSubscribe(clientIdentity);
@@ -557,6 +658,10 @@ public class CanalServerWithEmbedded extends AbstractCanalLifeCycle implements C
     private boolean isRaw(CanalEventStore eventStore) {
         if (eventStore instanceof MemoryEventStoreWithBuffer) {
             return ((MemoryEventStoreWithBuffer) eventStore).isRaw();
+        } else if (eventStore instanceof MemoryEventStoreWithRingBuffer) {
+            return ((MemoryEventStoreWithRingBuffer) eventStore).isRaw();
+        } else if (eventStore instanceof FileEventStoreWithSegment) {
+            return ((FileEventStoreWithSegment) eventStore).isRaw();
         }
 
         return true;
@@ -14,6 +14,8 @@ import org.jboss.netty.channel.group.DefaultChannelGroup;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
 
 import com.alibaba.otter.canal.common.AbstractCanalLifeCycle;
+import com.alibaba.otter.canal.protocol.CanalPacket.Compression;
+import com.alibaba.otter.canal.protocol.CompressionUtils;
 import com.alibaba.otter.canal.server.CanalServer;
 import com.alibaba.otter.canal.server.embedded.CanalServerWithEmbedded;
 import com.alibaba.otter.canal.server.netty.handler.ClientAuthenticationHandler;
@@ -38,6 +40,7 @@ public class CanalServerWithNetty extends AbstractCanalLifeCycle implements Cana
                                                           // container, used to
                                                           // close sockets
                                                           // explicitly.
+    private Compression             compression   = Compression.NONE; // 数据包压缩方式，需client端协商后启用
 
     private static class SingletonHolder {
 
@@ -82,11 +85,12 @@ public class CanalServerWithNetty extends AbstractCanalLifeCycle implements Cana
                 pipelines.addLast(FixedHeaderFrameDecoder.class.getName(), new FixedHeaderFrameDecoder());
                 // support to maintain child socket channel.
                 pipelines.addLast(HandshakeInitializationHandler.class.getName(),
-                    new HandshakeInitializationHandler(childGroups));
+                    new HandshakeInitializationHandler(childGroups, compression));
                 pipelines.addLast(ClientAuthenticationHandler.class.getName(),
                     new ClientAuthenticationHandler(embeddedServer));
 
                 SessionHandler sessionHandler = new SessionHandler(embeddedServer);
+                sessionHandler.setCompression(compression);
                 pipelines.addLast(SessionHandler.class.getName(), sessionHandler);
                 return pipelines;
             }
@@ -130,6 +134,13 @@ public class CanalServerWithNetty extends AbstractCanalLifeCycle implements Cana
         this.port = port;
     }
 
+    public void setCompression(Compression compression) {
+        if (!CompressionUtils.isSupported(compression)) {
+            throw new IllegalArgumentException("compression " + compression + " is not supported");
+        }
+        this.compression = compression;
+    }
+
     public void setEmbeddedServer(CanalServerWithEmbedded embeddedServer) {
         this.embeddedServer = embeddedServer;
     }
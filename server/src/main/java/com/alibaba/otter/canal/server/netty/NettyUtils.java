@@ -1,5 +1,7 @@
 package com.alibaba.otter.canal.server.netty;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
@@ -9,6 +11,7 @@ import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.buffer.CompositeChannelBuffer;
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.Channels;
 import org.jboss.netty.util.HashedWheelTimer;
@@ -18,13 +21,20 @@ import org.slf4j.LoggerFactory;
 
 import com.alibaba.otter.canal.protocol.CanalPacket;
 import com.alibaba.otter.canal.protocol.CanalPacket.Ack;
+import com.alibaba.otter.canal.protocol.CanalPacket.Compression;
 import com.alibaba.otter.canal.protocol.CanalPacket.Packet;
+import com.alibaba.otter.canal.protocol.CanalPacket.PacketType;
+import com.alibaba.otter.canal.protocol.CompressionUtils;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
 
 public class NettyUtils {
 
     private static final Logger logger           = LoggerFactory.getLogger(NettyUtils.class);
     public static int           HEADER_LENGTH    = 4;
     public static Timer         hashedWheelTimer = new HashedWheelTimer();
+    public static int           WRITE_CHUNK_SIZE = 64 * 1024;
 
     public static void write(Channel channel, ByteBuffer body, ChannelFutureListener channelFutureListner) {
         byte[] header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.BIG_ENDIAN).putInt(body.limit()).array();
@@ -49,6 +59,147 @@ public class NettyUtils {
         }
     }
 
+    /**
+     * 分段写出一个数据包，各分段按顺序写入channel，不再拼接成一个完整的byte[]
+     *
+     * <pre>
+     * 1. 相邻的小分段合并为不超过WRITE_CHUNK_SIZE的composite buffer，由netty拷贝进预分配的发送缓冲
+     * 2. 超过WRITE_CHUNK_SIZE的分段单独写出，直接使用其底层的ByteBuffer
+     * 3. listener挂在最后一次写出上，完成时代表整个数据包写出
+     * </pre>
+     */
+    public static void write(Channel channel, List<ChannelBuffer> body, ChannelFutureListener channelFutureListner) {
+        byte[] header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.BIG_ENDIAN).putInt(length(body)).array();
+        List<ChannelBuffer> chunk = new ArrayList<ChannelBuffer>();
+        chunk.add(ChannelBuffers.wrappedBuffer(ByteOrder.BIG_ENDIAN, header));
+        int chunkSize = HEADER_LENGTH;
+        for (ChannelBuffer buffer : body) {
+            int size = buffer.readableBytes();
+            if (chunkSize + size > WRITE_CHUNK_SIZE) {
+                Channels.write(channel, composite(chunk));
+                chunk = new ArrayList<ChannelBuffer>();
+                chunkSize = 0;
+            }
+            chunk.add(buffer);
+            chunkSize += size;
+        }
+
+        ChannelFuture future = Channels.write(channel, composite(chunk));
+        if (channelFutureListner != null) {
+            future.addListener(channelFutureListner);
+        }
+    }
+
+    public static int length(List<ChannelBuffer> body) {
+        int length = 0;
+        for (ChannelBuffer buffer : body) {
+            length += buffer.readableBytes();
+        }
+        return length;
+    }
+
+    /**
+     * 构造raw模式下的MESSAGES数据包，结构与Packet{type=MESSAGES, body=Messages}的序列化结果一致
+     *
+     * <pre>
+     * 1. packet头、batchId以及每个entry的tag/length写入同一个小的byte[]，按段切分
+     * 2. entry本身的ByteString直接包装为ChannelBuffer，不做拷贝
+     * </pre>
+     */
+    public static List<ChannelBuffer> messagesPacket(long batchId, List<ByteString> rawEntries) {
+        int messageSize = CodedOutputStream.computeInt64Size(1, batchId);
+        int entriesHeadSize = 0;
+        for (ByteString entry : rawEntries) {
+            int entryHeadSize = CodedOutputStream.computeTagSize(2)
+                                + CodedOutputStream.computeUInt32SizeNoTag(entry.size());
+            entriesHeadSize += entryHeadSize;
+            messageSize += entryHeadSize + entry.size();
+        }
+        int packetHeadSize = CodedOutputStream.computeEnumSize(3, PacketType.MESSAGES.getNumber())
+                             + CodedOutputStream.computeTagSize(5)
+                             + CodedOutputStream.computeUInt32SizeNoTag(messageSize)
+                             + CodedOutputStream.computeInt64Size(1, batchId);
+
+        byte[] head = new byte[packetHeadSize + entriesHeadSize];
+        List<ChannelBuffer> body = new ArrayList<ChannelBuffer>(rawEntries.size() * 2 + 1);
+        try {
+            CodedOutputStream output = CodedOutputStream.newInstance(head);
+            output.writeEnum(3, PacketType.MESSAGES.getNumber());
+            output.writeTag(5, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            output.writeUInt32NoTag(messageSize);
+            output.writeInt64(1, batchId);
+            body.add(ChannelBuffers.wrappedBuffer(head, 0, packetHeadSize));
+
+            int position = packetHeadSize;
+            for (ByteString entry : rawEntries) {
+                output.writeTag(2, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+                output.writeUInt32NoTag(entry.size());
+                int end = head.length - output.spaceLeft();
+                body.add(ChannelBuffers.wrappedBuffer(head, position, end - position));
+                position = end;
+                wrap(body, entry);
+            }
+            output.checkNoSpaceLeft();
+        } catch (IOException e) {
+            // 写入固定大小的数组，不会出现
+            throw new IllegalStateException(e);
+        }
+        return body;
+    }
+
+    /**
+     * 构造压缩后的MESSAGES数据包，Messages边序列化边压缩，不产生未压缩的完整body
+     */
+    public static List<ChannelBuffer> messagesPacket(long batchId, List<ByteString> rawEntries,
+                                                     Compression compression) throws IOException {
+        if (!CompressionUtils.isCompressed(compression)) {
+            return messagesPacket(batchId, rawEntries);
+        }
+
+        ByteString.Output compressed = ByteString.newOutput();
+        try (OutputStream out = CompressionUtils.compress(compression, compressed)) {
+            CodedOutputStream output = CodedOutputStream.newInstance(out);
+            output.writeInt64(1, batchId);
+            for (ByteString entry : rawEntries) {
+                output.writeBytes(2, entry);
+            }
+            output.flush();
+        }
+
+        ByteString messages = compressed.toByteString();
+        int headSize = CodedOutputStream.computeEnumSize(3, PacketType.MESSAGES.getNumber())
+                       + CodedOutputStream.computeEnumSize(4, compression.getNumber())
+                       + CodedOutputStream.computeTagSize(5)
+                       + CodedOutputStream.computeUInt32SizeNoTag(messages.size());
+        byte[] head = new byte[headSize];
+        CodedOutputStream output = CodedOutputStream.newInstance(head);
+        output.writeEnum(3, PacketType.MESSAGES.getNumber());
+        output.writeEnum(4, compression.getNumber());
+        output.writeTag(5, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        output.writeUInt32NoTag(messages.size());
+        output.checkNoSpaceLeft();
+
+        List<ChannelBuffer> body = new ArrayList<ChannelBuffer>();
+        body.add(ChannelBuffers.wrappedBuffer(head));
+        wrap(body, messages);
+        return body;
+    }
+
+    private static void wrap(List<ChannelBuffer> body, ByteString bytes) {
+        for (ByteBuffer buffer : bytes.asReadOnlyByteBufferList()) {
+            if (buffer.hasRemaining()) {
+                body.add(ChannelBuffers.wrappedBuffer(buffer.order(ByteOrder.BIG_ENDIAN)));
+            }
+        }
+    }
+
+    private static ChannelBuffer composite(List<ChannelBuffer> components) {
+        if (components.size() == 1) {
+            return components.get(0);
+        }
+        return new CompositeChannelBuffer(ByteOrder.BIG_ENDIAN, components);
+    }
+
     public static void ack(Channel channel, ChannelFutureListener channelFutureListner) {
         write(channel,
             Packet.newBuilder()
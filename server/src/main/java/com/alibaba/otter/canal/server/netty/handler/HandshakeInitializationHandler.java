@@ -8,6 +8,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.alibaba.otter.canal.protocol.CanalPacket;
+import com.alibaba.otter.canal.protocol.CanalPacket.Compression;
 import com.alibaba.otter.canal.protocol.CanalPacket.Handshake;
 import com.alibaba.otter.canal.protocol.CanalPacket.Packet;
 import com.alibaba.otter.canal.server.netty.NettyUtils;
@@ -22,11 +23,18 @@ public class HandshakeInitializationHandler extends SimpleChannelHandler {
 
     // support to maintain socket channel.
     private ChannelGroup childGroups;
+    // 告知client端server支持的压缩方式，由client在GET时选择是否启用
+    private Compression  compression = Compression.NONE;
 
     public HandshakeInitializationHandler(ChannelGroup childGroups){
         this.childGroups = childGroups;
     }
 
+    public HandshakeInitializationHandler(ChannelGroup childGroups, Compression compression){
+        this.childGroups = childGroups;
+        this.compression = compression;
+    }
+
     private static final Logger logger = LoggerFactory.getLogger(HandshakeInitializationHandler.class);
 
     public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
@@ -37,7 +45,7 @@ public class HandshakeInitializationHandler extends SimpleChannelHandler {
 
         byte[] body = Packet.newBuilder()
             .setType(CanalPacket.PacketType.HANDSHAKE)
-            .setBody(Handshake.newBuilder().build().toByteString())
+            .setBody(Handshake.newBuilder().setSupportedCompressions(compression).build().toByteString())
             .build()
             .toByteArray();
         NettyUtils.write(ctx.getChannel(), body, null);
@@ -1,5 +1,6 @@
 package com.alibaba.otter.canal.server.netty.handler;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -23,6 +24,7 @@ import com.alibaba.otter.canal.protocol.CanalEntry.Entry;
 import com.alibaba.otter.canal.protocol.CanalPacket;
 import com.alibaba.otter.canal.protocol.CanalPacket.ClientAck;
 import com.alibaba.otter.canal.protocol.CanalPacket.ClientRollback;
+import com.alibaba.otter.canal.protocol.CanalPacket.Compression;
 import com.alibaba.otter.canal.protocol.CanalPacket.Get;
 import com.alibaba.otter.canal.protocol.CanalPacket.Messages;
 import com.alibaba.otter.canal.protocol.CanalPacket.Packet;
@@ -30,18 +32,18 @@ import com.alibaba.otter.canal.protocol.CanalPacket.PacketType;
 import com.alibaba.otter.canal.protocol.CanalPacket.Sub;
 import com.alibaba.otter.canal.protocol.CanalPacket.Unsub;
 import com.alibaba.otter.canal.protocol.ClientIdentity;
+import com.alibaba.otter.canal.protocol.CompressionUtils;
 import com.alibaba.otter.canal.protocol.Message;
 import com.alibaba.otter.canal.server.embedded.CanalServerWithEmbedded;
 import com.alibaba.otter.canal.server.netty.NettyUtils;
 import com.alibaba.otter.canal.server.netty.listener.ChannelFutureAggregator;
 import com.google.protobuf.ByteString;
-import com.google.protobuf.CodedOutputStream;
-import com.google.protobuf.WireFormat;
 
 public class SessionHandler extends SimpleChannelHandler {
 
     private static final Logger     logger = LoggerFactory.getLogger(SessionHandler.class);
     private CanalServerWithEmbedded embeddedServer;
+    private Compression             compression = Compression.NONE;
 
     public SessionHandler(){
     }
@@ -52,7 +54,9 @@ public class SessionHandler extends SimpleChannelHandler {
 
     @SuppressWarnings({ "deprecation" })
     public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
-        logger.info("message receives in session handler...");
+        if (logger.isDebugEnabled()) {
+            logger.debug("message receives in session handler...");
+        }
         long start = System.nanoTime();
         ChannelBuffer buffer = (ChannelBuffer) e.getMessage();
         Packet packet = Packet.parseFrom(buffer.readBytes(buffer.readableBytes()).array());
@@ -106,7 +110,9 @@ public class SessionHandler extends SimpleChannelHandler {
                     break;
                 case GET:
                     Get get = CanalPacket.Get.parseFrom(packet.getBody());
-                    logger.info("get: destination{} clientId:{}", get.getDestination(), get.getClientId());
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("get: destination{} clientId:{}", get.getDestination(), get.getClientId());
+                    }
                     long startTime = System.currentTimeMillis();
                     if (StringUtils.isNotEmpty(get.getDestination()) && StringUtils.isNotEmpty(get.getClientId())) {
                         clientIdentity = new ClientIdentity(get.getDestination(), Short.valueOf(get.getClientId()));
@@ -133,58 +139,34 @@ public class SessionHandler extends SimpleChannelHandler {
                                 unit);
                         }
                         // }
-                        logger.info("pull data elapsed time:{} clientId:{} massageId:{}", (System.currentTimeMillis() - startTime), get.getClientId(), message.getId());
-                        if (message.getId() != -1 && message.isRaw()) {
-                            List<ByteString> rowEntries = message.getRawEntries();
-                            // message size
-                            int messageSize = 0;
-                            messageSize += com.google.protobuf.CodedOutputStream.computeInt64Size(1, message.getId());
-
-                            int dataSize = 0;
-                            for (int i = 0; i < rowEntries.size(); i++) {
-                                dataSize += com.google.protobuf.CodedOutputStream.computeBytesSizeNoTag(rowEntries.get(i));
-                            }
-                            messageSize += dataSize;
-                            messageSize += 1 * rowEntries.size();
-                            // packet size
-                            int size = 0;
-                            size += com.google.protobuf.CodedOutputStream.computeEnumSize(3,
-                                PacketType.MESSAGES.getNumber());
-                            size += com.google.protobuf.CodedOutputStream.computeTagSize(5)
-                                    + com.google.protobuf.CodedOutputStream.computeRawVarint32Size(messageSize)
-                                    + messageSize;
-                            // recyle bytes
-                            // ByteBuffer byteBuffer = (ByteBuffer)
-                            // ctx.getAttachment();
-                            // if (byteBuffer != null && size <=
-                            // byteBuffer.capacity()) {
-                            // byteBuffer.clear();
-                            // } else {
-                            // byteBuffer =
-                            // ByteBuffer.allocate(size).order(ByteOrder.BIG_ENDIAN);
-                            // ctx.setAttachment(byteBuffer);
-                            // }
-                            // CodedOutputStream output =
-                            // CodedOutputStream.newInstance(byteBuffer);
-                            byte[] body = new byte[size];
-                            CodedOutputStream output = CodedOutputStream.newInstance(body);
-                            output.writeEnum(3, PacketType.MESSAGES.getNumber());
-
-                            output.writeTag(5, WireFormat.WIRETYPE_LENGTH_DELIMITED);
-                            output.writeRawVarint32(messageSize);
-                            // message
-                            output.writeInt64(1, message.getId());
-                            for (int i = 0; i < rowEntries.size(); i++) {
-                                output.writeBytes(2, rowEntries.get(i));
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("pull data elapsed time:{} clientId:{} massageId:{}",
+                                (System.currentTimeMillis() - startTime),
+                                get.getClientId(),
+                                message.getId());
+                        }
+                        // GET包中的compression代表client可接受的压缩方式，与server配置一致时才压缩
+                        Compression requestCompression = packet.getCompression();
+                        if (message.getId() != -1 && CompressionUtils.isCompressed(requestCompression)
+                            && requestCompression == compression) {
+                            List<ByteString> entries;
+                            if (message.isRaw()) {
+                                entries = message.getRawEntries();
+                            } else {
+                                entries = new ArrayList<ByteString>(message.getEntries().size());
+                                for (Entry entry : message.getEntries()) {
+                                    entries.add(entry.toByteString());
+                                }
                             }
-                            output.checkNoSpaceLeft();
+                            List<ChannelBuffer> body = NettyUtils.messagesPacket(message.getId(), entries, compression);
+                            NettyUtils.write(ctx.getChannel(), body, new ChannelFutureAggregator(get.getDestination(),
+                                    get, packet.getType(), NettyUtils.length(body), System.nanoTime() - start, false));
+                        } else if (message.getId() != -1 && message.isRaw()) {
+                            // entry直接包装为ChannelBuffer分段写出，避免大batch产生一个完整的byte[]
+                            List<ChannelBuffer> body = NettyUtils.messagesPacket(message.getId(),
+                                message.getRawEntries());
                             NettyUtils.write(ctx.getChannel(), body, new ChannelFutureAggregator(get.getDestination(),
-                                    get, packet.getType(), body.length, System.nanoTime() - start, message.getId() == -1));
-                            
-                            // output.flush();
-                            // byteBuffer.flip();
-                            // NettyUtils.write(ctx.getChannel(), byteBuffer,
-                            // null);
+                                    get, packet.getType(), NettyUtils.length(body), System.nanoTime() - start, false));
                         } else {
                             Packet.Builder packetBuilder = CanalPacket.Packet.newBuilder();
                             packetBuilder.setType(PacketType.MESSAGES);
@@ -204,7 +186,12 @@ public class SessionHandler extends SimpleChannelHandler {
                             NettyUtils.write(ctx.getChannel(), body, new ChannelFutureAggregator(get.getDestination(),
                                     get, packet.getType(), body.length, System.nanoTime() - start, message.getId() == -1));// 输出数据
                         }
-                        logger.info("write data finished elapsed time:{} clientId:{} messageId:{}", (System.currentTimeMillis() - startTime),get.getClientId(), message.getId());
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("write data finished elapsed time:{} clientId:{} messageId:{}",
+                                (System.currentTimeMillis() - startTime),
+                                get.getClientId(),
+                                message.getId());
+                        }
                     } else {
                         byte[] errorBytes = NettyUtils.errorPacket(401, MessageFormatter.format("destination or clientId is null", get.toString()).getMessage());
                         NettyUtils.write(ctx.getChannel(), errorBytes, new ChannelFutureAggregator(get.getDestination(),
@@ -320,4 +307,8 @@ public class SessionHandler extends SimpleChannelHandler {
         this.embeddedServer = embeddedServer;
     }
 
+    public void setCompression(Compression compression) {
+        this.compression = compression;
+    }
+
 }
@@ -23,6 +23,23 @@ public interface CanalMQProducer {
      */
     void send(MQProperties.CanalDestination canalDestination, Message message, Callback callback) throws IOException;
 
+    /**
+     * Send canal message without waiting for the broker, records are submitted
+     * in call order and the callback is invoked once the whole message is
+     * acknowledged or failed, possibly from another thread. Kafka and RocketMQ
+     * producers send asynchronously, the default implementation falls back to
+     * the synchronous {@link #send}, so canal.mq.pipelineWindow has no effect
+     * for producers that do not override it.
+     *
+     * @param canalDestination canal mq destination
+     * @param message canal message
+     * @throws IOException
+     */
+    default void sendAsync(MQProperties.CanalDestination canalDestination, Message message, Callback callback)
+                                                                                                             throws IOException {
+        send(canalDestination, message, callback);
+    }
+
     /**
      * Stop MQ producer service
      */
@@ -0,0 +1,42 @@
+package com.alibaba.otter.canal.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveBatchSizerTest {
+
+    @Test
+    public void testGrowWhenBacklog() {
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(50, 1, 1000, 100);
+        for (int i = 0; i < 100; i++) {
+            // get立即返回说明拿满了一批
+            sizer.feedback(0, 10);
+        }
+        Assert.assertEquals(1000, sizer.getBatchSize());
+    }
+
+    @Test
+    public void testShrinkWhenSlow() {
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(512, 1, 1000, 100);
+        for (int i = 0; i < 16; i++) {
+            sizer.feedback(0, 500);
+        }
+        Assert.assertEquals(500, sizer.getP99Latency());
+        Assert.assertEquals(256, sizer.getBatchSize());
+
+        for (int i = 0; i < 16 * 16; i++) {
+            sizer.feedback(0, 500);
+        }
+        Assert.assertEquals(1, sizer.getBatchSize());
+    }
+
+    @Test
+    public void testKeepWhenIdle() {
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(50, 1, 1000, 100);
+        for (int i = 0; i < 64; i++) {
+            // 等满了超时才返回，不需要放大
+            sizer.feedback(sizer.getPollTimeout(), 60);
+        }
+        Assert.assertEquals(50, sizer.getBatchSize());
+    }
+}
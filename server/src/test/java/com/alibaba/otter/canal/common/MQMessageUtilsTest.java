@@ -0,0 +1,88 @@
+package com.alibaba.otter.canal.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.alibaba.otter.canal.protocol.Message;
+
+public class MQMessageUtilsTest {
+
+    @Test
+    public void testPartitionHashColumnsCache() {
+        String pkHashConfigs = "test\\.t.*:id,test.other";
+        MQMessageUtils.HashMode hashMode = MQMessageUtils.getPartitionHashColumns("test.t1", pkHashConfigs);
+        Assert.assertNotNull(hashMode);
+        Assert.assertEquals("id", hashMode.pkNames.get(0));
+        Assert.assertTrue(hashMode == MQMessageUtils.getPartitionHashColumns("test.t1", pkHashConfigs));
+        Assert.assertTrue(MQMessageUtils.getPartitionHashColumns("test.other", pkHashConfigs).tableHash);
+        Assert.assertNull(MQMessageUtils.getPartitionHashColumns("test.none", pkHashConfigs));
+        Assert.assertNull(MQMessageUtils.getPartitionHashColumns("test.none", pkHashConfigs));
+    }
+
+    @Test
+    public void testParallelPartitionKeepOrder() throws Exception {
+        for (boolean murmurHash : new boolean[] { false, true }) {
+            // 超过并行阈值，与逐个entry分区的结果保持一致
+            Message message = buildMessage(0, 1000);
+            Message[] partitions = MQMessageUtils.messagePartition(message, 4, "test\\..*:id", murmurHash);
+
+            List<List<Long>> expected = new ArrayList<List<Long>>();
+            for (int i = 0; i < 4; i++) {
+                expected.add(new ArrayList<Long>());
+            }
+            for (int i = 0; i < 1000; i++) {
+                Message[] single = MQMessageUtils.messagePartition(buildMessage(i, 1), 4, "test\\..*:id", murmurHash);
+                for (int p = 0; p < 4; p++) {
+                    if (single[p] != null) {
+                        expected.get(p).add((long) i);
+                    }
+                }
+            }
+
+            int total = 0;
+            for (int p = 0; p < 4; p++) {
+                List<Long> ids = new ArrayList<Long>();
+                if (partitions[p] != null) {
+                    for (CanalEntry.Entry entry : partitions[p].getEntries()) {
+                        ids.add(entry.getHeader().getLogfileOffset());
+                    }
+                }
+                Assert.assertEquals(expected.get(p), ids);
+                total += ids.size();
+            }
+            Assert.assertEquals(1000, total);
+        }
+    }
+
+    private Message buildMessage(int start, int count) {
+        List<CanalEntry.Entry> entries = new ArrayList<CanalEntry.Entry>();
+        for (int i = start; i < start + count; i++) {
+            CanalEntry.RowData.Builder rowData = CanalEntry.RowData.newBuilder();
+            rowData.addAfterColumns(CanalEntry.Column.newBuilder()
+                .setName("id")
+                .setIsKey(true)
+                .setValue(String.valueOf(i))
+                .build());
+            CanalEntry.RowChange rowChange = CanalEntry.RowChange.newBuilder()
+                .setEventType(CanalEntry.EventType.INSERT)
+                .addRowDatas(rowData)
+                .build();
+            CanalEntry.Header header = CanalEntry.Header.newBuilder()
+                .setSchemaName("test")
+                .setTableName("t1")
+                .setLogfileOffset(i)
+                .setEventType(CanalEntry.EventType.INSERT)
+                .build();
+            entries.add(CanalEntry.Entry.newBuilder()
+                .setEntryType(CanalEntry.EntryType.ROWDATA)
+                .setHeader(header)
+                .setStoreValue(rowChange.toByteString())
+                .build());
+        }
+        return new Message(1L, entries);
+    }
+}
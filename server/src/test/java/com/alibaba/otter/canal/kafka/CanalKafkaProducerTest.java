@@ -0,0 +1,184 @@
+package com.alibaba.otter.canal.kafka;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.otter.canal.common.MQProperties;
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.alibaba.otter.canal.protocol.FlatMessage;
+import com.alibaba.otter.canal.protocol.Message;
+import com.alibaba.otter.canal.spi.CanalMQProducer;
+
+public class CanalKafkaProducerTest {
+
+    private static final int              BATCH_SIZE = 10;
+
+    private MQProperties.CanalDestination destination;
+    private List<Boolean>                 results;
+
+    @Before
+    public void setUp() {
+        destination = new MQProperties.CanalDestination();
+        destination.setCanalDestination("example");
+        destination.setTopic("example");
+        destination.setPartitionsNum(3);
+        destination.setPartitionHash("test\\..*:id");
+        results = new ArrayList<Boolean>();
+    }
+
+    @Test
+    public void testFlushPerBatch() throws Exception {
+        FlushCountingProducer mockProducer = new FlushCountingProducer();
+        CanalKafkaProducer kafkaProducer = kafkaProducer(mockProducer, 0);
+
+        // 一个batch的所有record提交后只flush一次
+        kafkaProducer.send(destination, buildMessage(1L, 0), callback());
+        Assert.assertEquals(Arrays.asList(BATCH_SIZE), mockProducer.flushes);
+        kafkaProducer.send(destination, buildMessage(2L, BATCH_SIZE), callback());
+        Assert.assertEquals(Arrays.asList(BATCH_SIZE, BATCH_SIZE * 2), mockProducer.flushes);
+        Assert.assertEquals(Arrays.asList(true, true), results);
+    }
+
+    @Test
+    public void testFlushOnMaxInFlightRecords() throws Exception {
+        FlushCountingProducer mockProducer = new FlushCountingProducer();
+        CanalKafkaProducer kafkaProducer = kafkaProducer(mockProducer, 4);
+
+        // 未flush的record达到上限时先刷出一次，batch结束时再刷出剩余的record
+        kafkaProducer.send(destination, buildMessage(1L, 0), callback());
+        Assert.assertEquals(Arrays.asList(4, 8, BATCH_SIZE), mockProducer.flushes);
+        Assert.assertEquals(Arrays.asList(true), results);
+    }
+
+    @Test
+    public void testPartitionOrder() throws Exception {
+        FlushCountingProducer mockProducer = new FlushCountingProducer();
+        CanalKafkaProducer kafkaProducer = kafkaProducer(mockProducer, 4);
+        kafkaProducer.send(destination, buildMessage(1L, 0), callback());
+        kafkaProducer.send(destination, buildMessage(2L, BATCH_SIZE), callback());
+
+        // 同一个partition内的record保持binlog的顺序
+        Map<Integer, List<Long>> partitionIds = new HashMap<Integer, List<Long>>();
+        for (ProducerRecord<String, String> record : mockProducer.history()) {
+            FlatMessage flatMessage = JSON.parseObject(record.value(), FlatMessage.class);
+            List<Long> ids = partitionIds.get(record.partition());
+            if (ids == null) {
+                ids = new ArrayList<Long>();
+                partitionIds.put(record.partition(), ids);
+            }
+            for (Map<String, String> data : flatMessage.getData()) {
+                ids.add(Long.valueOf(data.get("id")));
+            }
+        }
+
+        int total = 0;
+        for (List<Long> ids : partitionIds.values()) {
+            List<Long> sorted = new ArrayList<Long>(ids);
+            sorted.sort(null);
+            Assert.assertEquals(sorted, ids);
+            total += ids.size();
+        }
+        Assert.assertTrue(partitionIds.size() > 1);
+        Assert.assertEquals(BATCH_SIZE * 2, total);
+    }
+
+    private CanalKafkaProducer kafkaProducer(MockProducer<String, String> mockProducer,
+                                             int maxInFlightRecords) throws Exception {
+        MQProperties properties = new MQProperties();
+        properties.setFlatMessage(true);
+        properties.setMaxInFlightRecords(maxInFlightRecords);
+
+        CanalKafkaProducer kafkaProducer = new CanalKafkaProducer();
+        Field kafkaProperties = CanalKafkaProducer.class.getDeclaredField("kafkaProperties");
+        kafkaProperties.setAccessible(true);
+        kafkaProperties.set(kafkaProducer, properties);
+        Field producer2 = CanalKafkaProducer.class.getDeclaredField("producer2");
+        producer2.setAccessible(true);
+        producer2.set(kafkaProducer, mockProducer);
+        return kafkaProducer;
+    }
+
+    private CanalMQProducer.Callback callback() {
+        return new CanalMQProducer.Callback() {
+
+            @Override
+            public void commit() {
+                results.add(true);
+            }
+
+            @Override
+            public void rollback() {
+                results.add(false);
+            }
+        };
+    }
+
+    private static Message buildMessage(long batchId, int startId) {
+        List<CanalEntry.Entry> entries = new ArrayList<CanalEntry.Entry>();
+        for (int i = startId; i < startId + BATCH_SIZE; i++) {
+            CanalEntry.RowData.Builder rowData = CanalEntry.RowData.newBuilder();
+            rowData.addAfterColumns(CanalEntry.Column.newBuilder()
+                .setName("id")
+                .setIndex(0)
+                .setIsKey(true)
+                .setSqlType(-5)
+                .setMysqlType("bigint(20)")
+                .setValue(String.valueOf(i))
+                .build());
+            rowData.addAfterColumns(CanalEntry.Column.newBuilder()
+                .setName("name")
+                .setIndex(1)
+                .setSqlType(12)
+                .setMysqlType("varchar(32)")
+                .setValue("name_" + i)
+                .build());
+
+            CanalEntry.RowChange rowChange = CanalEntry.RowChange.newBuilder()
+                .setEventType(CanalEntry.EventType.INSERT)
+                .addRowDatas(rowData)
+                .build();
+            CanalEntry.Header header = CanalEntry.Header.newBuilder()
+                .setSchemaName("test")
+                .setTableName("t" + (i % 4))
+                .setEventType(CanalEntry.EventType.INSERT)
+                .setExecuteTime(System.currentTimeMillis())
+                .build();
+            entries.add(CanalEntry.Entry.newBuilder()
+                .setEntryType(CanalEntry.EntryType.ROWDATA)
+                .setHeader(header)
+                .setStoreValue(rowChange.toByteString())
+                .build());
+        }
+        return new Message(batchId, entries);
+    }
+
+    /**
+     * 记录每次flush时已经提交的record数
+     */
+    private static class FlushCountingProducer extends MockProducer<String, String> {
+
+        private final List<Integer> flushes = new ArrayList<Integer>();
+
+        FlushCountingProducer(){
+            super(true, new StringSerializer(), new StringSerializer());
+        }
+
+        @Override
+        public void flush() {
+            flushes.add(history().size());
+            super.flush();
+        }
+    }
+}
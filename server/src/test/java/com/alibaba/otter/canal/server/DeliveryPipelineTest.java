@@ -0,0 +1,237 @@
+package com.alibaba.otter.canal.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.alibaba.otter.canal.common.MQProperties;
+import com.alibaba.otter.canal.protocol.ClientIdentity;
+import com.alibaba.otter.canal.protocol.Message;
+import com.alibaba.otter.canal.server.exception.CanalServerException;
+import com.alibaba.otter.canal.spi.CanalMQProducer;
+
+public class DeliveryPipelineTest {
+
+    private ClientIdentity                 clientIdentity = new ClientIdentity("example", (short) 1001, "");
+    private MQProperties.CanalDestination  destination    = new MQProperties.CanalDestination();
+
+    @Test
+    public void testAckInOrder() throws Exception {
+        FakeProducer producer = new FakeProducer();
+        FakeService service = new FakeService();
+        DeliveryPipeline pipeline = new DeliveryPipeline(producer, service, clientIdentity, 3, null);
+
+        Assert.assertTrue(pipeline.send(destination, new Message(1L), 0L, 0L));
+        Assert.assertTrue(pipeline.send(destination, new Message(2L), 0L, 0L));
+        Assert.assertTrue(pipeline.send(destination, new Message(3L), 0L, 0L));
+
+        // 后面的batch先完成，前面的batch没有完成时不ack
+        producer.callback(2L).commit();
+        producer.callback(3L).commit();
+        Assert.assertTrue(pipeline.awaitFirst(0));
+        Assert.assertTrue(service.acks.isEmpty());
+
+        producer.callback(1L).commit();
+        Assert.assertTrue(pipeline.awaitFirst(0));
+        Assert.assertEquals(Arrays.asList(1L, 2L, 3L), service.acks);
+        Assert.assertEquals(0, service.rollbacks);
+        Assert.assertEquals(0, pipeline.inflight());
+        Assert.assertFalse(pipeline.awaitFirst(0));
+    }
+
+    @Test
+    public void testWindowFull() throws Exception {
+        final FakeProducer producer = new FakeProducer();
+        FakeService service = new FakeService();
+        DeliveryPipeline pipeline = new DeliveryPipeline(producer, service, clientIdentity, 2, null);
+
+        pipeline.send(destination, new Message(1L), 0L, 0L);
+        pipeline.send(destination, new Message(2L), 0L, 0L);
+        complete(producer, 1L, true);
+
+        // 窗口已满，等待最早的batch完成后才提交新的batch
+        Assert.assertTrue(pipeline.send(destination, new Message(3L), 0L, 0L));
+        Assert.assertEquals(Arrays.asList(1L, 2L, 3L), producer.sent);
+        Assert.assertEquals(Collections.singletonList(1L), service.acks);
+        Assert.assertEquals(2, pipeline.inflight());
+    }
+
+    @Test
+    public void testFailureInWindow() throws Exception {
+        FakeProducer producer = new FakeProducer();
+        FakeService service = new FakeService();
+        DeliveryPipeline pipeline = new DeliveryPipeline(producer, service, clientIdentity, 4, null);
+
+        pipeline.send(destination, new Message(1L), 0L, 0L);
+        pipeline.send(destination, new Message(2L), 0L, 0L);
+        pipeline.send(destination, new Message(3L), 0L, 0L);
+        producer.callback(2L).rollback();
+        complete(producer, 1L, true);
+        complete(producer, 3L, true);
+
+        // 有batch失败后不再提交新的batch，等待在途的batch结束后ack失败之前的batch，其余整体rollback
+        Assert.assertFalse(pipeline.send(destination, new Message(4L), 0L, 0L));
+        Assert.assertEquals(Arrays.asList(1L, 2L, 3L), producer.sent);
+        Assert.assertEquals(Collections.singletonList(1L), service.acks);
+        Assert.assertEquals(1, service.rollbacks);
+        Assert.assertEquals(0, pipeline.inflight());
+
+        // rollback之后重新投递
+        Assert.assertTrue(pipeline.send(destination, new Message(5L), 0L, 0L));
+        producer.callback(5L).commit();
+        pipeline.finish();
+        Assert.assertEquals(Arrays.asList(1L, 5L), service.acks);
+        Assert.assertEquals(1, service.rollbacks);
+    }
+
+    @Test
+    public void testRollback() throws Exception {
+        FakeProducer producer = new FakeProducer();
+        producer.failOn = 2L;
+        FakeService service = new FakeService();
+        DeliveryPipeline pipeline = new DeliveryPipeline(producer, service, clientIdentity, 4, null);
+
+        pipeline.send(destination, new Message(1L), 0L, 0L);
+        // 提交失败的batch直接rollback，前面在途的batch结束后才rollback
+        complete(producer, 1L, true);
+        Assert.assertTrue(pipeline.send(destination, new Message(2L), 0L, 0L));
+        Assert.assertEquals(Collections.singletonList(1L), service.acks);
+        Assert.assertEquals(1, service.rollbacks);
+        Assert.assertEquals(0, pipeline.inflight());
+
+        // 停止时等待在途的batch，失败的batch同样rollback
+        pipeline.send(destination, new Message(3L), 0L, 0L);
+        pipeline.send(destination, new Message(4L), 0L, 0L);
+        producer.callback(4L).commit();
+        complete(producer, 3L, false);
+        pipeline.finish();
+        Assert.assertEquals(Collections.singletonList(1L), service.acks);
+        Assert.assertEquals(2, service.rollbacks);
+        Assert.assertEquals(0, pipeline.inflight());
+    }
+
+    @Test
+    public void testAbort() throws Exception {
+        FakeProducer producer = new FakeProducer();
+        FakeService service = new FakeService();
+        DeliveryPipeline pipeline = new DeliveryPipeline(producer, service, clientIdentity, 4, null);
+
+        pipeline.send(destination, new Message(1L), 0L, 0L);
+        pipeline.send(destination, new Message(2L), 0L, 0L);
+        complete(producer, 1L, true);
+        complete(producer, 2L, true);
+
+        // get出现异常时等待在途的batch结束后ack，再整体rollback，不留下未ack的batch
+        pipeline.abort();
+        Assert.assertEquals(Arrays.asList(1L, 2L), service.acks);
+        Assert.assertEquals(1, service.rollbacks);
+        Assert.assertEquals(0, pipeline.inflight());
+    }
+
+    /**
+     * 模拟MQ在其他线程返回发送结果
+     */
+    private void complete(final FakeProducer producer, final long batchId, final boolean success) {
+        new Thread() {
+
+            public void run() {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(50);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                if (success) {
+                    producer.callback(batchId).commit();
+                } else {
+                    producer.callback(batchId).rollback();
+                }
+            }
+        }.start();
+    }
+
+    private static class FakeProducer implements CanalMQProducer {
+
+        private final List<Long>                     sent      = Collections.synchronizedList(new ArrayList<Long>());
+        private final List<CanalMQProducer.Callback> callbacks = Collections.synchronizedList(new ArrayList<CanalMQProducer.Callback>());
+        private long                                 failOn    = -1L;
+
+        @Override
+        public void init(MQProperties mqProperties) {
+        }
+
+        @Override
+        public void send(MQProperties.CanalDestination canalDestination, Message message, Callback callback)
+                                                                                                             throws IOException {
+            if (message.getId() == failOn) {
+                throw new IOException("send failed: " + message.getId());
+            }
+            sent.add(message.getId());
+            callbacks.add(callback);
+        }
+
+        Callback callback(long batchId) {
+            return callbacks.get(sent.indexOf(batchId));
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+
+    private static class FakeService implements CanalService {
+
+        private final List<Long> acks      = new ArrayList<Long>();
+        private int              rollbacks = 0;
+
+        @Override
+        public void subscribe(ClientIdentity clientIdentity) throws CanalServerException {
+        }
+
+        @Override
+        public void unsubscribe(ClientIdentity clientIdentity) throws CanalServerException {
+        }
+
+        @Override
+        public Message get(ClientIdentity clientIdentity, int batchSize) throws CanalServerException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Message get(ClientIdentity clientIdentity, int batchSize, Long timeout, TimeUnit unit)
+                                                                                                    throws CanalServerException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Message getWithoutAck(ClientIdentity clientIdentity, int batchSize) throws CanalServerException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Message getWithoutAck(ClientIdentity clientIdentity, int batchSize, Long timeout, TimeUnit unit)
+                                                                                                              throws CanalServerException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void ack(ClientIdentity clientIdentity, long batchId) throws CanalServerException {
+            acks.add(batchId);
+        }
+
+        @Override
+        public void rollback(ClientIdentity clientIdentity) throws CanalServerException {
+            rollbacks++;
+        }
+
+        @Override
+        public void rollback(ClientIdentity clientIdentity, Long batchId) throws CanalServerException {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.alibaba.otter.canal.server.netty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.alibaba.otter.canal.protocol.CanalEntry.Entry;
+import com.alibaba.otter.canal.protocol.CanalEntry.EntryType;
+import com.alibaba.otter.canal.protocol.CanalEntry.Header;
+import com.alibaba.otter.canal.protocol.CanalPacket.Compression;
+import com.alibaba.otter.canal.protocol.CanalPacket.Messages;
+import com.alibaba.otter.canal.protocol.CanalPacket.Packet;
+import com.alibaba.otter.canal.protocol.CanalPacket.PacketType;
+import com.alibaba.otter.canal.protocol.CompressionUtils;
+import com.google.protobuf.ByteString;
+
+public class NettyUtilsTest {
+
+    @Test
+    public void testMessagesPacket() throws Exception {
+        List<ByteString> rawEntries = buildEntries();
+
+        List<ChannelBuffer> body = NettyUtils.messagesPacket(100L, rawEntries);
+        byte[] bytes = toBytes(body);
+
+        byte[] expected = Packet.newBuilder()
+            .setType(PacketType.MESSAGES)
+            .setBody(Messages.newBuilder().setBatchId(100L).addAllMessages(rawEntries).build().toByteString())
+            .build()
+            .toByteArray();
+        Assert.assertEquals(expected.length, NettyUtils.length(body));
+        Assert.assertArrayEquals(expected, bytes);
+
+        Messages messages = Messages.parseFrom(Packet.parseFrom(bytes).getBody());
+        Assert.assertEquals(100L, messages.getBatchId());
+        Assert.assertEquals(rawEntries, messages.getMessagesList());
+    }
+
+    @Test
+    public void testCompressedMessagesPacket() throws Exception {
+        List<ByteString> rawEntries = buildEntries();
+        for (Compression compression : new Compression[] { Compression.ZLIB, Compression.GZIP }) {
+            List<ChannelBuffer> body = NettyUtils.messagesPacket(100L, rawEntries, compression);
+            byte[] bytes = toBytes(body);
+
+            Packet packet = Packet.parseFrom(bytes);
+            Assert.assertEquals(PacketType.MESSAGES, packet.getType());
+            Assert.assertEquals(compression, packet.getCompression());
+            Messages messages = Messages.parseFrom(CompressionUtils.decompress(compression, packet.getBody()));
+            Assert.assertEquals(100L, messages.getBatchId());
+            Assert.assertEquals(rawEntries, messages.getMessagesList());
+        }
+    }
+
+    private List<ByteString> buildEntries() {
+        List<ByteString> rawEntries = new ArrayList<ByteString>();
+        for (int i = 0; i < 100; i++) {
+            Header header = Header.newBuilder()
+                .setLogfileName("mysql-bin.000001")
+                .setLogfileOffset(i)
+                .setExecuteTime(i)
+                .build();
+            // 构造一个超过WRITE_CHUNK_SIZE的entry，覆盖单独写出的分段
+            ByteString storeValue = ByteString.copyFrom(new byte[i == 50 ? NettyUtils.WRITE_CHUNK_SIZE : i]);
+            rawEntries.add(Entry.newBuilder()
+                .setHeader(header)
+                .setEntryType(EntryType.ROWDATA)
+                .setStoreValue(storeValue)
+                .build()
+                .toByteString());
+        }
+        return rawEntries;
+    }
+
+    private byte[] toBytes(List<ChannelBuffer> body) {
+        ChannelBuffer buffer = ChannelBuffers.wrappedBuffer(body.toArray(new ChannelBuffer[body.size()]));
+        byte[] bytes = new byte[buffer.readableBytes()];
+        buffer.readBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,78 @@
+package com.alibaba.otter.canal.store;
+
+import java.util.concurrent.TimeUnit;
+
+import com.alibaba.otter.canal.protocol.ClientIdentity;
+import com.alibaba.otter.canal.protocol.position.Position;
+import com.alibaba.otter.canal.store.model.Events;
+
+/**
+ * 支持多个client共享同一份store数据的接口，每个client拥有独立的get/ack下标
+ *
+ * <pre>
+ * 1. store中的数据只有在所有client都ack之后才会被回收(以最慢的client为准)
+ * 2. 同一个destination下的client共享parser的filter
+ * </pre>
+ *
+ * @since 1.1.4
+ */
+public interface CanalMultiClientEventStore<T> extends CanalEventStore<T> {
+
+    /**
+     * 是否开启了多client模式
+     */
+    boolean isMultiClient();
+
+    /**
+     * client是否已经注册
+     */
+    boolean isSubscribed(ClientIdentity clientIdentity);
+
+    /**
+     * 注册client，已注册时忽略
+     *
+     * <pre>
+     * 1. position为client在meta中记录的位点，从该位点之后的数据开始消费，该位点之后的数据已经被回收时抛出异常
+     * 2. position为空时从当前store中最早未回收的数据开始消费
+     * </pre>
+     */
+    void subscribe(ClientIdentity clientIdentity, Position position) throws CanalStoreException;
+
+    /**
+     * 注销client，释放该client占用的数据
+     */
+    void unsubscribe(ClientIdentity clientIdentity) throws CanalStoreException;
+
+    /**
+     * 获取指定大小的数据，阻塞等待其操作完成
+     */
+    Events<T> get(ClientIdentity clientIdentity, Position start, int batchSize) throws InterruptedException,
+                                                                               CanalStoreException;
+
+    /**
+     * 获取指定大小的数据，阻塞等待其操作完成或者时间超时
+     */
+    Events<T> get(ClientIdentity clientIdentity, Position start, int batchSize, long timeout, TimeUnit unit)
+                                                                                                          throws InterruptedException,
+                                                                                                          CanalStoreException;
+
+    /**
+     * 根据指定位置，获取一个指定大小的数据
+     */
+    Events<T> tryGet(ClientIdentity clientIdentity, Position start, int batchSize) throws CanalStoreException;
+
+    /**
+     * 获取该client第一条未ack数据的position，如果没有数据返回为null
+     */
+    Position getFirstPosition(ClientIdentity clientIdentity) throws CanalStoreException;
+
+    /**
+     * 确认该client指定seqId之前的数据
+     */
+    void ack(ClientIdentity clientIdentity, Position position, Long seqId) throws CanalStoreException;
+
+    /**
+     * 回滚该client未提交ack的状态信息
+     */
+    void rollback(ClientIdentity clientIdentity) throws CanalStoreException;
+}
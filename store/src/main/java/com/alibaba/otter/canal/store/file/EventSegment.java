@@ -0,0 +1,134 @@
+package com.alibaba.otter.canal.store.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 基于mmap的append-only数据段，一个segment保存一段连续sequence的event
+ *
+ * <pre>
+ * 内存中只保留每条记录在文件中的offset，数据本身由page cache承载，不占用堆内存
+ * </pre>
+ *
+ * @version 1.1.4
+ */
+class EventSegment {
+
+    private final long             firstSequence;
+    private final File             file;
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer buffer;
+    private final int[]            offsets;
+    private final int              capacity;
+    private int                    count;
+    private int                    writeOffset;
+
+    EventSegment(File file, long firstSequence, int capacity, int maxCount) throws IOException{
+        this.file = file;
+        this.firstSequence = firstSequence;
+        this.capacity = capacity;
+        this.offsets = new int[maxCount];
+        this.raf = new RandomAccessFile(file, "rw");
+        this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    /**
+     * 判断当前segment是否还能写入size大小的记录
+     */
+    boolean hasRoom(int size) {
+        return count < offsets.length && writeOffset + size <= capacity;
+    }
+
+    /**
+     * 返回一个写入位置为当前末尾的buffer，写完后调用{@linkplain #commit(int)}
+     */
+    ByteBuffer writer() {
+        ByteBuffer writer = buffer.duplicate();
+        writer.position(writeOffset);
+        return writer;
+    }
+
+    int remaining() {
+        return capacity - writeOffset;
+    }
+
+    int remainingCount() {
+        return offsets.length - count;
+    }
+
+    void commit(int size) {
+        offsets[count++] = writeOffset;
+        writeOffset += size;
+    }
+
+    /**
+     * 返回一个从sequence对应记录开始读的buffer
+     */
+    ByteBuffer reader(long sequence) {
+        ByteBuffer reader = buffer.duplicate();
+        reader.position(offsets[(int) (sequence - firstSequence)]);
+        return reader;
+    }
+
+    boolean contains(long sequence) {
+        return sequence >= firstSequence && sequence < firstSequence + count;
+    }
+
+    long getFirstSequence() {
+        return firstSequence;
+    }
+
+    long getLastSequence() {
+        return firstSequence + count - 1;
+    }
+
+    /**
+     * 释放mapping后关闭并删除文件，不等待buffer被gc
+     *
+     * <pre>
+     * 所有读写都在store的锁内完成，数据读出时已复制，不会有buffer的引用泄露到锁外；destroy之后不能再访问当前segment
+     * </pre>
+     */
+    void destroy() {
+        unmap(buffer);
+        try {
+            raf.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        file.delete();
+    }
+
+    /**
+     * java9+使用Unsafe.invokeCleaner，java8使用DirectByteBuffer.cleaner().clean()，都不可用时退化为等待gc释放
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner;
+            try {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (NoSuchMethodException e) {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+                return;
+            }
+
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        } catch (Throwable e) {
+            // ignore
+        }
+    }
+}
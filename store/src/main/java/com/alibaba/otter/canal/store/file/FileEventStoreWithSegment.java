@@ -0,0 +1,896 @@
+package com.alibaba.otter.canal.store.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.alibaba.otter.canal.protocol.CanalEntry.EntryType;
+import com.alibaba.otter.canal.protocol.CanalEntry.EventType;
+import com.alibaba.otter.canal.protocol.position.LogIdentity;
+import com.alibaba.otter.canal.protocol.position.LogPosition;
+import com.alibaba.otter.canal.protocol.position.Position;
+import com.alibaba.otter.canal.protocol.position.PositionRange;
+import com.alibaba.otter.canal.store.AbstractCanalStoreScavenge;
+import com.alibaba.otter.canal.store.CanalEventStore;
+import com.alibaba.otter.canal.store.CanalStoreException;
+import com.alibaba.otter.canal.store.CanalStoreScavenge;
+import com.alibaba.otter.canal.store.helper.CanalEventUtils;
+import com.alibaba.otter.canal.store.model.BatchMode;
+import com.alibaba.otter.canal.store.model.Event;
+import com.alibaba.otter.canal.store.model.Events;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * 基于本地文件构建的store，event数据写入分段的mmap文件，不占用堆内存
+ *
+ * <pre>
+ * 1. 每个segment为一个append-only的mmap文件，达到segmentSize或segmentCount后滚动新文件
+ * 2. 内存中只保留put/get/ack三个sequence以及每条记录在segment中的offset
+ * 3. ack之后，ack位置之前的segment会被删除(保留ack所在的segment，用于getFirstPosition)
+ * 4. 滚动的segment个数超过maxSegments时put阻塞，从而反压parser
+ *
+ * BatchMode(ITEMSIZE/MEMSIZE)以及ddlIsolation的语义与MemoryEventStoreWithBuffer保持一致，
+ * 重启时parser会从meta中的cursor位点重新拉取，所以启动时会清理掉残留的segment文件
+ * </pre>
+ *
+ * @version 1.1.4
+ */
+public class FileEventStoreWithSegment extends AbstractCanalStoreScavenge implements CanalEventStore<Event>, CanalStoreScavenge {
+
+    private static final long    INIT_SEQUENCE  = -1;
+    private static final String  SEGMENT_PREFIX = "store-";
+    private static final String  SEGMENT_SUFFIX = ".dat";
+    private static final Charset charset        = Charset.forName("UTF-8");
+    private static final int     HEADER_SIZE    = 4 + 8 * 4 + 4 * 4;                     // length + long*4 + int*4
+
+    private File                 dataDir;
+    private File                 storeDir;
+    private int                  segmentSize    = 64 * 1024 * 1024;                      // 单个segment文件大小，默认64MB
+    private int                  segmentCount   = 64 * 1024;                             // 单个segment最多保存的记录数
+    private int                  maxSegments    = 64;                                    // 最多保留的segment个数
+    private int                  bufferMemUnit  = 1024;                                  // memsize的单位，默认为1kb大小
+    private List<EventSegment>   segments       = new ArrayList<EventSegment>();
+    private List<LogIdentity>    identities     = new ArrayList<LogIdentity>();
+
+    // 记录下put/get/ack操作的三个下标
+    private AtomicLong           putSequence    = new AtomicLong(INIT_SEQUENCE);         // 代表当前put操作最后一次写操作发生的位置
+    private AtomicLong           getSequence    = new AtomicLong(INIT_SEQUENCE);         // 代表当前get操作读取的最后一条的位置
+    private AtomicLong           ackSequence    = new AtomicLong(INIT_SEQUENCE);         // 代表当前ack操作的最后一条的位置
+
+    // 记录下put/get/ack操作的三个memsize大小
+    private AtomicLong           putMemSize     = new AtomicLong(0);
+    private AtomicLong           getMemSize     = new AtomicLong(0);
+    private AtomicLong           ackMemSize     = new AtomicLong(0);
+
+    // 记录下put/get/ack操作的三个execTime
+    private AtomicLong           putExecTime    = new AtomicLong(System.currentTimeMillis());
+    private AtomicLong           getExecTime    = new AtomicLong(System.currentTimeMillis());
+    private AtomicLong           ackExecTime    = new AtomicLong(System.currentTimeMillis());
+
+    // 记录下put/get/ack操作的三个table rows
+    private AtomicLong           putTableRows   = new AtomicLong(0);
+    private AtomicLong           getTableRows   = new AtomicLong(0);
+    private AtomicLong           ackTableRows   = new AtomicLong(0);
+
+    // 阻塞put/get操作控制信号
+    private ReentrantLock        lock           = new ReentrantLock();
+    private Condition            notFull        = lock.newCondition();
+    private Condition            notEmpty       = lock.newCondition();
+
+    private BatchMode            batchMode      = BatchMode.ITEMSIZE;
+    private boolean              ddlIsolation   = false;
+    private boolean              raw            = true;                                  // 针对entry是否开启raw模式
+
+    public FileEventStoreWithSegment(){
+
+    }
+
+    public FileEventStoreWithSegment(BatchMode batchMode){
+        this.batchMode = batchMode;
+    }
+
+    public void start() throws CanalStoreException {
+        super.start();
+        if (dataDir == null) {
+            throw new IllegalArgumentException("dataDir must not be null");
+        }
+
+        storeDir = StringUtils.isEmpty(destination) ? dataDir : new File(dataDir, destination);
+        try {
+            FileUtils.forceMkdir(storeDir);
+        } catch (IOException e) {
+            throw new CanalStoreException(e);
+        }
+
+        if (!storeDir.canRead() || !storeDir.canWrite()) {
+            throw new CanalStoreException("dir[" + storeDir.getPath() + "] can not read/write");
+        }
+
+        // 清理上一次运行残留的segment
+        File[] files = storeDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith(SEGMENT_PREFIX) && file.getName().endsWith(SEGMENT_SUFFIX)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    public void stop() throws CanalStoreException {
+        super.stop();
+
+        cleanAll();
+    }
+
+    public void put(List<Event> data) throws InterruptedException, CanalStoreException {
+        if (data == null || data.isEmpty()) {
+            return;
+        }
+
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            try {
+                while (!checkFreeSlotAt(data)) { // 检查是否有空位
+                    notFull.await(); // wait until not full
+                }
+            } catch (InterruptedException ie) {
+                notFull.signal(); // propagate to non-interrupted thread
+                throw ie;
+            }
+            doPut(data);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean put(List<Event> data, long timeout, TimeUnit unit) throws InterruptedException, CanalStoreException {
+        if (data == null || data.isEmpty()) {
+            return true;
+        }
+
+        long nanos = unit.toNanos(timeout);
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            for (;;) {
+                if (checkFreeSlotAt(data)) {
+                    doPut(data);
+                    return true;
+                }
+                if (nanos <= 0) {
+                    return false;
+                }
+
+                try {
+                    nanos = notFull.awaitNanos(nanos);
+                } catch (InterruptedException ie) {
+                    notFull.signal(); // propagate to non-interrupted thread
+                    throw ie;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean tryPut(List<Event> data) throws CanalStoreException {
+        if (data == null || data.isEmpty()) {
+            return true;
+        }
+
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            if (!checkFreeSlotAt(data)) {
+                return false;
+            } else {
+                doPut(data);
+                return true;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void put(Event data) throws InterruptedException, CanalStoreException {
+        put(Arrays.asList(data));
+    }
+
+    public boolean put(Event data, long timeout, TimeUnit unit) throws InterruptedException, CanalStoreException {
+        return put(Arrays.asList(data), timeout, unit);
+    }
+
+    public boolean tryPut(Event data) throws CanalStoreException {
+        return tryPut(Arrays.asList(data));
+    }
+
+    /**
+     * 执行具体的put操作
+     */
+    private void doPut(List<Event> data) {
+        long current = putSequence.get();
+        long next = current + 1;
+        // 先写数据，再更新对应的cursor
+        for (Event event : data) {
+            int size = recordSize(event);
+            EventSegment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (segment == null || !segment.hasRoom(size)) {
+                segment = rollSegment(next, size);
+            }
+
+            writeEvent(segment.writer(), event, size);
+            segment.commit(size);
+            next++;
+        }
+
+        putSequence.set(current + data.size());
+
+        // 记录一下gets memsize信息，方便快速检索
+        if (batchMode.isMemSize()) {
+            long size = 0;
+            for (Event event : data) {
+                size += calculateSize(event);
+            }
+
+            putMemSize.getAndAdd(size);
+        }
+        profiling(data, OP.PUT);
+        // tell other threads that store is not empty
+        notEmpty.signal();
+    }
+
+    public Events<Event> get(Position start, int batchSize) throws InterruptedException, CanalStoreException {
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            try {
+                while (!checkUnGetSlotAt((LogPosition) start, batchSize))
+                    notEmpty.await();
+            } catch (InterruptedException ie) {
+                notEmpty.signal(); // propagate to non-interrupted thread
+                throw ie;
+            }
+
+            return doGet(start, batchSize);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Events<Event> get(Position start, int batchSize, long timeout, TimeUnit unit) throws InterruptedException,
+                                                                                        CanalStoreException {
+        long nanos = unit.toNanos(timeout);
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            for (;;) {
+                if (checkUnGetSlotAt((LogPosition) start, batchSize)) {
+                    return doGet(start, batchSize);
+                }
+
+                if (nanos <= 0) {
+                    // 如果时间到了，有多少取多少
+                    return doGet(start, batchSize);
+                }
+
+                try {
+                    nanos = notEmpty.awaitNanos(nanos);
+                } catch (InterruptedException ie) {
+                    notEmpty.signal(); // propagate to non-interrupted thread
+                    throw ie;
+                }
+
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Events<Event> tryGet(Position start, int batchSize) throws CanalStoreException {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return doGet(start, batchSize);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Events<Event> doGet(Position start, int batchSize) throws CanalStoreException {
+        LogPosition startPosition = (LogPosition) start;
+
+        long current = getSequence.get();
+        long maxAbleSequence = putSequence.get();
+        long next = current;
+        long end = current;
+        // 如果startPosition为null，说明是第一次，默认+1处理
+        if (startPosition == null || !startPosition.getPostion().isIncluded()) { // 第一次订阅之后，需要包含一下start位置，防止丢失第一条记录
+            next = next + 1;
+        }
+
+        if (current >= maxAbleSequence) {
+            return new Events<Event>();
+        }
+
+        Events<Event> result = new Events<Event>();
+        List<Event> entrys = result.getEvents();
+        long memsize = 0;
+        if (batchMode.isItemSize()) {
+            end = (next + batchSize - 1) < maxAbleSequence ? (next + batchSize - 1) : maxAbleSequence;
+            // 提取数据并返回
+            for (; next <= end; next++) {
+                Event event = readEvent(next, true);
+                if (ddlIsolation && isDdl(event.getEventType())) {
+                    // 如果是ddl隔离，直接返回
+                    if (entrys.size() == 0) {
+                        entrys.add(event);// 如果没有DML事件，加入当前的DDL事件
+                        end = next; // 更新end为当前
+                    } else {
+                        // 如果之前已经有DML事件，直接返回了，因为不包含当前next这记录，需要回退一个位置
+                        end = next - 1; // next-1一定大于current，不需要判断
+                    }
+                    break;
+                } else {
+                    entrys.add(event);
+                }
+            }
+        } else {
+            long maxMemSize = batchSize * bufferMemUnit;
+            for (; memsize <= maxMemSize && next <= maxAbleSequence; next++) {
+                // 永远保证可以取出第一条的记录，避免死锁
+                Event event = readEvent(next, true);
+                if (ddlIsolation && isDdl(event.getEventType())) {
+                    // 如果是ddl隔离，直接返回
+                    if (entrys.size() == 0) {
+                        entrys.add(event);// 如果没有DML事件，加入当前的DDL事件
+                        end = next; // 更新end为当前
+                    } else {
+                        // 如果之前已经有DML事件，直接返回了，因为不包含当前next这记录，需要回退一个位置
+                        end = next - 1; // next-1一定大于current，不需要判断
+                    }
+                    break;
+                } else {
+                    entrys.add(event);
+                    memsize += calculateSize(event);
+                    end = next;// 记录end位点
+                }
+            }
+
+        }
+
+        PositionRange<LogPosition> range = new PositionRange<LogPosition>();
+        result.setPositionRange(range);
+
+        range.setStart(CanalEventUtils.createPosition(entrys.get(0)));
+        range.setEnd(CanalEventUtils.createPosition(entrys.get(result.getEvents().size() - 1)));
+        range.setEndSeq(end);
+        // 记录一下是否存在可以被ack的点
+
+        for (int i = entrys.size() - 1; i >= 0; i--) {
+            Event event = entrys.get(i);
+            // GTID模式,ack的位点必须是事务结尾,因为下一次订阅的时候mysql会发送这个gtid之后的next,如果在事务头就记录了会丢这最后一个事务
+            if ((CanalEntry.EntryType.TRANSACTIONBEGIN == event.getEntryType() && StringUtils.isEmpty(event.getGtid()))
+                || CanalEntry.EntryType.TRANSACTIONEND == event.getEntryType() || isDdl(event.getEventType())) {
+                // 将事务头/尾设置可被为ack的点
+                range.setAck(CanalEventUtils.createPosition(event));
+                break;
+            }
+        }
+
+        if (getSequence.compareAndSet(current, end)) {
+            getMemSize.addAndGet(memsize);
+            notFull.signal();
+            profiling(result.getEvents(), OP.GET);
+            return result;
+        } else {
+            return new Events<Event>();
+        }
+    }
+
+    public LogPosition getFirstPosition() throws CanalStoreException {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            long firstSeqeuence = ackSequence.get();
+            if (firstSeqeuence == INIT_SEQUENCE && firstSeqeuence < putSequence.get()) {
+                // 没有ack过数据
+                Event event = readEvent(firstSeqeuence + 1, false); // 最后一次ack为-1，需要移动到下一条,included
+                                                                   // = false
+                return CanalEventUtils.createPosition(event, false);
+            } else if (firstSeqeuence > INIT_SEQUENCE && firstSeqeuence < putSequence.get()) {
+                // ack未追上put操作
+                Event event = readEvent(firstSeqeuence, false); // 最后一次ack的位置数据,需要移动到下一条,included
+                // = false
+                return CanalEventUtils.createPosition(event, false);
+            } else if (firstSeqeuence > INIT_SEQUENCE && firstSeqeuence == putSequence.get()) {
+                // 已经追上，store中没有数据
+                Event event = readEvent(firstSeqeuence, false); // 最后一次ack的位置数据，和last为同一条，included
+                                                               // = false
+                return CanalEventUtils.createPosition(event, false);
+            } else {
+                // 没有任何数据
+                return null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public LogPosition getLatestPosition() throws CanalStoreException {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            long latestSequence = putSequence.get();
+            if (latestSequence > INIT_SEQUENCE && latestSequence != ackSequence.get()) {
+                Event event = readEvent(latestSequence, false); // 最后一次写入的数据，最后一条未消费的数据
+                return CanalEventUtils.createPosition(event, true);
+            } else if (latestSequence > INIT_SEQUENCE && latestSequence == ackSequence.get()) {
+                // ack已经追上了put操作
+                Event event = readEvent(latestSequence, false); // 最后一次写入的数据，included
+                                                                // = false
+                return CanalEventUtils.createPosition(event, false);
+            } else {
+                // 没有任何数据
+                return null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void ack(Position position) throws CanalStoreException {
+        cleanUntil(position, -1L);
+    }
+
+    public void ack(Position position, Long seqId) throws CanalStoreException {
+        cleanUntil(position, seqId);
+    }
+
+    @Override
+    public void cleanUntil(Position position) throws CanalStoreException {
+        cleanUntil(position, -1L);
+    }
+
+    public void cleanUntil(Position position, Long seqId) throws CanalStoreException {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            long sequence = ackSequence.get();
+            long maxSequence = getSequence.get();
+
+            long memsize = 0;
+            long localExecTime = 0L;
+            int deltaRows = 0;
+            if (seqId > 0) {
+                maxSequence = seqId;
+            }
+            for (long next = sequence + 1; next <= maxSequence; next++) {
+                // 只读取记录头，不需要反序列化entry
+                Event event = readEvent(next, false);
+                if (localExecTime == 0 && event.getExecuteTime() > 0) {
+                    localExecTime = event.getExecuteTime();
+                }
+                deltaRows += event.getRowsCount();
+                memsize += calculateSize(event);
+                if ((seqId < 0 || next == seqId) && CanalEventUtils.checkPosition(event, (LogPosition) position)) {
+                    // 找到对应的position，更新ack seq
+                    ackSequence.set(next);
+                    if (batchMode.isMemSize()) {
+                        ackMemSize.addAndGet(memsize);
+                    }
+
+                    // 删除ack之前的segment，保留ack所在的segment，getFirstPosition需要读取最后一次ack的记录
+                    while (segments.size() > 1 && segments.get(0).getLastSequence() < next) {
+                        segments.remove(0).destroy();
+                    }
+
+                    notFull.signal();
+                    ackTableRows.addAndGet(deltaRows);
+                    if (localExecTime > 0) {
+                        ackExecTime.lazySet(localExecTime);
+                    }
+                    return;
+                }
+            }
+
+            // 找不到对应需要ack的position
+            throw new CanalStoreException("no match ack position" + position.toString());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void rollback() throws CanalStoreException {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            getSequence.set(ackSequence.get());
+            getMemSize.set(ackMemSize.get());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void cleanAll() throws CanalStoreException {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            putSequence.set(INIT_SEQUENCE);
+            getSequence.set(INIT_SEQUENCE);
+            ackSequence.set(INIT_SEQUENCE);
+
+            putMemSize.set(0);
+            getMemSize.set(0);
+            ackMemSize.set(0);
+            for (EventSegment segment : segments) {
+                segment.destroy();
+            }
+            segments.clear();
+            identities.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // =================== helper method =================
+
+    /**
+     * 查询是否有空位，模拟一次写入计算需要新滚动的segment个数
+     */
+    private boolean checkFreeSlotAt(List<Event> data) {
+        EventSegment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        long remaining = segment == null ? 0 : segment.remaining();
+        int remainingCount = segment == null ? 0 : segment.remainingCount();
+        int rollCount = 0;
+        for (Event event : data) {
+            int size = recordSize(event);
+            if (remainingCount <= 0 || size > remaining) {
+                rollCount++;
+                remaining = Math.max(segmentSize, size);
+                remainingCount = segmentCount;
+            }
+            remaining -= size;
+            remainingCount--;
+        }
+
+        // 只剩一个segment时总是允许写入，避免单批数据超过maxSegments导致死锁
+        return rollCount == 0 || segments.size() <= 1 || segments.size() + rollCount <= maxSegments;
+    }
+
+    /**
+     * 检查是否存在需要get的数据,并且数量>=batchSize
+     */
+    private boolean checkUnGetSlotAt(LogPosition startPosition, int batchSize) {
+        if (batchMode.isItemSize()) {
+            long current = getSequence.get();
+            long maxAbleSequence = putSequence.get();
+            long next = current;
+            if (startPosition == null || !startPosition.getPostion().isIncluded()) { // 第一次订阅之后，需要包含一下start位置，防止丢失第一条记录
+                next = next + 1;// 少一条数据
+            }
+
+            if (current < maxAbleSequence && next + batchSize - 1 <= maxAbleSequence) {
+                return true;
+            } else {
+                return false;
+            }
+        } else {
+            // 处理内存大小判断
+            long currentSize = getMemSize.get();
+            long maxAbleSize = putMemSize.get();
+
+            if (maxAbleSize - currentSize >= batchSize * bufferMemUnit) {
+                return true;
+            } else {
+                return false;
+            }
+        }
+    }
+
+    private EventSegment rollSegment(long firstSequence, int size) {
+        File file = new File(storeDir, SEGMENT_PREFIX + String.format("%020d", firstSequence) + SEGMENT_SUFFIX);
+        try {
+            EventSegment segment = new EventSegment(file, firstSequence, Math.max(segmentSize, size), segmentCount);
+            segments.add(segment);
+            return segment;
+        } catch (IOException e) {
+            throw new CanalStoreException("create segment " + file.getPath() + " failed", e);
+        }
+    }
+
+    private EventSegment findSegment(long sequence) {
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            EventSegment segment = segments.get(mid);
+            if (sequence < segment.getFirstSequence()) {
+                high = mid - 1;
+            } else if (sequence > segment.getLastSequence()) {
+                low = mid + 1;
+            } else {
+                return segment;
+            }
+        }
+
+        throw new CanalStoreException("sequence " + sequence + " is not in store");
+    }
+
+    /**
+     * 记录格式: length | executeTime | position | serverId | rawLength | rowsCount |
+     * entryType | eventType | identity | journalName | gtid | entry
+     */
+    private int recordSize(Event event) {
+        return HEADER_SIZE + stringSize(event.getJournalName()) + stringSize(event.getGtid()) + 4
+               + entrySize(event);
+    }
+
+    private void writeEvent(ByteBuffer writer, Event event, int size) {
+        writer.putInt(size - 4);
+        writer.putLong(event.getExecuteTime());
+        writer.putLong(event.getPosition());
+        writer.putLong(event.getServerId());
+        writer.putLong(event.getRawLength());
+        writer.putInt(event.getRowsCount());
+        writer.putInt(event.getEntryType() == null ? -1 : event.getEntryType().getNumber());
+        writer.putInt(event.getEventType() == null ? -1 : event.getEventType().getNumber());
+        writer.putInt(identityIndex(event.getLogIdentity()));
+        writeString(writer, event.getJournalName());
+        writeString(writer, event.getGtid());
+        if (event.getRawEntry() != null) {
+            writer.putInt(event.getRawEntry().size());
+            event.getRawEntry().copyTo(writer);
+        } else if (event.getEntry() != null) {
+            byte[] bytes = event.getEntry().toByteArray();
+            writer.putInt(bytes.length);
+            writer.put(bytes);
+        } else {
+            writer.putInt(-1);
+        }
+    }
+
+    /**
+     * 读取sequence对应的event，withEntry为false时只解析记录头
+     */
+    private Event readEvent(long sequence, boolean withEntry) {
+        ByteBuffer reader = findSegment(sequence).reader(sequence);
+        reader.getInt(); // length
+        Event event = new Event();
+        event.setExecuteTime(reader.getLong());
+        event.setPosition(reader.getLong());
+        event.setServerId(reader.getLong());
+        event.setRawLength(reader.getLong());
+        event.setRowsCount(reader.getInt());
+        int entryType = reader.getInt();
+        if (entryType >= 0) {
+            event.setEntryType(EntryType.valueOf(entryType));
+        }
+        int eventType = reader.getInt();
+        if (eventType >= 0) {
+            event.setEventType(EventType.valueOf(eventType));
+        }
+        int identity = reader.getInt();
+        if (identity >= 0) {
+            event.setLogIdentity(identities.get(identity));
+        }
+        event.setJournalName(readString(reader));
+        event.setGtid(readString(reader));
+        if (withEntry) {
+            int length = reader.getInt();
+            if (length >= 0) {
+                if (raw) {
+                    event.setRawEntry(ByteString.copyFrom(reader, length));
+                } else {
+                    byte[] bytes = new byte[length];
+                    reader.get(bytes);
+                    try {
+                        event.setEntry(CanalEntry.Entry.parseFrom(bytes));
+                    } catch (InvalidProtocolBufferException e) {
+                        throw new CanalStoreException("parse entry at sequence " + sequence + " failed", e);
+                    }
+                }
+            }
+        }
+        return event;
+    }
+
+    private int entrySize(Event event) {
+        if (event.getRawEntry() != null) {
+            return event.getRawEntry().size();
+        } else if (event.getEntry() != null) {
+            return event.getEntry().getSerializedSize();
+        } else {
+            return 0;
+        }
+    }
+
+    private int identityIndex(LogIdentity identity) {
+        if (identity == null) {
+            return -1;
+        }
+
+        int index = identities.indexOf(identity);
+        if (index < 0) {
+            identities.add(identity);
+            index = identities.size() - 1;
+        }
+        return index;
+    }
+
+    private int stringSize(String value) {
+        return value == null ? 4 : 4 + value.getBytes(charset).length;
+    }
+
+    private void writeString(ByteBuffer writer, String value) {
+        if (value == null) {
+            writer.putInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(charset);
+            writer.putInt(bytes.length);
+            writer.put(bytes);
+        }
+    }
+
+    private String readString(ByteBuffer reader) {
+        int length = reader.getInt();
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        reader.get(bytes);
+        return new String(bytes, charset);
+    }
+
+    private long calculateSize(Event event) {
+        // 直接返回binlog中的事件大小
+        return event.getRawLength();
+    }
+
+    private boolean isDdl(EventType type) {
+        return type == EventType.ALTER || type == EventType.CREATE || type == EventType.ERASE
+               || type == EventType.RENAME || type == EventType.TRUNCATE || type == EventType.CINDEX
+               || type == EventType.DINDEX;
+    }
+
+    private void profiling(List<Event> events, OP op) {
+        long localExecTime = 0L;
+        int deltaRows = 0;
+        if (events != null && !events.isEmpty()) {
+            for (Event e : events) {
+                if (localExecTime == 0 && e.getExecuteTime() > 0) {
+                    localExecTime = e.getExecuteTime();
+                }
+                deltaRows += e.getRowsCount();
+            }
+        }
+        switch (op) {
+            case PUT:
+                putTableRows.addAndGet(deltaRows);
+                if (localExecTime > 0) {
+                    putExecTime.lazySet(localExecTime);
+                }
+                break;
+            case GET:
+                getTableRows.addAndGet(deltaRows);
+                if (localExecTime > 0) {
+                    getExecTime.lazySet(localExecTime);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private enum OP {
+        PUT, GET
+    }
+
+    // ================ setter / getter ==================
+    public void setDataDir(String dataDir) {
+        this.dataDir = new File(dataDir);
+    }
+
+    public void setDataDirByFile(File dataDir) {
+        this.dataDir = dataDir;
+    }
+
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public void setSegmentCount(int segmentCount) {
+        this.segmentCount = segmentCount;
+    }
+
+    public int getMaxSegments() {
+        return maxSegments;
+    }
+
+    public void setMaxSegments(int maxSegments) {
+        this.maxSegments = maxSegments;
+    }
+
+    public void setBufferMemUnit(int bufferMemUnit) {
+        this.bufferMemUnit = bufferMemUnit;
+    }
+
+    public void setBatchMode(BatchMode batchMode) {
+        this.batchMode = batchMode;
+    }
+
+    public void setDdlIsolation(boolean ddlIsolation) {
+        this.ddlIsolation = ddlIsolation;
+    }
+
+    public boolean isRaw() {
+        return raw;
+    }
+
+    public void setRaw(boolean raw) {
+        this.raw = raw;
+    }
+
+    public AtomicLong getPutSequence() {
+        return putSequence;
+    }
+
+    public AtomicLong getAckSequence() {
+        return ackSequence;
+    }
+
+    public AtomicLong getPutMemSize() {
+        return putMemSize;
+    }
+
+    public AtomicLong getAckMemSize() {
+        return ackMemSize;
+    }
+
+    public BatchMode getBatchMode() {
+        return batchMode;
+    }
+
+    public AtomicLong getPutExecTime() {
+        return putExecTime;
+    }
+
+    public AtomicLong getGetExecTime() {
+        return getExecTime;
+    }
+
+    public AtomicLong getAckExecTime() {
+        return ackExecTime;
+    }
+
+    public AtomicLong getPutTableRows() {
+        return putTableRows;
+    }
+
+    public AtomicLong getGetTableRows() {
+        return getTableRows;
+    }
+
+    public AtomicLong getAckTableRows() {
+        return ackTableRows;
+    }
+
+}
@@ -1,7 +1,9 @@
 package com.alibaba.otter.canal.store.memory;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
@@ -10,18 +12,21 @@ import java.util.concurrent.locks.ReentrantLock;
 import org.apache.commons.lang.StringUtils;
 
 import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.alibaba.otter.canal.protocol.ClientIdentity;
 import com.alibaba.otter.canal.protocol.CanalEntry.EventType;
 import com.alibaba.otter.canal.protocol.position.LogPosition;
 import com.alibaba.otter.canal.protocol.position.Position;
 import com.alibaba.otter.canal.protocol.position.PositionRange;
 import com.alibaba.otter.canal.store.AbstractCanalStoreScavenge;
 import com.alibaba.otter.canal.store.CanalEventStore;
+import com.alibaba.otter.canal.store.CanalMultiClientEventStore;
 import com.alibaba.otter.canal.store.CanalStoreException;
 import com.alibaba.otter.canal.store.CanalStoreScavenge;
 import com.alibaba.otter.canal.store.helper.CanalEventUtils;
 import com.alibaba.otter.canal.store.model.BatchMode;
 import com.alibaba.otter.canal.store.model.Event;
 import com.alibaba.otter.canal.store.model.Events;
+import com.alibaba.otter.canal.store.model.OffHeapEntryPool;
 
 /**
  * 基于内存buffer构建内存memory store
@@ -30,12 +35,17 @@ import com.alibaba.otter.canal.store.model.Events;
  * 变更记录：
  * 1. 新增BatchMode类型，支持按内存大小获取批次数据，内存大小更加可控.
  *   a. put操作，会首先根据bufferSize进行控制，然后再进行bufferSize * bufferMemUnit进行控制. 因存储的内容是以Event，如果纯依赖于memsize进行控制，会导致RingBuffer出现动态伸缩
+ * 2. 新增multiClient模式，同一个destination下的多个client共享RingBuffer，每个client拥有独立的get/ack下标.
+ *   a. ackSequence/ackMemSize代表最慢的client的ack位置，只有所有client都ack之后数据才会被回收
+ *   b. multiClient模式下需要使用{@linkplain CanalMultiClientEventStore}中带ClientIdentity的接口
+ *   c. client订阅时从meta中记录的位点开始，跳过store中该位点之前的数据，该位点之后的数据已被回收时订阅失败
+ * 3. 新增offHeap模式，raw模式下rawEntry写入direct memory，ack推进ackSequence时释放.
  * </pre>
  * 
  * @author jianghang 2012-6-20 上午09:46:31
  * @version 1.0.0
  */
-public class MemoryEventStoreWithBuffer extends AbstractCanalStoreScavenge implements CanalEventStore<Event>, CanalStoreScavenge {
+public class MemoryEventStoreWithBuffer extends AbstractCanalStoreScavenge implements CanalEventStore<Event>, CanalMultiClientEventStore<Event>, CanalStoreScavenge {
 
     private static final long INIT_SEQUENCE = -1;
     private int               bufferSize    = 16 * 1024;
@@ -53,6 +63,11 @@ public class MemoryEventStoreWithBuffer extends AbstractCanalStoreScavenge imple
     private AtomicLong        getMemSize    = new AtomicLong(0);
     private AtomicLong        ackMemSize    = new AtomicLong(0);
 
+    // 默认client以及multiClient模式下各个client的get/ack下标
+    private final ClientCursor defaultCursor = new ClientCursor(getSequence, ackSequence, getMemSize, ackMemSize);
+    private Map<ClientIdentity, ClientCursor> cursors = new HashMap<ClientIdentity, ClientCursor>();
+    private Event             lastReclaimed;                                             // multiClient模式下最后一条被回收的数据，其位置在ring buffer中可能已被覆盖
+
     // 记录下put/get/ack操作的三个execTime
     private AtomicLong        putExecTime   = new AtomicLong(System.currentTimeMillis());
     private AtomicLong        getExecTime   = new AtomicLong(System.currentTimeMillis());
@@ -71,6 +86,11 @@ public class MemoryEventStoreWithBuffer extends AbstractCanalStoreScavenge imple
     private BatchMode         batchMode     = BatchMode.ITEMSIZE;                        // 默认为内存大小模式
     private boolean           ddlIsolation  = false;
     private boolean           raw           = true;                                      // 针对entry是否开启raw模式
+    private boolean           multiClient   = false;                                     // 是否开启多client共享store
+    private boolean           offHeap       = false;                                     // rawEntry是否使用direct memory存储
+    private int               offHeapChunkSize = 4 * 1024 * 1024;
+    private int               offHeapMaxChunks = 64;
+    private OffHeapEntryPool  offHeapPool;
 
     public MemoryEventStoreWithBuffer(){
 
@@ -88,12 +108,19 @@ public class MemoryEventStoreWithBuffer extends AbstractCanalStoreScavenge imple
 
         indexMask = bufferSize - 1;
         entries = new Event[bufferSize];
+        if (offHeap && raw) {
+            offHeapPool = new OffHeapEntryPool(offHeapChunkSize, offHeapMaxChunks);
+        }
     }
 
     public void stop() throws CanalStoreException {
         super.stop();
 
         cleanAll();
+        if (offHeapPool != null) {
+            offHeapPool.destroy();
+            offHeapPool = null;
+        }
     }
 
     public void put(List<Event> data) throws InterruptedException, CanalStoreException {
@@ -191,7 +218,12 @@ public class MemoryEventStoreWithBuffer extends AbstractCanalStoreScavenge imple
 
         // 先写数据，再更新对应的cursor,并发度高的情况，putSequence会被get请求可见，拿出了ringbuffer中的老的Entry值
         for (long next = current + 1; next <= end; next++) {
-            entries[getIndex(next)] = data.get((int) (next - current - 1));
+            Event event = data.get((int) (next - current - 1));
+            if (offHeapPool != null) {
+                // 写不进direct memory时继续保留heap中的rawEntry
+                offHeapPool.write(event);
+            }
+            entries[getIndex(next)] = event;
         }
 
         putSequence.set(end);
@@ -207,41 +239,63 @@ public class MemoryEventStoreWithBuffer extends AbstractCanalStoreScavenge imple
         }
         profiling(data, OP.PUT);
         // tell other threads that store is not empty
-        notEmpty.signal();
+        if (multiClient) {
+            // 每个client都需要被唤醒
+            notEmpty.signalAll();
+        } else {
+            notEmpty.signal();
+        }
     }
 
     public Events<Event> get(Position start, int batchSize) throws InterruptedException, CanalStoreException {
+        return get(null, start, batchSize);
+    }
+
+    public Events<Event> get(Position start, int batchSize, long timeout, TimeUnit unit) throws InterruptedException,
+                                                                                        CanalStoreException {
+        return get(null, start, batchSize, timeout, unit);
+    }
+
+    public Events<Event> tryGet(Position start, int batchSize) throws CanalStoreException {
+        return tryGet(null, start, batchSize);
+    }
+
+    public Events<Event> get(ClientIdentity clientIdentity, Position start, int batchSize)
+                                                                                          throws InterruptedException,
+                                                                                          CanalStoreException {
         final ReentrantLock lock = this.lock;
         lock.lockInterruptibly();
         try {
+            ClientCursor cursor = getCursor(clientIdentity);
             try {
-                while (!checkUnGetSlotAt((LogPosition) start, batchSize))
+                while (!checkUnGetSlotAt(cursor, (LogPosition) start, batchSize))
                     notEmpty.await();
             } catch (InterruptedException ie) {
                 notEmpty.signal(); // propagate to non-interrupted thread
                 throw ie;
             }
 
-            return doGet(start, batchSize);
+            return doGet(cursor, start, batchSize);
         } finally {
             lock.unlock();
         }
     }
 
-    public Events<Event> get(Position start, int batchSize, long timeout, TimeUnit unit) throws InterruptedException,
-                                                                                        CanalStoreException {
+    public Events<Event> get(ClientIdentity clientIdentity, Position start, int batchSize, long timeout,
+                             TimeUnit unit) throws InterruptedException, CanalStoreException {
         long nanos = unit.toNanos(timeout);
         final ReentrantLock lock = this.lock;
         lock.lockInterruptibly();
         try {
+            ClientCursor cursor = getCursor(clientIdentity);
             for (;;) {
-                if (checkUnGetSlotAt((LogPosition) start, batchSize)) {
-                    return doGet(start, batchSize);
+                if (checkUnGetSlotAt(cursor, (LogPosition) start, batchSize)) {
+                    return doGet(cursor, start, batchSize);
                 }
 
                 if (nanos <= 0) {
                     // 如果时间到了，有多少取多少
-                    return doGet(start, batchSize);
+                    return doGet(cursor, start, batchSize);
                 }
 
                 try {
@@ -257,20 +311,22 @@ public class MemoryEventStoreWithBuffer extends AbstractCanalStoreScavenge imple
         }
     }
 
-    public Events<Event> tryGet(Position start, int batchSize) throws CanalStoreException {
+    public Events<Event> tryGet(ClientIdentity clientIdentity, Position start, int batchSize)
+                                                                                             throws CanalStoreException {
         final ReentrantLock lock = this.lock;
         lock.lock();
         try {
-            return doGet(start, batchSize);
+            return doGet(getCursor(clientIdentity), start, batchSize);
         } finally {
             lock.unlock();
         }
     }
 
-    private Events<Event> doGet(Position start, int batchSize) throws CanalStoreException {
+    private Events<Event> doGet(ClientCursor cursor, Position start, int batchSize) throws CanalStoreException {
+        skipToStart(cursor);
         LogPosition startPosition = (LogPosition) start;
 
-        long current = getSequence.get();
+        long current = cursor.getSequence.get();
         long maxAbleSequence = putSequence.get();
         long next = current;
         long end = current;
@@ -348,8 +404,8 @@ public class MemoryEventStoreWithBuffer extends AbstractCanalStoreScavenge imple
             }
         }
 
-        if (getSequence.compareAndSet(current, end)) {
-            getMemSize.addAndGet(memsize);
+        if (cursor.getSequence.compareAndSet(current, end)) {
+            cursor.getMemSize.addAndGet(memsize);
             notFull.signal();
             profiling(result.getEvents(), OP.GET);
             return result;
@@ -359,10 +415,14 @@ public class MemoryEventStoreWithBuffer extends AbstractCanalStoreScavenge imple
     }
 
     public LogPosition getFirstPosition() throws CanalStoreException {
+        return getFirstPosition(null);
+    }
+
+    public LogPosition getFirstPosition(ClientIdentity clientIdentity) throws CanalStoreException {
         final ReentrantLock lock = this.lock;
         lock.lock();
         try {
-            long firstSeqeuence = ackSequence.get();
+            long firstSeqeuence = getCursor(clientIdentity).ackSequence.get();
             if (firstSeqeuence == INIT_SEQUENCE && firstSeqeuence < putSequence.get()) {
                 // 没有ack过数据
                 Event event = entries[getIndex(firstSeqeuence + 1)]; // 最后一次ack为-1，需要移动到下一条,included
@@ -424,11 +484,20 @@ public class MemoryEventStoreWithBuffer extends AbstractCanalStoreScavenge imple
     }
 
     public void cleanUntil(Position position, Long seqId) throws CanalStoreException {
+        cleanUntil(null, position, seqId);
+    }
+
+    public void ack(ClientIdentity clientIdentity, Position position, Long seqId) throws CanalStoreException {
+        cleanUntil(clientIdentity, position, seqId);
+    }
+
+    private void cleanUntil(ClientIdentity clientIdentity, Position position, Long seqId) throws CanalStoreException {
         final ReentrantLock lock = this.lock;
         lock.lock();
         try {
-            long sequence = ackSequence.get();
-            long maxSequence = getSequence.get();
+            ClientCursor cursor = getCursor(clientIdentity);
+            long sequence = cursor.ackSequence.get();
+            long maxSequence = cursor.getSequence.get();
 
             boolean hasMatch = false;
             long memsize = 0;
@@ -449,6 +518,18 @@ public class MemoryEventStoreWithBuffer extends AbstractCanalStoreScavenge imple
                     // 找到对应的position，更新ack seq
                     hasMatch = true;
 
+                    if (cursor != defaultCursor) {
+                        // multiClient模式，只更新client自己的下标，再按最慢的client回收
+                        if (cursor.ackSequence.compareAndSet(sequence, next)) {
+                            if (batchMode.isMemSize()) {
+                                cursor.ackMemSize.addAndGet(memsize);
+                            }
+                            reclaim();
+                        }
+                        return;
+                    }
+
+                    releaseOffHeap(sequence + 1, next);
                     if (batchMode.isMemSize()) {
                         ackMemSize.addAndGet(memsize);
                         // 尝试清空buffer中的内存，将ack之前的内存全部释放掉
@@ -482,11 +563,73 @@ public class MemoryEventStoreWithBuffer extends AbstractCanalStoreScavenge imple
     }
 
     public void rollback() throws CanalStoreException {
+        rollback(null);
+    }
+
+    public void rollback(ClientIdentity clientIdentity) throws CanalStoreException {
         final ReentrantLock lock = this.lock;
         lock.lock();
         try {
-            getSequence.set(ackSequence.get());
-            getMemSize.set(ackMemSize.get());
+            ClientCursor cursor = getCursor(clientIdentity);
+            cursor.getSequence.set(cursor.ackSequence.get());
+            cursor.getMemSize.set(cursor.ackMemSize.get());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isSubscribed(ClientIdentity clientIdentity) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return cursors.containsKey(clientIdentity);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void subscribe(ClientIdentity clientIdentity, Position position) throws CanalStoreException {
+        if (!multiClient || clientIdentity == null) {
+            return;
+        }
+
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            if (cursors.containsKey(clientIdentity)) {
+                return;
+            }
+
+            ClientCursor cursor = new ClientCursor(new AtomicLong(ackSequence.get()),
+                new AtomicLong(ackSequence.get()),
+                new AtomicLong(ackMemSize.get()),
+                new AtomicLong(ackMemSize.get()));
+            LogPosition startPosition = (LogPosition) position;
+            Event event = lastReclaimed;
+            if (startPosition != null && event != null && !CanalEventUtils.checkPosition(event, startPosition)
+                && !isBefore(event, startPosition)) {
+                // 最后一条被回收的数据位于client位点之后，说明client还未消费的数据已经被回收
+                throw new CanalStoreException(String.format("client:%s position:%s has been reclaimed, last reclaimed position:%s",
+                    clientIdentity,
+                    startPosition,
+                    CanalEventUtils.createPosition(event)));
+            }
+
+            cursor.startPosition = startPosition;
+            cursors.put(clientIdentity, cursor);
+            skipToStart(cursor);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void unsubscribe(ClientIdentity clientIdentity) throws CanalStoreException {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            if (cursors.remove(clientIdentity) != null) {
+                reclaim();
+            }
         } finally {
             lock.unlock();
         }
@@ -496,6 +639,9 @@ public class MemoryEventStoreWithBuffer extends AbstractCanalStoreScavenge imple
         final ReentrantLock lock = this.lock;
         lock.lock();
         try {
+            if (entries != null) {
+                releaseOffHeap(ackSequence.get() + 1, putSequence.get());
+            }
             putSequence.set(INIT_SEQUENCE);
             getSequence.set(INIT_SEQUENCE);
             ackSequence.set(INIT_SEQUENCE);
@@ -503,6 +649,8 @@ public class MemoryEventStoreWithBuffer extends AbstractCanalStoreScavenge imple
             putMemSize.set(0);
             getMemSize.set(0);
             ackMemSize.set(0);
+            cursors.clear();
+            lastReclaimed = null;
             entries = null;
             // for (int i = 0; i < entries.length; i++) {
             // entries[i] = null;
@@ -514,7 +662,145 @@ public class MemoryEventStoreWithBuffer extends AbstractCanalStoreScavenge imple
 
     // =================== helper method =================
 
+    /**
+     * 获取client对应的下标，multiClient模式下client需要先订阅
+     */
+    private ClientCursor getCursor(ClientIdentity clientIdentity) {
+        if (!multiClient || clientIdentity == null) {
+            return defaultCursor;
+        }
+
+        ClientCursor cursor = cursors.get(clientIdentity);
+        if (cursor == null) {
+            throw new CanalStoreException(String.format("client:%s should subscribe first", clientIdentity));
+        }
+        return cursor;
+    }
+
+    /**
+     * 跳过store中位于client订阅位点之前(含)的数据，订阅位点的数据还没有写入store时，等到写入后再跳过
+     */
+    private void skipToStart(ClientCursor cursor) {
+        LogPosition startPosition = cursor.startPosition;
+        if (startPosition == null) {
+            return;
+        }
+
+        long sequence = cursor.ackSequence.get();
+        long maxSequence = putSequence.get();
+        long next = sequence + 1;
+        for (; next <= maxSequence; next++) {
+            Event event = entries[getIndex(next)];
+            if (CanalEventUtils.checkPosition(event, startPosition)) {
+                cursor.startPosition = null;
+                break;
+            } else if (!isBefore(event, startPosition)) {
+                // 已经越过订阅位点，从当前数据开始消费
+                cursor.startPosition = null;
+                next--;
+                break;
+            }
+        }
+
+        long end = Math.min(next, maxSequence);
+        if (end <= sequence) {
+            return;
+        }
+
+        if (batchMode.isMemSize()) {
+            long memsize = 0;
+            for (long index = sequence + 1; index <= end; index++) {
+                memsize += calculateSize(entries[getIndex(index)]);
+            }
+            cursor.getMemSize.addAndGet(memsize);
+            cursor.ackMemSize.addAndGet(memsize);
+        }
+        cursor.getSequence.set(end);
+        cursor.ackSequence.set(end);
+        reclaim();
+    }
+
+    /**
+     * event是否位于position之前
+     */
+    private boolean isBefore(Event event, LogPosition position) {
+        LogPosition eventPosition = CanalEventUtils.createPosition(event);
+        return CanalEventUtils.min(eventPosition, position) == eventPosition;
+    }
+
+    /**
+     * 按最慢的client推进全局的ack下标，回收所有client都已ack的数据
+     */
+    private void reclaim() {
+        ClientCursor slowest = null;
+        for (ClientCursor cursor : cursors.values()) {
+            if (slowest == null || cursor.ackSequence.get() < slowest.ackSequence.get()) {
+                slowest = cursor;
+            }
+        }
+
+        if (slowest == null) {
+            return;
+        }
+
+        long sequence = ackSequence.get();
+        long next = slowest.ackSequence.get();
+        if (next <= sequence) {
+            return;
+        }
+
+        long localExecTime = 0L;
+        int deltaRows = 0;
+        releaseOffHeap(sequence + 1, next);
+        for (long index = sequence + 1; index <= next; index++) {
+            Event event = entries[getIndex(index)];
+            if (localExecTime == 0 && event.getExecuteTime() > 0) {
+                localExecTime = event.getExecuteTime();
+            }
+            deltaRows += event.getRowsCount();
+            if (batchMode.isMemSize()) {
+                if (index < next) {
+                    entries[getIndex(index)] = null;// 设置为null
+                } else {
+                    // 保留最后一次ack的position信息，只释放entry
+                    event.setEntry(null);
+                    event.setRawEntry(null);
+                }
+            }
+        }
+
+        lastReclaimed = entries[getIndex(next)];
+        ackSequence.set(next);
+        ackMemSize.set(slowest.ackMemSize.get());
+        notFull.signal();
+        ackTableRows.addAndGet(deltaRows);
+        if (localExecTime > 0) {
+            ackExecTime.lazySet(localExecTime);
+        }
+    }
+
+    /**
+     * 释放已ack数据占用的direct memory
+     */
+    private void releaseOffHeap(long from, long to) {
+        if (offHeapPool == null) {
+            return;
+        }
+
+        for (long index = from; index <= to; index++) {
+            Event event = entries[getIndex(index)];
+            if (event != null) {
+                offHeapPool.release(event);
+            }
+        }
+    }
+
     private long getMinimumGetOrAck() {
+        if (multiClient) {
+            // ackSequence为最慢的client的ack位置，各个client的get下标一定不小于其ack下标
+            return ackSequence.get();
+        }
+
         long get = getSequence.get();
         long ack = ackSequence.get();
         return ack <= get ? ack : get;
@@ -546,9 +832,11 @@ public class MemoryEventStoreWithBuffer extends AbstractCanalStoreScavenge imple
     /**
      * 检查是否存在需要get的数据,并且数量>=batchSize
      */
-    private boolean checkUnGetSlotAt(LogPosition startPosition, int batchSize) {
+    private boolean checkUnGetSlotAt(ClientCursor cursor, LogPosition startPosition, int batchSize) {
+        // 等待期间写入的数据可能还位于client订阅位点之前
+        skipToStart(cursor);
         if (batchMode.isItemSize()) {
-            long current = getSequence.get();
+            long current = cursor.getSequence.get();
             long maxAbleSequence = putSequence.get();
             long next = current;
             if (startPosition == null || !startPosition.getPostion().isIncluded()) { // 第一次订阅之后，需要包含一下start位置，防止丢失第一条记录
@@ -562,7 +850,7 @@ public class MemoryEventStoreWithBuffer extends AbstractCanalStoreScavenge imple
             }
         } else {
             // 处理内存大小判断
-            long currentSize = getMemSize.get();
+            long currentSize = cursor.getMemSize.get();
             long maxAbleSize = putMemSize.get();
 
             if (maxAbleSize - currentSize >= batchSize * bufferMemUnit) {
@@ -627,6 +915,25 @@ public class MemoryEventStoreWithBuffer extends AbstractCanalStoreScavenge imple
         PUT, GET, ACK
     }
 
+    /**
+     * client对应的get/ack下标
+     */
+    private static class ClientCursor {
+
+        private final AtomicLong getSequence;
+        private final AtomicLong ackSequence;
+        private final AtomicLong getMemSize;
+        private final AtomicLong ackMemSize;
+        private LogPosition      startPosition;                   // 订阅时meta中记录的位点，跳过之前的数据后清空
+
+        ClientCursor(AtomicLong getSequence, AtomicLong ackSequence, AtomicLong getMemSize, AtomicLong ackMemSize){
+            this.getSequence = getSequence;
+            this.ackSequence = ackSequence;
+            this.getMemSize = getMemSize;
+            this.ackMemSize = ackMemSize;
+        }
+    }
+
     // ================ setter / getter ==================
     public int getBufferSize() {
         return this.bufferSize;
@@ -656,6 +963,34 @@ public class MemoryEventStoreWithBuffer extends AbstractCanalStoreScavenge imple
         this.raw = raw;
     }
 
+    public boolean isMultiClient() {
+        return multiClient;
+    }
+
+    public void setMultiClient(boolean multiClient) {
+        this.multiClient = multiClient;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    public void setOffHeapChunkSize(int offHeapChunkSize) {
+        this.offHeapChunkSize = offHeapChunkSize;
+    }
+
+    public void setOffHeapMaxChunks(int offHeapMaxChunks) {
+        this.offHeapMaxChunks = offHeapMaxChunks;
+    }
+
+    public OffHeapEntryPool getOffHeapPool() {
+        return offHeapPool;
+    }
+
     public AtomicLong getPutSequence() {
         return putSequence;
     }
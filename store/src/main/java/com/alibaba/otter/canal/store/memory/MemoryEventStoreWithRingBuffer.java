@@ -0,0 +1,867 @@
+package com.alibaba.otter.canal.store.memory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.alibaba.otter.canal.protocol.CanalEntry.EventType;
+import com.alibaba.otter.canal.protocol.position.LogPosition;
+import com.alibaba.otter.canal.protocol.position.Position;
+import com.alibaba.otter.canal.protocol.position.PositionRange;
+import com.alibaba.otter.canal.store.AbstractCanalStoreScavenge;
+import com.alibaba.otter.canal.store.CanalEventStore;
+import com.alibaba.otter.canal.store.CanalStoreException;
+import com.alibaba.otter.canal.store.CanalStoreScavenge;
+import com.alibaba.otter.canal.store.helper.CanalEventUtils;
+import com.alibaba.otter.canal.store.model.BatchMode;
+import com.alibaba.otter.canal.store.model.Event;
+import com.alibaba.otter.canal.store.model.Events;
+import com.alibaba.otter.canal.store.model.WaitStrategy;
+
+/**
+ * 基于sequence + CAS实现的无锁内存store，支持多生产者/多消费者
+ *
+ * <pre>
+ * 与{@linkplain MemoryEventStoreWithBuffer}的区别：
+ * 1. put操作先通过CAS在claimSequence上申请一段连续的空位，写入数据后按申请顺序推进putSequence进行发布
+ * 2. get操作通过CAS推进getSequence，竞争失败的消费者重新读取，读取槽位期间推迟ack对数据的清理
+ * 3. get成功的批次登记为未ack，ack只确认对应的批次，ackSequence只推进到最早一个未ack批次之前，
+ *    避免多个消费者并发时某个消费者的ack释放了其他消费者还未ack的数据。ack操作之间通过ackLock串行，
+ *    ackSequence在数据清理完成之后才发布
+ * 4. 条件不满足时按{@linkplain WaitStrategy}等待，BLOCKING模式只有存在等待线程时才会加锁唤醒
+ *
+ * BatchMode(ITEMSIZE/MEMSIZE)以及ddlIsolation的语义与MemoryEventStoreWithBuffer保持一致，
+ * MEMSIZE模式下多生产者并发put时内存大小只做软限制
+ *
+ * 使用时将instance spring配置中eventStore的class替换为该类，并通过waitStrategy属性指定等待策略
+ * </pre>
+ *
+ * @version 1.1.4
+ */
+public class MemoryEventStoreWithRingBuffer extends AbstractCanalStoreScavenge implements CanalEventStore<Event>, CanalStoreScavenge {
+
+    private static final long INIT_SEQUENCE = -1;
+    private static final int  SPIN_TRIES    = 100;
+    private static final int  YIELD_TRIES   = 100;
+    private static final long SLEEP_NANOS   = 100 * 1000L;
+    private int               bufferSize    = 16 * 1024;
+    private int               bufferMemUnit = 1024;                                      // memsize的单位，默认为1kb大小
+    private int               indexMask;
+    private Event[]           entries;
+
+    // 记录下claim/put/get/ack操作的四个下标
+    private AtomicLong        claimSequence = new AtomicLong(INIT_SEQUENCE);             // 代表当前put操作已申请的最后一个位置
+    private AtomicLong        putSequence   = new AtomicLong(INIT_SEQUENCE);             // 代表当前put操作最后一次发布的位置
+    private AtomicLong        getSequence   = new AtomicLong(INIT_SEQUENCE);             // 代表当前get操作读取的最后一条的位置
+    private AtomicLong        ackSequence   = new AtomicLong(INIT_SEQUENCE);             // 代表当前ack操作的最后一条的位置
+
+    // 已get未ack的批次，key为批次最后一条的位置，value为批次第一条的前一个位置
+    private ConcurrentSkipListMap<Long, Long> inflight = new ConcurrentSkipListMap<Long, Long>();
+    private long              ackedSequence = INIT_SEQUENCE;                             // 已ack的最大位置，之前可能还有未ack的批次
+    private AtomicInteger     registering   = new AtomicInteger(0);                      // 正在读取槽位或还未登记批次的get操作数
+    private volatile boolean  reclaimPending = false;
+    private final Object      ackLock       = new Object();
+
+    // 记录下put/get/ack操作的三个memsize大小
+    private AtomicLong        putMemSize    = new AtomicLong(0);
+    private AtomicLong        getMemSize    = new AtomicLong(0);
+    private AtomicLong        ackMemSize    = new AtomicLong(0);
+
+    // 记录下put/get/ack操作的三个execTime
+    private AtomicLong        putExecTime   = new AtomicLong(System.currentTimeMillis());
+    private AtomicLong        getExecTime   = new AtomicLong(System.currentTimeMillis());
+    private AtomicLong        ackExecTime   = new AtomicLong(System.currentTimeMillis());
+
+    // 记录下put/get/ack操作的三个table rows
+    private AtomicLong        putTableRows  = new AtomicLong(0);
+    private AtomicLong        getTableRows  = new AtomicLong(0);
+    private AtomicLong        ackTableRows  = new AtomicLong(0);
+
+    // 只在BLOCKING等待策略下使用
+    private ReentrantLock     lock          = new ReentrantLock();
+    private Condition         changed       = lock.newCondition();
+    private AtomicInteger     waiters       = new AtomicInteger(0);
+
+    private BatchMode         batchMode     = BatchMode.ITEMSIZE;
+    private WaitStrategy      waitStrategy  = WaitStrategy.SLEEPING;
+    private boolean           ddlIsolation  = false;
+    private boolean           raw           = true;                                      // 针对entry是否开启raw模式
+
+    public MemoryEventStoreWithRingBuffer(){
+
+    }
+
+    public MemoryEventStoreWithRingBuffer(BatchMode batchMode){
+        this.batchMode = batchMode;
+    }
+
+    public void start() throws CanalStoreException {
+        super.start();
+        if (Integer.bitCount(bufferSize) != 1) {
+            throw new IllegalArgumentException("bufferSize must be a power of 2");
+        }
+
+        indexMask = bufferSize - 1;
+        entries = new Event[bufferSize];
+    }
+
+    public void stop() throws CanalStoreException {
+        super.stop();
+
+        cleanAll();
+    }
+
+    public void put(List<Event> data) throws InterruptedException, CanalStoreException {
+        if (data == null || data.isEmpty()) {
+            return;
+        }
+
+        doPut(data, false, 0L);
+    }
+
+    public boolean put(List<Event> data, long timeout, TimeUnit unit) throws InterruptedException, CanalStoreException {
+        if (data == null || data.isEmpty()) {
+            return true;
+        }
+
+        return doPut(data, true, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    public boolean tryPut(List<Event> data) throws CanalStoreException {
+        if (data == null || data.isEmpty()) {
+            return true;
+        }
+
+        for (;;) {
+            long current = claimSequence.get();
+            if (!checkFreeSlotAt(current + data.size())) {
+                return false;
+            }
+
+            if (claimSequence.compareAndSet(current, current + data.size())) {
+                publish(data, current);
+                return true;
+            }
+        }
+    }
+
+    public void put(Event data) throws InterruptedException, CanalStoreException {
+        put(Arrays.asList(data));
+    }
+
+    public boolean put(Event data, long timeout, TimeUnit unit) throws InterruptedException, CanalStoreException {
+        return put(Arrays.asList(data), timeout, unit);
+    }
+
+    public boolean tryPut(Event data) throws CanalStoreException {
+        return tryPut(Arrays.asList(data));
+    }
+
+    /**
+     * 申请空位并写入，timed为false代表一直等待
+     */
+    private boolean doPut(final List<Event> data, boolean timed, long deadline) throws InterruptedException {
+        Barrier freeSlot = new Barrier() {
+
+            boolean isAvailable() {
+                return checkFreeSlotAt(claimSequence.get() + data.size());
+            }
+        };
+
+        for (;;) {
+            long current = claimSequence.get();
+            if (checkFreeSlotAt(current + data.size())) {
+                if (claimSequence.compareAndSet(current, current + data.size())) {
+                    publish(data, current);
+                    return true;
+                }
+                // 其他生产者抢先申请，重新检查
+                continue;
+            }
+
+            if (!await(freeSlot, timed, deadline)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 写入已申请的(current, current + size]区间，并按申请顺序发布
+     */
+    private void publish(List<Event> data, long current) {
+        long end = current + data.size();
+
+        // 先写数据，再更新对应的cursor
+        for (long next = current + 1; next <= end; next++) {
+            entries[getIndex(next)] = data.get((int) (next - current - 1));
+        }
+
+        // 等待前面申请的生产者发布完成，保证putSequence之前的数据都已写入
+        int counter = 0;
+        while (putSequence.get() != current) {
+            if (++counter > SPIN_TRIES) {
+                Thread.yield();
+            }
+        }
+        putSequence.set(end);
+
+        // 记录一下gets memsize信息，方便快速检索
+        if (batchMode.isMemSize()) {
+            long size = 0;
+            for (Event event : data) {
+                size += calculateSize(event);
+            }
+
+            putMemSize.getAndAdd(size);
+        }
+        profiling(data, OP.PUT);
+        // tell other threads that store is not empty
+        signalWaiters();
+    }
+
+    public Events<Event> get(Position start, int batchSize) throws InterruptedException, CanalStoreException {
+        Barrier unGetSlot = unGetSlot((LogPosition) start, batchSize);
+        for (;;) {
+            await(unGetSlot, false, 0L);
+            Events<Event> result = doGet(start, batchSize);
+            if (result != null) {
+                return result;
+            }
+        }
+    }
+
+    public Events<Event> get(Position start, int batchSize, long timeout, TimeUnit unit) throws InterruptedException,
+                                                                                        CanalStoreException {
+        Barrier unGetSlot = unGetSlot((LogPosition) start, batchSize);
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (;;) {
+            // 如果时间到了，有多少取多少
+            await(unGetSlot, true, deadline);
+            Events<Event> result = doGet(start, batchSize);
+            if (result != null) {
+                return result;
+            }
+        }
+    }
+
+    public Events<Event> tryGet(Position start, int batchSize) throws CanalStoreException {
+        for (;;) {
+            Events<Event> result = doGet(start, batchSize);
+            if (result != null) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * 执行具体的get操作，getSequence竞争失败时返回null
+     */
+    private Events<Event> doGet(Position start, int batchSize) throws CanalStoreException {
+        if (getSequence.get() >= putSequence.get()) {
+            return new Events<Event>();
+        }
+
+        // 读取槽位之前先登记，期间其他消费者的ack推迟回收，避免读到已被清理的槽位
+        registering.incrementAndGet();
+        try {
+            return doGetRegistered(start, batchSize);
+        } finally {
+            registering.decrementAndGet();
+            if (reclaimPending) {
+                // 登记期间有ack推迟了回收
+                synchronized (ackLock) {
+                    tryReclaim();
+                }
+            }
+        }
+    }
+
+    private Events<Event> doGetRegistered(Position start, int batchSize) {
+        LogPosition startPosition = (LogPosition) start;
+
+        long current = getSequence.get();
+        long maxAbleSequence = putSequence.get();
+        long next = current;
+        long end = current;
+        // 如果startPosition为null，说明是第一次，默认+1处理
+        if (startPosition == null || !startPosition.getPostion().isIncluded()) { // 第一次订阅之后，需要包含一下start位置，防止丢失第一条记录
+            next = next + 1;
+        }
+
+        if (current >= maxAbleSequence) {
+            return new Events<Event>();
+        }
+
+        Events<Event> result = new Events<Event>();
+        List<Event> entrys = result.getEvents();
+        long memsize = 0;
+        if (batchMode.isItemSize()) {
+            end = (next + batchSize - 1) < maxAbleSequence ? (next + batchSize - 1) : maxAbleSequence;
+            // 提取数据并返回
+            for (; next <= end; next++) {
+                Event event = entries[getIndex(next)];
+                if (ddlIsolation && isDdl(event.getEventType())) {
+                    // 如果是ddl隔离，直接返回
+                    if (entrys.size() == 0) {
+                        entrys.add(event);// 如果没有DML事件，加入当前的DDL事件
+                        end = next; // 更新end为当前
+                    } else {
+                        // 如果之前已经有DML事件，直接返回了，因为不包含当前next这记录，需要回退一个位置
+                        end = next - 1; // next-1一定大于current，不需要判断
+                    }
+                    break;
+                } else {
+                    entrys.add(event);
+                }
+            }
+        } else {
+            long maxMemSize = batchSize * bufferMemUnit;
+            for (; memsize <= maxMemSize && next <= maxAbleSequence; next++) {
+                // 永远保证可以取出第一条的记录，避免死锁
+                Event event = entries[getIndex(next)];
+                if (ddlIsolation && isDdl(event.getEventType())) {
+                    // 如果是ddl隔离，直接返回
+                    if (entrys.size() == 0) {
+                        entrys.add(event);// 如果没有DML事件，加入当前的DDL事件
+                        end = next; // 更新end为当前
+                    } else {
+                        // 如果之前已经有DML事件，直接返回了，因为不包含当前next这记录，需要回退一个位置
+                        end = next - 1; // next-1一定大于current，不需要判断
+                    }
+                    break;
+                } else {
+                    entrys.add(event);
+                    memsize += calculateSize(event);
+                    end = next;// 记录end位点
+                }
+            }
+
+        }
+
+        PositionRange<LogPosition> range = new PositionRange<LogPosition>();
+        result.setPositionRange(range);
+
+        range.setStart(CanalEventUtils.createPosition(entrys.get(0)));
+        range.setEnd(CanalEventUtils.createPosition(entrys.get(result.getEvents().size() - 1)));
+        range.setEndSeq(end);
+        // 记录一下是否存在可以被ack的点
+
+        for (int i = entrys.size() - 1; i >= 0; i--) {
+            Event event = entrys.get(i);
+            // GTID模式,ack的位点必须是事务结尾,因为下一次订阅的时候mysql会发送这个gtid之后的next,如果在事务头就记录了会丢这最后一个事务
+            if ((CanalEntry.EntryType.TRANSACTIONBEGIN == event.getEntryType() && StringUtils.isEmpty(event.getGtid()))
+                || CanalEntry.EntryType.TRANSACTIONEND == event.getEntryType() || isDdl(event.getEventType())) {
+                // 将事务头/尾设置可被为ack的点
+                range.setAck(CanalEventUtils.createPosition(event));
+                break;
+            }
+        }
+
+        if (!getSequence.compareAndSet(current, end)) {
+            return null;
+        }
+        if (end > current) {
+            // 登记为未ack的批次
+            inflight.put(end, current);
+        }
+
+        getMemSize.addAndGet(memsize);
+        signalWaiters();
+        profiling(result.getEvents(), OP.GET);
+        return result;
+    }
+
+    public LogPosition getFirstPosition() throws CanalStoreException {
+        long firstSeqeuence = ackSequence.get();
+        long latestSequence = putSequence.get();
+        if (firstSeqeuence == INIT_SEQUENCE && firstSeqeuence < latestSequence) {
+            // 没有ack过数据
+            Event event = entries[getIndex(firstSeqeuence + 1)]; // 最后一次ack为-1，需要移动到下一条,included
+                                                                 // = false
+            return CanalEventUtils.createPosition(event, false);
+        } else if (firstSeqeuence > INIT_SEQUENCE && firstSeqeuence < latestSequence) {
+            // ack未追上put操作
+            Event event = entries[getIndex(firstSeqeuence)]; // 最后一次ack的位置数据,需要移动到下一条,included
+            // = false
+            return CanalEventUtils.createPosition(event, false);
+        } else if (firstSeqeuence > INIT_SEQUENCE && firstSeqeuence == latestSequence) {
+            // 已经追上，store中没有数据
+            Event event = entries[getIndex(firstSeqeuence)]; // 最后一次ack的位置数据，和last为同一条，included
+                                                             // = false
+            return CanalEventUtils.createPosition(event, false);
+        } else {
+            // 没有任何数据
+            return null;
+        }
+    }
+
+    public LogPosition getLatestPosition() throws CanalStoreException {
+        long latestSequence = putSequence.get();
+        if (latestSequence > INIT_SEQUENCE && latestSequence != ackSequence.get()) {
+            Event event = entries[getIndex(latestSequence)]; // 最后一次写入的数据，最后一条未消费的数据
+            return CanalEventUtils.createPosition(event, true);
+        } else if (latestSequence > INIT_SEQUENCE && latestSequence == ackSequence.get()) {
+            // ack已经追上了put操作
+            Event event = entries[getIndex(latestSequence)]; // 最后一次写入的数据，included
+                                                             // = false
+            return CanalEventUtils.createPosition(event, false);
+        } else {
+            // 没有任何数据
+            return null;
+        }
+    }
+
+    public void ack(Position position) throws CanalStoreException {
+        cleanUntil(position, -1L);
+    }
+
+    public void ack(Position position, Long seqId) throws CanalStoreException {
+        cleanUntil(position, seqId);
+    }
+
+    @Override
+    public void cleanUntil(Position position) throws CanalStoreException {
+        cleanUntil(position, -1L);
+    }
+
+    public void cleanUntil(Position position, Long seqId) throws CanalStoreException {
+        synchronized (ackLock) {
+            long sequence = ackSequence.get();
+            long maxSequence = getSequence.get();
+            long matched = INIT_SEQUENCE;
+            if (seqId > 0) {
+                if (seqId > sequence && seqId <= maxSequence
+                    && CanalEventUtils.checkPosition(entries[getIndex(seqId)], (LogPosition) position)) {
+                    matched = seqId;
+                }
+            } else {
+                for (long next = sequence + 1; next <= maxSequence; next++) {
+                    if (CanalEventUtils.checkPosition(entries[getIndex(next)], (LogPosition) position)) {
+                        matched = next;
+                        break;
+                    }
+                }
+            }
+
+            if (matched == INIT_SEQUENCE) {
+                // 找不到对应需要ack的position
+                throw new CanalStoreException("no match ack position" + position.toString());
+            }
+
+            // 指定seqId时只确认包含该位置的批次，按position ack时确认之前的所有批次
+            for (Map.Entry<Long, Long> batch : inflight.entrySet()) {
+                long start = batch.getValue();
+                if (start >= matched) {
+                    break;
+                }
+                if (seqId > 0 && batch.getKey() < matched) {
+                    continue;
+                }
+
+                inflight.remove(batch.getKey());
+                if (batch.getKey() > matched) {
+                    // 只ack了批次的一部分，剩余部分继续等待ack
+                    inflight.put(batch.getKey(), matched);
+                }
+                if (seqId > 0) {
+                    break;
+                }
+            }
+
+            ackedSequence = Math.max(ackedSequence, matched);
+            tryReclaim();
+        }
+    }
+
+    /**
+     * 回收到最早一个未ack批次之前，需要持有ackLock
+     */
+    private void tryReclaim() {
+        // 先设置标记再检查，与doGet中先登记再检查标记配合，保证不会漏掉回收
+        reclaimPending = true;
+        if (registering.get() > 0) {
+            // 存在正在读取槽位或还未登记批次的get操作，由其结束之后再回收
+            return;
+        }
+        reclaimPending = false;
+
+        long sequence = ackSequence.get();
+        long reclaimSequence = ackedSequence;
+        Map.Entry<Long, Long> first = inflight.firstEntry();
+        if (first != null && first.getValue() < reclaimSequence) {
+            reclaimSequence = first.getValue();
+        }
+        if (reclaimSequence > sequence) {
+            reclaim(sequence, reclaimSequence);
+        }
+    }
+
+    /**
+     * 释放(sequence, end]之间的数据，先清理再发布ackSequence，发布之后生产者随时可能覆盖这些位置
+     */
+    private void reclaim(long sequence, long end) {
+        long memsize = 0;
+        long localExecTime = 0L;
+        int deltaRows = 0;
+        for (long next = sequence + 1; next <= end; next++) {
+            Event event = entries[getIndex(next)];
+            if (localExecTime == 0 && event.getExecuteTime() > 0) {
+                localExecTime = event.getExecuteTime();
+            }
+            deltaRows += event.getRowsCount();
+            memsize += calculateSize(event);
+        }
+
+        if (batchMode.isMemSize()) {
+            // 尝试清空buffer中的内存，将ack之前的内存全部释放掉
+            for (long index = sequence + 1; index < end; index++) {
+                entries[getIndex(index)] = null;// 设置为null
+            }
+
+            // 考虑getFirstPosition/getLastPosition会获取最后一次ack的position信息
+            // ack清理的时候只处理entry=null，释放内存
+            Event lastEvent = entries[getIndex(end)];
+            lastEvent.setEntry(null);
+            lastEvent.setRawEntry(null);
+            ackMemSize.addAndGet(memsize);
+        }
+
+        // volatile写，生产者看到新的ackSequence时之前的清理一定已经完成
+        ackSequence.set(end);
+        ackTableRows.addAndGet(deltaRows);
+        if (localExecTime > 0) {
+            ackExecTime.lazySet(localExecTime);
+        }
+        signalWaiters();
+    }
+
+    public void rollback() throws CanalStoreException {
+        synchronized (ackLock) {
+            // 已ack但之前还有未ack批次的数据也会重新投递
+            inflight.clear();
+            ackedSequence = ackSequence.get();
+            getSequence.set(ackSequence.get());
+            getMemSize.set(ackMemSize.get());
+        }
+        signalWaiters();
+    }
+
+    public void cleanAll() throws CanalStoreException {
+        claimSequence.set(INIT_SEQUENCE);
+        putSequence.set(INIT_SEQUENCE);
+        getSequence.set(INIT_SEQUENCE);
+        ackSequence.set(INIT_SEQUENCE);
+        synchronized (ackLock) {
+            inflight.clear();
+            ackedSequence = INIT_SEQUENCE;
+        }
+
+        putMemSize.set(0);
+        getMemSize.set(0);
+        ackMemSize.set(0);
+        entries = null;
+        signalWaiters();
+    }
+
+    // =================== helper method =================
+
+    /**
+     * 按照waitStrategy等待barrier满足，timed为false代表一直等待，超时返回false
+     */
+    private boolean await(Barrier barrier, boolean timed, long deadline) throws InterruptedException {
+        int counter = 0;
+        while (!barrier.isAvailable()) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            long nanos = Long.MAX_VALUE;
+            if (timed) {
+                nanos = deadline - System.nanoTime();
+                if (nanos <= 0) {
+                    return false;
+                }
+            }
+
+            switch (waitStrategy) {
+                case BLOCKING:
+                    block(barrier, nanos);
+                    break;
+                case SLEEPING:
+                    if (counter < SPIN_TRIES) {
+                        counter++;
+                    } else if (counter < SPIN_TRIES + YIELD_TRIES) {
+                        counter++;
+                        Thread.yield();
+                    } else {
+                        LockSupport.parkNanos(Math.min(nanos, SLEEP_NANOS));
+                    }
+                    break;
+                case YIELDING:
+                    if (counter < SPIN_TRIES) {
+                        counter++;
+                    } else {
+                        Thread.yield();
+                    }
+                    break;
+                default:
+                    // busy spin
+                    break;
+            }
+        }
+        return true;
+    }
+
+    private void block(Barrier barrier, long nanos) throws InterruptedException {
+        waiters.incrementAndGet();
+        try {
+            final ReentrantLock lock = this.lock;
+            lock.lockInterruptibly();
+            try {
+                // 持有锁之后再检查一次，避免丢失唤醒信号
+                if (!barrier.isAvailable()) {
+                    if (nanos == Long.MAX_VALUE) {
+                        changed.await();
+                    } else {
+                        changed.awaitNanos(nanos);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * 只有BLOCKING模式并且存在等待线程时才需要加锁唤醒
+     */
+    private void signalWaiters() {
+        if (waitStrategy.isBlocking() && waiters.get() > 0) {
+            final ReentrantLock lock = this.lock;
+            lock.lock();
+            try {
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private Barrier unGetSlot(final LogPosition startPosition, final int batchSize) {
+        return new Barrier() {
+
+            boolean isAvailable() {
+                return checkUnGetSlotAt(startPosition, batchSize);
+            }
+        };
+    }
+
+    private long getMinimumGetOrAck() {
+        long get = getSequence.get();
+        long ack = ackSequence.get();
+        return ack <= get ? ack : get;
+    }
+
+    /**
+     * 查询是否有空位
+     */
+    private boolean checkFreeSlotAt(final long sequence) {
+        final long wrapPoint = sequence - bufferSize;
+        final long minPoint = getMinimumGetOrAck();
+        if (wrapPoint > minPoint) { // 刚好追上一轮
+            return false;
+        } else {
+            // 在bufferSize模式上，再增加memSize控制
+            if (batchMode.isMemSize()) {
+                final long memsize = putMemSize.get() - ackMemSize.get();
+                if (memsize < bufferSize * bufferMemUnit) {
+                    return true;
+                } else {
+                    return false;
+                }
+            } else {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 检查是否存在需要get的数据,并且数量>=batchSize
+     */
+    private boolean checkUnGetSlotAt(LogPosition startPosition, int batchSize) {
+        if (batchMode.isItemSize()) {
+            long current = getSequence.get();
+            long maxAbleSequence = putSequence.get();
+            long next = current;
+            if (startPosition == null || !startPosition.getPostion().isIncluded()) { // 第一次订阅之后，需要包含一下start位置，防止丢失第一条记录
+                next = next + 1;// 少一条数据
+            }
+
+            if (current < maxAbleSequence && next + batchSize - 1 <= maxAbleSequence) {
+                return true;
+            } else {
+                return false;
+            }
+        } else {
+            // 处理内存大小判断
+            long currentSize = getMemSize.get();
+            long maxAbleSize = putMemSize.get();
+
+            if (maxAbleSize - currentSize >= batchSize * bufferMemUnit) {
+                return true;
+            } else {
+                return false;
+            }
+        }
+    }
+
+    private long calculateSize(Event event) {
+        // 直接返回binlog中的事件大小
+        return event.getRawLength();
+    }
+
+    private int getIndex(long sequcnce) {
+        return (int) sequcnce & indexMask;
+    }
+
+    private boolean isDdl(EventType type) {
+        return type == EventType.ALTER || type == EventType.CREATE || type == EventType.ERASE
+               || type == EventType.RENAME || type == EventType.TRUNCATE || type == EventType.CINDEX
+               || type == EventType.DINDEX;
+    }
+
+    private void profiling(List<Event> events, OP op) {
+        long localExecTime = 0L;
+        int deltaRows = 0;
+        if (events != null && !events.isEmpty()) {
+            for (Event e : events) {
+                if (localExecTime == 0 && e.getExecuteTime() > 0) {
+                    localExecTime = e.getExecuteTime();
+                }
+                deltaRows += e.getRowsCount();
+            }
+        }
+        switch (op) {
+            case PUT:
+                putTableRows.addAndGet(deltaRows);
+                if (localExecTime > 0) {
+                    putExecTime.lazySet(localExecTime);
+                }
+                break;
+            case GET:
+                getTableRows.addAndGet(deltaRows);
+                if (localExecTime > 0) {
+                    getExecTime.lazySet(localExecTime);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private enum OP {
+        PUT, GET
+    }
+
+    /**
+     * 等待条件
+     */
+    private abstract static class Barrier {
+
+        abstract boolean isAvailable();
+    }
+
+    // ================ setter / getter ==================
+    public int getBufferSize() {
+        return this.bufferSize;
+    }
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public void setBufferMemUnit(int bufferMemUnit) {
+        this.bufferMemUnit = bufferMemUnit;
+    }
+
+    public void setBatchMode(BatchMode batchMode) {
+        this.batchMode = batchMode;
+    }
+
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+    }
+
+    public void setDdlIsolation(boolean ddlIsolation) {
+        this.ddlIsolation = ddlIsolation;
+    }
+
+    public boolean isRaw() {
+        return raw;
+    }
+
+    public void setRaw(boolean raw) {
+        this.raw = raw;
+    }
+
+    public AtomicLong getPutSequence() {
+        return putSequence;
+    }
+
+    public AtomicLong getAckSequence() {
+        return ackSequence;
+    }
+
+    public AtomicLong getPutMemSize() {
+        return putMemSize;
+    }
+
+    public AtomicLong getAckMemSize() {
+        return ackMemSize;
+    }
+
+    public BatchMode getBatchMode() {
+        return batchMode;
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    public AtomicLong getPutExecTime() {
+        return putExecTime;
+    }
+
+    public AtomicLong getGetExecTime() {
+        return getExecTime;
+    }
+
+    public AtomicLong getAckExecTime() {
+        return ackExecTime;
+    }
+
+    public AtomicLong getPutTableRows() {
+        return putTableRows;
+    }
+
+    public AtomicLong getGetTableRows() {
+        return getTableRows;
+    }
+
+    public AtomicLong getAckTableRows() {
+        return ackTableRows;
+    }
+
+}
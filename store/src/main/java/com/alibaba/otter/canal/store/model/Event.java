@@ -37,6 +37,11 @@ public class Event implements Serializable {
     // ==== https://github.com/alibaba/canal/issues/1019
     private CanalEntry.Entry  entry;
 
+    // rawEntry写入direct memory之后只保留chunk、offset和长度
+    private transient OffHeapEntryPool.Chunk offHeapChunk;
+    private transient int                    offHeapOffset;
+    private transient int                    offHeapLength;
+
     public Event(){
     }
 
@@ -84,7 +89,14 @@ public class Event implements Serializable {
         this.logIdentity = logIdentity;
     }
 
+    /**
+     * offHeap模式下返回从direct memory拷贝到heap的数据，不受ack之后chunk复用的影响，已经release时返回null
+     */
     public ByteString getRawEntry() {
+        OffHeapEntryPool.Chunk chunk = offHeapChunk;
+        if (rawEntry == null && chunk != null) {
+            return chunk.read(this);
+        }
         return rawEntry;
     }
 
@@ -164,6 +176,34 @@ public class Event implements Serializable {
         this.rowsCount = rowsCount;
     }
 
+    public boolean isOffHeap() {
+        return offHeapChunk != null;
+    }
+
+    public OffHeapEntryPool.Chunk getOffHeapChunk() {
+        return offHeapChunk;
+    }
+
+    int getOffHeapOffset() {
+        return offHeapOffset;
+    }
+
+    int getOffHeapLength() {
+        return offHeapLength;
+    }
+
+    /**
+     * 切换到direct memory存储，同时释放heap中的rawEntry
+     */
+    public void setOffHeapEntry(OffHeapEntryPool.Chunk offHeapChunk, int offHeapOffset, int offHeapLength) {
+        this.offHeapChunk = offHeapChunk;
+        this.offHeapOffset = offHeapOffset;
+        this.offHeapLength = offHeapLength;
+        if (offHeapChunk != null) {
+            this.rawEntry = null;
+        }
+    }
+
     public CanalEntry.Entry getEntry() {
         return entry;
     }
@@ -0,0 +1,168 @@
+package com.alibaba.otter.canal.store.model;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * 基于direct memory的rawEntry存储池，避免大量rawEntry长时间驻留在old gen
+ *
+ * <pre>
+ * 1. 按chunkSize申请direct buffer，写入时顺序分配，每个chunk按存活的entry做引用计数
+ * 2. 引用计数归零之后chunk回收到空闲列表复用，不再重新申请direct memory
+ * 3. 申请不到空间或者单条entry超过chunkSize时返回false，调用方继续使用heap中的rawEntry
+ * 4. {@linkplain Event#getRawEntry()}在pool的锁内拷贝出heap中的ByteString，调用方可以在ack之后继续持有，
+ *    release之后event不再引用chunk，读取返回null
+ * </pre>
+ *
+ * @version 1.1.4
+ */
+public class OffHeapEntryPool {
+
+    private final int          chunkSize;
+    private final int          maxChunks;
+    private final Deque<Chunk> freeChunks = new ArrayDeque<Chunk>();
+    private Chunk              current;
+    private int                allocated;
+    private boolean            destroyed;
+
+    public OffHeapEntryPool(int chunkSize, int maxChunks){
+        this.chunkSize = chunkSize;
+        this.maxChunks = maxChunks;
+    }
+
+    /**
+     * 将event的rawEntry拷贝到direct memory中，成功之后释放heap中的rawEntry
+     */
+    public synchronized boolean write(Event event) {
+        ByteString rawEntry = event.getRawEntry();
+        if (rawEntry == null || event.isOffHeap()) {
+            return false;
+        }
+
+        int size = rawEntry.size();
+        if (size > chunkSize) {
+            return false;
+        }
+
+        if (destroyed) {
+            return false;
+        }
+
+        if (current == null || current.remaining() < size) {
+            Chunk chunk = allocate();
+            if (chunk == null) {
+                return false;
+            }
+
+            if (current != null) {
+                current.release(); // 释放pool持有的引用
+            }
+            current = chunk;
+        }
+
+        int offset = current.writeOffset;
+        ByteBuffer writer = current.buffer.duplicate();
+        writer.position(offset);
+        rawEntry.copyTo(writer);
+        current.writeOffset += size;
+        current.refCnt++;
+        event.setOffHeapEntry(current, offset, size);
+        return true;
+    }
+
+    /**
+     * 拷贝event在direct memory中的数据，与release/write互斥，避免读到被复用之后写入的数据
+     */
+    private synchronized ByteString read(Event event, Chunk chunk) {
+        if (event.getOffHeapChunk() != chunk) {
+            return null; // 已经release，chunk可能已被复用
+        }
+
+        ByteBuffer reader = chunk.buffer.duplicate();
+        reader.position(event.getOffHeapOffset());
+        reader.limit(event.getOffHeapOffset() + event.getOffHeapLength());
+        return ByteString.copyFrom(reader);
+    }
+
+    /**
+     * 释放event对应的direct memory引用
+     */
+    public synchronized void release(Event event) {
+        Chunk chunk = event.getOffHeapChunk();
+        if (chunk != null) {
+            event.setOffHeapEntry(null, 0, 0);
+            chunk.release();
+        }
+    }
+
+    /**
+     * 释放所有chunk，direct memory在buffer被gc后归还
+     */
+    public synchronized void destroy() {
+        destroyed = true;
+        freeChunks.clear();
+        current = null;
+    }
+
+    public synchronized int getAllocated() {
+        return allocated;
+    }
+
+    public synchronized int getFreeCount() {
+        return freeChunks.size();
+    }
+
+    private Chunk allocate() {
+        Chunk chunk = freeChunks.pollFirst();
+        if (chunk == null) {
+            if (allocated >= maxChunks) {
+                return null;
+            }
+            chunk = new Chunk(this, ByteBuffer.allocateDirect(chunkSize));
+            allocated++;
+        }
+
+        chunk.writeOffset = 0;
+        chunk.refCnt = 1; // pool持有一个引用，直到切换到下一个chunk
+        return chunk;
+    }
+
+    private void recycle(Chunk chunk) {
+        if (!destroyed) {
+            freeChunks.offerFirst(chunk);
+        }
+    }
+
+    /**
+     * direct memory中的一段连续空间，所有操作都在pool的锁内完成
+     */
+    public static class Chunk {
+
+        private final OffHeapEntryPool pool;
+        private final ByteBuffer       buffer;
+        private int                    writeOffset;
+        private int                    refCnt;
+
+        private Chunk(OffHeapEntryPool pool, ByteBuffer buffer){
+            this.pool = pool;
+            this.buffer = buffer;
+        }
+
+        ByteString read(Event event) {
+            return pool.read(event, this);
+        }
+
+        private int remaining() {
+            return buffer.capacity() - writeOffset;
+        }
+
+        private void release() {
+            if (--refCnt == 0) {
+                pool.recycle(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.alibaba.otter.canal.store.model;
+
+/**
+ * 无锁store在put/get条件不满足时的等待策略
+ *
+ * @version 1.1.4
+ */
+public enum WaitStrategy {
+
+    /** 基于lock/condition阻塞，只在存在等待线程时才需要加锁唤醒，cpu占用最低 */
+    BLOCKING,
+
+    /** 先自旋，再yield，最后parkNanos短暂休眠，延迟与cpu占用的折中 */
+    SLEEPING,
+
+    /** 自旋一段时间后yield */
+    YIELDING,
+
+    /** 纯自旋，延迟最低，会占满一个cpu */
+    BUSY_SPIN;
+
+    public boolean isBlocking() {
+        return this == WaitStrategy.BLOCKING;
+    }
+}
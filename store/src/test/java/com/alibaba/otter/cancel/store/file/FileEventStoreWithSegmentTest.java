@@ -0,0 +1,146 @@
+package com.alibaba.otter.cancel.store.file;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.otter.cancel.store.memory.buffer.MemoryEventStoreBase;
+import com.alibaba.otter.canal.protocol.position.LogPosition;
+import com.alibaba.otter.canal.store.file.FileEventStoreWithSegment;
+import com.alibaba.otter.canal.store.memory.MemoryEventStoreWithBuffer;
+import com.alibaba.otter.canal.store.model.BatchMode;
+import com.alibaba.otter.canal.store.model.Event;
+import com.alibaba.otter.canal.store.model.Events;
+
+public class FileEventStoreWithSegmentTest extends MemoryEventStoreBase {
+
+    private File dataDir;
+
+    @Before
+    public void setUp() {
+        dataDir = new File(System.getProperty("java.io.tmpdir"), "canal_file_store_test");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dataDir);
+    }
+
+    @Test
+    public void testPutAndGet() {
+        FileEventStoreWithSegment eventStore = newStore(BatchMode.ITEMSIZE);
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 20; i++) {
+            Event event = buildEvent("1", 1L + i, 1L + i);
+            events.add(event);
+            Assert.assertTrue(eventStore.tryPut(event));
+        }
+
+        Events<Event> result = eventStore.tryGet(null, 20);
+        Assert.assertEquals(20, result.getEvents().size());
+        for (int i = 0; i < 20; i++) {
+            Event expected = events.get(i);
+            Event actual = result.getEvents().get(i);
+            Assert.assertEquals(expected.getRawEntry(), actual.getRawEntry());
+            Assert.assertEquals(expected.getLogIdentity(), actual.getLogIdentity());
+            Assert.assertEquals(expected.getPosition(), actual.getPosition());
+            Assert.assertEquals(expected.getExecuteTime(), actual.getExecuteTime());
+            Assert.assertEquals(expected.getRawLength(), actual.getRawLength());
+        }
+        eventStore.stop();
+    }
+
+    @Test
+    public void testFullPutAndAck() {
+        FileEventStoreWithSegment eventStore = newStore(BatchMode.ITEMSIZE);
+        int count = 0;
+        while (eventStore.tryPut(buildEvent("1", 1L + count, 1L + count))) {
+            count++;
+        }
+        // 4个segment，每个segment最多8条
+        Assert.assertEquals(32, count);
+
+        Events<Event> result = eventStore.tryGet(null, 16);
+        Assert.assertEquals(16, result.getEvents().size());
+        eventStore.ack(result.getPositionRange().getEnd());
+        // 删除ack之前的segment之后可以继续写入
+        Assert.assertTrue(eventStore.tryPut(buildEvent("1", 1L + count, 1L + count)));
+        Assert.assertEquals(((LogPosition) result.getPositionRange().getEnd()).getPostion().getPosition(),
+            eventStore.getFirstPosition().getPostion().getPosition());
+
+        eventStore.rollback();
+        result = eventStore.tryGet(eventStore.getFirstPosition(), 32);
+        Assert.assertEquals(17, result.getEvents().size());
+        eventStore.stop();
+    }
+
+    @Test
+    public void testSameBatchAsBuffer() {
+        for (BatchMode batchMode : BatchMode.values()) {
+            MemoryEventStoreWithBuffer bufferStore = new MemoryEventStoreWithBuffer(batchMode);
+            bufferStore.setBufferSize(64);
+            bufferStore.start();
+            FileEventStoreWithSegment fileStore = newStore(batchMode);
+            fileStore.setMaxSegments(16);
+
+            for (int i = 0; i < 40; i++) {
+                bufferStore.tryPut(buildEvent("1", i, 1L, 256 + i * 16));
+                fileStore.tryPut(buildEvent("1", i, 1L, 256 + i * 16));
+            }
+
+            Assert.assertEquals(drain(bufferStore), drain(fileStore));
+            Assert.assertEquals(bufferStore.getFirstPosition(), fileStore.getFirstPosition());
+            Assert.assertEquals(bufferStore.getLatestPosition(), fileStore.getLatestPosition());
+            bufferStore.stop();
+            fileStore.stop();
+        }
+    }
+
+    @Test
+    public void testDestroyUnmap() throws Exception {
+        File maps = new File("/proc/self/maps");
+        if (!maps.exists()) {
+            return;
+        }
+
+        FileEventStoreWithSegment eventStore = newStore(BatchMode.ITEMSIZE);
+        for (int i = 0; i < 32; i++) {
+            eventStore.tryPut(buildEvent("1", 1L + i, 1L + i));
+        }
+        Assert.assertTrue(FileUtils.readFileToString(maps, "UTF-8").contains(dataDir.getCanonicalPath()));
+
+        // ack之后删除的segment和stop之后的所有segment都不再保留mapping
+        Events<Event> result = eventStore.tryGet(null, 16);
+        eventStore.ack(result.getPositionRange().getEnd());
+        Assert.assertEquals(3, countMappings(maps));
+        eventStore.stop();
+        Assert.assertEquals(0, countMappings(maps));
+    }
+
+    private int countMappings(File maps) throws Exception {
+        int count = 0;
+        String dir = dataDir.getCanonicalPath();
+        for (String line : FileUtils.readLines(maps, "UTF-8")) {
+            if (line.contains(dir)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private FileEventStoreWithSegment newStore(BatchMode batchMode) {
+        FileEventStoreWithSegment eventStore = new FileEventStoreWithSegment(batchMode);
+        eventStore.setDataDirByFile(dataDir);
+        eventStore.setSegmentSize(64 * 1024);
+        eventStore.setSegmentCount(8);
+        eventStore.setMaxSegments(4);
+        eventStore.start();
+        return eventStore;
+    }
+}
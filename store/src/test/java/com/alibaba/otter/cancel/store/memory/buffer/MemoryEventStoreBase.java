@@ -1,13 +1,18 @@
 package com.alibaba.otter.cancel.store.memory.buffer;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.Assert;
 
 import com.alibaba.otter.canal.protocol.CanalEntry.Entry;
 import com.alibaba.otter.canal.protocol.CanalEntry.Header;
 import com.alibaba.otter.canal.protocol.position.LogIdentity;
+import com.alibaba.otter.canal.protocol.position.Position;
+import com.alibaba.otter.canal.store.CanalEventStore;
 import com.alibaba.otter.canal.store.model.Event;
+import com.alibaba.otter.canal.store.model.Events;
 
 public class MemoryEventStoreBase {
 
@@ -46,4 +51,20 @@ public class MemoryEventStoreBase {
 
         return new Event(new LogIdentity(new InetSocketAddress(MYSQL_ADDRESS, 3306), 1234L), entry);
     }
+
+    /**
+     * 每次get 4条并ack，返回每批的start/end/ack位点，用于比较不同store的分批结果
+     */
+    protected List<Position> drain(CanalEventStore<Event> eventStore) {
+        List<Position> positions = new ArrayList<Position>();
+        Events<Event> events = eventStore.tryGet(null, 4);
+        while (!events.getEvents().isEmpty()) {
+            positions.add(events.getPositionRange().getStart());
+            positions.add(events.getPositionRange().getEnd());
+            positions.add(events.getPositionRange().getAck());
+            eventStore.ack(events.getPositionRange().getEnd());
+            events = eventStore.tryGet(null, 4);
+        }
+        return positions;
+    }
 }
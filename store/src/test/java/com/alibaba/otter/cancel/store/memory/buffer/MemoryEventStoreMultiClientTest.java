@@ -0,0 +1,176 @@
+package com.alibaba.otter.cancel.store.memory.buffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.alibaba.otter.canal.protocol.ClientIdentity;
+import com.alibaba.otter.canal.protocol.position.LogPosition;
+import com.alibaba.otter.canal.protocol.position.PositionRange;
+import com.alibaba.otter.canal.store.CanalStoreException;
+import com.alibaba.otter.canal.store.helper.CanalEventUtils;
+import com.alibaba.otter.canal.store.memory.MemoryEventStoreWithBuffer;
+import com.alibaba.otter.canal.store.model.Event;
+import com.alibaba.otter.canal.store.model.Events;
+
+/**
+ * 多client共享store测试
+ */
+public class MemoryEventStoreMultiClientTest extends MemoryEventStoreBase {
+
+    private ClientIdentity client1 = new ClientIdentity("example", (short) 1001);
+    private ClientIdentity client2 = new ClientIdentity("example", (short) 1002);
+
+    @Test
+    public void testFanOut() {
+        int bufferSize = 16;
+        MemoryEventStoreWithBuffer eventStore = new MemoryEventStoreWithBuffer();
+        eventStore.setBufferSize(bufferSize);
+        eventStore.setMultiClient(true);
+        eventStore.start();
+        eventStore.subscribe(client1, null);
+        eventStore.subscribe(client2, null);
+
+        for (int i = 0; i < bufferSize; i++) {
+            Assert.assertTrue(eventStore.tryPut(buildEvent("1", 1L + i, 1L + i)));
+        }
+        Assert.assertFalse(eventStore.tryPut(buildEvent("1", 1L + bufferSize, 1L + bufferSize)));
+
+        // 每个client都能拿到完整的数据
+        Events<Event> events1 = eventStore.tryGet(client1, null, bufferSize);
+        Events<Event> events2 = eventStore.tryGet(client2, null, bufferSize);
+        Assert.assertEquals(bufferSize, events1.getEvents().size());
+        Assert.assertEquals(bufferSize, events2.getEvents().size());
+        Assert.assertEquals(events1.getPositionRange(), events2.getPositionRange());
+        Assert.assertEquals(0, eventStore.tryGet(client1, null, bufferSize).getEvents().size());
+
+        // 只有一个client ack，数据不会被回收
+        PositionRange range = events1.getPositionRange();
+        eventStore.ack(client1, range.getEnd(), range.getEndSeq());
+        Assert.assertFalse(eventStore.tryPut(buildEvent("1", 1L + bufferSize, 1L + bufferSize)));
+
+        // rollback只影响自己的下标
+        eventStore.rollback(client2);
+        Assert.assertEquals(bufferSize, eventStore.tryGet(client2, null, bufferSize).getEvents().size());
+        Assert.assertEquals(0, eventStore.tryGet(client1, null, bufferSize).getEvents().size());
+
+        eventStore.ack(client2, range.getEnd(), range.getEndSeq());
+        Assert.assertTrue(eventStore.tryPut(buildEvent("1", 1L + bufferSize, 1L + bufferSize)));
+        eventStore.stop();
+    }
+
+    @Test
+    public void testUnsubscribe() {
+        int bufferSize = 16;
+        MemoryEventStoreWithBuffer eventStore = new MemoryEventStoreWithBuffer();
+        eventStore.setBufferSize(bufferSize);
+        eventStore.setMultiClient(true);
+        eventStore.start();
+        eventStore.subscribe(client1, null);
+        eventStore.subscribe(client2, null);
+
+        for (int i = 0; i < bufferSize; i++) {
+            Assert.assertTrue(eventStore.tryPut(buildEvent("1", 1L + i, 1L + i)));
+        }
+
+        Events<Event> events = eventStore.tryGet(client1, null, bufferSize);
+        PositionRange range = events.getPositionRange();
+        eventStore.ack(client1, range.getEnd(), range.getEndSeq());
+        Assert.assertFalse(eventStore.tryPut(buildEvent("1", 1L + bufferSize, 1L + bufferSize)));
+
+        // 慢的client取消订阅之后，按剩余client的ack回收
+        eventStore.unsubscribe(client2);
+        Assert.assertTrue(eventStore.tryPut(buildEvent("1", 1L + bufferSize, 1L + bufferSize)));
+        Assert.assertEquals(1, eventStore.tryGet(client1, null, bufferSize).getEvents().size());
+        eventStore.stop();
+    }
+
+    @Test
+    public void testSubscribeFromMetaPosition() {
+        int bufferSize = 16;
+        MemoryEventStoreWithBuffer eventStore = new MemoryEventStoreWithBuffer();
+        eventStore.setBufferSize(bufferSize);
+        eventStore.setMultiClient(true);
+        eventStore.start();
+        eventStore.subscribe(client1, null);
+
+        for (int i = 0; i < 8; i++) {
+            Assert.assertTrue(eventStore.tryPut(buildEvent("1", 1L + i, 1L + i)));
+        }
+        Events<Event> events = eventStore.tryGet(client1, null, 2);
+        eventStore.ack(client1, events.getPositionRange().getEnd(), events.getPositionRange().getEndSeq());
+
+        // 晚订阅的client从meta位点之后开始，不会从最慢client的ack位置开始
+        LogPosition position = CanalEventUtils.createPosition(buildEvent("1", 4L, 4L));
+        eventStore.subscribe(client2, position);
+        events = eventStore.tryGet(client2, null, bufferSize);
+        Assert.assertEquals(4, events.getEvents().size());
+        Assert.assertEquals(5L, events.getEvents().get(0).getPosition());
+
+        // meta位点刚好是最后一条被回收的数据
+        ClientIdentity client3 = new ClientIdentity("example", (short) 1003);
+        eventStore.subscribe(client3, CanalEventUtils.createPosition(buildEvent("1", 2L, 2L)));
+        events = eventStore.tryGet(client3, null, bufferSize);
+        Assert.assertEquals(6, events.getEvents().size());
+        Assert.assertEquals(3L, events.getEvents().get(0).getPosition());
+        eventStore.stop();
+    }
+
+    @Test
+    public void testSubscribeBeforeDataArrived() {
+        int bufferSize = 16;
+        MemoryEventStoreWithBuffer eventStore = new MemoryEventStoreWithBuffer();
+        eventStore.setBufferSize(bufferSize);
+        eventStore.setMultiClient(true);
+        eventStore.start();
+        // parser从最慢client的位点开始，meta位点较新的client需要跳过之后写入的数据
+        eventStore.subscribe(client1, CanalEventUtils.createPosition(buildEvent("1", 1L, 1L)));
+        eventStore.subscribe(client2, CanalEventUtils.createPosition(buildEvent("1", 5L, 5L)));
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(eventStore.tryPut(buildEvent("1", 2L + i, 2L + i)));
+        }
+        Assert.assertEquals(3, eventStore.tryGet(client1, null, bufferSize).getEvents().size());
+        Assert.assertEquals(0, eventStore.tryGet(client2, null, bufferSize).getEvents().size());
+
+        for (int i = 3; i < 6; i++) {
+            Assert.assertTrue(eventStore.tryPut(buildEvent("1", 2L + i, 2L + i)));
+        }
+        Events<Event> events = eventStore.tryGet(client2, null, bufferSize);
+        Assert.assertEquals(2, events.getEvents().size());
+        Assert.assertEquals(6L, events.getEvents().get(0).getPosition());
+        eventStore.stop();
+    }
+
+    @Test
+    public void testSubscribeReclaimed() {
+        int bufferSize = 16;
+        MemoryEventStoreWithBuffer eventStore = new MemoryEventStoreWithBuffer();
+        eventStore.setBufferSize(bufferSize);
+        eventStore.setMultiClient(true);
+        eventStore.start();
+        eventStore.subscribe(client1, null);
+
+        for (int i = 0; i < 8; i++) {
+            Assert.assertTrue(eventStore.tryPut(buildEvent("1", 1L + i, 1L + i)));
+        }
+        Events<Event> events = eventStore.tryGet(client1, null, 4);
+        eventStore.ack(client1, events.getPositionRange().getEnd(), events.getPositionRange().getEndSeq());
+
+        // client2的位点之后的数据已经被回收
+        try {
+            eventStore.subscribe(client2, CanalEventUtils.createPosition(buildEvent("1", 2L, 2L)));
+            Assert.fail("subscribe should fail");
+        } catch (CanalStoreException e) {
+            Assert.assertFalse(eventStore.isSubscribed(client2));
+        }
+
+        // 未订阅的client不能获取数据
+        try {
+            eventStore.tryGet(client2, null, bufferSize);
+            Assert.fail("get should fail");
+        } catch (CanalStoreException e) {
+            // expected
+        }
+        eventStore.stop();
+    }
+}
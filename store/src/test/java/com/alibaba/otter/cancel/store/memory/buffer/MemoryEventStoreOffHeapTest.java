@@ -0,0 +1,115 @@
+package com.alibaba.otter.cancel.store.memory.buffer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.alibaba.otter.canal.store.memory.MemoryEventStoreWithBuffer;
+import com.alibaba.otter.canal.store.model.BatchMode;
+import com.alibaba.otter.canal.store.model.Event;
+import com.alibaba.otter.canal.store.model.Events;
+import com.alibaba.otter.canal.store.model.OffHeapEntryPool;
+import com.google.protobuf.ByteString;
+
+/**
+ * rawEntry使用direct memory存储的测试
+ */
+public class MemoryEventStoreOffHeapTest extends MemoryEventStoreBase {
+
+    @Test
+    public void testPutGetAndRelease() {
+        for (BatchMode batchMode : BatchMode.values()) {
+            MemoryEventStoreWithBuffer eventStore = new MemoryEventStoreWithBuffer(batchMode);
+            eventStore.setBufferSize(16);
+            eventStore.setOffHeap(true);
+            eventStore.setOffHeapChunkSize(128);
+            eventStore.setOffHeapMaxChunks(4);
+            eventStore.start();
+
+            List<ByteString> expected = new ArrayList<ByteString>();
+            for (int i = 0; i < 16; i++) {
+                Event event = buildEvent("1", 1L + i, 1L + i);
+                expected.add(event.getRawEntry());
+                Assert.assertTrue(eventStore.tryPut(event));
+            }
+
+            Events<Event> events = eventStore.tryGet(null, 16);
+            Assert.assertEquals(16, events.getEvents().size());
+            for (int i = 0; i < 16; i++) {
+                Event event = events.getEvents().get(i);
+                Assert.assertEquals(expected.get(i), event.getRawEntry());
+            }
+
+            OffHeapEntryPool pool = eventStore.getOffHeapPool();
+            Assert.assertTrue(events.getEvents().get(0).isOffHeap());
+            Assert.assertEquals(0, pool.getFreeCount());
+
+            // ack之后释放direct memory，只有当前写入的chunk还被pool持有
+            eventStore.ack(events.getPositionRange().getEnd());
+            Assert.assertFalse(events.getEvents().get(0).isOffHeap());
+            Assert.assertEquals(pool.getAllocated() - 1, pool.getFreeCount());
+            eventStore.stop();
+        }
+    }
+
+    @Test
+    public void testRawEntryAfterAck() {
+        MemoryEventStoreWithBuffer eventStore = new MemoryEventStoreWithBuffer();
+        eventStore.setBufferSize(16);
+        eventStore.setOffHeap(true);
+        eventStore.setOffHeapChunkSize(128);
+        eventStore.setOffHeapMaxChunks(4);
+        eventStore.start();
+
+        List<ByteString> expected = new ArrayList<ByteString>();
+        for (int i = 0; i < 16; i++) {
+            Event event = buildEvent("1", 1L + i, 1L + i);
+            expected.add(event.getRawEntry());
+            Assert.assertTrue(eventStore.tryPut(event));
+        }
+
+        Events<Event> events = eventStore.tryGet(null, 16);
+        List<ByteString> raws = new ArrayList<ByteString>();
+        for (Event event : events.getEvents()) {
+            raws.add(event.getRawEntry());
+        }
+
+        // ack之后chunk被复用写入新的数据，之前取出的rawEntry不受影响
+        eventStore.ack(events.getPositionRange().getEnd());
+        for (int i = 0; i < 16; i++) {
+            Assert.assertTrue(eventStore.tryPut(buildEvent("2", 100L + i, 100L + i)));
+        }
+        Assert.assertTrue(eventStore.tryGet(null, 16).getEvents().get(0).isOffHeap());
+        Assert.assertEquals(expected, raws);
+        Assert.assertNull(events.getEvents().get(0).getRawEntry());
+        eventStore.stop();
+    }
+
+    @Test
+    public void testFallbackToHeap() {
+        MemoryEventStoreWithBuffer eventStore = new MemoryEventStoreWithBuffer();
+        eventStore.setBufferSize(16);
+        eventStore.setOffHeap(true);
+        eventStore.setOffHeapChunkSize(64);
+        eventStore.setOffHeapMaxChunks(1);
+        eventStore.start();
+
+        List<ByteString> expected = new ArrayList<ByteString>();
+        for (int i = 0; i < 16; i++) {
+            Event event = buildEvent("1", 1L + i, 1L + i);
+            expected.add(event.getRawEntry());
+            Assert.assertTrue(eventStore.tryPut(event));
+        }
+
+        // direct memory用完之后继续使用heap存储
+        Events<Event> events = eventStore.tryGet(null, 16);
+        Assert.assertTrue(events.getEvents().get(0).isOffHeap());
+        Assert.assertFalse(events.getEvents().get(15).isOffHeap());
+        for (int i = 0; i < 16; i++) {
+            Assert.assertEquals(expected.get(i), events.getEvents().get(i).getRawEntry());
+        }
+        eventStore.stop();
+    }
+}
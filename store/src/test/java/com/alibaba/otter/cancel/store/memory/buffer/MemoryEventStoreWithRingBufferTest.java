@@ -0,0 +1,239 @@
+package com.alibaba.otter.cancel.store.memory.buffer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.alibaba.otter.canal.protocol.CanalEntry.EventType;
+import com.alibaba.otter.canal.store.memory.MemoryEventStoreWithBuffer;
+import com.alibaba.otter.canal.store.memory.MemoryEventStoreWithRingBuffer;
+import com.alibaba.otter.canal.store.model.BatchMode;
+import com.alibaba.otter.canal.store.model.Event;
+import com.alibaba.otter.canal.store.model.Events;
+import com.alibaba.otter.canal.store.model.WaitStrategy;
+
+/**
+ * 无锁ring buffer store测试，批次结果需要和MemoryEventStoreWithBuffer保持一致
+ */
+public class MemoryEventStoreWithRingBufferTest extends MemoryEventStoreBase {
+
+    @Test
+    public void testFullPut() {
+        int bufferSize = 16;
+        MemoryEventStoreWithRingBuffer eventStore = new MemoryEventStoreWithRingBuffer();
+        eventStore.setBufferSize(bufferSize);
+        eventStore.start();
+
+        for (int i = 0; i < bufferSize; i++) {
+            Assert.assertTrue(eventStore.tryPut(buildEvent("1", 1L, 1L + i)));
+        }
+        Assert.assertFalse(eventStore.tryPut(buildEvent("1", 1L, 1L + bufferSize)));
+
+        try {
+            Assert.assertFalse(eventStore.put(buildEvent("1", 1L, 1L + bufferSize), 100L, TimeUnit.MILLISECONDS));
+        } catch (Exception e) {
+            Assert.fail(e.getMessage());
+        }
+
+        Events<Event> events = eventStore.tryGet(null, bufferSize);
+        Assert.assertEquals(bufferSize, events.getEvents().size());
+        eventStore.ack(events.getPositionRange().getEnd());
+        Assert.assertTrue(eventStore.tryPut(buildEvent("1", 1L, 1L + bufferSize)));
+        eventStore.stop();
+    }
+
+    @Test
+    public void testSameBatchAsBuffer() {
+        for (BatchMode batchMode : BatchMode.values()) {
+            for (boolean ddlIsolation : new boolean[] { false, true }) {
+                MemoryEventStoreWithBuffer bufferStore = new MemoryEventStoreWithBuffer(batchMode);
+                bufferStore.setBufferSize(64);
+                bufferStore.setDdlIsolation(ddlIsolation);
+                bufferStore.start();
+                MemoryEventStoreWithRingBuffer ringStore = new MemoryEventStoreWithRingBuffer(batchMode);
+                ringStore.setBufferSize(64);
+                ringStore.setDdlIsolation(ddlIsolation);
+                ringStore.start();
+
+                for (int i = 0; i < 40; i++) {
+                    bufferStore.tryPut(buildEvent(i));
+                    ringStore.tryPut(buildEvent(i));
+                }
+
+                Assert.assertEquals(drain(bufferStore), drain(ringStore));
+                Assert.assertEquals(bufferStore.getFirstPosition(), ringStore.getFirstPosition());
+                Assert.assertEquals(bufferStore.getLatestPosition(), ringStore.getLatestPosition());
+                bufferStore.stop();
+                ringStore.stop();
+            }
+        }
+    }
+
+    @Test
+    public void testRollback() {
+        MemoryEventStoreWithRingBuffer eventStore = new MemoryEventStoreWithRingBuffer();
+        eventStore.setBufferSize(16);
+        eventStore.start();
+        for (int i = 0; i < 10; i++) {
+            eventStore.tryPut(buildEvent("1", 1L, 1L + i));
+        }
+
+        Events<Event> first = eventStore.tryGet(null, 5);
+        eventStore.rollback();
+        Events<Event> second = eventStore.tryGet(null, 5);
+        Assert.assertEquals(first.getPositionRange(), second.getPositionRange());
+        eventStore.stop();
+    }
+
+    @Test
+    public void testMultiProducerConsumer() throws Exception {
+        for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+            doMultiProducerConsumer(waitStrategy, BatchMode.ITEMSIZE);
+        }
+    }
+
+    @Test
+    public void testMultiProducerConsumerMemSize() throws Exception {
+        // MEMSIZE模式下ack会清理数据，生产者不能覆盖其他消费者还未ack的数据，清理也不能影响新写入的数据
+        for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+            doMultiProducerConsumer(waitStrategy, BatchMode.MEMSIZE);
+        }
+    }
+
+    @Test
+    public void testManyConsumersMemSize() throws Exception {
+        // 消费者多于生产者时get竞争激烈，竞争失败的消费者读取槽位时其他消费者的ack不能清理这些槽位
+        for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+            doMultiProducerConsumer(waitStrategy, BatchMode.MEMSIZE, 1, 8);
+        }
+    }
+
+    @Test
+    public void testOutOfOrderAck() {
+        MemoryEventStoreWithRingBuffer eventStore = new MemoryEventStoreWithRingBuffer(BatchMode.MEMSIZE);
+        eventStore.setBufferSize(16);
+        eventStore.start();
+        for (int i = 0; i < 8; i++) {
+            Assert.assertTrue(eventStore.tryPut(buildEvent("1", 1L, 1L + i)));
+        }
+        Events<Event> first = eventStore.tryGet(null, 1);
+        Assert.assertEquals(8, first.getEvents().size());
+        for (int i = 8; i < 16; i++) {
+            Assert.assertTrue(eventStore.tryPut(buildEvent("1", 1L, 1L + i)));
+        }
+        Events<Event> second = eventStore.tryGet(null, 1);
+        Assert.assertEquals(8, second.getEvents().size());
+
+        // 后一个批次先ack，前一个批次的数据不能被释放
+        eventStore.ack(second.getPositionRange().getEnd(), second.getPositionRange().getEndSeq());
+        Assert.assertEquals(-1L, eventStore.getAckSequence().get());
+        Assert.assertFalse(eventStore.tryPut(buildEvent("1", 1L, 17L)));
+        for (Event event : first.getEvents()) {
+            Assert.assertNotNull(event.getRawEntry());
+        }
+
+        eventStore.ack(first.getPositionRange().getEnd(), first.getPositionRange().getEndSeq());
+        Assert.assertEquals(15L, eventStore.getAckSequence().get());
+        Assert.assertTrue(eventStore.tryPut(buildEvent("1", 1L, 17L)));
+        eventStore.stop();
+    }
+
+    private void doMultiProducerConsumer(WaitStrategy waitStrategy, BatchMode batchMode) throws Exception {
+        doMultiProducerConsumer(waitStrategy, batchMode, 3, 3);
+    }
+
+    private void doMultiProducerConsumer(WaitStrategy waitStrategy, BatchMode batchMode, final int producers,
+                                         int consumers) throws Exception {
+        final int count = 2000;
+        final MemoryEventStoreWithRingBuffer eventStore = new MemoryEventStoreWithRingBuffer(batchMode);
+        eventStore.setBufferSize(64);
+        eventStore.setBufferMemUnit(16);
+        eventStore.setWaitStrategy(waitStrategy);
+        eventStore.start();
+
+        ExecutorService executor = Executors.newFixedThreadPool(producers + consumers);
+        final CountDownLatch latch = new CountDownLatch(producers + consumers);
+        final AtomicLong received = new AtomicLong(0);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final List<Long> offsets = Collections.synchronizedList(new ArrayList<Long>());
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            executor.submit(new Runnable() {
+
+                public void run() {
+                    try {
+                        for (int i = 0; i < count; i++) {
+                            eventStore.put(buildEvent("1", producer * count + i, 1L));
+                        }
+                    } catch (InterruptedException e) {
+                        // ignore
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+
+        for (int c = 0; c < consumers; c++) {
+            executor.submit(new Runnable() {
+
+                public void run() {
+                    try {
+                        while (received.get() < producers * count) {
+                            Events<Event> events = eventStore.get(null, 10, 10L, TimeUnit.MILLISECONDS);
+                            if (events.getEvents().isEmpty()) {
+                                continue;
+                            }
+
+                            for (Event event : events.getEvents()) {
+                                // 被ack清理或覆盖的数据会丢失rawEntry或者位点重复
+                                Assert.assertNotNull(event.getRawEntry());
+                                offsets.add(event.getPosition());
+                            }
+                            received.addAndGet(events.getEvents().size());
+                            eventStore.ack(events.getPositionRange().getEnd(), events.getPositionRange().getEndSeq());
+                        }
+                    } catch (InterruptedException e) {
+                        // ignore
+                    } catch (Throwable e) {
+                        error.set(e);
+                        received.set(Long.MAX_VALUE);
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+
+        boolean finished = latch.await(60, TimeUnit.SECONDS);
+        executor.shutdownNow();
+        eventStore.stop();
+
+        Assert.assertNull(error.get());
+        Assert.assertTrue(finished);
+        Assert.assertEquals(producers * count, offsets.size());
+        Collections.sort(offsets);
+        for (int i = 0; i < offsets.size(); i++) {
+            Assert.assertEquals(Long.valueOf(i), offsets.get(i));
+        }
+    }
+
+    private Event buildEvent(int index) {
+        Event event = buildEvent("1", index, 1L, 256 + index * 16);
+        if (index % 7 == 3) {
+            event.setEventType(EventType.ALTER);
+        } else {
+            event.setEventType(EventType.INSERT);
+        }
+        return event;
+    }
+}